@@ -0,0 +1,36 @@
+#!/usr/bin/env bash
+# Compares cold start of the library app with and without the AppCDS archive.
+# Build first with: mvn -P appcds package
+#
+# Usage: scripts/startup-benchmark.sh [runs]
+
+set -euo pipefail
+
+RUNS="${1:-10}"
+JAR="target/library-app.jar"
+ARCHIVE="target/library-app.jsa"
+JAVA="${JAVA_HOME:+$JAVA_HOME/bin/}java"
+
+if [[ ! -f "$JAR" || ! -f "$ARCHIVE" ]]; then
+    echo "Missing $JAR or $ARCHIVE, run 'mvn -P appcds package' first." >&2
+    exit 1
+fi
+
+# Runs the app until its first frame is up, RUNS times, and prints the average in ms
+measure() {
+    local label="$1"
+    shift
+    local total=0
+    for ((i = 0; i < RUNS; i++)); do
+        local start end
+        start=$(date +%s%N)
+        "$JAVA" "$@" -jar "$JAR" --exit-after-startup > /dev/null
+        end=$(date +%s%N)
+        total=$((total + (end - start) / 1000000))
+    done
+    printf '%-24s %6d ms average over %d runs\n' "$label" $((total / RUNS)) "$RUNS"
+}
+
+measure "default CDS only" -Xshare:auto
+measure "no CDS" -Xshare:off
+measure "AppCDS archive" -XX:SharedArchiveFile="$ARCHIVE"
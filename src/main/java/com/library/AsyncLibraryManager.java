@@ -0,0 +1,187 @@
+package com.library;
+
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+// A non-blocking front for a LibraryManager. Lookups are answered from the in-memory
+// snapshot straight away, searches run on virtual threads, and changes are queued to a
+// single writer thread in the order they were submitted. A change's future completes once
+// its journal entry is on disk, so a caller can submit many changes without waiting for
+// each one and they share the journal's fsyncs. Without a journal it completes as soon as
+// the change is made. It fails with an IOException when the change was made but its entry
+// could not be synced, and with the exception thrown when the change itself failed.
+//
+// Futures complete on virtual threads, never on the writer or the journal's flusher.
+// Records returned are snapshots and must not be changed.
+public class AsyncLibraryManager implements AutoCloseable {
+    private static final MetricsRegistry METRICS = MetricsRegistry.global();
+    private static final LatencyHistogram WRITE_LATENCY = METRICS.histogram("async.write");
+
+    private final LibraryManager manager;
+    private final MutationJournal journal;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "library-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService callbacks = Executors.newVirtualThreadPerTaskExecutor();
+    // Changes submitted whose futures have not completed yet
+    private final Set<CompletableFuture<?>> pendingWrites = ConcurrentHashMap.newKeySet();
+    private final LongSupplier pendingWritesGauge = () -> pendingWrites.size();
+
+    public AsyncLibraryManager(LibraryManager manager) {
+        this.manager = manager;
+        this.journal = manager.getJournal();
+        METRICS.gauge("async.pendingWrites", pendingWritesGauge);
+    }
+
+    public LibraryManager getManager() {
+        return manager;
+    }
+
+    // Lookups
+
+    public CompletableFuture<Book> getBook(String bookId) {
+        try (ReadTransaction view = manager.beginRead()) {
+            return CompletableFuture.completedFuture(view.getBook(bookId));
+        }
+    }
+
+    public CompletableFuture<Member> getMember(String memberId) {
+        try (ReadTransaction view = manager.beginRead()) {
+            return CompletableFuture.completedFuture(view.getMember(memberId));
+        }
+    }
+
+    public CompletableFuture<ArrayList<BorrowRecord>> getAllBorrowRecords() {
+        try (ReadTransaction view = manager.beginRead()) {
+            return CompletableFuture.completedFuture(view.getAllBorrowRecords());
+        }
+    }
+
+    // Why a borrow would be refused, or null when the member or book does not exist. Runs
+    // off the caller's thread since the check waits for the manager's lock.
+    public CompletableFuture<CheckoutPolicy.Decision> checkCheckout(String memberId, String bookId, int days) {
+        return CompletableFuture.supplyAsync(() -> manager.checkCheckout(memberId, bookId, days), callbacks);
+    }
+
+    public CompletableFuture<ArrayList<Book>> searchBooks(String searchTerm) {
+        return CompletableFuture.supplyAsync(() -> manager.searchBooks(searchTerm), callbacks);
+    }
+
+    public CompletableFuture<SearchPage<Book>> searchBooksRanked(String searchTerm, int pageSize, String cursor) {
+        return CompletableFuture.supplyAsync(() -> manager.searchBooksRanked(searchTerm, pageSize, cursor), callbacks);
+    }
+
+    public CompletableFuture<ArrayList<Member>> searchMembers(String searchTerm) {
+        return CompletableFuture.supplyAsync(() -> manager.searchMembers(searchTerm), callbacks);
+    }
+
+    // Changes, each completing with what the LibraryManager method returned
+
+    public CompletableFuture<Boolean> addBook(Book book) {
+        return write(() -> manager.addBook(book));
+    }
+
+    public CompletableFuture<Boolean> updateBook(Book book) {
+        return write(() -> manager.updateBook(book));
+    }
+
+    public CompletableFuture<Boolean> removeBook(String bookId) {
+        return write(() -> manager.removeBook(bookId));
+    }
+
+    public CompletableFuture<Boolean> addMember(Member member) {
+        return write(() -> manager.addMember(member));
+    }
+
+    public CompletableFuture<Boolean> updateMember(Member member) {
+        return write(() -> manager.updateMember(member));
+    }
+
+    public CompletableFuture<Boolean> removeMember(String memberId) {
+        return write(() -> manager.removeMember(memberId));
+    }
+
+    public CompletableFuture<Boolean> borrowBook(String memberId, String bookId, int days) {
+        return write(() -> manager.borrowBook(memberId, bookId, days));
+    }
+
+    public CompletableFuture<Boolean> returnBook(String memberId, String bookId) {
+        return write(() -> manager.returnBook(memberId, bookId));
+    }
+
+    public CompletableFuture<Boolean> placeHold(String memberId, String bookId) {
+        return write(() -> manager.placeHold(memberId, bookId));
+    }
+
+    public CompletableFuture<Boolean> cancelHold(String memberId, String bookId) {
+        return write(() -> manager.cancelHold(memberId, bookId));
+    }
+
+    // Make the change on the writer thread, then wait for the journal off that thread: the
+    // writer goes straight on to the next change while this one's entries are synced
+    private <T> CompletableFuture<T> write(Supplier<T> change) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        long submitted = System.nanoTime();
+        pendingWrites.add(result);
+        writer.execute(() -> {
+            T value = null;
+            CompletableFuture<Void> durable;
+            try {
+                long before = journal != null ? journal.getLastAppended() : 0;
+                value = change.get();
+                // A change that wrote nothing, like a refused borrow, has no entry to wait for
+                long after = journal != null ? journal.getLastAppended() : 0;
+                durable = after > before
+                        ? journal.whenDurable(after)
+                        : CompletableFuture.completedFuture(null);
+            } catch (RuntimeException e) {
+                durable = CompletableFuture.failedFuture(e);
+            }
+            T returned = value;
+            durable.whenCompleteAsync((ignored, failure) -> finish(result, returned, failure, submitted), callbacks);
+        });
+        return result;
+    }
+
+    private <T> void finish(CompletableFuture<T> result, T value, Throwable failure, long submitted) {
+        WRITE_LATENCY.recordSince(submitted);
+        if (failure instanceof java.util.concurrent.CompletionException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        if (failure != null) {
+            result.completeExceptionally(failure);
+        } else {
+            result.complete(value);
+        }
+        pendingWrites.remove(result);
+    }
+
+    // Finish the queued changes and wait for them to be durable. The manager stays open.
+    @Override
+    public void close() {
+        METRICS.removeGauge("async.pendingWrites", pendingWritesGauge);
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.MINUTES);
+            // Every change is made by now; let the last futures complete before their
+            // executor stops taking work. A failed change is the caller's to report.
+            CompletableFuture.allOf(pendingWrites.toArray(new CompletableFuture<?>[0]))
+                    .handle((ignored, failure) -> null)
+                    .get(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("Error waiting for queued changes: " + e.getMessage());
+        }
+        callbacks.shutdown();
+    }
+}
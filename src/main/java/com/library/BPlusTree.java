@@ -0,0 +1,161 @@
+package com.library;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.function.BiConsumer;
+
+// A B+tree of string keys and values stored in a BufferPool, so a lookup or an update
+// only touches the pages on one root-to-leaf path. Deletes are lazy: entries are removed
+// from their leaf but tree pages are never merged or freed.
+//
+// A value too large to share a leaf is kept in overflow pages, and the leaf holds a
+// reference to them: a NUL, the first page, ':' and the length in bytes. Values that
+// themselves start with a NUL go to overflow pages too, so a reference is never ambiguous.
+class BPlusTree {
+    // Keys must leave room in a leaf entry for an overflow reference
+    static final int MAX_KEY_SIZE = BTreeNode.MAX_ENTRY_SIZE - 32;
+    private static final String OVERFLOW = "\u0000";
+
+    private final BufferPool pool;
+    private final int tree;
+
+    BPlusTree(BufferPool pool, int tree) {
+        this.pool = pool;
+        this.tree = tree;
+    }
+
+    String get(String key) {
+        BTreeNode leaf = findLeaf(key);
+        int index = leaf.binarySearch(key);
+        return index >= 0 ? resolve(leaf.values.get(index)) : null;
+    }
+
+    void put(String key, String value) {
+        if (BTreeNode.encodedLength(key) > MAX_KEY_SIZE) {
+            throw new IllegalArgumentException("Key too long to store: " + key);
+        }
+        BTreeNode root = pool.get(pool.getRoot(tree));
+        Split split = insert(root, key, value);
+        if (split != null) {
+            BTreeNode newRoot = pool.allocate(false);
+            newRoot.children.add(root.pageId);
+            newRoot.insertChild(0, split.separator, split.pageId);
+            pool.setRoot(tree, newRoot.pageId);
+        }
+    }
+
+    boolean remove(String key) {
+        BTreeNode leaf = findLeaf(key);
+        int index = leaf.binarySearch(key);
+        if (index < 0) {
+            return false;
+        }
+        release(leaf.values.get(index));
+        leaf.removeEntry(index);
+        pool.markDirty(leaf);
+        return true;
+    }
+
+    // Visit every entry in key order by walking the leaf chain
+    void forEach(BiConsumer<String, String> action) {
+        forEachStored((key, stored) -> action.accept(key, resolve(stored)));
+    }
+
+    ArrayList<String> keys() {
+        ArrayList<String> keys = new ArrayList<>();
+        forEachStored((key, stored) -> keys.add(key));
+        return keys;
+    }
+
+    // Entries as the leaves hold them, with overflow references unresolved
+    private void forEachStored(BiConsumer<String, String> action) {
+        BTreeNode node = pool.get(pool.getRoot(tree));
+        while (!node.leaf) {
+            node = pool.get(node.children.get(0));
+        }
+        while (true) {
+            for (int i = 0; i < node.keys.size(); i++) {
+                action.accept(node.keys.get(i), node.values.get(i));
+            }
+            if (node.next < 0) {
+                break;
+            }
+            node = pool.get(node.next);
+        }
+    }
+
+    // The value as it goes in a leaf: itself, or a reference to overflow pages holding it
+    private String store(String key, String value) {
+        if (BTreeNode.entrySize(key, value) <= BTreeNode.MAX_ENTRY_SIZE && !value.startsWith(OVERFLOW)) {
+            return value;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return OVERFLOW + pool.writeOverflow(bytes) + ":" + bytes.length;
+    }
+
+    private String resolve(String stored) {
+        if (!stored.startsWith(OVERFLOW)) {
+            return stored;
+        }
+        int colon = stored.indexOf(':');
+        int page = Integer.parseInt(stored.substring(1, colon));
+        int length = Integer.parseInt(stored.substring(colon + 1));
+        return new String(pool.readOverflow(page, length), StandardCharsets.UTF_8);
+    }
+
+    private void release(String stored) {
+        if (stored.startsWith(OVERFLOW)) {
+            pool.freeOverflow(Integer.parseInt(stored.substring(1, stored.indexOf(':'))));
+        }
+    }
+
+    private BTreeNode findLeaf(String key) {
+        BTreeNode node = pool.get(pool.getRoot(tree));
+        while (!node.leaf) {
+            node = pool.get(node.children.get(node.childIndex(key)));
+        }
+        return node;
+    }
+
+    // Insert below a node; returns the new right sibling if the node had to split
+    private Split insert(BTreeNode node, String key, String value) {
+        if (node.leaf) {
+            int index = node.binarySearch(key);
+            if (index >= 0) {
+                String old = node.values.get(index);
+                if (resolve(old).equals(value)) {
+                    return null;  // Unchanged, nothing to write
+                }
+                node.setValue(index, store(key, value));
+                release(old);
+            } else {
+                node.insertEntry(-index - 1, key, store(key, value));
+            }
+        } else {
+            int childIndex = node.childIndex(key);
+            Split split = insert(pool.get(node.children.get(childIndex)), key, value);
+            if (split == null) {
+                return null;
+            }
+            node.insertChild(childIndex, split.separator, split.pageId);
+        }
+        pool.markDirty(node);
+
+        if (!node.overflows()) {
+            return null;
+        }
+        BTreeNode sibling = pool.allocate(node.leaf);
+        String separator = node.splitInto(sibling);
+        return new Split(separator, sibling.pageId);
+    }
+
+    private static class Split {
+        final String separator;
+        final int pageId;
+
+        Split(String separator, int pageId) {
+            this.separator = separator;
+            this.pageId = pageId;
+        }
+    }
+}
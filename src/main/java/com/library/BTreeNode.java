@@ -0,0 +1,183 @@
+package com.library;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+// One page of a B+tree, decoded. Leaves hold sorted key/value pairs and link to the
+// next leaf; internal nodes hold separator keys with one more child page than keys.
+//
+// Page layout: type byte (1 = leaf), entry count (short), next leaf page (int), then
+// leaf entries as (key length, key, value length, value) or, for internal nodes,
+// the first child followed by (key length, key, child) entries. Strings are UTF-8.
+class BTreeNode {
+    static final int HEADER_SIZE = 7;
+    // Largest key plus value, small enough that a split always leaves two pages that fit
+    static final int MAX_ENTRY_SIZE = (BufferPool.PAGE_SIZE - HEADER_SIZE) / 4;
+
+    final int pageId;
+    final boolean leaf;
+    final ArrayList<String> keys = new ArrayList<>();
+    final ArrayList<String> values;      // leaves only
+    final ArrayList<Integer> children;   // internal nodes only
+    int next = -1;
+    boolean dirty;
+    private int size;
+
+    BTreeNode(int pageId, boolean leaf) {
+        this.pageId = pageId;
+        this.leaf = leaf;
+        this.values = leaf ? new ArrayList<>() : null;
+        this.children = leaf ? null : new ArrayList<>();
+        this.size = HEADER_SIZE + (leaf ? 0 : 4);
+    }
+
+    // Index of the child to follow for a key: the number of separators not greater than it
+    int childIndex(String key) {
+        int index = binarySearch(key);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    int binarySearch(String key) {
+        int low = 0;
+        int high = keys.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = keys.get(mid).compareTo(key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    void insertEntry(int index, String key, String value) {
+        keys.add(index, key);
+        values.add(index, value);
+        size += entrySize(key, value);
+    }
+
+    void setValue(int index, String value) {
+        size += encodedLength(value) - encodedLength(values.get(index));
+        values.set(index, value);
+    }
+
+    void removeEntry(int index) {
+        size -= entrySize(keys.get(index), values.get(index));
+        keys.remove(index);
+        values.remove(index);
+    }
+
+    // Add a separator and the child holding the keys from it upwards
+    void insertChild(int index, String key, int child) {
+        keys.add(index, key);
+        children.add(index + 1, child);
+        size += 2 + encodedLength(key) + 4;
+    }
+
+    boolean overflows() {
+        return size > BufferPool.PAGE_SIZE;
+    }
+
+    // Move the upper half of the entries, by size, into an empty sibling and return the
+    // key that separates the two. For internal nodes that key moves up rather than across.
+    String splitInto(BTreeNode sibling) {
+        int target = size / 2;
+        int running = HEADER_SIZE;
+        int mid = 0;
+        while (mid < keys.size() - 1 && running < target) {
+            running += leaf ? entrySize(keys.get(mid), values.get(mid)) : 2 + encodedLength(keys.get(mid)) + 4;
+            mid++;
+        }
+        mid = Math.max(mid, 1);
+
+        String separator = keys.get(mid);
+        if (leaf) {
+            while (keys.size() > mid) {
+                sibling.insertEntry(sibling.keys.size(), keys.get(mid), values.get(mid));
+                removeEntry(mid);
+            }
+            sibling.next = next;
+            next = sibling.pageId;
+        } else {
+            sibling.children.add(children.get(mid + 1));
+            for (int i = mid + 1; i < keys.size(); i++) {
+                sibling.insertChild(sibling.keys.size(), keys.get(i), children.get(i + 1));
+            }
+            while (keys.size() > mid) {
+                size -= 2 + encodedLength(keys.get(keys.size() - 1)) + 4;
+                keys.remove(keys.size() - 1);
+                children.remove(children.size() - 1);
+            }
+        }
+        return separator;
+    }
+
+    void writeTo(ByteBuffer page) {
+        page.clear();
+        page.put((byte) (leaf ? 1 : 0));
+        page.putShort((short) keys.size());
+        page.putInt(next);
+        if (leaf) {
+            for (int i = 0; i < keys.size(); i++) {
+                putString(page, keys.get(i));
+                putString(page, values.get(i));
+            }
+        } else {
+            page.putInt(children.get(0));
+            for (int i = 0; i < keys.size(); i++) {
+                putString(page, keys.get(i));
+                page.putInt(children.get(i + 1));
+            }
+        }
+    }
+
+    static BTreeNode readFrom(int pageId, ByteBuffer page) {
+        page.rewind();
+        boolean leaf = page.get() == 1;
+        int count = page.getShort() & 0xFFFF;
+        BTreeNode node = new BTreeNode(pageId, leaf);
+        node.next = page.getInt();
+        if (leaf) {
+            for (int i = 0; i < count; i++) {
+                node.insertEntry(i, getString(page), getString(page));
+            }
+        } else {
+            node.children.add(page.getInt());
+            for (int i = 0; i < count; i++) {
+                node.insertChild(i, getString(page), page.getInt());
+            }
+        }
+        return node;
+    }
+
+    static int entrySize(String key, String value) {
+        return 2 + encodedLength(key) + 2 + encodedLength(value);
+    }
+
+    static int encodedLength(String s) {
+        int length = s.length();
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                return s.getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+        return length;
+    }
+
+    private static void putString(ByteBuffer page, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        page.putShort((short) bytes.length);
+        page.put(bytes);
+    }
+
+    private static String getString(ByteBuffer page) {
+        byte[] bytes = new byte[page.getShort() & 0xFFFF];
+        page.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
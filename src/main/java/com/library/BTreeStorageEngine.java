@@ -0,0 +1,340 @@
+package com.library;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.function.Function;
+
+// Records kept in one paged file with a B+tree per record type. Values use the same
+// line formats as the text files, and each change only writes the pages it touched.
+// A change that fails throws UncheckedIOException and may leave its tree part changed, so
+// sync() fails from then on and the journal, which has the change, is kept for the next start.
+class BTreeStorageEngine implements StorageEngine {
+    private static final int BOOKS = 0;
+    private static final int MEMBERS = 1;
+    private static final int LOANS = 2;
+    private static final int HOLDS = 3;
+    private static final int POOL_PAGES = 256;
+
+    private static final MetricsRegistry METRICS = MetricsRegistry.global();
+    private static final LatencyHistogram WRITE_LATENCY = METRICS.histogram("storage.write");
+    private static final Counter STORAGE_ERRORS = METRICS.counter("storage.errors");
+
+    private final File dataDir;
+    private final BufferPool pool;
+    private final BPlusTree books;
+    private final BPlusTree members;
+    private final BPlusTree loans;
+    private final BPlusTree holds;
+    // Set once a change could not be applied to its tree
+    private String failedChange;
+
+    private BTreeStorageEngine(File dataDir, BufferPool pool) {
+        this.dataDir = dataDir;
+        this.pool = pool;
+        this.books = new BPlusTree(pool, BOOKS);
+        this.members = new BPlusTree(pool, MEMBERS);
+        this.loans = new BPlusTree(pool, LOANS);
+        this.holds = new BPlusTree(pool, HOLDS);
+    }
+
+    // Open the data file, filling a new one from the text files so switching engines keeps the data
+    static BTreeStorageEngine open(File file, FileUtility textFiles) throws IOException {
+        BufferPool pool = new BufferPool(file, 4, POOL_PAGES);
+        BTreeStorageEngine engine = new BTreeStorageEngine(file.getParentFile(), pool);
+        // The import is one flush, so a crash part way leaves an empty file that is imported again
+        if (pool.isNew()) {
+            try {
+                engine.importFrom(new TextStorageEngine(textFiles));
+            } catch (UncheckedIOException e) {
+                // Nothing was written; drop the file so the next start tries the import again
+                pool.close();
+                file.delete();
+                new File(file.getPath() + BufferPool.WAL_SUFFIX).delete();
+                throw e.getCause();
+            }
+        }
+        return engine;
+    }
+
+    // Everything is read before anything is written, so a source that fails to load leaves
+    // the new file empty rather than holding part of the data
+    private synchronized void importFrom(StorageEngine source) {
+        long start = System.nanoTime();
+        ArrayList<Book> sourceBooks = source.loadBooks();
+        ArrayList<Member> sourceMembers = source.loadMembers();
+        ArrayList<BorrowRecord> sourceLoans = source.loadBorrowRecords();
+        ArrayList<Hold> sourceHolds = source.loadHolds();
+        try {
+            for (Book book : sourceBooks) {
+                books.put(book.getId(), FileUtility.formatBook(book));
+            }
+            for (Member member : sourceMembers) {
+                members.put(member.getId(), FileUtility.formatMember(member));
+            }
+            for (BorrowRecord record : sourceLoans) {
+                loans.put(loanKey(record), FileUtility.formatBorrowRecord(record));
+            }
+            for (Hold hold : sourceHolds) {
+                holds.put(holdKey(hold), FileUtility.formatHold(hold));
+            }
+        } catch (RuntimeException e) {
+            throw failed("importing text files", e);
+        }
+        commit(start);
+    }
+
+    @Override
+    public synchronized ArrayList<Book> loadBooks() {
+        return load(books, "books", FileUtility::parseBook);
+    }
+
+    @Override
+    public synchronized ArrayList<Member> loadMembers() {
+        return load(members, "members", FileUtility::parseMember);
+    }
+
+    @Override
+    public synchronized ArrayList<BorrowRecord> loadBorrowRecords() {
+        return load(loans, "borrow records", FileUtility::parseBorrowRecord);
+    }
+
+    // Hold keys start with the time the hold was placed, so key order is queue order
+    @Override
+    public synchronized ArrayList<Hold> loadHolds() {
+        return load(holds, "holds", FileUtility::parseHold);
+    }
+
+    // Every record of a tree; one that cannot be read or parsed fails the load, as a
+    // partial list would be taken for the whole store
+    private static <T> ArrayList<T> load(BPlusTree tree, String what, Function<String, T> parser) {
+        ArrayList<T> result = new ArrayList<>();
+        try {
+            tree.forEach((key, line) -> {
+                T record = parser.apply(line);
+                if (record == null) {
+                    throw new IllegalArgumentException("unreadable record " + key);
+                }
+                result.add(record);
+            });
+        } catch (RuntimeException e) {
+            STORAGE_ERRORS.increment();
+            throw new UncheckedIOException(new IOException("Error loading " + what + ": " + e.getMessage(), e));
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void putBook(Book book) {
+        long start = System.nanoTime();
+        try {
+            books.put(book.getId(), FileUtility.formatBook(book));
+        } catch (RuntimeException e) {
+            throw failed("saving book " + book.getId(), e);
+        }
+        commit(start);
+    }
+
+    // Every book goes into the tree before the one flush
+    @Override
+    public synchronized void putBooks(Collection<Book> bookList) {
+        long start = System.nanoTime();
+        try {
+            for (Book book : bookList) {
+                books.put(book.getId(), FileUtility.formatBook(book));
+            }
+        } catch (RuntimeException e) {
+            throw failed("saving books", e);
+        }
+        commit(start);
+    }
+
+    @Override
+    public synchronized void removeBook(String bookId) {
+        long start = System.nanoTime();
+        try {
+            books.remove(bookId);
+        } catch (RuntimeException e) {
+            throw failed("removing book " + bookId, e);
+        }
+        commit(start);
+    }
+
+    @Override
+    public synchronized void putMember(Member member) {
+        long start = System.nanoTime();
+        try {
+            members.put(member.getId(), FileUtility.formatMember(member));
+        } catch (RuntimeException e) {
+            throw failed("saving member " + member.getId(), e);
+        }
+        commit(start);
+    }
+
+    @Override
+    public synchronized void putMembers(Collection<Member> memberList) {
+        long start = System.nanoTime();
+        try {
+            for (Member member : memberList) {
+                members.put(member.getId(), FileUtility.formatMember(member));
+            }
+        } catch (RuntimeException e) {
+            throw failed("saving members", e);
+        }
+        commit(start);
+    }
+
+    @Override
+    public synchronized void removeMember(String memberId) {
+        long start = System.nanoTime();
+        try {
+            members.remove(memberId);
+        } catch (RuntimeException e) {
+            throw failed("removing member " + memberId, e);
+        }
+        commit(start);
+    }
+
+    @Override
+    public synchronized void putBorrowRecord(BorrowRecord record) {
+        long start = System.nanoTime();
+        try {
+            loans.put(loanKey(record), FileUtility.formatBorrowRecord(record));
+        } catch (RuntimeException e) {
+            throw failed("saving borrow record", e);
+        }
+        commit(start);
+    }
+
+    @Override
+    public synchronized void removeBorrowRecord(BorrowRecord record) {
+        long start = System.nanoTime();
+        try {
+            loans.remove(loanKey(record));
+        } catch (RuntimeException e) {
+            throw failed("removing borrow record", e);
+        }
+        commit(start);
+    }
+
+    @Override
+    public synchronized void updateBorrowRecords(Collection<BorrowRecord> removed, Collection<BorrowRecord> added) {
+        long start = System.nanoTime();
+        try {
+            for (BorrowRecord record : removed) {
+                loans.remove(loanKey(record));
+            }
+            for (BorrowRecord record : added) {
+                loans.put(loanKey(record), FileUtility.formatBorrowRecord(record));
+            }
+        } catch (RuntimeException e) {
+            throw failed("saving borrow records", e);
+        }
+        commit(start);
+    }
+
+    @Override
+    public synchronized void saveBorrowRecords(ArrayList<BorrowRecord> records) {
+        long start = System.nanoTime();
+        try {
+            HashMap<String, String> wanted = new HashMap<>();
+            for (BorrowRecord record : records) {
+                wanted.put(loanKey(record), FileUtility.formatBorrowRecord(record));
+            }
+            replaceAll(loans, wanted);
+        } catch (RuntimeException e) {
+            throw failed("saving borrow records", e);
+        }
+        commit(start);
+    }
+
+    @Override
+    public synchronized void saveHolds(ArrayList<Hold> holdList) {
+        long start = System.nanoTime();
+        try {
+            HashMap<String, String> wanted = new HashMap<>();
+            for (Hold hold : holdList) {
+                wanted.put(holdKey(hold), FileUtility.formatHold(hold));
+            }
+            replaceAll(holds, wanted);
+        } catch (RuntimeException e) {
+            throw failed("saving holds", e);
+        }
+        commit(start);
+    }
+
+    // Each change is flushed as it is made; this writes again any that failed to. A change
+    // that never made it into its tree cannot be written again from here.
+    @Override
+    public synchronized void sync() {
+        if (failedChange != null) {
+            throw new UncheckedIOException(new IOException("Error writing data file: " + failedChange + " failed"));
+        }
+        try {
+            pool.flush();
+        } catch (RuntimeException e) {
+            STORAGE_ERRORS.increment();
+            throw new UncheckedIOException(new IOException("Error writing data file: " + e.getMessage(), e));
+        }
+    }
+
+    @Override
+    public File getDataDir() {
+        return dataDir;
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            pool.close();
+        } catch (IOException | RuntimeException e) {
+            STORAGE_ERRORS.increment();
+            System.err.println("Error closing data file: " + e.getMessage());
+        }
+    }
+
+    // Make a tree hold exactly the given entries, only writing the ones that differ
+    private static void replaceAll(BPlusTree tree, HashMap<String, String> wanted) {
+        for (String key : tree.keys()) {
+            if (!wanted.containsKey(key)) {
+                tree.remove(key);
+            }
+        }
+        for (String key : wanted.keySet()) {
+            tree.put(key, wanted.get(key));
+        }
+    }
+
+    // A copy can only be on loan once, so book and copy identify a loan; the member
+    // keeps loans apart when the copy is not known
+    private static String loanKey(BorrowRecord record) {
+        return record.getBookId() + "|" + (record.getCopyIndex() + 1) + "|" + record.getMemberId();
+    }
+
+    private static String holdKey(Hold hold) {
+        return String.format("%019d", hold.getPlacedMillis()) + "|" + hold.getBookId() + "|" + hold.getMemberId();
+    }
+
+    // The pages stay dirty when the flush fails, so sync() writes them again
+    private void commit(long start) {
+        try {
+            pool.flush();
+        } catch (RuntimeException e) {
+            STORAGE_ERRORS.increment();
+            throw new UncheckedIOException(new IOException("Error writing data file: " + e.getMessage(), e));
+        } finally {
+            WRITE_LATENCY.recordSince(start);
+        }
+    }
+
+    private UncheckedIOException failed(String action, RuntimeException e) {
+        STORAGE_ERRORS.increment();
+        if (failedChange == null) {
+            failedChange = action;
+        }
+        return new UncheckedIOException(new IOException("Error " + action + ": " + e.getMessage(), e));
+    }
+}
@@ -0,0 +1,349 @@
+package com.library;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// A small LZ4-style compressor for the data files and journal. Text records repeat a lot
+// (authors, categories, dates, ids that share a prefix), and matching those repeats against
+// the last 64 KB of input shrinks a catalogue several times over while decompressing at
+// close to memory speed.
+//
+// A compressed block is a series of sequences: a token byte whose high nibble is the number
+// of literal bytes and low nibble the match length less 4 (15 meaning more length bytes
+// follow, each 255 meaning more again), the literals, then a 2-byte little-endian offset back
+// to the match. The last sequence is literals only.
+//
+// Files are a magic number then blocks of up to 64 KB, each an int raw length and an int
+// stored length (high bit set when the block is stored as is), ending with a raw length of 0.
+final class BlockCodec {
+    static final int BLOCK_SIZE = 64 * 1024;
+    private static final byte[] MAGIC = {'L', 'Z', 'B', 1};
+    private static final int STORED = 0x80000000;
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 65535;
+    // Matches must leave this many literals at the end, and start this far before it
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int HASH_LOG = 13;
+
+    private BlockCodec() {
+    }
+
+    // Whether -Dlibrary.compress (--compress) asks for new files and journal entries to be compressed
+    static boolean isEnabled() {
+        return Boolean.getBoolean("library.compress");
+    }
+
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    // Compress src[srcOff, srcOff + srcLen) into dst at dstOff, which must have room for
+    // maxCompressedLength(srcLen) bytes; returns the compressed length
+    static int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+        int srcEnd = srcOff + srcLen;
+        int matchEnd = srcEnd - LAST_LITERALS;
+        int searchEnd = srcEnd - MATCH_FIND_LIMIT;
+        // Last position seen for each hash of 4 bytes, plus one so that 0 means none
+        int[] table = new int[1 << HASH_LOG];
+        int anchor = srcOff;
+        int p = srcOff;
+        int d = dstOff;
+        int misses = 0;
+
+        while (p < searchEnd) {
+            int sequence = readInt(src, p);
+            int hash = (sequence * -1640531535) >>> (32 - HASH_LOG);
+            int ref = table[hash] - 1;
+            table[hash] = p + 1;
+            if (ref < srcOff || p - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                // Step faster through data that does not compress
+                p += 1 + (misses++ >>> 6);
+                continue;
+            }
+            misses = 0;
+            while (p > anchor && ref > srcOff && src[p - 1] == src[ref - 1]) {
+                p--;
+                ref--;
+            }
+            int length = MIN_MATCH;
+            while (p + length < matchEnd && src[p + length] == src[ref + length]) {
+                length++;
+            }
+            d = writeSequence(src, anchor, p - anchor, p - ref, length, dst, d);
+            p += length;
+            anchor = p;
+        }
+
+        int literals = srcEnd - anchor;
+        dst[d++] = (byte) (Math.min(literals, 15) << 4);
+        d = writeLength(literals, dst, d);
+        System.arraycopy(src, anchor, dst, d, literals);
+        return d + literals - dstOff;
+    }
+
+    private static int writeSequence(byte[] src, int literalStart, int literals, int offset, int matchLength,
+                                     byte[] dst, int d) {
+        int extra = matchLength - MIN_MATCH;
+        dst[d++] = (byte) ((Math.min(literals, 15) << 4) | Math.min(extra, 15));
+        d = writeLength(literals, dst, d);
+        System.arraycopy(src, literalStart, dst, d, literals);
+        d += literals;
+        dst[d++] = (byte) offset;
+        dst[d++] = (byte) (offset >>> 8);
+        return writeLength(extra, dst, d);
+    }
+
+    // The part of a length beyond the 15 its nibble holds
+    private static int writeLength(int length, byte[] dst, int d) {
+        if (length >= 15) {
+            int rest = length - 15;
+            while (rest >= 255) {
+                dst[d++] = (byte) 255;
+                rest -= 255;
+            }
+            dst[d++] = (byte) rest;
+        }
+        return d;
+    }
+
+    // Decompress exactly dstLen bytes; damaged input is reported rather than read past
+    static void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen) throws IOException {
+        int s = srcOff;
+        int srcEnd = srcOff + srcLen;
+        int d = dstOff;
+        int dstEnd = dstOff + dstLen;
+        while (true) {
+            if (s >= srcEnd) {
+                throw corrupt();
+            }
+            int token = src[s++] & 0xff;
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int b;
+                do {
+                    if (s >= srcEnd) {
+                        throw corrupt();
+                    }
+                    b = src[s++] & 0xff;
+                    literals += b;
+                } while (b == 255);
+            }
+            if (literals > srcEnd - s || literals > dstEnd - d) {
+                throw corrupt();
+            }
+            System.arraycopy(src, s, dst, d, literals);
+            s += literals;
+            d += literals;
+            if (s == srcEnd) {
+                break;
+            }
+
+            if (srcEnd - s < 2) {
+                throw corrupt();
+            }
+            int offset = (src[s] & 0xff) | (src[s + 1] & 0xff) << 8;
+            s += 2;
+            int length = token & 15;
+            if (length == 15) {
+                int b;
+                do {
+                    if (s >= srcEnd) {
+                        throw corrupt();
+                    }
+                    b = src[s++] & 0xff;
+                    length += b;
+                } while (b == 255);
+            }
+            length += MIN_MATCH;
+            if (offset == 0 || offset > d - dstOff || length > dstEnd - d) {
+                throw corrupt();
+            }
+            int match = d - offset;
+            if (offset >= length) {
+                System.arraycopy(dst, match, dst, d, length);
+            } else {
+                // The match overlaps what it writes, repeating a short run
+                for (int i = 0; i < length; i++) {
+                    dst[d + i] = dst[match + i];
+                }
+            }
+            d += length;
+        }
+        if (d != dstEnd) {
+            throw corrupt();
+        }
+    }
+
+    private static IOException corrupt() {
+        return new IOException("Corrupt compressed block");
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+    }
+
+    // A compressed file reads back through decompress(), a plain one as it is
+    static InputStream open(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, BLOCK_SIZE);
+        buffered.mark(MAGIC.length);
+        byte[] head = buffered.readNBytes(MAGIC.length);
+        buffered.reset();
+        if (java.util.Arrays.equals(head, MAGIC)) {
+            buffered.skipNBytes(MAGIC.length);
+            return new DecompressingInputStream(buffered);
+        }
+        return buffered;
+    }
+
+    // Writes a compressed file, one block at a time
+    static final class CompressingOutputStream extends FilterOutputStream {
+        private final DataOutputStream data;
+        private final byte[] block = new byte[BLOCK_SIZE];
+        private final byte[] compressed = new byte[maxCompressedLength(BLOCK_SIZE)];
+        private int count;
+
+        CompressingOutputStream(OutputStream out) throws IOException {
+            super(out);
+            data = new DataOutputStream(out);
+            data.write(MAGIC);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == BLOCK_SIZE) {
+                writeBlock();
+            }
+            block[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == BLOCK_SIZE) {
+                    writeBlock();
+                }
+                int n = Math.min(len, BLOCK_SIZE - count);
+                System.arraycopy(b, off, block, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void writeBlock() throws IOException {
+            if (count == 0) {
+                return;
+            }
+            int length = compress(block, 0, count, compressed, 0);
+            data.writeInt(count);
+            if (length < count) {
+                data.writeInt(length);
+                data.write(compressed, 0, length);
+            } else {
+                data.writeInt(count | STORED);
+                data.write(block, 0, count);
+            }
+            count = 0;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writeBlock();
+            data.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                writeBlock();
+                data.writeInt(0);
+                data.flush();
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    // Reads a compressed file, decompressing a block at a time as it is consumed
+    static final class DecompressingInputStream extends InputStream {
+        private final DataInputStream data;
+        private byte[] block = new byte[BLOCK_SIZE];
+        private byte[] compressed = new byte[maxCompressedLength(BLOCK_SIZE)];
+        private int position;
+        private int limit;
+        private boolean finished;
+
+        DecompressingInputStream(InputStream in) {
+            data = new DataInputStream(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == limit && !nextBlock()) {
+                return -1;
+            }
+            return block[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position == limit && !nextBlock()) {
+                return -1;
+            }
+            int n = Math.min(len, limit - position);
+            System.arraycopy(block, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        private boolean nextBlock() throws IOException {
+            while (!finished) {
+                int raw;
+                try {
+                    raw = data.readInt();
+                } catch (EOFException e) {
+                    throw new IOException("Compressed file ends without its last block");
+                }
+                if (raw == 0) {
+                    finished = true;
+                    return false;
+                }
+                int stored = data.readInt();
+                int length = stored & ~STORED;
+                if (raw < 0 || raw > 1 << 24 || length > maxCompressedLength(raw)) {
+                    throw corrupt();
+                }
+                if (block.length < raw) {
+                    block = new byte[raw];
+                    compressed = new byte[maxCompressedLength(raw)];
+                }
+                if ((stored & STORED) != 0) {
+                    data.readFully(block, 0, raw);
+                } else {
+                    data.readFully(compressed, 0, length);
+                    decompress(compressed, 0, length, block, 0, raw);
+                }
+                position = 0;
+                limit = raw;
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            data.close();
+        }
+    }
+}
@@ -5,14 +5,18 @@ class Book {
     private String title;
     private String author;
     private String category;
-    private int availableQuantity;
+    private BookCopies copies;
 
     public Book(String id, String title, String author, String category, int availableQuantity) {
+        this(id, title, author, category, new BookCopies(availableQuantity));
+    }
+
+    public Book(String id, String title, String author, String category, BookCopies copies) {
         this.id = id;
         this.title = title;
         this.author = author;
         this.category = category;
-        this.availableQuantity = availableQuantity;
+        this.copies = copies;
     }
 
     // Getters and setters
@@ -48,11 +52,28 @@ class Book {
         this.category = category;
     }
 
+    // Availability is derived from the copies on the shelf
     public int getAvailableQuantity() {
-        return availableQuantity;
+        return copies.getAvailableCount();
+    }
+
+    public int getTotalQuantity() {
+        return copies.getTotalCount();
+    }
+
+    public BookCopies getCopies() {
+        return copies;
+    }
+
+    public void setCopies(BookCopies copies) {
+        this.copies = copies;
     }
 
-    public void setAvailableQuantity(int availableQuantity) {
-        this.availableQuantity = availableQuantity;
+    // Whether the id, title, author or category contains the term, given in lower case
+    public boolean containsText(String lowerTerm) {
+        return getId().toLowerCase().contains(lowerTerm) ||
+                getTitle().toLowerCase().contains(lowerTerm) ||
+                getAuthor().toLowerCase().contains(lowerTerm) ||
+                getCategory().toLowerCase().contains(lowerTerm);
     }
 }
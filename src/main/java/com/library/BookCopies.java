@@ -0,0 +1,198 @@
+package com.library;
+
+import java.util.Arrays;
+
+// The physical copies of one title, tracked as two bitmaps indexed by copy number:
+// "circulating" marks copies that exist, "available" marks copies on the shelf.
+// Copies that circulate but are not available are on loan or set aside for a hold.
+class BookCopies {
+    private long[] circulating;
+    private long[] available;
+
+    // A title with the given number of copies, all on the shelf
+    public BookCopies(int copyCount) {
+        circulating = new long[wordsFor(copyCount)];
+        available = new long[circulating.length];
+        for (int i = 0; i < copyCount; i++) {
+            set(circulating, i);
+            set(available, i);
+        }
+    }
+
+    private BookCopies(long[] circulating, long[] available) {
+        this.circulating = circulating;
+        this.available = available;
+    }
+
+    // An independent copy of both bitmaps
+    public BookCopies copy() {
+        return new BookCopies(circulating.clone(), available.clone());
+    }
+
+    // Barcode printed on a copy, e.g. B001-003 for the third copy of B001
+    public static String barcode(String bookId, int copyIndex) {
+        return String.format("%s-%03d", bookId, copyIndex + 1);
+    }
+
+    public int getAvailableCount() {
+        return popcount(available);
+    }
+
+    public int getTotalCount() {
+        return popcount(circulating);
+    }
+
+    public boolean isAvailable(int copyIndex) {
+        return get(available, copyIndex);
+    }
+
+    public boolean isCirculating(int copyIndex) {
+        return get(circulating, copyIndex);
+    }
+
+    // Copy numbers that circulate but are off the shelf, in ascending order
+    public int[] getCheckedOutCopies() {
+        int count = 0;
+        for (int w = 0; w < circulating.length; w++) {
+            count += Long.bitCount(circulating[w] & ~available[w]);
+        }
+        int[] copies = new int[count];
+        int n = 0;
+        for (int w = 0; w < circulating.length; w++) {
+            long out = circulating[w] & ~available[w];
+            while (out != 0) {
+                copies[n++] = w * 64 + Long.numberOfTrailingZeros(out);
+                out &= out - 1;
+            }
+        }
+        return copies;
+    }
+
+    // Take the lowest-numbered copy off the shelf; -1 if none is available
+    public int checkOut() {
+        for (int w = 0; w < available.length; w++) {
+            if (available[w] != 0) {
+                int copyIndex = w * 64 + Long.numberOfTrailingZeros(available[w]);
+                clear(available, copyIndex);
+                return copyIndex;
+            }
+        }
+        return -1;
+    }
+
+    // Take a particular copy off the shelf; false if it is not on the shelf
+    public boolean checkOut(int copyIndex) {
+        if (!get(available, copyIndex)) {
+            return false;
+        }
+        clear(available, copyIndex);
+        return true;
+    }
+
+    // Put a copy back on the shelf; false if it was not out
+    public boolean checkIn(int copyIndex) {
+        if (!get(circulating, copyIndex) || get(available, copyIndex)) {
+            return false;
+        }
+        set(available, copyIndex);
+        return true;
+    }
+
+    // Add a copy that is already out, used for loans saved before copies were tracked
+    public int addCheckedOutCopy() {
+        return addCopy(false);
+    }
+
+    // Grow or shrink the shelf to the requested number of available copies.
+    // New copies reuse retired copy numbers first; only copies on the shelf can be retired.
+    public void setAvailableCount(int count) {
+        int current = getAvailableCount();
+        for (; current < count; current++) {
+            addCopy(true);
+        }
+        for (int w = available.length - 1; w >= 0 && current > count; w--) {
+            while (available[w] != 0 && current > count) {
+                int copyIndex = w * 64 + 63 - Long.numberOfLeadingZeros(available[w]);
+                clear(available, copyIndex);
+                clear(circulating, copyIndex);
+                current--;
+            }
+        }
+    }
+
+    // Compact text form: circulating and available words in hex, e.g. "7/5"
+    public String encode() {
+        return encodeWords(circulating) + "/" + encodeWords(available);
+    }
+
+    public static BookCopies decode(String text) {
+        String[] parts = text.split("/");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Invalid copy bitmap: " + text);
+        }
+        long[] circulating = decodeWords(parts[0]);
+        long[] available = Arrays.copyOf(decodeWords(parts[1]), circulating.length);
+        return new BookCopies(circulating, available);
+    }
+
+    private int addCopy(boolean onShelf) {
+        int copyIndex = 0;
+        while (get(circulating, copyIndex)) {
+            copyIndex++;
+        }
+        if (wordsFor(copyIndex + 1) > circulating.length) {
+            circulating = Arrays.copyOf(circulating, wordsFor(copyIndex + 1));
+            available = Arrays.copyOf(available, circulating.length);
+        }
+        set(circulating, copyIndex);
+        if (onShelf) {
+            set(available, copyIndex);
+        }
+        return copyIndex;
+    }
+
+    private static int wordsFor(int bits) {
+        return Math.max(1, (bits + 63) >>> 6);
+    }
+
+    private static boolean get(long[] words, int bit) {
+        int w = bit >>> 6;
+        return w < words.length && (words[w] & (1L << bit)) != 0;
+    }
+
+    private static void set(long[] words, int bit) {
+        words[bit >>> 6] |= 1L << bit;
+    }
+
+    private static void clear(long[] words, int bit) {
+        words[bit >>> 6] &= ~(1L << bit);
+    }
+
+    private static int popcount(long[] words) {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    private static String encodeWords(long[] words) {
+        StringBuilder sb = new StringBuilder();
+        for (int w = 0; w < words.length; w++) {
+            if (w > 0) {
+                sb.append('.');
+            }
+            sb.append(Long.toHexString(words[w]));
+        }
+        return sb.toString();
+    }
+
+    private static long[] decodeWords(String text) {
+        String[] parts = text.split("\\.");
+        long[] words = new long[parts.length];
+        for (int w = 0; w < parts.length; w++) {
+            words[w] = Long.parseUnsignedLong(parts[w], 16);
+        }
+        return words;
+    }
+}
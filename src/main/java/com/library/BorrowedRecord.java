@@ -1,18 +1,23 @@
 package com.library;
 
-import java.util.Date;
-
 class BorrowRecord {
     private String memberId;
     private String bookId;
-    private Date borrowDate;
-    private Date dueDate;
+    // Dates are days since 1970-01-01, see EpochDays
+    private int borrowDay;
+    private int dueDay;
+    private int copyIndex;  // -1 when the copy is not known
+
+    public BorrowRecord(String memberId, String bookId, int borrowDay, int dueDay) {
+        this(memberId, bookId, borrowDay, dueDay, -1);
+    }
 
-    public BorrowRecord(String memberId, String bookId, Date borrowDate, Date dueDate) {
+    public BorrowRecord(String memberId, String bookId, int borrowDay, int dueDay, int copyIndex) {
         this.memberId = memberId;
         this.bookId = bookId;
-        this.borrowDate = borrowDate;
-        this.dueDate = dueDate;
+        this.borrowDay = borrowDay;
+        this.dueDay = dueDay;
+        this.copyIndex = copyIndex;
     }
 
     // Getters and setters
@@ -32,19 +37,31 @@ class BorrowRecord {
         this.bookId = bookId;
     }
 
-    public Date getBorrowDate() {
-        return borrowDate;
+    public int getBorrowDay() {
+        return borrowDay;
+    }
+
+    public void setBorrowDay(int borrowDay) {
+        this.borrowDay = borrowDay;
+    }
+
+    public int getDueDay() {
+        return dueDay;
+    }
+
+    public void setDueDay(int dueDay) {
+        this.dueDay = dueDay;
     }
 
-    public void setBorrowDate(Date borrowDate) {
-        this.borrowDate = borrowDate;
+    public int getCopyIndex() {
+        return copyIndex;
     }
 
-    public Date getDueDate() {
-        return dueDate;
+    public void setCopyIndex(int copyIndex) {
+        this.copyIndex = copyIndex;
     }
 
-    public void setDueDate(Date dueDate) {
-        this.dueDate = dueDate;
+    public String getBarcode() {
+        return copyIndex >= 0 ? BookCopies.barcode(bookId, copyIndex) : "";
     }
 }
\ No newline at end of file
@@ -0,0 +1,385 @@
+package com.library;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+// Fixed-size pages of a single file, with the most recently used ones kept decoded in memory.
+// Changed pages stay in memory until flush(), which makes them all durable at once: their
+// images go to a write-ahead log beside the file first, and only once that is on disk are
+// they written in place. A crash part way through the in-place writes, say in the middle
+// of a split, is repaired by replaying the log when the file is next opened.
+//
+// Page 0 is the file header: magic, version, page count, then the root page of each tree,
+// then the first page of the free list. Values too large for a leaf are kept in chains of
+// overflow pages, each an int next page (-1 ends it) followed by data; freed chains are
+// linked onto the free list and reused.
+//
+// Log layout: magic, page count, then each page as an int page id and its image, ending
+// with a CRC32 of everything before it. A log that does not check out was torn before any
+// page was written in place, and is ignored.
+class BufferPool {
+    static final int PAGE_SIZE = 4096;
+    static final int OVERFLOW_DATA_SIZE = PAGE_SIZE - 4;
+    static final String WAL_SUFFIX = "-wal";
+    private static final int MAGIC = 0x4C494231;  // "LIB1"
+    private static final int VERSION = 2;
+    private static final int WAL_MAGIC = 0x4C57414C;  // "LWAL"
+    // Enough that the pages on one root-to-leaf path are never evicted in the middle of an update
+    private static final int MIN_CAPACITY = 16;
+
+    private static final MetricsRegistry METRICS = MetricsRegistry.global();
+    private static final Counter PAGE_READS = METRICS.counter("storage.pageReads");
+    private static final Counter PAGE_WRITES = METRICS.counter("storage.pageWrites");
+    private static final Counter POOL_HITS = METRICS.counter("storage.bufferHits");
+    private static final Counter WAL_REPLAYS = METRICS.counter("storage.walReplays");
+
+    private final FileChannel channel;
+    private final FileChannel wal;
+    private final ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE);
+    private final int frameCapacity;
+    private final LinkedHashMap<Integer, BTreeNode> frames;
+    // Overflow and free list pages changed since the last flush
+    private final TreeMap<Integer, byte[]> dirtyRaw = new TreeMap<>();
+    private final int[] roots;
+    private int pageCount;
+    private int freeHead = -1;
+    private boolean headerDirty;
+    // Set while a logged flush is being written in place; the log must be replayed before another
+    private boolean logPending;
+    private final boolean created;
+
+    // Opens the file, creating one empty leaf per tree if it does not exist. A new file is only
+    // written by the first flush, so it is either complete or still empty after a crash.
+    BufferPool(File file, int treeCount, int capacity) throws IOException {
+        channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        wal = FileChannel.open(new File(file.getPath() + WAL_SUFFIX).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        replayLog();
+        created = channel.size() == 0;
+        frameCapacity = Math.max(capacity, MIN_CAPACITY);
+        frames = new LinkedHashMap<Integer, BTreeNode>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, BTreeNode> eldest) {
+                // Changed pages only leave through flush(), never written outside the log
+                return size() > frameCapacity && !eldest.getValue().dirty;
+            }
+        };
+        roots = new int[treeCount];
+
+        if (created) {
+            pageCount = 1;
+            for (int i = 0; i < treeCount; i++) {
+                roots[i] = allocate(true).pageId;
+            }
+            headerDirty = true;
+        } else {
+            readHeader();
+        }
+    }
+
+    // Whether the file had nothing in it when it was opened
+    boolean isNew() {
+        return created;
+    }
+
+    BTreeNode get(int pageId) {
+        BTreeNode node = frames.get(pageId);
+        if (node != null) {
+            POOL_HITS.increment();
+            return node;
+        }
+        node = readPage(pageId);
+        frames.put(pageId, node);
+        return node;
+    }
+
+    BTreeNode allocate(boolean leaf) {
+        BTreeNode node = new BTreeNode(pageCount++, leaf);
+        node.dirty = true;
+        headerDirty = true;
+        frames.put(node.pageId, node);
+        return node;
+    }
+
+    void markDirty(BTreeNode node) {
+        node.dirty = true;
+        // Put it back in case it was evicted since it was fetched
+        frames.putIfAbsent(node.pageId, node);
+    }
+
+    int getRoot(int tree) {
+        return roots[tree];
+    }
+
+    void setRoot(int tree, int pageId) {
+        roots[tree] = pageId;
+        headerDirty = true;
+    }
+
+    int getPageCount() {
+        return pageCount;
+    }
+
+    // Store bytes in a chain of overflow pages and return the first page
+    int writeOverflow(byte[] data) {
+        int first = -1;
+        byte[] previous = null;
+        for (int offset = 0; offset < data.length || first < 0; offset += OVERFLOW_DATA_SIZE) {
+            int pageId = allocateRaw();
+            byte[] page = new byte[PAGE_SIZE];
+            ByteBuffer.wrap(page).putInt(-1).put(data, offset, Math.min(OVERFLOW_DATA_SIZE, data.length - offset));
+            dirtyRaw.put(pageId, page);
+            if (previous == null) {
+                first = pageId;
+            } else {
+                ByteBuffer.wrap(previous).putInt(0, pageId);
+            }
+            previous = page;
+        }
+        return first;
+    }
+
+    byte[] readOverflow(int pageId, int length) {
+        byte[] data = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            if (pageId < 0) {
+                throw new UncheckedIOException(new IOException("Overflow chain ends early"));
+            }
+            ByteBuffer page = ByteBuffer.wrap(rawPage(pageId));
+            int next = page.getInt();
+            int n = Math.min(OVERFLOW_DATA_SIZE, length - offset);
+            page.get(data, offset, n);
+            offset += n;
+            pageId = next;
+        }
+        return data;
+    }
+
+    // Put a chain of overflow pages on the free list; its links are kept, only the last page changes
+    void freeOverflow(int pageId) {
+        int last = pageId;
+        byte[] page = rawPage(last);
+        int next;
+        while ((next = ByteBuffer.wrap(page).getInt(0)) >= 0) {
+            last = next;
+            page = rawPage(last);
+        }
+        page = page.clone();
+        ByteBuffer.wrap(page).putInt(0, freeHead);
+        dirtyRaw.put(last, page);
+        freeHead = pageId;
+        headerDirty = true;
+    }
+
+    // Make every changed page and the header durable, through the log
+    void flush() {
+        TreeMap<Integer, byte[]> images = new TreeMap<>(dirtyRaw);
+        ArrayList<BTreeNode> dirty = new ArrayList<>();
+        for (BTreeNode node : frames.values()) {
+            if (node.dirty) {
+                dirty.add(node);
+                ByteBuffer image = ByteBuffer.allocate(PAGE_SIZE);
+                node.writeTo(image);
+                images.put(node.pageId, image.array());
+            }
+        }
+        if (headerDirty) {
+            images.put(0, headerImage());
+        }
+        if (images.isEmpty()) {
+            return;
+        }
+        try {
+            if (logPending) {
+                replayLog();
+                logPending = false;
+            }
+            writeLog(images);
+            logPending = true;
+            for (Map.Entry<Integer, byte[]> image : images.entrySet()) {
+                writeFully(image.getKey(), ByteBuffer.wrap(image.getValue()));
+                PAGE_WRITES.increment();
+            }
+            channel.force(false);
+            wal.truncate(0);
+            logPending = false;
+        } catch (IOException e) {
+            // Everything stays dirty, so the next flush writes it all again
+            throw new UncheckedIOException(e);
+        }
+        for (BTreeNode node : dirty) {
+            node.dirty = false;
+        }
+        dirtyRaw.clear();
+        headerDirty = false;
+        trim();
+    }
+
+    void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            try {
+                wal.close();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    // Drop least recently used clean pages the pool kept while they were dirty
+    private void trim() {
+        Iterator<BTreeNode> it = frames.values().iterator();
+        while (frames.size() > frameCapacity && it.hasNext()) {
+            if (!it.next().dirty) {
+                it.remove();
+            }
+        }
+    }
+
+    private int allocateRaw() {
+        if (freeHead < 0) {
+            headerDirty = true;
+            return pageCount++;
+        }
+        int pageId = freeHead;
+        freeHead = ByteBuffer.wrap(rawPage(pageId)).getInt(0);
+        headerDirty = true;
+        return pageId;
+    }
+
+    private byte[] rawPage(int pageId) {
+        byte[] page = dirtyRaw.get(pageId);
+        if (page != null) {
+            return page;
+        }
+        try {
+            readFully(pageId);
+            PAGE_READS.increment();
+            return buffer.array().clone();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private BTreeNode readPage(int pageId) {
+        try {
+            readFully(pageId);
+            PAGE_READS.increment();
+            return BTreeNode.readFrom(pageId, buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeLog(TreeMap<Integer, byte[]> images) throws IOException {
+        ByteBuffer log = ByteBuffer.allocate(8 + images.size() * (4 + PAGE_SIZE) + 4);
+        log.putInt(WAL_MAGIC).putInt(images.size());
+        for (Map.Entry<Integer, byte[]> image : images.entrySet()) {
+            log.putInt(image.getKey()).put(image.getValue());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(log.array(), 0, log.position());
+        log.putInt((int) crc.getValue()).flip();
+        wal.truncate(0);
+        while (log.hasRemaining()) {
+            wal.write(log, log.position());
+        }
+        wal.force(false);
+    }
+
+    // Finish the in-place writes of a flush the process did not live to complete
+    private void replayLog() throws IOException {
+        long size = wal.size();
+        if (size < 12 || size > Integer.MAX_VALUE) {
+            wal.truncate(0);
+            return;
+        }
+        ByteBuffer log = ByteBuffer.allocate((int) size);
+        while (log.hasRemaining()) {
+            if (wal.read(log, log.position()) < 0) {
+                break;
+            }
+        }
+        log.flip();
+        int count = log.getInt(4);
+        long expected = 8L + (long) count * (4 + PAGE_SIZE) + 4;
+        CRC32 crc = new CRC32();
+        if (log.getInt(0) == WAL_MAGIC && count > 0 && expected == log.limit()) {
+            crc.update(log.array(), 0, log.limit() - 4);
+        }
+        if (expected != log.limit() || log.getInt(log.limit() - 4) != (int) crc.getValue()) {
+            wal.truncate(0);
+            return;
+        }
+        log.position(8);
+        for (int i = 0; i < count; i++) {
+            int pageId = log.getInt();
+            ByteBuffer page = log.slice(log.position(), PAGE_SIZE);
+            writeFully(pageId, page);
+            log.position(log.position() + PAGE_SIZE);
+        }
+        channel.force(false);
+        wal.truncate(0);
+        WAL_REPLAYS.increment();
+        System.err.println("Recovered " + count + " pages of an interrupted write from the data file's log.");
+    }
+
+    private void readHeader() throws IOException {
+        readFully(0);
+        int version;
+        if (buffer.getInt() != MAGIC || (version = buffer.getInt()) < 1 || version > VERSION) {
+            throw new IOException("Not a library data file");
+        }
+        pageCount = buffer.getInt();
+        if (buffer.getInt() != roots.length) {
+            throw new IOException("Unexpected number of trees in data file");
+        }
+        for (int i = 0; i < roots.length; i++) {
+            roots[i] = buffer.getInt();
+        }
+        // Version 1 files have no free list
+        freeHead = version >= 2 ? buffer.getInt() : -1;
+    }
+
+    private byte[] headerImage() {
+        ByteBuffer header = ByteBuffer.allocate(PAGE_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(pageCount).putInt(roots.length);
+        for (int root : roots) {
+            header.putInt(root);
+        }
+        header.putInt(freeHead);
+        return header.array();
+    }
+
+    private void readFully(int pageId) throws IOException {
+        buffer.clear();
+        long position = (long) pageId * PAGE_SIZE;
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Page " + pageId + " is past the end of the data file");
+            }
+        }
+        buffer.flip();
+    }
+
+    private void writeFully(int pageId, ByteBuffer page) throws IOException {
+        long position = (long) pageId * PAGE_SIZE;
+        int start = page.position();
+        while (page.hasRemaining()) {
+            channel.write(page, position + page.position() - start);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.library;
+
+// A change made through LibraryManager. The record is the live object after the change
+// (null for removals and reloads); key is the book or member id, for loans the book id.
+// The record is also captured in its storage line format when the event is created, for
+// consumers that must not read the live object later, such as replication and the tables.
+class ChangeEvent {
+    enum Type {
+        BOOK_ADDED, BOOK_UPDATED, BOOK_REMOVED,
+        MEMBER_ADDED, MEMBER_UPDATED, MEMBER_REMOVED,
+        LOAN_OPENED, LOAN_CLOSED,
+        RELOADED  // Everything may have changed, re-read from LibraryManager
+    }
+
+    private final Type type;
+    private final String key;
+    private final Object record;
+    private final String data;
+    private final long timestampMillis;
+    private long sequence = -1;
+
+    public ChangeEvent(Type type, String key, Object record) {
+        this(type, key, record, System.currentTimeMillis());
+    }
+
+    public ChangeEvent(Type type, String key, Object record, long timestampMillis) {
+        this.type = type;
+        this.key = key;
+        this.record = record;
+        this.data = encode(record);
+        this.timestampMillis = timestampMillis;
+    }
+
+    private static String encode(Object record) {
+        if (record instanceof Book) {
+            return FileUtility.formatBook((Book) record);
+        } else if (record instanceof Member) {
+            return FileUtility.formatMember((Member) record);
+        } else if (record instanceof BorrowRecord) {
+            return FileUtility.formatBorrowRecord((BorrowRecord) record);
+        }
+        return null;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public Book getBook() {
+        return record instanceof Book ? (Book) record : null;
+    }
+
+    public Member getMember() {
+        return record instanceof Member ? (Member) record : null;
+    }
+
+    public BorrowRecord getLoan() {
+        return record instanceof BorrowRecord ? (BorrowRecord) record : null;
+    }
+
+    // The record as it was when the change was made, null for removals and reloads
+    public String getData() {
+        return data;
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    // Position in the dispatcher's stream, assigned when the event is published
+    public long getSequence() {
+        return sequence;
+    }
+
+    void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    @Override
+    public String toString() {
+        return sequence + " " + type + (key != null ? " " + key : "");
+    }
+}
@@ -0,0 +1,151 @@
+package com.library;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+// Hands change events to any number of subscribers through a fixed ring of slots.
+// Publishers claim a sequence number with one atomic increment and mark the slot
+// published; each subscriber follows the stream on its own thread at its own pace.
+// A publisher only waits when the slowest subscriber is a whole ring behind.
+class ChangeEventDispatcher {
+    private static final int SPINS_BEFORE_PARK = 64;
+
+    private static final MetricsRegistry METRICS = MetricsRegistry.global();
+    private static final Counter EVENTS_PUBLISHED = METRICS.counter("events.published");
+    private static final Counter PUBLISHER_STALLS = METRICS.counter("events.publisherStalls");
+    private static final Counter HANDLER_ERRORS = METRICS.counter("events.handlerErrors");
+
+    private final int mask;
+    private final AtomicReferenceArray<ChangeEvent> slots;
+    // The sequence last written to each slot, -1 while empty
+    private final AtomicLongArray published;
+    private final AtomicLong claimed = new AtomicLong(-1);
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    // Capacity is rounded up to a power of two
+    ChangeEventDispatcher(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mask = size - 1;
+        slots = new AtomicReferenceArray<>(size);
+        published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    long publish(ChangeEvent event) {
+        long sequence = claimed.incrementAndGet();
+
+        // Don't overwrite a slot some subscriber has not read yet
+        long wrapPoint = sequence - slots.length();
+        if (wrapPoint > minimumSequence()) {
+            PUBLISHER_STALLS.increment();
+            while (wrapPoint > minimumSequence()) {
+                LockSupport.parkNanos(10_000);
+            }
+        }
+
+        int index = (int) (sequence & mask);
+        event.setSequence(sequence);
+        slots.set(index, event);
+        published.set(index, sequence);
+        EVENTS_PUBLISHED.increment();
+
+        for (Subscription subscription : subscriptions) {
+            if (subscription.parked) {
+                LockSupport.unpark(subscription.thread);
+            }
+        }
+        return sequence;
+    }
+
+    // Deliver every event published from now on to the handler, on a thread of its own
+    Subscription subscribe(String name, Consumer<ChangeEvent> handler) {
+        Subscription subscription = new Subscription(name, handler, claimed.get());
+        subscriptions.add(subscription);
+        subscription.thread.start();
+        return subscription;
+    }
+
+    // Sequence of the last event claimed by a publisher, -1 before the first
+    long getLastSequence() {
+        return claimed.get();
+    }
+
+    // How far the slowest subscriber is behind the last published event
+    long getMaxLag() {
+        long minimum = minimumSequence();
+        return minimum == Long.MAX_VALUE ? 0 : Math.max(0, claimed.get() - minimum);
+    }
+
+    private long minimumSequence() {
+        long minimum = Long.MAX_VALUE;
+        for (Subscription subscription : subscriptions) {
+            minimum = Math.min(minimum, subscription.sequence);
+        }
+        return minimum;
+    }
+
+    class Subscription implements AutoCloseable {
+        private final Consumer<ChangeEvent> handler;
+        private final Thread thread;
+        // Last sequence handled
+        private volatile long sequence;
+        private volatile boolean parked;
+        private volatile boolean running = true;
+
+        private Subscription(String name, Consumer<ChangeEvent> handler, long sequence) {
+            this.handler = handler;
+            this.sequence = sequence;
+            this.thread = new Thread(this::run, "events-" + name);
+            this.thread.setDaemon(true);
+        }
+
+        private void run() {
+            long next = sequence + 1;
+            int idle = 0;
+            while (running) {
+                int index = (int) (next & mask);
+                if (published.get(index) == next) {
+                    ChangeEvent event = slots.get(index);
+                    try {
+                        handler.accept(event);
+                    } catch (RuntimeException e) {
+                        HANDLER_ERRORS.increment();
+                        System.err.println("Error handling change event " + event + ": " + e.getMessage());
+                    }
+                    sequence = next++;
+                    idle = 0;
+                } else if (idle++ < SPINS_BEFORE_PARK) {
+                    Thread.onSpinWait();
+                } else {
+                    // Publishers unpark us if they see the flag; check once more after raising it
+                    parked = true;
+                    if (published.get(index) != next && running) {
+                        LockSupport.park(this);
+                    }
+                    parked = false;
+                }
+            }
+        }
+
+        // Stop delivering events; the handler is not called again once this returns
+        @Override
+        public void close() {
+            running = false;
+            subscriptions.remove(this);
+            LockSupport.unpark(thread);
+            if (Thread.currentThread() != thread) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.library;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+// Who may borrow what, and for how long, read from CheckoutPolicy.txt in the data directory.
+// Rules are compiled when the file is loaded into hash tables and a short list of checks, so
+// a checkout costs a few lookups against the member's cached summary and never a scan.
+//
+// One rule per line, '#' starts a comment:
+//   loan|CATEGORY|DAYS        loan period (1 day or more) for books of a category, * for every other category
+//   limit|MEMBER_ID|COUNT     most books a member may have out at once, * for every other member
+//   overdue|*|COUNT           refuse members with more than this many overdue loans (0: any)
+// Without a file, or without a rule of a kind, nothing is refused and the caller's loan
+// period is used.
+class CheckoutPolicy {
+    private static final MetricsRegistry METRICS = MetricsRegistry.global();
+    private static final LatencyHistogram CHECK_LATENCY = METRICS.histogram("policy.check");
+    private static final Counter REFUSALS = METRICS.counter("policy.refusals");
+
+    static final String FILE_NAME = "CheckoutPolicy.txt";
+
+    // The outcome of a check: a refusal reason, or the loan period to use
+    static final class Decision {
+        private final String refusal;
+        private final int loanDays;
+
+        private Decision(String refusal, int loanDays) {
+            this.refusal = refusal;
+            this.loanDays = loanDays;
+        }
+
+        public boolean isAllowed() {
+            return refusal == null;
+        }
+
+        // Why the checkout is refused, null when it is allowed
+        public String getRefusal() {
+            return refusal;
+        }
+
+        public int getLoanDays() {
+            return loanDays;
+        }
+    }
+
+    // A compiled check, returning why the checkout is refused or null to let it through
+    private interface Rule {
+        String refuse(Member member, MemberSummary summary, Book book);
+    }
+
+    private final Rule[] rules;
+    // Loan periods by lower-cased category, and the period for the rest (-1: the caller's)
+    private final HashMap<String, Integer> loanDaysByCategory;
+    private final int defaultLoanDays;
+
+    private CheckoutPolicy(Rule[] rules, HashMap<String, Integer> loanDaysByCategory, int defaultLoanDays) {
+        this.rules = rules;
+        this.loanDaysByCategory = loanDaysByCategory;
+        this.defaultLoanDays = defaultLoanDays;
+    }
+
+    // The policy in the data directory, or one that allows everything when there is none
+    static CheckoutPolicy load(File dataDir) {
+        ArrayList<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(new File(dataDir, FILE_NAME)))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } catch (FileNotFoundException e) {
+            // No policy, every checkout is allowed
+        } catch (IOException e) {
+            System.err.println("Error loading checkout policy: " + e.getMessage());
+        }
+        return compile(lines);
+    }
+
+    // Bad lines are reported and skipped, the rest of the policy still applies
+    static CheckoutPolicy compile(List<String> lines) {
+        HashMap<String, Integer> loanDays = new HashMap<>();
+        int defaultLoanDays = -1;
+        HashMap<String, Integer> memberLimits = new HashMap<>();
+        int defaultLimit = -1;
+        int maxOverdue = -1;
+
+        for (String line : lines) {
+            int comment = line.indexOf('#');
+            String text = (comment >= 0 ? line.substring(0, comment) : line).trim();
+            if (text.isEmpty()) {
+                continue;
+            }
+            String[] parts = text.split("\\|");
+            int value;
+            try {
+                value = parts.length == 3 ? Integer.parseInt(parts[2].trim()) : -1;
+            } catch (NumberFormatException e) {
+                value = -1;
+            }
+            if (value < 0) {
+                System.err.println("Ignoring checkout policy line: " + line);
+                continue;
+            }
+            String kind = parts[0].trim().toLowerCase(Locale.ROOT);
+            String target = parts[1].trim();
+            boolean everyone = target.equals("*");
+            switch (kind) {
+                case "loan":
+                    // A loan of 0 days would fall due the day it starts
+                    if (value < 1) {
+                        System.err.println("Ignoring checkout policy line: " + line);
+                    } else if (everyone) {
+                        defaultLoanDays = value;
+                    } else {
+                        loanDays.put(target.toLowerCase(Locale.ROOT), value);
+                    }
+                    break;
+                case "limit":
+                    if (everyone) {
+                        defaultLimit = value;
+                    } else {
+                        memberLimits.put(target, value);
+                    }
+                    break;
+                case "overdue":
+                    // The overdue rule applies to every member, a member id here would be misread
+                    if (everyone) {
+                        maxOverdue = value;
+                    } else {
+                        System.err.println("Ignoring checkout policy line, overdue only takes *: " + line);
+                    }
+                    break;
+                default:
+                    System.err.println("Ignoring checkout policy line: " + line);
+                    break;
+            }
+        }
+
+        // Only the kinds of rule the policy has are checked
+        ArrayList<Rule> rules = new ArrayList<>();
+        if (maxOverdue >= 0) {
+            int max = maxOverdue;
+            rules.add((member, summary, book) -> {
+                int overdue = summary.getOverdueCount();
+                return overdue > max ? "has " + overdue + (overdue == 1 ? " overdue loan" : " overdue loans") : null;
+            });
+        }
+        if (!memberLimits.isEmpty()) {
+            int fallback = defaultLimit;
+            rules.add((member, summary, book) -> {
+                int limit = memberLimits.getOrDefault(member.getId(), fallback);
+                return limit >= 0 && summary.getLoanCount() >= limit
+                        ? "already has " + summary.getLoanCount() + " of " + limit + " loans" : null;
+            });
+        } else if (defaultLimit >= 0) {
+            int limit = defaultLimit;
+            rules.add((member, summary, book) -> summary.getLoanCount() >= limit
+                    ? "already has " + summary.getLoanCount() + " of " + limit + " loans" : null);
+        }
+        return new CheckoutPolicy(rules.toArray(new Rule[0]), loanDays, defaultLoanDays);
+    }
+
+    // Whether the member may borrow the book now, and for how long; requestedDays is used
+    // when no loan rule covers the book's category
+    Decision check(Member member, MemberSummary summary, Book book, int requestedDays) {
+        long start = System.nanoTime();
+        for (Rule rule : rules) {
+            String refusal = rule.refuse(member, summary, book);
+            if (refusal != null) {
+                REFUSALS.increment();
+                CHECK_LATENCY.recordSince(start);
+                return new Decision(member.getId() + " " + refusal, 0);
+            }
+        }
+        int days = loanDaysByCategory.isEmpty()
+                ? defaultLoanDays
+                : loanDaysByCategory.getOrDefault(book.getCategory().toLowerCase(Locale.ROOT), defaultLoanDays);
+        CHECK_LATENCY.recordSince(start);
+        return new Decision(null, days >= 0 ? days : requestedDays);
+    }
+}
@@ -0,0 +1,156 @@
+package com.library;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Circulation statistics kept as materialized counters.
+// rebuild() computes them from the catalogue, the active loans and the loan
+// history's stored per-book and per-member totals, so it costs one pass over
+// the open loans and the ids, never a scan of the archive; after that every
+// borrow and return updates them incrementally.
+class CirculationAnalytics {
+    // Lifetime borrow counts, including loans still open
+    private final ConcurrentHashMap<String, LongAdder> borrowsByBook = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> borrowsByCategory = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> borrowsByMember = new ConcurrentHashMap<>();
+    // Loans currently open
+    private final ConcurrentHashMap<String, LongAdder> activeLoansByBook = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> activeLoansByMember = new ConcurrentHashMap<>();
+    private final LongAdder activeLoans = new LongAdder();
+
+    // Recompute every counter from scratch
+    public void rebuild(Collection<Book> books, Collection<BorrowRecord> openLoans, LoanHistoryStore history) {
+        borrowsByBook.clear();
+        borrowsByCategory.clear();
+        borrowsByMember.clear();
+        activeLoansByBook.clear();
+        activeLoansByMember.clear();
+        activeLoans.reset();
+
+        HashMap<String, String> categoryByBook = new HashMap<>();
+        for (Book book : books) {
+            categoryByBook.put(book.getId(), book.getCategory());
+        }
+
+        openLoans.parallelStream().forEach(record -> {
+            countBorrow(record.getBookId(), categoryByBook.get(record.getBookId()), record.getMemberId());
+            increment(activeLoansByBook, record.getBookId());
+            increment(activeLoansByMember, record.getMemberId());
+            activeLoans.increment();
+        });
+
+        HashMap<String, Long> returnsByBook = new HashMap<>();
+        HashMap<String, Long> returnsByMember = new HashMap<>();
+        history.countReturns(returnsByBook, returnsByMember);
+        returnsByBook.forEach((bookId, count) -> {
+            add(borrowsByBook, bookId, count);
+            String category = categoryByBook.get(bookId);
+            if (category != null) {
+                add(borrowsByCategory, category, count);
+            }
+        });
+        returnsByMember.forEach((memberId, count) -> add(borrowsByMember, memberId, count));
+    }
+
+    public void recordBorrow(Book book, String memberId) {
+        countBorrow(book.getId(), book.getCategory(), memberId);
+        increment(activeLoansByBook, book.getId());
+        increment(activeLoansByMember, memberId);
+        activeLoans.increment();
+    }
+
+    public void recordReturn(String bookId, String memberId) {
+        decrement(activeLoansByBook, bookId);
+        decrement(activeLoansByMember, memberId);
+        activeLoans.decrement();
+    }
+
+    // Most borrowed book ids, highest first
+    public ArrayList<Map.Entry<String, Long>> getTopBorrowedBooks(int limit) {
+        return topEntries(borrowsByBook, limit);
+    }
+
+    public ArrayList<Map.Entry<String, Long>> getBusiestCategories(int limit) {
+        return topEntries(borrowsByCategory, limit);
+    }
+
+    public ArrayList<Map.Entry<String, Long>> getMostActiveMembers(int limit) {
+        return topEntries(borrowsByMember, limit);
+    }
+
+    public long getLifetimeBorrows(String memberId) {
+        return count(borrowsByMember, memberId);
+    }
+
+    public long getActiveLoans(String memberId) {
+        return count(activeLoansByMember, memberId);
+    }
+
+    public long getTotalActiveLoans() {
+        return activeLoans.sum();
+    }
+
+    public long getBookBorrowCount(String bookId) {
+        return count(borrowsByBook, bookId);
+    }
+
+    // Share of a title's copies that are off the shelf (on loan or held), 0.0 to 1.0
+    public double getUtilization(Book book) {
+        long copies = book.getTotalQuantity();
+        return copies == 0 ? 0.0 : (double) (copies - book.getAvailableQuantity()) / copies;
+    }
+
+    // Share of all copies in the catalogue that are off the shelf
+    public double getOverallUtilization(Collection<Book> books) {
+        long total = books.parallelStream().mapToLong(Book::getTotalQuantity).sum();
+        long available = books.parallelStream().mapToLong(Book::getAvailableQuantity).sum();
+        return total == 0 ? 0.0 : (double) (total - available) / total;
+    }
+
+    private void countBorrow(String bookId, String category, String memberId) {
+        increment(borrowsByBook, bookId);
+        increment(borrowsByMember, memberId);
+        if (category != null) {
+            increment(borrowsByCategory, category);
+        }
+    }
+
+    private static void increment(ConcurrentHashMap<String, LongAdder> counters, String key) {
+        counters.computeIfAbsent(key, k -> new LongAdder()).increment();
+    }
+
+    private static void add(ConcurrentHashMap<String, LongAdder> counters, String key, long count) {
+        counters.computeIfAbsent(key, k -> new LongAdder()).add(count);
+    }
+
+    private static void decrement(ConcurrentHashMap<String, LongAdder> counters, String key) {
+        LongAdder counter = counters.get(key);
+        if (counter != null) {
+            counter.decrement();
+        }
+    }
+
+    private static long count(ConcurrentHashMap<String, LongAdder> counters, String key) {
+        LongAdder counter = counters.get(key);
+        return counter != null ? counter.sum() : 0;
+    }
+
+    // Top entries by count using a bounded min-heap, so the cost is O(n log limit)
+    private static ArrayList<Map.Entry<String, Long>> topEntries(ConcurrentHashMap<String, LongAdder> counters, int limit) {
+        PriorityQueue<Map.Entry<String, Long>> heap = new PriorityQueue<>(Map.Entry.comparingByValue());
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            long value = entry.getValue().sum();
+            if (heap.size() < limit) {
+                heap.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), value));
+            } else if (limit > 0 && value > heap.peek().getValue()) {
+                heap.poll();
+                heap.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), value));
+            }
+        }
+
+        ArrayList<Map.Entry<String, Long>> results = new ArrayList<>(heap);
+        results.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        return results;
+    }
+}
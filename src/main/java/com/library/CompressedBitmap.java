@@ -0,0 +1,336 @@
+package com.library;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+// Compressed set of non-negative ints in the style of a roaring bitmap.
+// Values are split by their high 16 bits into chunks; a chunk holding few
+// values stores them as a sorted char array, a dense chunk as a 65536-bit
+// bitmap. AND/OR/AND-NOT work chunk by chunk and return new bitmaps.
+class CompressedBitmap {
+    private static final int ARRAY_LIMIT = 4096;
+    private static final int BITMAP_WORDS = 1024;
+
+    // Chunk keys in increasing order, with the chunk for each key
+    private char[] keys = new char[4];
+    private Chunk[] chunks = new Chunk[4];
+    private int chunkCount;
+
+    // Either values (sorted, sparse) or words (dense) is set
+    private static class Chunk {
+        char[] values;
+        int size;
+        long[] words;
+        int cardinality;
+
+        static Chunk sparse(int capacity) {
+            Chunk chunk = new Chunk();
+            chunk.values = new char[Math.max(4, capacity)];
+            return chunk;
+        }
+
+        static Chunk dense() {
+            Chunk chunk = new Chunk();
+            chunk.words = new long[BITMAP_WORDS];
+            return chunk;
+        }
+
+        int cardinality() {
+            return words != null ? cardinality : size;
+        }
+
+        boolean contains(char low) {
+            if (words != null) {
+                return (words[low >>> 6] & (1L << low)) != 0;
+            }
+            return Arrays.binarySearch(values, 0, size, low) >= 0;
+        }
+
+        // Returns the chunk to keep, which changes when a sparse chunk grows dense
+        Chunk add(char low) {
+            if (words != null) {
+                long bit = 1L << low;
+                if ((words[low >>> 6] & bit) == 0) {
+                    words[low >>> 6] |= bit;
+                    cardinality++;
+                }
+                return this;
+            }
+            int index = Arrays.binarySearch(values, 0, size, low);
+            if (index >= 0) {
+                return this;
+            }
+            if (size == ARRAY_LIMIT) {
+                Chunk dense = toDense();
+                return dense.add(low);
+            }
+            index = -index - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, size * 2));
+            }
+            System.arraycopy(values, index, values, index + 1, size - index);
+            values[index] = low;
+            size++;
+            return this;
+        }
+
+        void remove(char low) {
+            if (words != null) {
+                long bit = 1L << low;
+                if ((words[low >>> 6] & bit) != 0) {
+                    words[low >>> 6] &= ~bit;
+                    cardinality--;
+                }
+                return;
+            }
+            int index = Arrays.binarySearch(values, 0, size, low);
+            if (index >= 0) {
+                System.arraycopy(values, index + 1, values, index, size - index - 1);
+                size--;
+            }
+        }
+
+        Chunk toDense() {
+            Chunk dense = dense();
+            for (int i = 0; i < size; i++) {
+                dense.words[values[i] >>> 6] |= 1L << values[i];
+            }
+            dense.cardinality = size;
+            return dense;
+        }
+
+        long[] asWords() {
+            return words != null ? words : toDense().words;
+        }
+
+        void forEach(int high, IntConsumer action) {
+            if (words != null) {
+                for (int w = 0; w < BITMAP_WORDS; w++) {
+                    long word = words[w];
+                    while (word != 0) {
+                        action.accept(high | (w << 6) | Long.numberOfTrailingZeros(word));
+                        word &= word - 1;
+                    }
+                }
+            } else {
+                for (int i = 0; i < size; i++) {
+                    action.accept(high | values[i]);
+                }
+            }
+        }
+
+        // Build the smallest chunk for the given words; null if empty
+        static Chunk fromWords(long[] words) {
+            int cardinality = 0;
+            for (long word : words) {
+                cardinality += Long.bitCount(word);
+            }
+            if (cardinality == 0) {
+                return null;
+            }
+            if (cardinality > ARRAY_LIMIT) {
+                Chunk dense = new Chunk();
+                dense.words = words;
+                dense.cardinality = cardinality;
+                return dense;
+            }
+            Chunk sparse = sparse(cardinality);
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    sparse.values[sparse.size++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return sparse;
+        }
+    }
+
+    public void add(int value) {
+        char high = (char) (value >>> 16);
+        int index = chunkIndex(high);
+        if (index < 0) {
+            index = -index - 1;
+            insertChunk(index, high, Chunk.sparse(4));
+        }
+        chunks[index] = chunks[index].add((char) value);
+    }
+
+    public void remove(int value) {
+        int index = chunkIndex((char) (value >>> 16));
+        if (index < 0) {
+            return;
+        }
+        chunks[index].remove((char) value);
+        if (chunks[index].cardinality() == 0) {
+            System.arraycopy(keys, index + 1, keys, index, chunkCount - index - 1);
+            System.arraycopy(chunks, index + 1, chunks, index, chunkCount - index - 1);
+            chunkCount--;
+        }
+    }
+
+    public boolean contains(int value) {
+        int index = chunkIndex((char) (value >>> 16));
+        return index >= 0 && chunks[index].contains((char) value);
+    }
+
+    public int getCardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            cardinality += chunks[i].cardinality();
+        }
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return chunkCount == 0;
+    }
+
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < chunkCount; i++) {
+            chunks[i].forEach(keys[i] << 16, action);
+        }
+    }
+
+    public static CompressedBitmap and(CompressedBitmap a, CompressedBitmap b) {
+        CompressedBitmap result = new CompressedBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < a.chunkCount && j < b.chunkCount) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                result.appendChunk(a.keys[i], andChunks(a.chunks[i], b.chunks[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    private static Chunk andChunks(Chunk left, Chunk right) {
+        if (left.words != null && right.words != null) {
+            long[] words = new long[BITMAP_WORDS];
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                words[w] = left.words[w] & right.words[w];
+            }
+            return Chunk.fromWords(words);
+        }
+
+        // At least one side is sparse, so the result is too: probe its values against the other side
+        Chunk sparse = left.words == null ? left : right;
+        Chunk other = sparse == left ? right : left;
+        Chunk result = Chunk.sparse(sparse.size);
+        for (int k = 0; k < sparse.size; k++) {
+            if (other.contains(sparse.values[k])) {
+                result.values[result.size++] = sparse.values[k];
+            }
+        }
+        return result.size > 0 ? result : null;
+    }
+
+    public static CompressedBitmap or(CompressedBitmap a, CompressedBitmap b) {
+        CompressedBitmap result = new CompressedBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < a.chunkCount || j < b.chunkCount) {
+            if (j >= b.chunkCount || (i < a.chunkCount && a.keys[i] < b.keys[j])) {
+                result.appendChunk(a.keys[i], Chunk.fromWords(a.chunks[i].asWords().clone()));
+                i++;
+            } else if (i >= a.chunkCount || a.keys[i] > b.keys[j]) {
+                result.appendChunk(b.keys[j], Chunk.fromWords(b.chunks[j].asWords().clone()));
+                j++;
+            } else {
+                long[] left = a.chunks[i].asWords();
+                long[] right = b.chunks[j].asWords();
+                long[] words = new long[BITMAP_WORDS];
+                for (int w = 0; w < BITMAP_WORDS; w++) {
+                    words[w] = left[w] | right[w];
+                }
+                result.appendChunk(a.keys[i], Chunk.fromWords(words));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    // Values in a that are not in b
+    public static CompressedBitmap andNot(CompressedBitmap a, CompressedBitmap b) {
+        CompressedBitmap result = new CompressedBitmap();
+        int j = 0;
+        for (int i = 0; i < a.chunkCount; i++) {
+            while (j < b.chunkCount && b.keys[j] < a.keys[i]) {
+                j++;
+            }
+            long[] words = a.chunks[i].asWords().clone();
+            if (j < b.chunkCount && b.keys[j] == a.keys[i]) {
+                long[] right = b.chunks[j].asWords();
+                for (int w = 0; w < BITMAP_WORDS; w++) {
+                    words[w] &= ~right[w];
+                }
+            }
+            result.appendChunk(a.keys[i], Chunk.fromWords(words));
+        }
+        return result;
+    }
+
+    // Size of the intersection without building it, used for facet counts
+    public static int andCardinality(CompressedBitmap a, CompressedBitmap b) {
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.chunkCount && j < b.chunkCount) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                Chunk left = a.chunks[i];
+                Chunk right = b.chunks[j];
+                if (left.words != null && right.words != null) {
+                    for (int w = 0; w < BITMAP_WORDS; w++) {
+                        count += Long.bitCount(left.words[w] & right.words[w]);
+                    }
+                } else {
+                    // Probe the sparse side against the other
+                    Chunk sparse = left.words == null ? left : right;
+                    Chunk other = sparse == left ? right : left;
+                    for (int k = 0; k < sparse.size; k++) {
+                        if (other.contains(sparse.values[k])) {
+                            count++;
+                        }
+                    }
+                }
+                i++;
+                j++;
+            }
+        }
+        return count;
+    }
+
+    private int chunkIndex(char high) {
+        return Arrays.binarySearch(keys, 0, chunkCount, high);
+    }
+
+    private void insertChunk(int index, char high, Chunk chunk) {
+        if (chunkCount == keys.length) {
+            keys = Arrays.copyOf(keys, chunkCount * 2);
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, chunkCount - index);
+        System.arraycopy(chunks, index, chunks, index + 1, chunkCount - index);
+        keys[index] = high;
+        chunks[index] = chunk;
+        chunkCount++;
+    }
+
+    // Chunks are produced in key order by the set operations
+    private void appendChunk(char high, Chunk chunk) {
+        if (chunk != null) {
+            insertChunk(chunkCount, high, chunk);
+        }
+    }
+}
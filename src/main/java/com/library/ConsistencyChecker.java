@@ -0,0 +1,261 @@
+package com.library;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Collectors;
+
+// Cross-checks books, members and loans, which are saved separately and can disagree
+// after a partial write. Loans are grouped by book and by member in one parallel pass,
+// then books and members are joined against those groups in parallel, so every record
+// is looked at once however large the data set is.
+//
+// Loans are taken as the truth: a member's borrowed list and a title's copy bitmap are
+// brought in line with the loans, and loans that point at no book or member are dropped.
+class ConsistencyChecker {
+    private static final MetricsRegistry METRICS = MetricsRegistry.global();
+    private static final LatencyHistogram CHECK_LATENCY = METRICS.histogram("consistency.check");
+    private static final Counter ISSUES_FOUND = METRICS.counter("consistency.issues");
+    private static final Counter ISSUES_REPAIRED = METRICS.counter("consistency.repairs");
+
+    // Loans dropped by a repair are appended here, in the Transaction.txt format
+    static final String DROPPED_LOANS_FILE = "DroppedLoans.txt";
+
+    enum Problem {
+        ORPHAN_LOAN,        // the loan's book or member does not exist
+        COPY_ON_SHELF,      // the loan's copy is on the shelf or does not circulate
+        DUPLICATE_COPY,     // two loans hold the same copy
+        STRANDED_COPY,      // a copy is off the shelf with no loan or hold to account for it
+        MEMBER_LIST         // the member's borrowed list does not match their loans
+    }
+
+    static final class Issue {
+        final Problem problem;
+        final Book book;
+        final Member member;
+        final BorrowRecord loan;
+        final int copyIndex;
+        // What a MEMBER_LIST member should list
+        final ArrayList<String> expectedBooks;
+
+        Issue(Problem problem, Book book, BorrowRecord loan, int copyIndex) {
+            this(problem, book, null, loan, copyIndex, null);
+        }
+
+        Issue(Problem problem, Book book, Member member, BorrowRecord loan, int copyIndex, ArrayList<String> expectedBooks) {
+            this.problem = problem;
+            this.book = book;
+            this.member = member;
+            this.loan = loan;
+            this.copyIndex = copyIndex;
+            this.expectedBooks = expectedBooks;
+        }
+
+        @Override
+        public String toString() {
+            switch (problem) {
+                case ORPHAN_LOAN:
+                    return "loan of " + loan.getBookId() + " to " + loan.getMemberId()
+                            + " refers to a " + (book == null ? "missing book" : "missing member");
+                case DUPLICATE_COPY:
+                    return "copy " + loan.getBarcode() + " is also on loan to another member, loan to "
+                            + loan.getMemberId();
+                case COPY_ON_SHELF:
+                    return "copy " + loan.getBarcode() + " on loan to " + loan.getMemberId()
+                            + (book.getCopies().isCirculating(copyIndex) ? " is marked on the shelf" : " does not exist");
+                case STRANDED_COPY:
+                    return "copy " + BookCopies.barcode(book.getId(), copyIndex) + " is off the shelf with no loan or hold";
+                default:
+                    return "member " + member.getId() + " lists " + member.getBorrowedBooks()
+                            + " but has loans of " + expectedBooks;
+            }
+        }
+    }
+
+    private final Map<String, Book> books;
+    private final Map<String, Member> members;
+    private final List<BorrowRecord> loans;
+    private final List<Hold> holds;
+    private final ArrayList<Issue> issues = new ArrayList<>();
+
+    ConsistencyChecker(Collection<Book> books, Collection<Member> members, List<BorrowRecord> loans, List<Hold> holds) {
+        this.books = books.parallelStream().collect(Collectors.toConcurrentMap(Book::getId, b -> b, (a, b) -> a));
+        this.members = members.parallelStream().collect(Collectors.toConcurrentMap(Member::getId, m -> m, (a, b) -> a));
+        this.loans = loans;
+        this.holds = holds;
+    }
+
+    // Find every disagreement without changing anything
+    List<Issue> check() {
+        long start = System.nanoTime();
+        // Groups keep the loans in saved order, so the earlier of two loans sharing a copy keeps it
+        Map<String, List<BorrowRecord>> loansByBook =
+                loans.parallelStream().collect(Collectors.groupingBy(BorrowRecord::getBookId));
+        Map<String, List<BorrowRecord>> loansByMember =
+                loans.parallelStream().collect(Collectors.groupingBy(BorrowRecord::getMemberId));
+        Map<String, List<Hold>> readyHoldsByBook = holds.stream()
+                .filter(Hold::isReady)
+                .collect(Collectors.groupingBy(Hold::getBookId));
+
+        ConcurrentLinkedQueue<Issue> found = new ConcurrentLinkedQueue<>();
+
+        // Loans whose book is missing; those whose member is missing are found per book below
+        loansByBook.entrySet().parallelStream()
+                .filter(entry -> !books.containsKey(entry.getKey()))
+                .flatMap(entry -> entry.getValue().stream())
+                .forEach(loan -> found.add(new Issue(Problem.ORPHAN_LOAN, null, loan, -1)));
+
+        books.values().parallelStream().forEach(book -> checkBook(book,
+                loansByBook.getOrDefault(book.getId(), List.of()),
+                readyHoldsByBook.getOrDefault(book.getId(), List.of()), found));
+
+        // A member lists the books of their loans, leaving out loans of missing books
+        members.values().parallelStream().forEach(member -> {
+            ArrayList<String> borrowed = new ArrayList<>();
+            for (BorrowRecord loan : loansByMember.getOrDefault(member.getId(), List.of())) {
+                if (books.containsKey(loan.getBookId())) {
+                    borrowed.add(loan.getBookId());
+                }
+            }
+            if (!sameBooks(member.getBorrowedBooks(), borrowed)) {
+                found.add(new Issue(Problem.MEMBER_LIST, null, member, null, -1, borrowed));
+            }
+        });
+
+        issues.clear();
+        issues.addAll(found);
+        issues.sort(Comparator.comparing((Issue issue) -> issue.problem));
+        ISSUES_FOUND.add(issues.size());
+        CHECK_LATENCY.recordSince(start);
+        return Collections.unmodifiableList(issues);
+    }
+
+    private void checkBook(Book book, List<BorrowRecord> bookLoans, List<Hold> readyHolds, Collection<Issue> found) {
+        BookCopies copies = book.getCopies();
+        BitSet accounted = new BitSet();
+        for (BorrowRecord loan : bookLoans) {
+            if (!members.containsKey(loan.getMemberId())) {
+                found.add(new Issue(Problem.ORPHAN_LOAN, book, loan, loan.getCopyIndex()));
+                continue;
+            }
+            int copyIndex = loan.getCopyIndex();
+            if (copyIndex >= 0 && accounted.get(copyIndex)) {
+                found.add(new Issue(Problem.DUPLICATE_COPY, book, loan, copyIndex));
+                continue;
+            }
+            if (copyIndex < 0 || !copies.isCirculating(copyIndex) || copies.isAvailable(copyIndex)) {
+                found.add(new Issue(Problem.COPY_ON_SHELF, book, loan, copyIndex));
+            }
+            if (copyIndex >= 0) {
+                accounted.set(copyIndex);
+            }
+        }
+        for (Hold hold : readyHolds) {
+            if (hold.getCopyIndex() >= 0) {
+                accounted.set(hold.getCopyIndex());
+            }
+        }
+        for (int copyIndex : copies.getCheckedOutCopies()) {
+            if (!accounted.get(copyIndex)) {
+                found.add(new Issue(Problem.STRANDED_COPY, book, null, copyIndex));
+            }
+        }
+    }
+
+    private static boolean sameBooks(List<String> listed, List<String> expected) {
+        if (listed.size() != expected.size()) {
+            return false;
+        }
+        String[] a = listed.toArray(new String[0]);
+        String[] b = expected.toArray(new String[0]);
+        Arrays.sort(a);
+        Arrays.sort(b);
+        return Arrays.equals(a, b);
+    }
+
+    // Fix the issues found by the last check in memory, then write the changed records to
+    // storage in one batch per record type. Dropped loans are removed from the list given
+    // to the constructor. Issues are fixed in Problem order, so loans keep copies they
+    // already hold before any copy is handed to a loan that shares one.
+    int repair(StorageEngine storage) {
+        Set<Book> changedBooks = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<Member> changedMembers = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<BorrowRecord> droppedLoans = Collections.newSetFromMap(new IdentityHashMap<>());
+        boolean loansChanged = false;
+
+        for (Issue issue : issues) {
+            BookCopies copies = issue.book != null ? issue.book.getCopies() : null;
+            switch (issue.problem) {
+                case ORPHAN_LOAN:
+                    // The copy it held shows up as a STRANDED_COPY, the member's list as a MEMBER_LIST
+                    droppedLoans.add(issue.loan);
+                    loansChanged = true;
+                    break;
+                case COPY_ON_SHELF:
+                    if (issue.copyIndex >= 0 && copies.isCirculating(issue.copyIndex)) {
+                        copies.checkOut(issue.copyIndex);
+                    } else {
+                        issue.loan.setCopyIndex(copies.addCheckedOutCopy());
+                        loansChanged = true;
+                    }
+                    changedBooks.add(issue.book);
+                    break;
+                case DUPLICATE_COPY:
+                    // The later loan gets a copy of its own, from the shelf if one is left
+                    int copyIndex = copies.checkOut();
+                    issue.loan.setCopyIndex(copyIndex >= 0 ? copyIndex : copies.addCheckedOutCopy());
+                    changedBooks.add(issue.book);
+                    loansChanged = true;
+                    break;
+                case STRANDED_COPY:
+                    copies.checkIn(issue.copyIndex);
+                    changedBooks.add(issue.book);
+                    break;
+                case MEMBER_LIST:
+                    issue.member.setBorrowedBooks(issue.expectedBooks);
+                    changedMembers.add(issue.member);
+                    break;
+            }
+        }
+
+        if (!droppedLoans.isEmpty()) {
+            // Dropped loans are kept in a file beside the data, and stay if it cannot be written
+            if (saveDropped(storage.getDataDir(), droppedLoans)) {
+                loans.removeIf(droppedLoans::contains);
+            } else {
+                loansChanged = false;
+            }
+        }
+        if (loansChanged) {
+            storage.saveBorrowRecords(new ArrayList<>(loans));
+        }
+        if (!changedBooks.isEmpty()) {
+            storage.putBooks(changedBooks);
+        }
+        if (!changedMembers.isEmpty()) {
+            storage.putMembers(changedMembers);
+        }
+        ISSUES_REPAIRED.add(issues.size());
+        return issues.size();
+    }
+
+    private static boolean saveDropped(File dataDir, Collection<BorrowRecord> dropped) {
+        File file = new File(dataDir, DROPPED_LOANS_FILE);
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(file, true)))) {
+            for (BorrowRecord record : dropped) {
+                writer.println(FileUtility.formatBorrowRecord(record));
+            }
+            if (writer.checkError()) {
+                throw new IOException("write failed");
+            }
+        } catch (IOException e) {
+            System.err.println("Error saving dropped loans to " + file + ", keeping them: " + e.getMessage());
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,24 @@
+package com.library;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Monotonic event counter, cheap to update from many threads
+class Counter {
+    private final LongAdder value = new LongAdder();
+
+    public void increment() {
+        value.increment();
+    }
+
+    public void add(long amount) {
+        value.add(amount);
+    }
+
+    public long get() {
+        return value.sum();
+    }
+
+    public void reset() {
+        value.reset();
+    }
+}
@@ -0,0 +1,126 @@
+package com.library;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+
+// Calendar dates as a count of days since 1970-01-01, with an ISO yyyy-MM-dd parser and
+// formatter that keep no state, so they are safe to share between threads and parse or
+// format without the intermediate objects SimpleDateFormat creates.
+//
+// The day/civil conversions are the usual proleptic Gregorian ones, computed in 400-year eras.
+final class EpochDays {
+    private static final int DAYS_PER_ERA = 146097;
+    private static final int DAYS_0000_TO_1970 = 719468;
+
+    private EpochDays() {
+    }
+
+    // Today in the local time zone
+    static int today() {
+        return (int) LocalDate.now().toEpochDay();
+    }
+
+    // The local date of an instant
+    static int fromMillis(long millis) {
+        return (int) Instant.ofEpochMilli(millis).atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+    }
+
+    // Parse yyyy-MM-dd (a four-digit year); throws IllegalArgumentException for anything else
+    static int parse(CharSequence text) {
+        if (text.length() != 10 || text.charAt(4) != '-' || text.charAt(7) != '-') {
+            throw new IllegalArgumentException("Not a yyyy-MM-dd date: " + text);
+        }
+        int year = digits(text, 0, 4);
+        int month = digits(text, 5, 7);
+        int day = digits(text, 8, 10);
+        if (month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)) {
+            throw new IllegalArgumentException("Invalid date: " + text);
+        }
+        return fromCivil(year, month, day);
+    }
+
+    // parse(), falling back to the lenient reading of earlier versions for dates written or
+    // edited by hand (2024-1-5, a time after the date); throws only when neither can read it
+    static int parseLenient(String text) {
+        try {
+            return parse(text);
+        } catch (IllegalArgumentException e) {
+            try {
+                return fromMillis(new java.text.SimpleDateFormat("yyyy-MM-dd").parse(text).getTime());
+            } catch (java.text.ParseException notADate) {
+                throw e;
+            }
+        }
+    }
+
+    static String format(int epochDay) {
+        StringBuilder out = new StringBuilder(10);
+        format(epochDay, out);
+        return out.toString();
+    }
+
+    static void format(int epochDay, StringBuilder out) {
+        int ymd = toCivil(epochDay);
+        int year = ymd / 10000;
+        int month = ymd / 100 % 100;
+        int day = ymd % 100;
+        out.append((char) ('0' + year / 1000))
+           .append((char) ('0' + year / 100 % 10))
+           .append((char) ('0' + year / 10 % 10))
+           .append((char) ('0' + year % 10))
+           .append('-')
+           .append((char) ('0' + month / 10))
+           .append((char) ('0' + month % 10))
+           .append('-')
+           .append((char) ('0' + day / 10))
+           .append((char) ('0' + day % 10));
+    }
+
+    // The date packed as yyyyMMdd, so no object is needed to return three fields
+    static int toCivil(int epochDay) {
+        // Count years from March, so the leap day falls at the end of the year
+        int z = epochDay + DAYS_0000_TO_1970;
+        int era = Math.floorDiv(z, DAYS_PER_ERA);
+        int dayOfEra = z - era * DAYS_PER_ERA;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 0 || year > 9999) {
+            throw new IllegalArgumentException("Year out of range: " + year);
+        }
+        return year * 10000 + month * 100 + day;
+    }
+
+    static int fromCivil(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * DAYS_PER_ERA + dayOfEra - DAYS_0000_TO_1970;
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        if (month == 2) {
+            boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+            return leap ? 29 : 28;
+        }
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    private static int digits(CharSequence text, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException("Not a yyyy-MM-dd date: " + text);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
@@ -0,0 +1,205 @@
+package com.library;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Bitmap indexes over the catalogue for faceted filtering.
+// Every book gets a small integer ordinal; each category, each author and the
+// "available" state keep a compressed bitmap of ordinals, so filters are
+// bitmap AND/OR/AND-NOT and facet counts are intersection cardinalities.
+class FacetIndex {
+    // Read without the lock by ordinalOf(), written under it
+    private final ConcurrentHashMap<String, Integer> ordinalByBookId = new ConcurrentHashMap<>();
+    private final ArrayList<Book> booksByOrdinal = new ArrayList<>();
+    private final ArrayDeque<Integer> freeOrdinals = new ArrayDeque<>();
+
+    private CompressedBitmap allBooks = new CompressedBitmap();
+    private CompressedBitmap availableBooks = new CompressedBitmap();
+    private final HashMap<String, CompressedBitmap> booksByCategory = new HashMap<>();
+    private final HashMap<String, CompressedBitmap> booksByAuthor = new HashMap<>();
+
+    // Every facet of one selection, counted together
+    static final class Counts {
+        private final LinkedHashMap<String, Integer> categories;
+        private final LinkedHashMap<String, Integer> authors;
+        private final int available;
+
+        Counts(LinkedHashMap<String, Integer> categories, LinkedHashMap<String, Integer> authors, int available) {
+            this.categories = categories;
+            this.authors = authors;
+            this.available = available;
+        }
+
+        // Books per category, largest first
+        public LinkedHashMap<String, Integer> getCategories() {
+            return categories;
+        }
+
+        public LinkedHashMap<String, Integer> getAuthors() {
+            return authors;
+        }
+
+        // Books with a copy on the shelf, whether or not the counts above are limited to them
+        public int getAvailable() {
+            return available;
+        }
+    }
+
+    public synchronized void add(Book book) {
+        remove(book.getId());
+
+        // Reuse ordinals of removed books to keep the bitmaps dense
+        Integer ordinal = freeOrdinals.poll();
+        if (ordinal == null) {
+            ordinal = booksByOrdinal.size();
+            booksByOrdinal.add(book);
+        } else {
+            booksByOrdinal.set(ordinal, book);
+        }
+        ordinalByBookId.put(book.getId(), ordinal);
+
+        allBooks.add(ordinal);
+        booksByCategory.computeIfAbsent(book.getCategory(), k -> new CompressedBitmap()).add(ordinal);
+        booksByAuthor.computeIfAbsent(book.getAuthor(), k -> new CompressedBitmap()).add(ordinal);
+        if (book.getAvailableQuantity() > 0) {
+            availableBooks.add(ordinal);
+        }
+    }
+
+    public synchronized void remove(String bookId) {
+        Integer ordinal = ordinalByBookId.remove(bookId);
+        if (ordinal == null) {
+            return;
+        }
+        Book book = booksByOrdinal.get(ordinal);
+        booksByOrdinal.set(ordinal, null);
+        freeOrdinals.add(ordinal);
+
+        allBooks.remove(ordinal);
+        availableBooks.remove(ordinal);
+        removeFrom(booksByCategory, book.getCategory(), ordinal);
+        removeFrom(booksByAuthor, book.getAuthor(), ordinal);
+    }
+
+    public synchronized void clear() {
+        ordinalByBookId.clear();
+        booksByOrdinal.clear();
+        freeOrdinals.clear();
+        allBooks = new CompressedBitmap();
+        availableBooks = new CompressedBitmap();
+        booksByCategory.clear();
+        booksByAuthor.clear();
+    }
+
+    // Call after a book's availability may have changed (borrow, return, hold, quantity update)
+    public synchronized void updateAvailability(Book book) {
+        Integer ordinal = ordinalByBookId.get(book.getId());
+        if (ordinal == null) {
+            return;
+        }
+        if (book.getAvailableQuantity() > 0) {
+            availableBooks.add(ordinal);
+        } else {
+            availableBooks.remove(ordinal);
+        }
+    }
+
+    // Books matching any of the categories (or all books if none given), any of the authors
+    // (or all if none given), none of the excluded categories and, optionally, available now
+    public synchronized CompressedBitmap filter(Collection<String> categories, Collection<String> authors,
+                                                Collection<String> excludedCategories, boolean availableOnly) {
+        CompressedBitmap result = availableOnly ? CompressedBitmap.and(allBooks, availableBooks) : copy(allBooks);
+        if (categories != null && !categories.isEmpty()) {
+            result = CompressedBitmap.and(result, union(booksByCategory, categories));
+        }
+        if (authors != null && !authors.isEmpty()) {
+            result = CompressedBitmap.and(result, union(booksByAuthor, authors));
+        }
+        if (excludedCategories != null && !excludedCategories.isEmpty()) {
+            result = CompressedBitmap.andNot(result, union(booksByCategory, excludedCategories));
+        }
+        return result;
+    }
+
+    // A book's ordinal, or -1; needs no lock, so a search can map each of its matches cheaply
+    public int ordinalOf(String bookId) {
+        Integer ordinal = ordinalByBookId.get(bookId);
+        return ordinal != null ? ordinal : -1;
+    }
+
+    // For a bitmap owned by the caller, such as one returned by filter()
+    public boolean contains(CompressedBitmap bitmap, Book book) {
+        int ordinal = ordinalOf(book.getId());
+        return ordinal >= 0 && bitmap.contains(ordinal);
+    }
+
+    public synchronized ArrayList<Book> books(CompressedBitmap bitmap) {
+        ArrayList<Book> result = new ArrayList<>(bitmap.getCardinality());
+        bitmap.forEach(ordinal -> result.add(booksByOrdinal.get(ordinal)));
+        return result;
+    }
+
+    // Number of books in the selection per category, largest first
+    public synchronized LinkedHashMap<String, Integer> categoryCounts(CompressedBitmap selection) {
+        return counts(booksByCategory, selection);
+    }
+
+    public synchronized LinkedHashMap<String, Integer> authorCounts(CompressedBitmap selection) {
+        return counts(booksByAuthor, selection);
+    }
+
+    public synchronized int availableCount(CompressedBitmap selection) {
+        return CompressedBitmap.andCardinality(selection, availableBooks);
+    }
+
+    // Category, author and available counts for the books in matches (every book when null),
+    // under one lock; with availableOnly the category and author counts cover available books only
+    public synchronized Counts counts(CompressedBitmap matches, boolean availableOnly) {
+        CompressedBitmap selection = matches != null ? CompressedBitmap.and(matches, allBooks) : allBooks;
+        CompressedBitmap counted = availableOnly ? CompressedBitmap.and(selection, availableBooks) : selection;
+        return new Counts(counts(booksByCategory, counted), counts(booksByAuthor, counted),
+                CompressedBitmap.andCardinality(selection, availableBooks));
+    }
+
+    private static LinkedHashMap<String, Integer> counts(HashMap<String, CompressedBitmap> facet, CompressedBitmap selection) {
+        ArrayList<Map.Entry<String, Integer>> entries = new ArrayList<>();
+        for (Map.Entry<String, CompressedBitmap> entry : facet.entrySet()) {
+            int count = CompressedBitmap.andCardinality(selection, entry.getValue());
+            if (count > 0) {
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), count));
+            }
+        }
+        entries.sort(Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+
+        LinkedHashMap<String, Integer> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : entries) {
+            result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    private static CompressedBitmap union(HashMap<String, CompressedBitmap> facet, Collection<String> values) {
+        CompressedBitmap result = new CompressedBitmap();
+        for (String value : values) {
+            CompressedBitmap bitmap = facet.get(value);
+            if (bitmap != null) {
+                result = CompressedBitmap.or(result, bitmap);
+            }
+        }
+        return result;
+    }
+
+    private static CompressedBitmap copy(CompressedBitmap bitmap) {
+        return CompressedBitmap.or(bitmap, new CompressedBitmap());
+    }
+
+    private static void removeFrom(HashMap<String, CompressedBitmap> facet, String value, int ordinal) {
+        CompressedBitmap bitmap = facet.get(value);
+        if (bitmap != null) {
+            bitmap.remove(ordinal);
+            if (bitmap.isEmpty()) {
+                facet.remove(value);
+            }
+        }
+    }
+}
@@ -1,174 +1,363 @@
 package com.library;
 
 import java.io.*;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.function.Function;
 
+// The text files of one data set, all kept in a single directory
 public class FileUtility {
-    private static final String BOOK_FILE_PATH = "src/main/java/DataPack/BookInfo.txt";
-    private static final String MEMBER_FILE_PATH = "src/main/java/DataPack/MemberInfo.txt";
-    private static final String TRANSACTION_FILE_PATH = "src/main/java/DataPack/Transaction.txt";
-    private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd");
+    // Used unless -Dlibrary.dataDir (or --data-dir on the command line) says otherwise
+    static final String DEFAULT_DATA_DIR = "src/main/java/DataPack";
 
-    // Ensure directories exist
-    static {
-        File dataPackDir = new File("src/main/java/DataPack");
-        if (!dataPackDir.exists()) {
-            dataPackDir.mkdirs();
+    private static final MetricsRegistry METRICS = MetricsRegistry.global();
+    private static final LatencyHistogram LOAD_BOOKS_LATENCY = METRICS.histogram("file.loadBooks");
+    private static final LatencyHistogram SAVE_BOOKS_LATENCY = METRICS.histogram("file.saveBooks");
+    private static final LatencyHistogram LOAD_MEMBERS_LATENCY = METRICS.histogram("file.loadMembers");
+    private static final LatencyHistogram SAVE_MEMBERS_LATENCY = METRICS.histogram("file.saveMembers");
+    private static final LatencyHistogram LOAD_RECORDS_LATENCY = METRICS.histogram("file.loadBorrowRecords");
+    private static final LatencyHistogram SAVE_RECORDS_LATENCY = METRICS.histogram("file.saveBorrowRecords");
+    private static final LatencyHistogram LOAD_HOLDS_LATENCY = METRICS.histogram("file.loadHolds");
+    private static final LatencyHistogram SAVE_HOLDS_LATENCY = METRICS.histogram("file.saveHolds");
+    private static final Counter BYTES_READ = METRICS.counter("file.bytesRead");
+    private static final Counter BYTES_WRITTEN = METRICS.counter("file.bytesWritten");
+    private static final Counter IO_ERRORS = METRICS.counter("file.errors");
+
+    private final File dataDir;
+    private final String bookFilePath;
+    private final String memberFilePath;
+    private final String transactionFilePath;
+    private final String holdFilePath;
+
+    public FileUtility(File dataDir) {
+        this.dataDir = dataDir;
+        this.bookFilePath = new File(dataDir, "BookInfo.txt").getPath();
+        this.memberFilePath = new File(dataDir, "MemberInfo.txt").getPath();
+        this.transactionFilePath = new File(dataDir, "Transaction.txt").getPath();
+        this.holdFilePath = new File(dataDir, "Holds.txt").getPath();
+
+        // Ensure the directory exists
+        if (!dataDir.exists()) {
+            dataDir.mkdirs();
         }
     }
 
+    // The data directory chosen at startup
+    static File defaultDataDir() {
+        return new File(System.getProperty("library.dataDir", DEFAULT_DATA_DIR));
+    }
+
+    public File getDataDir() {
+        return dataDir;
+    }
+
     // Book file operations
-    public static ArrayList<Book> loadBooks() {
-        ArrayList<Book> books = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(BOOK_FILE_PATH))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (!line.trim().isEmpty()) {
-                    String[] parts = line.split("\\|");
-                    if (parts.length >= 5) {
-                        String id = parts[0].trim();
-                        String title = parts[1].trim();
-                        String author = parts[2].trim();
-                        String category = parts[3].trim();
-                        int quantity = Integer.parseInt(parts[4].trim());
-                        
-                        books.add(new Book(id, title, author, category, quantity));
-                    }
-                }
+    public ArrayList<Book> loadBooks() {
+        return load(bookFilePath, "books", FileUtility::parseBook, LOAD_BOOKS_LATENCY);
+    }
+
+    public boolean saveBooks(ArrayList<Book> books) {
+        return save(bookFilePath, "books", books, FileUtility::formatBook, SAVE_BOOKS_LATENCY);
+    }
+
+    // Member file operations
+    public ArrayList<Member> loadMembers() {
+        return load(memberFilePath, "members", FileUtility::parseMember, LOAD_MEMBERS_LATENCY);
+    }
+
+    public boolean saveMembers(ArrayList<Member> members) {
+        return save(memberFilePath, "members", members, FileUtility::formatMember, SAVE_MEMBERS_LATENCY);
+    }
+
+    // Transaction file operations
+    public ArrayList<BorrowRecord> loadBorrowRecords() {
+        return load(transactionFilePath, "borrow records", FileUtility::parseBorrowRecord, LOAD_RECORDS_LATENCY);
+    }
+
+    public boolean saveBorrowRecords(ArrayList<BorrowRecord> records) {
+        return save(transactionFilePath, "borrow records", records, FileUtility::formatBorrowRecord, SAVE_RECORDS_LATENCY);
+    }
+
+    // Hold file operations, waiting holds are kept in queue order
+    public ArrayList<Hold> loadHolds() {
+        return load(holdFilePath, "holds", FileUtility::parseHold, LOAD_HOLDS_LATENCY);
+    }
+
+    public boolean saveHolds(ArrayList<Hold> holds) {
+        return save(holdFilePath, "holds", holds, FileUtility::formatHold, SAVE_HOLDS_LATENCY);
+    }
+
+    // Write a whole file under a temporary name, force it to disk and rename it over the old
+    // one, so a crash leaves either the old file or the new one and never part of either.
+    // False, with the old file untouched, when it could not be written.
+    private <T> boolean save(String path, String what, ArrayList<T> records, Function<T, String> formatter,
+                             LatencyHistogram latency) {
+        long start = System.nanoTime();
+        File target = new File(path);
+        File temp = new File(path + ".tmp");
+        try {
+            PrintWriter writer = openWriter(temp.getPath());
+            for (T record : records) {
+                writer.println(formatter.apply(record));
+            }
+            writer.close();
+            if (writer.checkError()) {
+                throw new IOException("write failed");
             }
-        } catch (FileNotFoundException e) {
-            // File doesn't exist yet, that's okay
-            System.out.println("Book file not found, will be created when needed.");
-        } catch (IOException | NumberFormatException e) {
-            System.err.println("Error loading books: " + e.getMessage());
-        }
-        return books;
-    }
-
-    public static void saveBooks(ArrayList<Book> books) {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(BOOK_FILE_PATH))) {
-            for (Book book : books) {
-                writer.println(
-                    book.getId() + "|" +
-                    book.getTitle() + "|" +
-                    book.getAuthor() + "|" +
-                    book.getCategory() + "|" +
-                    book.getAvailableQuantity()
-                );
+            try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+                channel.force(true);
             }
+            Files.move(temp.toPath(), target.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            syncDirectory();
+            return true;
         } catch (IOException e) {
-            System.err.println("Error saving books: " + e.getMessage());
+            IO_ERRORS.increment();
+            System.err.println("Error saving " + what + ": " + e.getMessage());
+            temp.delete();
+            return false;
+        } finally {
+            latency.recordSince(start);
         }
     }
 
-    // Member file operations
-    public static ArrayList<Member> loadMembers() {
-        ArrayList<Member> members = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(MEMBER_FILE_PATH))) {
+    // The rename is only durable once the directory is; not every platform can force one
+    private void syncDirectory() {
+        try (FileChannel directory = FileChannel.open(dataDir.toPath(), StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            // Renames on such platforms are as durable as they get
+        }
+    }
+
+    // Read every record of a file; a missing file is an empty one. A line that does not parse,
+    // or a file that cannot be read to the end, fails the whole load: callers would otherwise
+    // take the records that did load for all of them and could write that back over the rest.
+    private static <T> ArrayList<T> load(String path, String what, Function<String, T> parser,
+                                         LatencyHistogram latency) {
+        long start = System.nanoTime();
+        ArrayList<T> records = new ArrayList<>();
+        if (!new File(path).exists()) {
+            latency.recordSince(start);
+            return records;
+        }
+        int lineNumber = 0;
+        try (BufferedReader reader = openReader(path)) {
             String line;
             while ((line = reader.readLine()) != null) {
-                if (!line.trim().isEmpty()) {
-                    String[] parts = line.split("\\|");
-                    if (parts.length >= 4) {
-                        String id = parts[0].trim();
-                        String name = parts[1].trim();
-                        String phone = parts[2].trim();
-                        String email = parts[3].trim();
-                        
-                        Member member = new Member(id, name, phone, email);
-                        
-                        // Load borrowed books if available
-                        if (parts.length > 4 && parts[4] != null && !parts[4].isEmpty()) {
-                            String[] borrowedBooks = parts[4].split(",");
-                            for (String bookId : borrowedBooks) {
-                                if (!bookId.trim().isEmpty()) {
-                                    member.getBorrowedBooks().add(bookId.trim());
-                                }
-                            }
-                        }
-                        
-                        members.add(member);
-                    }
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
                 }
-            }
-        } catch (FileNotFoundException e) {
-            // File doesn't exist yet, that's okay
-            System.out.println("Member file not found, will be created when needed.");
-        } catch (IOException e) {
-            System.err.println("Error loading members: " + e.getMessage());
-        }
-        return members;
-    }
-
-    public static void saveMembers(ArrayList<Member> members) {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(MEMBER_FILE_PATH))) {
-            for (Member member : members) {
-                StringBuilder sb = new StringBuilder();
-                sb.append(member.getId()).append("|")
-                  .append(member.getName()).append("|")
-                  .append(member.getPhone()).append("|")
-                  .append(member.getEmail()).append("|");
-                
-                // Add borrowed books
-                ArrayList<String> borrowedBooks = member.getBorrowedBooks();
-                if (!borrowedBooks.isEmpty()) {
-                    for (int i = 0; i < borrowedBooks.size(); i++) {
-                        sb.append(borrowedBooks.get(i));
-                        if (i < borrowedBooks.size() - 1) {
-                            sb.append(",");
-                        }
-                    }
+                T record;
+                try {
+                    record = parser.apply(line);
+                } catch (RuntimeException e) {
+                    record = null;
+                }
+                if (record == null) {
+                    throw new IOException("unreadable record at line " + lineNumber);
                 }
-                
-                writer.println(sb.toString());
+                records.add(record);
             }
         } catch (IOException e) {
-            System.err.println("Error saving members: " + e.getMessage());
+            IO_ERRORS.increment();
+            throw new UncheckedIOException(new IOException("Error loading " + what + " from " + path + ": " + e.getMessage(), e));
+        } finally {
+            latency.recordSince(start);
         }
+        return records;
     }
 
-    // Transaction file operations
-    public static ArrayList<BorrowRecord> loadBorrowRecords() {
-        ArrayList<BorrowRecord> records = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(TRANSACTION_FILE_PATH))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (!line.trim().isEmpty()) {
-                    String[] parts = line.split("\\|");
-                    if (parts.length >= 4) {
-                        String memberId = parts[0].trim();
-                        String bookId = parts[1].trim();
-                        Date borrowDate = DATE_FORMAT.parse(parts[2].trim());
-                        Date dueDate = DATE_FORMAT.parse(parts[3].trim());
-                        
-                        records.add(new BorrowRecord(memberId, bookId, borrowDate, dueDate));
-                    }
+    // Files are read as they decompress, whether or not they were written compressed
+    private static BufferedReader openReader(String path) throws IOException {
+        InputStream in = new CountingInputStream(new FileInputStream(path));
+        return new BufferedReader(new InputStreamReader(BlockCodec.open(in)), BlockCodec.BLOCK_SIZE);
+    }
+
+    private static PrintWriter openWriter(String path) throws IOException {
+        OutputStream out = new CountingOutputStream(new FileOutputStream(path));
+        if (BlockCodec.isEnabled()) {
+            out = new BlockCodec.CompressingOutputStream(out);
+        }
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(out)));
+    }
+
+    // Line formats, shared with the storage engines that keep records outside these files.
+    // The parsers return null for blank or short lines.
+    static Book parseBook(String line) {
+        String[] parts = line.split("\\|");
+        if (line.trim().isEmpty() || parts.length < 5) {
+            return null;
+        }
+        String id = parts[0].trim();
+        String title = parts[1].trim();
+        String author = parts[2].trim();
+        String category = parts[3].trim();
+        int quantity = Integer.parseInt(parts[4].trim());
+
+        // Copy bitmaps are optional, older files only have the available quantity
+        BookCopies copies = parts.length >= 6
+                ? BookCopies.decode(parts[5].trim())
+                : new BookCopies(quantity);
+
+        return new Book(id, title, author, category, copies);
+    }
+
+    static String formatBook(Book book) {
+        return book.getId() + "|" +
+                book.getTitle() + "|" +
+                book.getAuthor() + "|" +
+                book.getCategory() + "|" +
+                book.getAvailableQuantity() + "|" +
+                book.getCopies().encode();
+    }
+
+    static Member parseMember(String line) {
+        String[] parts = line.split("\\|");
+        if (line.trim().isEmpty() || parts.length < 4) {
+            return null;
+        }
+        String id = parts[0].trim();
+        String name = parts[1].trim();
+        String phone = parts[2].trim();
+        String email = parts[3].trim();
+
+        Member member = new Member(id, name, phone, email);
+
+        // Load borrowed books if available
+        if (parts.length > 4 && !parts[4].isEmpty()) {
+            for (String bookId : parts[4].split(",")) {
+                if (!bookId.trim().isEmpty()) {
+                    member.addBorrowedBook(bookId.trim());
                 }
             }
-        } catch (FileNotFoundException e) {
-            // File doesn't exist yet, that's okay
-            System.out.println("Transaction file not found, will be created when needed.");
-        } catch (IOException | ParseException e) {
-            System.err.println("Error loading borrow records: " + e.getMessage());
         }
-        return records;
+        return member;
+    }
+
+    static String formatMember(Member member) {
+        return member.getId() + "|" +
+                member.getName() + "|" +
+                member.getPhone() + "|" +
+                member.getEmail() + "|" +
+                String.join(",", member.getBorrowedBooks());
+    }
+
+    static BorrowRecord parseBorrowRecord(String line) {
+        String[] parts = line.split("\\|");
+        if (line.trim().isEmpty() || parts.length < 4) {
+            return null;
+        }
+        String memberId = parts[0].trim();
+        String bookId = parts[1].trim();
+        int borrowDay = EpochDays.parseLenient(parts[2].trim());
+        int dueDay = EpochDays.parseLenient(parts[3].trim());
+        // Copy numbers are stored 1-based, older files have none
+        int copyIndex = parts.length >= 5 ? Integer.parseInt(parts[4].trim()) - 1 : -1;
+
+        return new BorrowRecord(memberId, bookId, borrowDay, dueDay, copyIndex);
+    }
+
+    static String formatBorrowRecord(BorrowRecord record) {
+        StringBuilder line = new StringBuilder(64);
+        line.append(record.getMemberId()).append('|')
+            .append(record.getBookId()).append('|');
+        EpochDays.format(record.getBorrowDay(), line);
+        line.append('|');
+        EpochDays.format(record.getDueDay(), line);
+        return line.append('|').append(record.getCopyIndex() + 1).toString();
+    }
+
+    static Hold parseHold(String line) {
+        String[] parts = line.split("\\|");
+        if (line.trim().isEmpty() || parts.length < 4) {
+            return null;
+        }
+        String memberId = parts[0].trim();
+        String bookId = parts[1].trim();
+        long placedMillis = Long.parseLong(parts[2].trim());
+        long expiresMillis = Long.parseLong(parts[3].trim());
+
+        Hold hold = new Hold(memberId, bookId, placedMillis);
+        hold.setExpiresMillis(expiresMillis);
+        if (parts.length >= 5) {
+            hold.setCopyIndex(Integer.parseInt(parts[4].trim()) - 1);
+        }
+        return hold;
+    }
+
+    static String formatHold(Hold hold) {
+        return hold.getMemberId() + "|" +
+                hold.getBookId() + "|" +
+                hold.getPlacedMillis() + "|" +
+                hold.getExpiresMillis() + "|" +
+                (hold.getCopyIndex() + 1);
     }
 
-    public static void saveBorrowRecords(ArrayList<BorrowRecord> records) {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(TRANSACTION_FILE_PATH))) {
-            for (BorrowRecord record : records) {
-                writer.println(
-                    record.getMemberId() + "|" +
-                    record.getBookId() + "|" +
-                    DATE_FORMAT.format(record.getBorrowDate()) + "|" +
-                    DATE_FORMAT.format(record.getDueDate())
-                );
+    // The bytes a load or save moved, counted as they pass rather than with a stat of the file
+    // afterwards, and added to the metrics once the file is closed
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                count++;
             }
-        } catch (IOException e) {
-            System.err.println("Error saving borrow records: " + e.getMessage());
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            BYTES_READ.add(count);
+            count = 0;
+            in.close();
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            BYTES_WRITTEN.add(count);
+            count = 0;
+            out.close();
         }
     }
 }
@@ -0,0 +1,307 @@
+package com.library;
+
+import java.util.*;
+
+// Typo-tolerant search over short texts such as titles, authors and names.
+// The index works on the vocabulary rather than on the items: every distinct
+// word is broken into trigrams, each trigram lists the words containing it, and
+// each word lists the items using it. A query word is matched against the
+// vocabulary (trigram candidates, then a bounded edit distance), and only the
+// items of the matching words are ranked, keeping the best in a small heap.
+class FuzzySearchIndex<T> {
+    private final ArrayList<T> items = new ArrayList<>();
+    private final HashMap<String, Integer> ordinalByKey = new HashMap<>();
+
+    private final HashMap<String, Integer> wordIds = new HashMap<>();
+    private final ArrayList<String> vocabulary = new ArrayList<>();
+    private final ArrayList<IntList> itemsByWord = new ArrayList<>();
+    private final HashMap<Integer, IntList> wordsByTrigram = new HashMap<>();
+    private int removedCount;
+
+    // Scratch space for counting shared trigrams per word, reused across queries
+    private int[] hitCounts = new int[0];
+
+    private static class IntList {
+        int[] values = new int[2];
+        int size;
+
+        void add(int value) {
+            // Values are added in increasing order, so a repeat is always the last one
+            if (size > 0 && values[size - 1] == value) {
+                return;
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    private static class Match {
+        final int ordinal;
+        final int distance;
+
+        Match(int ordinal, int distance) {
+            this.ordinal = ordinal;
+            this.distance = distance;
+        }
+    }
+
+    // Best match first: fewest edits, then the item indexed first
+    private static final Comparator<Match> BEST_FIRST = Comparator
+            .comparingInt((Match m) -> m.distance)
+            .thenComparingInt(m -> m.ordinal);
+
+    public synchronized void add(String key, T item, String text) {
+        remove(key);
+
+        int ordinal = items.size();
+        items.add(item);
+        ordinalByKey.put(key, ordinal);
+
+        for (String word : tokenize(text)) {
+            itemsByWord.get(wordId(word)).add(ordinal);
+        }
+    }
+
+    public synchronized void remove(String key) {
+        Integer ordinal = ordinalByKey.remove(key);
+        if (ordinal == null) {
+            return;
+        }
+        // Leave a tombstone; word lists are cleaned up when the index is rebuilt
+        items.set(ordinal, null);
+        removedCount++;
+
+        if (removedCount > 1024 && removedCount > items.size() / 2) {
+            rebuild();
+        }
+    }
+
+    public synchronized void clear() {
+        items.clear();
+        ordinalByKey.clear();
+        wordIds.clear();
+        vocabulary.clear();
+        itemsByWord.clear();
+        wordsByTrigram.clear();
+        removedCount = 0;
+    }
+
+    // Up to limit items containing a close match for every query word, fewest total edits first
+    public synchronized ArrayList<T> search(String query, int limit) {
+        String[] queryWords = tokenize(query);
+        ArrayList<T> results = new ArrayList<>();
+        if (queryWords.length == 0 || limit <= 0) {
+            return results;
+        }
+
+        // Total distance per item over the query words seen so far
+        HashMap<Integer, Integer> candidates = null;
+        for (String queryWord : queryWords) {
+            HashMap<Integer, Integer> wordMatches = matchItems(queryWord);
+            if (candidates == null) {
+                candidates = wordMatches;
+            } else {
+                // Keep only items that also match this word
+                HashMap<Integer, Integer> both = new HashMap<>();
+                for (Map.Entry<Integer, Integer> entry : candidates.entrySet()) {
+                    Integer distance = wordMatches.get(entry.getKey());
+                    if (distance != null) {
+                        both.put(entry.getKey(), entry.getValue() + distance);
+                    }
+                }
+                candidates = both;
+            }
+            if (candidates.isEmpty()) {
+                return results;
+            }
+        }
+
+        // Worst kept match at the head, so it can be replaced cheaply
+        PriorityQueue<Match> best = new PriorityQueue<>(BEST_FIRST.reversed());
+        for (Map.Entry<Integer, Integer> entry : candidates.entrySet()) {
+            Match match = new Match(entry.getKey(), entry.getValue());
+            if (best.size() < limit) {
+                best.add(match);
+            } else if (BEST_FIRST.compare(match, best.peek()) < 0) {
+                best.poll();
+                best.add(match);
+            }
+        }
+
+        ArrayList<Match> ranked = new ArrayList<>(best);
+        ranked.sort(BEST_FIRST);
+        for (Match match : ranked) {
+            results.add(items.get(match.ordinal));
+        }
+        return results;
+    }
+
+    // Live items using a vocabulary word close to the query word, with the closest distance
+    private HashMap<Integer, Integer> matchItems(String queryWord) {
+        int limit = maxEdits(queryWord);
+        if (hitCounts.length < vocabulary.size()) {
+            hitCounts = new int[Math.max(vocabulary.size(), hitCounts.length * 2)];
+        }
+
+        // Vocabulary words sharing at least one trigram with the query word
+        IntList touched = new IntList();
+        for (int trigram : trigrams(queryWord)) {
+            IntList words = wordsByTrigram.get(trigram);
+            if (words == null) {
+                continue;
+            }
+            for (int i = 0; i < words.size; i++) {
+                if (hitCounts[words.values[i]]++ == 0) {
+                    touched.add(words.values[i]);
+                }
+            }
+        }
+
+        HashMap<Integer, Integer> matches = new HashMap<>();
+        for (int i = 0; i < touched.size; i++) {
+            int wordId = touched.values[i];
+            hitCounts[wordId] = 0;
+
+            String word = vocabulary.get(wordId);
+            // Also accept a word that starts with the query word, e.g. while typing
+            int distance = word.startsWith(queryWord) ? 0 : boundedDistance(queryWord, word, limit);
+            if (distance < 0) {
+                continue;
+            }
+
+            IntList wordItems = itemsByWord.get(wordId);
+            for (int j = 0; j < wordItems.size; j++) {
+                int ordinal = wordItems.values[j];
+                if (items.get(ordinal) != null) {
+                    matches.merge(ordinal, distance, Math::min);
+                }
+            }
+        }
+        return matches;
+    }
+
+    private int wordId(String word) {
+        Integer id = wordIds.get(word);
+        if (id != null) {
+            return id;
+        }
+        id = vocabulary.size();
+        wordIds.put(word, id);
+        vocabulary.add(word);
+        itemsByWord.add(new IntList());
+        for (int trigram : trigrams(word)) {
+            wordsByTrigram.computeIfAbsent(trigram, k -> new IntList()).add(id);
+        }
+        return id;
+    }
+
+    // Edit budget grows with word length: exact for short words, up to two typos for long ones
+    private static int maxEdits(String word) {
+        if (word.length() <= 3) {
+            return 0;
+        }
+        return word.length() <= 6 ? 1 : 2;
+    }
+
+    // Levenshtein distance restricted to a band of width limit around the diagonal; -1 if above limit
+    static int boundedDistance(String a, String b, int limit) {
+        if (Math.abs(a.length() - b.length()) > limit) {
+            return -1;
+        }
+
+        int big = limit + 1;
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j <= limit ? j : big;
+        }
+
+        for (int i = 1; i <= a.length(); i++) {
+            int from = Math.max(1, i - limit);
+            int to = Math.min(b.length(), i + limit);
+            current[0] = i <= limit ? i : big;
+            if (from > 1) {
+                current[from - 1] = big;
+            }
+
+            int rowMin = current[0];
+            for (int j = from; j <= to; j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int value = Math.min(previous[j - 1] + cost, Math.min(previous[j] + 1, current[j - 1] + 1));
+                current[j] = Math.min(value, big);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (to < b.length()) {
+                current[to + 1] = big;
+            }
+            if (rowMin > limit) {
+                return -1;
+            }
+
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        int distance = previous[b.length()];
+        return distance <= limit ? distance : -1;
+    }
+
+    // Lowercased words of a text, split on anything that is not a letter or digit
+    static String[] tokenize(String text) {
+        if (text == null) {
+            return new String[0];
+        }
+        ArrayList<String> tokens = new ArrayList<>();
+        for (String token : text.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens.toArray(new String[0]);
+    }
+
+    // Trigrams of a word padded with a space on each side, packed into an int (chars are folded to 10 bits)
+    private static int[] trigrams(String word) {
+        String padded = " " + word + " ";
+        int[] result = new int[padded.length() - 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ((padded.charAt(i) & 0x3FF) << 20)
+                      | ((padded.charAt(i + 1) & 0x3FF) << 10)
+                      | (padded.charAt(i + 2) & 0x3FF);
+        }
+        return result;
+    }
+
+    // Drop tombstones from the word lists and renumber the remaining items
+    private void rebuild() {
+        int[] newOrdinals = new int[items.size()];
+        ArrayList<T> liveItems = new ArrayList<>();
+        for (int ordinal = 0; ordinal < items.size(); ordinal++) {
+            newOrdinals[ordinal] = liveItems.size();
+            if (items.get(ordinal) != null) {
+                liveItems.add(items.get(ordinal));
+            }
+        }
+
+        for (IntList wordItems : itemsByWord) {
+            int size = 0;
+            for (int i = 0; i < wordItems.size; i++) {
+                int ordinal = wordItems.values[i];
+                if (items.get(ordinal) != null) {
+                    wordItems.values[size++] = newOrdinals[ordinal];
+                }
+            }
+            wordItems.size = size;
+        }
+        for (Map.Entry<String, Integer> entry : ordinalByKey.entrySet()) {
+            entry.setValue(newOrdinals[entry.getValue()]);
+        }
+
+        items.clear();
+        items.addAll(liveItems);
+        removedCount = 0;
+    }
+}
@@ -0,0 +1,59 @@
+package com.library;
+
+// A member waiting for a copy of a title.
+// A hold is "waiting" until a returned copy is set aside for it, then "ready"
+// until the member borrows the copy or the pickup window runs out.
+class Hold {
+    private final String memberId;
+    private final String bookId;
+    private final long placedMillis;
+    private volatile long expiresMillis;  // 0 while waiting
+    private volatile boolean cancelled;
+    private volatile int copyIndex = -1;  // the copy set aside once ready
+
+    public Hold(String memberId, String bookId, long placedMillis) {
+        this.memberId = memberId;
+        this.bookId = bookId;
+        this.placedMillis = placedMillis;
+    }
+
+    public String getMemberId() {
+        return memberId;
+    }
+
+    public String getBookId() {
+        return bookId;
+    }
+
+    public long getPlacedMillis() {
+        return placedMillis;
+    }
+
+    public long getExpiresMillis() {
+        return expiresMillis;
+    }
+
+    public void setExpiresMillis(long expiresMillis) {
+        this.expiresMillis = expiresMillis;
+    }
+
+    public int getCopyIndex() {
+        return copyIndex;
+    }
+
+    public void setCopyIndex(int copyIndex) {
+        this.copyIndex = copyIndex;
+    }
+
+    public boolean isReady() {
+        return expiresMillis != 0;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void cancel() {
+        this.cancelled = true;
+    }
+}
@@ -0,0 +1,187 @@
+package com.library;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+// Per-title FIFO waitlists.
+// Returning a copy hands it to the head of the title's queue in O(1); a
+// scheduler expires ready holds that are not picked up in time and hands
+// the copy to the next member (or back to the shelf) through the expiry callback.
+class HoldManager {
+    public static final long PICKUP_WINDOW_MILLIS = TimeUnit.DAYS.toMillis(3);
+
+    private final ConcurrentHashMap<String, ConcurrentLinkedQueue<Hold>> waitlists = new ConcurrentHashMap<>();
+    // Ready holds by book id, then member id
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Hold>> readyHolds = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    // Pending expiry of each ready hold, cancelled when the holds are cleared
+    private final ConcurrentHashMap<Hold, ScheduledFuture<?>> expiries = new ConcurrentHashMap<>();
+    private final Consumer<Hold> onExpired;
+    // Expiry is only scheduled once the owner calls start(), so the callback never runs
+    // against an owner that is still being built
+    private boolean started;
+
+    public HoldManager(Consumer<Hold> onExpired) {
+        this.onExpired = onExpired;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "hold-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Queue a member for a title; false if they already wait for it or have a copy set aside
+    public boolean placeHold(String memberId, String bookId) {
+        if (findWaiting(memberId, bookId) != null || getReadyHold(memberId, bookId) != null) {
+            return false;
+        }
+        enqueue(new Hold(memberId, bookId, System.currentTimeMillis()));
+        return true;
+    }
+
+    // Put a hold back in its queue, e.g. when loading saved holds
+    public void enqueue(Hold hold) {
+        waitlists.computeIfAbsent(hold.getBookId(), key -> new ConcurrentLinkedQueue<>()).add(hold);
+    }
+
+    // Set a returned copy aside for the next waiting member; null if nobody is waiting
+    public Hold allocateCopy(String bookId, int copyIndex) {
+        ConcurrentLinkedQueue<Hold> queue = waitlists.get(bookId);
+        if (queue == null) {
+            return null;
+        }
+
+        Hold hold;
+        while ((hold = queue.poll()) != null) {
+            // Cancelled holds stay in the queue until they reach the head
+            if (!hold.isCancelled()) {
+                hold.setCopyIndex(copyIndex);
+                markReady(hold, System.currentTimeMillis() + PICKUP_WINDOW_MILLIS);
+                return hold;
+            }
+        }
+        return null;
+    }
+
+    // Register a hold whose copy is already set aside and schedule its expiry
+    public void markReady(Hold hold, long expiresMillis) {
+        hold.setExpiresMillis(expiresMillis);
+        readyHolds.computeIfAbsent(hold.getBookId(), key -> new ConcurrentHashMap<>()).put(hold.getMemberId(), hold);
+        synchronized (this) {
+            if (started) {
+                scheduleExpiry(hold);
+            }
+        }
+    }
+
+    // Start expiring ready holds, including those already past their deadline
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        for (ConcurrentHashMap<String, Hold> ready : readyHolds.values()) {
+            for (Hold hold : ready.values()) {
+                scheduleExpiry(hold);
+            }
+        }
+    }
+
+    private void scheduleExpiry(Hold hold) {
+        long delay = Math.max(0, hold.getExpiresMillis() - System.currentTimeMillis());
+        expiries.put(hold, scheduler.schedule(() -> expire(hold), delay, TimeUnit.MILLISECONDS));
+    }
+
+    // Forget every hold and its pending expiry, before holds are loaded again
+    public synchronized void clear() {
+        expiries.values().forEach(expiry -> expiry.cancel(false));
+        expiries.clear();
+        waitlists.clear();
+        readyHolds.clear();
+    }
+
+    // Stop expiring holds for good
+    public synchronized void close() {
+        scheduler.shutdownNow();
+        expiries.clear();
+    }
+
+    public Hold getReadyHold(String memberId, String bookId) {
+        ConcurrentHashMap<String, Hold> holds = readyHolds.get(bookId);
+        return holds != null ? holds.get(memberId) : null;
+    }
+
+    // Remove a ready hold because the member borrowed the copy; null if there was none
+    public Hold fulfil(String memberId, String bookId) {
+        ConcurrentHashMap<String, Hold> holds = readyHolds.get(bookId);
+        return holds != null ? holds.remove(memberId) : null;
+    }
+
+    // Cancel a member's hold; a ready hold gives its copy up through the expiry callback
+    public boolean cancelHold(String memberId, String bookId) {
+        Hold waiting = findWaiting(memberId, bookId);
+        if (waiting != null) {
+            waiting.cancel();
+            return true;
+        }
+
+        Hold ready = fulfil(memberId, bookId);
+        if (ready != null) {
+            onExpired.accept(ready);
+            return true;
+        }
+        return false;
+    }
+
+    public int getWaitingCount(String bookId) {
+        ConcurrentLinkedQueue<Hold> queue = waitlists.get(bookId);
+        if (queue == null) {
+            return 0;
+        }
+        int count = 0;
+        for (Hold hold : queue) {
+            if (!hold.isCancelled()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Every live hold, waiting ones in queue order
+    public ArrayList<Hold> getAllHolds() {
+        ArrayList<Hold> holds = new ArrayList<>();
+        for (ConcurrentLinkedQueue<Hold> queue : waitlists.values()) {
+            for (Hold hold : queue) {
+                if (!hold.isCancelled()) {
+                    holds.add(hold);
+                }
+            }
+        }
+        for (ConcurrentHashMap<String, Hold> ready : readyHolds.values()) {
+            holds.addAll(ready.values());
+        }
+        return holds;
+    }
+
+    private Hold findWaiting(String memberId, String bookId) {
+        ConcurrentLinkedQueue<Hold> queue = waitlists.get(bookId);
+        if (queue != null) {
+            for (Hold hold : queue) {
+                if (!hold.isCancelled() && hold.getMemberId().equals(memberId)) {
+                    return hold;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void expire(Hold hold) {
+        expiries.remove(hold);
+        // Only expire if the hold was neither picked up nor cancelled in the meantime
+        ConcurrentHashMap<String, Hold> holds = readyHolds.get(hold.getBookId());
+        if (holds != null && holds.remove(hold.getMemberId(), hold)) {
+            onExpired.accept(hold);
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package com.library;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Writes every change to a MutationJournal before handing it to the engine underneath,
+// which may hold it in memory or in unsynced files for a while. After a crash the journal
+// is replayed into that engine when the data set is next opened.
+//
+// Every -Dlibrary.checkpointMillis (default 60000, 0 for never) the engine underneath is
+// synced and the journal before that point deleted, so it does not grow for as long as the
+// process runs; the same happens right after a replay, and on a clean close. If the sync
+// fails, the journal is kept.
+class JournaledStorageEngine implements StorageEngine {
+    private final StorageEngine inner;
+    private final MutationJournal journal;
+    private final ScheduledExecutorService checkpoints = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "journal-checkpoint");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Entries appended before the last checkpoint
+    private long checkpointed;
+    private boolean closed;
+
+    private JournaledStorageEngine(StorageEngine inner, MutationJournal journal) {
+        this.inner = inner;
+        this.journal = journal;
+        long checkpointMillis = Long.getLong("library.checkpointMillis", 60_000);
+        if (checkpointMillis > 0) {
+            checkpoints.scheduleWithFixedDelay(this::checkpointIfChanged,
+                    checkpointMillis, checkpointMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Wrap an engine, first replaying whatever a previous run left in the journal into it.
+    // Returns the engine unwrapped if the journal cannot be opened, or if the engine's
+    // records cannot be loaded to replay into.
+    static StorageEngine open(StorageEngine inner) {
+        MutationJournal journal;
+        ArrayList<MutationJournal.Entry> entries;
+        try {
+            journal = new MutationJournal(new File(inner.getDataDir(), "journal"));
+            entries = journal.readAll();
+        } catch (IOException e) {
+            System.err.println("Error opening journal, changes will not survive a crash: " + e.getMessage());
+            return inner;
+        }
+        if (!entries.isEmpty()) {
+            try {
+                replay(inner, entries);
+            } catch (UncheckedIOException e) {
+                // The engine could not be read, so the changes have nowhere to go; the journal is
+                // kept for the next start and the data set left as it is
+                System.err.println("Not replaying the journal: " + e.getMessage());
+                journal.close(false);
+                return inner;
+            }
+        }
+        JournaledStorageEngine engine = new JournaledStorageEngine(inner, journal);
+        if (!entries.isEmpty()) {
+            // Replayed changes are stored once the engine is synced, and not replayed again
+            engine.checkpoint();
+        }
+        return engine;
+    }
+
+    private void checkpointIfChanged() {
+        synchronized (this) {
+            if (journal.getLastAppended() == checkpointed) {
+                return;
+            }
+        }
+        checkpoint();
+    }
+
+    // Cut the journal where the engine underneath is known to hold everything. Writers wait
+    // meanwhile, so no change is in the journal before the cut but not yet in the engine.
+    synchronized boolean checkpoint() {
+        if (closed) {
+            return false;
+        }
+        MutationJournal.Mark mark;
+        try {
+            mark = journal.rotate();
+            inner.sync();
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Error checkpointing the journal, keeping it: " + e.getMessage());
+            return false;
+        }
+        journal.checkpoint(mark);
+        checkpointed = mark.entries;
+        return true;
+    }
+
+    // Entries hold whole records, so applying them in order gives the last state of each.
+    // Changes are collected first and handed to the engine once per record type.
+    private static void replay(StorageEngine inner, ArrayList<MutationJournal.Entry> entries) {
+        LinkedHashMap<String, Book> books = new LinkedHashMap<>();
+        LinkedHashMap<String, Member> members = new LinkedHashMap<>();
+        LinkedHashSet<String> removedBooks = new LinkedHashSet<>();
+        LinkedHashSet<String> removedMembers = new LinkedHashSet<>();
+        LinkedHashMap<String, BorrowRecord> loans = null;
+        String holds = null;
+
+        // Loading also fills the in-memory copies that engines like the text files update from
+        inner.loadBooks();
+        inner.loadMembers();
+
+        for (MutationJournal.Entry entry : entries) {
+            switch (entry.op) {
+                case PUT_BOOK:
+                    Book book = FileUtility.parseBook(entry.payload);
+                    books.put(book.getId(), book);
+                    removedBooks.remove(book.getId());
+                    break;
+                case REMOVE_BOOK:
+                    books.remove(entry.payload);
+                    removedBooks.add(entry.payload);
+                    break;
+                case PUT_MEMBER:
+                    Member member = FileUtility.parseMember(entry.payload);
+                    members.put(member.getId(), member);
+                    removedMembers.remove(member.getId());
+                    break;
+                case REMOVE_MEMBER:
+                    members.remove(entry.payload);
+                    removedMembers.add(entry.payload);
+                    break;
+                case PUT_LOAN:
+                case REMOVE_LOAN:
+                    if (loans == null) {
+                        loans = keyLoans(inner.loadBorrowRecords());
+                    }
+                    BorrowRecord record = FileUtility.parseBorrowRecord(entry.payload);
+                    if (entry.op == MutationJournal.Op.PUT_LOAN) {
+                        loans.put(VersionedRecords.loanKey(record), record);
+                    } else {
+                        loans.remove(VersionedRecords.loanKey(record));
+                    }
+                    break;
+                case SAVE_LOANS:
+                    loans = keyLoans(parseLines(entry.payload, FileUtility::parseBorrowRecord));
+                    break;
+                case SAVE_HOLDS:
+                    holds = entry.payload;
+                    break;
+            }
+        }
+
+        for (String bookId : removedBooks) {
+            inner.removeBook(bookId);
+        }
+        if (!books.isEmpty()) {
+            inner.putBooks(books.values());
+        }
+        for (String memberId : removedMembers) {
+            inner.removeMember(memberId);
+        }
+        if (!members.isEmpty()) {
+            inner.putMembers(members.values());
+        }
+        if (loans != null) {
+            inner.saveBorrowRecords(new ArrayList<>(loans.values()));
+        }
+        if (holds != null) {
+            inner.saveHolds(parseLines(holds, FileUtility::parseHold));
+        }
+        System.err.println("Replayed " + entries.size() + " journaled changes into " + inner.getDataDir());
+    }
+
+    private static LinkedHashMap<String, BorrowRecord> keyLoans(Collection<BorrowRecord> records) {
+        LinkedHashMap<String, BorrowRecord> loans = new LinkedHashMap<>();
+        for (BorrowRecord record : records) {
+            loans.put(VersionedRecords.loanKey(record), record);
+        }
+        return loans;
+    }
+
+    private static <T> ArrayList<T> parseLines(String payload, java.util.function.Function<String, T> parser) {
+        ArrayList<T> records = new ArrayList<>();
+        for (String line : payload.split("\n")) {
+            T record = parser.apply(line);
+            if (record != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    private static <T> String joinLines(Collection<T> records, java.util.function.Function<T, String> formatter) {
+        StringBuilder lines = new StringBuilder();
+        for (T record : records) {
+            lines.append(formatter.apply(record)).append('\n');
+        }
+        return lines.toString();
+    }
+
+    MutationJournal getJournal() {
+        return journal;
+    }
+
+    @Override
+    public ArrayList<Book> loadBooks() {
+        return inner.loadBooks();
+    }
+
+    @Override
+    public ArrayList<Member> loadMembers() {
+        return inner.loadMembers();
+    }
+
+    @Override
+    public ArrayList<BorrowRecord> loadBorrowRecords() {
+        return inner.loadBorrowRecords();
+    }
+
+    @Override
+    public ArrayList<Hold> loadHolds() {
+        return inner.loadHolds();
+    }
+
+    @Override
+    public synchronized void putBook(Book book) {
+        journal.append(MutationJournal.Op.PUT_BOOK, FileUtility.formatBook(book));
+        apply(() -> inner.putBook(book));
+    }
+
+    @Override
+    public synchronized void putBooks(Collection<Book> books) {
+        for (Book book : books) {
+            journal.append(MutationJournal.Op.PUT_BOOK, FileUtility.formatBook(book));
+        }
+        apply(() -> inner.putBooks(books));
+    }
+
+    @Override
+    public synchronized void removeBook(String bookId) {
+        journal.append(MutationJournal.Op.REMOVE_BOOK, bookId);
+        apply(() -> inner.removeBook(bookId));
+    }
+
+    @Override
+    public synchronized void putMember(Member member) {
+        journal.append(MutationJournal.Op.PUT_MEMBER, FileUtility.formatMember(member));
+        apply(() -> inner.putMember(member));
+    }
+
+    @Override
+    public synchronized void putMembers(Collection<Member> members) {
+        for (Member member : members) {
+            journal.append(MutationJournal.Op.PUT_MEMBER, FileUtility.formatMember(member));
+        }
+        apply(() -> inner.putMembers(members));
+    }
+
+    @Override
+    public synchronized void removeMember(String memberId) {
+        journal.append(MutationJournal.Op.REMOVE_MEMBER, memberId);
+        apply(() -> inner.removeMember(memberId));
+    }
+
+    @Override
+    public synchronized void putBorrowRecord(BorrowRecord record) {
+        journal.append(MutationJournal.Op.PUT_LOAN, FileUtility.formatBorrowRecord(record));
+        apply(() -> inner.putBorrowRecord(record));
+    }
+
+    @Override
+    public synchronized void removeBorrowRecord(BorrowRecord record) {
+        journal.append(MutationJournal.Op.REMOVE_LOAN, FileUtility.formatBorrowRecord(record));
+        apply(() -> inner.removeBorrowRecord(record));
+    }
+
+    @Override
+    public synchronized void saveBorrowRecords(ArrayList<BorrowRecord> records) {
+        journal.append(MutationJournal.Op.SAVE_LOANS, joinLines(records, FileUtility::formatBorrowRecord));
+        apply(() -> inner.saveBorrowRecords(records));
+    }
+
+    @Override
+    public synchronized void saveHolds(ArrayList<Hold> holds) {
+        journal.append(MutationJournal.Op.SAVE_HOLDS, joinLines(holds, FileUtility::formatHold));
+        apply(() -> inner.saveHolds(holds));
+    }
+
+    // The journal already has the change, so an engine that fails to take it only delays
+    // it: the engine's sync() fails, the journal is kept, and the next start replays it
+    private void apply(Runnable change) {
+        try {
+            change.run();
+        } catch (UncheckedIOException e) {
+            System.err.println(e.getCause().getMessage() + ", keeping it in the journal");
+        }
+    }
+
+    @Override
+    public File getDataDir() {
+        return inner.getDataDir();
+    }
+
+    @Override
+    public synchronized void sync() {
+        inner.sync();
+    }
+
+    // The engine underneath is synced and closed first; only once it has everything is the
+    // journal no longer needed, otherwise it is kept for the next start to replay
+    @Override
+    public void close() {
+        checkpoints.shutdown();
+        boolean stored;
+        synchronized (this) {
+            closed = true;
+            try {
+                inner.sync();
+                inner.close();
+                stored = true;
+            } catch (RuntimeException e) {
+                System.err.println("Error closing storage, keeping the journal: " + e.getMessage());
+                stored = false;
+            }
+        }
+        journal.close(stored);
+    }
+}
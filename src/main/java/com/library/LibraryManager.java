@@ -3,87 +3,645 @@ package com.library;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.text.SimpleDateFormat;
 class LibraryManager {
-    private ArrayList<Book> books;
-    private ArrayList<Member> members;
-    private ArrayList<BorrowRecord> borrowRecords;
+    private static final MetricsRegistry METRICS = MetricsRegistry.global();
+    private static final LatencyHistogram BORROW_LATENCY = METRICS.histogram("library.borrowBook");
+    private static final LatencyHistogram RETURN_LATENCY = METRICS.histogram("library.returnBook");
+    private static final LatencyHistogram SEARCH_BOOKS_LATENCY = METRICS.histogram("library.searchBooks");
+    private static final LatencyHistogram SEARCH_MEMBERS_LATENCY = METRICS.histogram("library.searchMembers");
+    private static final LatencyHistogram RANKED_SEARCH_LATENCY = METRICS.histogram("library.rankedSearch");
+    private static final Counter BORROW_REJECTED = METRICS.counter("library.borrowBook.rejected");
+    private static final Counter RETURN_REJECTED = METRICS.counter("library.returnBook.rejected");
+    private static final Counter TRANSACTION_CONFLICTS = METRICS.counter("mvcc.conflicts");
+    private static final Counter TRANSACTION_ROLLBACKS = METRICS.counter("mvcc.rollbacks");
+
+    // Ids are storage keys, and loan and hold keys are made of two of them, so they are
+    // kept well inside what a B+tree leaf entry can hold
+    static final int MAX_ID_BYTES = 256;
+
+    private final StorageEngine storage;
+    // Records by id, in the order they were loaded or added
+    private LinkedHashMap<String, Book> books;
+    private LinkedHashMap<String, Member> members;
+    // Loans by loan key, see VersionedRecords.loanKey
+    private LinkedHashMap<String, BorrowRecord> borrowRecords;
+    // The same loans by member id, so a member's loans are found without a scan
+    private final HashMap<String, ArrayList<BorrowRecord>> loansByMember = new HashMap<>();
+    // How many loans each book has, so a book on loan is found without a scan
+    private final HashMap<String, Integer> loansByBook = new HashMap<>();
+    // Replaced on reload; read without the lock by getLoanHistory
+    private volatile LoanHistoryStore loanHistory;
+    private final CirculationAnalytics analytics = new CirculationAnalytics();
+    // Loan counts and due days of recently used members, -Dlibrary.memberSummaryCache sets how many
+    private final MemberSummaryCache memberSummaries =
+            new MemberSummaryCache(Integer.getInteger("library.memberSummaryCache", 10_000));
+    // Loan periods, limits and blocks from the data directory, reloaded with the data
+    private CheckoutPolicy checkoutPolicy;
+    private final HoldManager holdManager = new HoldManager(this::onHoldExpired);
+    private final FuzzySearchIndex<Book> bookFuzzyIndex = new FuzzySearchIndex<>();
+    private final FuzzySearchIndex<Member> memberFuzzyIndex = new FuzzySearchIndex<>();
+    private final RankedSearchIndex<Book> bookRankedIndex = new RankedSearchIndex<>(
+            book -> book.getId() + " " + book.getTitle() + " " + book.getAuthor() + " " + book.getCategory());
+    private final RankedSearchIndex<Member> memberRankedIndex = new RankedSearchIndex<>(
+            member -> member.getId() + " " + member.getName() + " " + member.getPhone() + " " + member.getEmail());
+    private final FacetIndex facetIndex = new FacetIndex();
+    private final ChangeEventDispatcher changeEvents = new ChangeEventDispatcher(4096);
+    // Committed versions for read and write transactions; changes published inside a batch
+    // become visible together when the outermost batch ends
+    private final VersionedRecords versions = new VersionedRecords();
+    private int versionBatchDepth;
+    // Set when -Dlibrary.offHeap=true, book and member text is then kept outside the heap
+    private OffHeapRecordStore offHeapRecords;
+    // Set when this manager ships its changes to replicas, or follows a primary
+    private ReplicationPrimary replicationPrimary;
+    private ReplicaClient replicaClient;
+    // Set on a replica, which only changes through replication, or when stored records could
+    // not be read, where writing back what did load would overwrite the rest: every local
+    // change is refused
+    private boolean readOnly;
+    private final boolean replica;
+    private boolean recordsUnreadable;
+    private boolean holdsUnreadable;
+    // Gauges reading this manager, removed from the process-wide registry on close
+    private final LinkedHashMap<String, java.util.function.LongSupplier> gauges = new LinkedHashMap<>();
+    // Record counts for the gauges, which are read on other threads without the lock
+    private volatile int bookCount;
+    private volatile int memberCount;
+    private volatile int loanCount;
 
     public LibraryManager() {
-        // Load data from files
+        this(StorageEngine.open(), System.getProperty("library.replicaOf") != null);
+        startReplication();
+    }
+
+    LibraryManager(StorageEngine storage) {
+        this(storage, false);
+    }
+
+    // A replica takes its records and hold expiries from the primary: its own copy is not
+    // checked or repaired, since the first snapshot replaces it, and its hold deadlines never fire
+    LibraryManager(StorageEngine storage, boolean replica) {
+        this.storage = storage;
+        this.replica = replica;
+
+        // Load data from storage
         loadAllData();
+        loadHolds();
+        if (!replica) {
+            checkConsistency();
+        }
+        versions.stageAll(books.values(), members.values(), borrowRecords.values());
+        versions.commit();
+
+        registerGauges();
+
+        // Last, once everything above is in place: expiring a hold calls back into the manager.
+        // A read-only manager keeps its holds as loaded.
+        if (!readOnly) {
+            holdManager.start();
+        }
+    }
+
+    // Whether local changes are refused, as they are on a replica or after a failed load
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    public boolean isReplica() {
+        return replica;
+    }
+
+    // The registry is shared by the whole process, so the gauges go in once the manager is
+    // complete and come out again in close(); a closed manager is not kept alive by them
+    private void registerGauges() {
+        gauges.put("library.books", () -> bookCount);
+        gauges.put("library.members", () -> memberCount);
+        gauges.put("library.activeLoans", () -> loanCount);
+        gauges.put("events.maxLag", changeEvents::getMaxLag);
+        gauges.put("mvcc.openSnapshots", versions::getOpenSnapshotCount);
+        gauges.put("summary.size", memberSummaries::size);
+        if (offHeapRecords != null) {
+            gauges.put("offheap.bytes", () -> offHeapRecords.getAllocatedBytes());
+            gauges.put("offheap.garbageBytes", () -> offHeapRecords.getGarbageBytes());
+        }
+        gauges.forEach(METRICS::gauge);
     }
     
-    // Load all data from files
+    // -Dlibrary.replicationListen=[host:]port serves replicas, -Dlibrary.replicaOf=host:port follows a primary
+    private void startReplication() {
+        String replicaOf = System.getProperty("library.replicaOf");
+        if (replicaOf != null) {
+            replicaClient = ReplicaClient.start(this, replicaOf);
+        }
+        String listen = System.getProperty("library.replicationListen");
+        if (listen != null) {
+            try {
+                replicationPrimary = ReplicationPrimary.start(this, listen);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error starting replication on " + listen + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Load all data from storage
     private void loadAllData() {
-        books = FileUtility.loadBooks();
-        members = FileUtility.loadMembers();
-        borrowRecords = FileUtility.loadBorrowRecords();
+        if (Boolean.getBoolean("library.offHeap")) {
+            // A fresh store on every load, the old one is freed once nothing refers to it
+            offHeapRecords = new OffHeapRecordStore();
+            versions.setFrozenStore(offHeapRecords);
+        }
+        ArrayList<Book> storedBooks = readStored(storage::loadBooks);
+        ArrayList<Member> storedMembers = readStored(storage::loadMembers);
+        ArrayList<BorrowRecord> storedLoans = readStored(storage::loadBorrowRecords);
+        recordsUnreadable = storedBooks == null || storedMembers == null || storedLoans == null;
+        readOnly = replica || recordsUnreadable || holdsUnreadable;
+
+        // The first of two records with one id wins, as in the consistency check
+        books = new LinkedHashMap<>();
+        for (Book book : storedBooks != null ? storedBooks : new ArrayList<Book>()) {
+            books.putIfAbsent(book.getId(), adopt(book));
+        }
+        members = new LinkedHashMap<>();
+        for (Member member : storedMembers != null ? storedMembers : new ArrayList<Member>()) {
+            members.putIfAbsent(member.getId(), adopt(member));
+        }
+        ArrayList<BorrowRecord> loans = storedLoans != null ? storedLoans : new ArrayList<>();
+
+        // Loans saved before copies were tracked get a copy number of their own
+        boolean migrated = false;
+        for (BorrowRecord record : loans) {
+            Book book = getBook(record.getBookId());
+            if (record.getCopyIndex() < 0 && book != null && !recordsUnreadable) {
+                record.setCopyIndex(book.getCopies().addCheckedOutCopy());
+                storage.putBook(book);
+                migrated = true;
+            }
+        }
+        if (migrated) {
+            storage.saveBorrowRecords(loans);
+        }
+        borrowRecords = keyLoans(loans);
+        rebuildIndexes();
+
+        loanHistory = new LoanHistoryStore(new java.io.File(storage.getDataDir(), "history"));
+        analytics.rebuild(books.values(), borrowRecords.values(), loanHistory);
+        memberSummaries.clear();
+        checkoutPolicy = CheckoutPolicy.load(storage.getDataDir());
+    }
+
+    // Every record of one type, or null when the store could not read them all
+    private static <T> ArrayList<T> readStored(java.util.function.Supplier<ArrayList<T>> load) {
+        try {
+            return load.get();
+        } catch (java.io.UncheckedIOException e) {
+            System.err.println(e.getCause().getMessage() + ". Changes are refused until the data is fixed and reloaded.");
+            return null;
+        }
+    }
+
+    // The first of two loans with one key wins
+    private static LinkedHashMap<String, BorrowRecord> keyLoans(Collection<BorrowRecord> loans) {
+        LinkedHashMap<String, BorrowRecord> keyed = new LinkedHashMap<>();
+        for (BorrowRecord record : loans) {
+            keyed.putIfAbsent(VersionedRecords.loanKey(record), record);
+        }
+        return keyed;
+    }
+
+    private void updateCounts() {
+        bookCount = books.size();
+        memberCount = members.size();
+        loanCount = borrowRecords.size();
+    }
+
+    private void rebuildIndexes() {
+        updateCounts();
+        loansByMember.clear();
+        loansByBook.clear();
+        for (BorrowRecord record : borrowRecords.values()) {
+            indexLoan(record);
+        }
+        bookFuzzyIndex.clear();
+        bookRankedIndex.clear();
+        facetIndex.clear();
+        for (Book book : books.values()) {
+            indexBook(book);
+        }
+        memberFuzzyIndex.clear();
+        memberRankedIndex.clear();
+        for (Member member : members.values()) {
+            indexMember(member);
+        }
     }
     
-    // Save all data to files
-    private void saveAllData() {
-        FileUtility.saveBooks(books);
-        FileUtility.saveMembers(members);
-        FileUtility.saveBorrowRecords(borrowRecords);
+    // -Dlibrary.consistency=report (the default), repair or off.
+    // Books, members and loans are saved separately, so an interrupted save can leave them
+    // disagreeing; they are cross-checked once all records are loaded. Records that failed to
+    // load would all look missing, so nothing is checked then.
+    private void checkConsistency() {
+        String mode = System.getProperty("library.consistency", "report");
+        if (mode.equals("off")) {
+            return;
+        }
+        if (recordsUnreadable || holdsUnreadable) {
+            System.err.println("Not checking consistency, some records could not be loaded.");
+            return;
+        }
+        ArrayList<BorrowRecord> loans = new ArrayList<>(borrowRecords.values());
+        ConsistencyChecker checker = new ConsistencyChecker(books.values(), members.values(), loans, holdManager.getAllHolds());
+        java.util.List<ConsistencyChecker.Issue> issues = checker.check();
+        if (issues.isEmpty()) {
+            return;
+        }
+
+        System.err.println("Found " + issues.size() + " inconsistencies in " + storage.getDataDir() + ":");
+        for (int i = 0; i < Math.min(issues.size(), 20); i++) {
+            System.err.println("  " + issues.get(i));
+        }
+        if (issues.size() > 20) {
+            System.err.println("  ... and " + (issues.size() - 20) + " more");
+        }
+
+        if (mode.equals("repair")) {
+            // Repair drops loans and moves them to other copies, which changes their keys
+            checker.repair(storage);
+            borrowRecords = keyLoans(loans);
+            rebuildIndexes();
+            analytics.rebuild(books.values(), borrowRecords.values(), loanHistory);
+            memberSummaries.clear();
+            System.err.println("Repaired " + issues.size() + " inconsistencies, loans were kept as recorded.");
+        }
+    }
+
+    // Restore saved holds; pickup deadlines of copies already set aside are scheduled once the
+    // manager is built
+    private void loadHolds() {
+        ArrayList<Hold> storedHolds = readStored(storage::loadHolds);
+        holdsUnreadable = storedHolds == null;
+        readOnly |= holdsUnreadable;
+        if (holdsUnreadable) {
+            return;
+        }
+        boolean migrated = false;
+        for (Hold hold : storedHolds) {
+            Book book = getBook(hold.getBookId());
+            if (hold.isReady() && hold.getCopyIndex() < 0 && book != null && !recordsUnreadable) {
+                hold.setCopyIndex(book.getCopies().addCheckedOutCopy());
+                storage.putBook(book);
+                migrated = true;
+            }
+            if (hold.isReady()) {
+                holdManager.markReady(hold, hold.getExpiresMillis());
+            } else {
+                holdManager.enqueue(hold);
+            }
+        }
+        if (migrated) {
+            storage.saveHolds(holdManager.getAllHolds());
+        }
+    }
+
+    // The off-heap view of a record, or the record itself when the off-heap store is off
+    private Book adopt(Book book) {
+        return offHeapRecords != null ? offHeapRecords.book(book) : book;
+    }
+
+    private Member adopt(Member member) {
+        return offHeapRecords != null ? offHeapRecords.member(member) : member;
+    }
+
+    // The journal changes are written to before storage, or null when storage is not journaled.
+    // An entry appended while a change was made is on disk once whenDurable() completes.
+    MutationJournal getJournal() {
+        return storage instanceof JournaledStorageEngine ? ((JournaledStorageEngine) storage).getJournal() : null;
+    }
+
+    // Stop replicating and close storage, which makes every change durable
+    public synchronized void close() {
+        gauges.forEach(METRICS::removeGauge);
+        if (replicaClient != null) {
+            replicaClient.close();
+        }
+        if (replicationPrimary != null) {
+            replicationPrimary.close();
+        }
+        holdManager.close();
+        storage.close();
+    }
+
+    // Events are published while the manager's lock is held, so subscribers see changes in order
+    private void publish(ChangeEvent.Type type, String key, Object record) {
+        updateCounts();
+        changeEvents.publish(new ChangeEvent(type, key, record));
+        stageVersion(type, key, record);
+        if (versionBatchDepth == 0) {
+            versions.commit();
+        }
+    }
+
+    private void stageVersion(ChangeEvent.Type type, String key, Object record) {
+        switch (type) {
+            case BOOK_ADDED:
+            case BOOK_UPDATED:
+            case BOOK_REMOVED:
+                versions.stageBook(key, (Book) record);
+                break;
+            case MEMBER_ADDED:
+            case MEMBER_UPDATED:
+            case MEMBER_REMOVED:
+                versions.stageMember(key, (Member) record);
+                break;
+            case LOAN_OPENED:
+            case LOAN_CLOSED:
+                versions.stageLoan((BorrowRecord) record, type == ChangeEvent.Type.LOAN_OPENED);
+                break;
+            case RELOADED:
+                versions.stageAll(books.values(), members.values(), borrowRecords.values());
+                break;
+        }
+    }
+
+    private void beginVersionBatch() {
+        versionBatchDepth++;
+    }
+
+    private void endVersionBatch() {
+        if (--versionBatchDepth == 0) {
+            versions.commit();
+        }
+    }
+
+    // A consistent view that takes no lock, for reports and anything else that reads a lot;
+    // the getters above return the live records instead. Close it when done.
+    public ReadTransaction beginRead() {
+        return new ReadTransaction(versions);
+    }
+
+    // An optimistic transaction over books and members, applied by its commit()
+    public WriteTransaction beginWrite() {
+        return new WriteTransaction(this, versions);
+    }
+
+    // Run work in write transactions until one commits, starting again from a fresh snapshot
+    // when another commit got in first. work returns false to give up without committing.
+    public boolean transact(java.util.function.Predicate<WriteTransaction> work, int maxAttempts) {
+        for (int attempt = 0; attempt < maxAttempts; attempt++) {
+            try (WriteTransaction tx = beginWrite()) {
+                if (!work.test(tx)) {
+                    return false;
+                }
+                if (tx.commit()) {
+                    return true;
+                }
+                if (!tx.isConflicted()) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Apply a write transaction if nothing it depends on has been committed since it began
+    synchronized boolean commit(WriteTransaction tx) {
+        if (readOnly) {
+            return false;
+        }
+        if (tx.checkConflicts()) {
+            TRANSACTION_CONFLICTS.increment();
+            return false;
+        }
+        // Refuse the whole transaction up front rather than apply part of it
+        for (Map.Entry<String, Book> write : tx.getBookWrites().entrySet()) {
+            if (write.getValue() == null && isBookOnLoan(write.getKey())) {
+                return false;
+            }
+        }
+        for (Map.Entry<String, Member> write : tx.getMemberWrites().entrySet()) {
+            Member member = getMember(write.getKey());
+            if (write.getValue() == null && member != null && !member.getBorrowedBooks().isEmpty()) {
+                return false;
+            }
+        }
+
+        // Readers see all of it or none; a change refused part way undoes the ones before it
+        ArrayList<Runnable> undo = new ArrayList<>();
+        boolean applied = false;
+        beginVersionBatch();
+        try {
+            for (Map.Entry<String, Book> write : tx.getBookWrites().entrySet()) {
+                if (!applyBookWrite(write.getKey(), write.getValue(), undo)) {
+                    return false;
+                }
+            }
+            for (Map.Entry<String, Member> write : tx.getMemberWrites().entrySet()) {
+                if (!applyMemberWrite(write.getKey(), write.getValue(), undo)) {
+                    return false;
+                }
+            }
+            applied = true;
+        } finally {
+            if (!applied) {
+                for (int i = undo.size() - 1; i >= 0; i--) {
+                    undo.get(i).run();
+                }
+                TRANSACTION_ROLLBACKS.increment();
+            }
+            endVersionBatch();
+        }
+        return true;
+    }
+
+    // Apply one book change of a transaction, adding to undo what puts it back
+    private boolean applyBookWrite(String bookId, Book book, ArrayList<Runnable> undo) {
+        Book existing = books.get(bookId);
+        Book before = existing != null ? VersionedRecords.freeze(existing) : null;
+        if (book == null) {
+            if (existing == null) {
+                return true;
+            }
+            if (!removeBook(bookId)) {
+                return false;
+            }
+            undo.add(() -> addBook(before));
+        } else if (existing != null) {
+            if (!updateBook(book)) {
+                return false;
+            }
+            undo.add(() -> updateBook(before));
+        } else {
+            if (!addBook(book)) {
+                return false;
+            }
+            undo.add(() -> removeBook(bookId));
+        }
+        return true;
+    }
+
+    private boolean applyMemberWrite(String memberId, Member member, ArrayList<Runnable> undo) {
+        Member existing = members.get(memberId);
+        Member before = existing != null ? VersionedRecords.freeze(existing) : null;
+        if (member == null) {
+            if (existing == null) {
+                return true;
+            }
+            if (!removeMember(memberId)) {
+                return false;
+            }
+            undo.add(() -> addMember(before));
+        } else if (existing != null) {
+            if (!updateMember(member)) {
+                return false;
+            }
+            undo.add(() -> updateMember(before));
+        } else {
+            if (!addMember(member)) {
+                return false;
+            }
+            undo.add(() -> removeMember(memberId));
+        }
+        return true;
+    }
+
+    // Receive every change made from now on. Handlers run on their own thread and must not call
+    // back into this manager: a publisher waiting on a full buffer holds the manager's lock.
+    public ChangeEventDispatcher.Subscription subscribe(String name, java.util.function.Consumer<ChangeEvent> handler) {
+        return changeEvents.subscribe(name, handler);
+    }
+
+    private void indexBook(Book book) {
+        bookFuzzyIndex.add(book.getId(), book, book.getTitle() + " " + book.getAuthor());
+        bookRankedIndex.add(book.getId(), book);
+        facetIndex.add(book);
+    }
+
+    private void indexMember(Member member) {
+        memberFuzzyIndex.add(member.getId(), member, member.getName());
+        memberRankedIndex.add(member.getId(), member);
+    }
+
+    public static boolean isValidId(String id) {
+        return id.getBytes(StandardCharsets.UTF_8).length <= MAX_ID_BYTES;
+    }
+
+    // Whether every text field fits in a record; the off-heap store has room for 64 KB each
+    public static boolean isValidText(String... fields) {
+        for (String field : fields) {
+            if (field != null && field.getBytes(StandardCharsets.UTF_8).length > OffHeapRecordStore.MAX_STRING_BYTES) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isValidText(Book book) {
+        return isValidText(book.getTitle(), book.getAuthor(), book.getCategory());
+    }
+
+    private static boolean isValidText(Member member) {
+        return isValidText(member.getName(), member.getPhone(), member.getEmail());
     }
 
     // Book management methods
-    public boolean addBook(Book book) {
+    public synchronized boolean addBook(Book book) {
+        if (readOnly) {
+            return false;
+        }
+        if (!isValidId(book.getId()) || !isValidText(book)) {
+            return false;  // Too long to store
+        }
         if (getBook(book.getId()) != null) {
             return false;  // Book with this ID already exists
         }
-        books.add(book);
-        FileUtility.saveBooks(books); // Save changes to file
+        book = adopt(book);
+        books.put(book.getId(), book);
+        indexBook(book);
+        storage.putBook(book); // Save changes to storage
+        publish(ChangeEvent.Type.BOOK_ADDED, book.getId(), book);
         return true;
     }
 
-    public boolean updateBook(Book book) {
-        for (int i = 0; i < books.size(); i++) {
-            if (books.get(i).getId().equals(book.getId())) {
-                books.set(i, book);
-                FileUtility.saveBooks(books); // Save changes to file
-                return true;
+    public synchronized boolean updateBook(Book book) {
+        if (readOnly) {
+            return false;
+        }
+        Book existing = books.get(book.getId());
+        if (existing == null) {
+            return false;  // Book not found
+        }
+        if (!isValidText(book)) {
+            return false;  // Too long to store
+        }
+        // Keep the existing copies, so loans still point at the right ones,
+        // and add or retire shelf copies to match the requested availability
+        BookCopies copies = existing.getCopies();
+        int added = book.getAvailableQuantity() - copies.getAvailableCount();
+        copies.setAvailableCount(book.getAvailableQuantity());
+        // Copies added go to members waiting for the title before anyone else
+        boolean holdsChanged = false;
+        for (; added > 0; added--) {
+            int copyIndex = copies.checkOut();
+            if (copyIndex < 0) {
+                break;
+            }
+            if (holdManager.allocateCopy(book.getId(), copyIndex) == null) {
+                copies.checkIn(copyIndex);
+                break;
             }
+            holdsChanged = true;
         }
-        return false;  // Book not found
+        book.setCopies(copies);
+        book = adopt(book);
+        books.put(book.getId(), book);
+        indexBook(book);
+        storage.putBook(book); // Save changes to storage
+        if (holdsChanged) {
+            storage.saveHolds(holdManager.getAllHolds());
+        }
+        publish(ChangeEvent.Type.BOOK_UPDATED, book.getId(), book);
+        return true;
     }
 
-    public boolean removeBook(String bookId) {
+    public synchronized boolean removeBook(String bookId) {
+        if (readOnly) {
+            return false;
+        }
         Book book = getBook(bookId);
         if (book == null) {
             return false;  // Book not found
         }
 
-        // Check if the book is currently borrowed
-        for (BorrowRecord record : borrowRecords) {
-            if (record.getBookId().equals(bookId)) {
-                return false;  // Book is currently borrowed
-            }
+        if (isBookOnLoan(bookId)) {
+            return false;  // Book is currently borrowed
         }
 
-        books.remove(book);
-        FileUtility.saveBooks(books); // Save changes to file
+        books.remove(bookId);
+        bookFuzzyIndex.remove(bookId);
+        bookRankedIndex.remove(bookId);
+        facetIndex.remove(bookId);
+        storage.removeBook(bookId); // Save changes to storage
+        publish(ChangeEvent.Type.BOOK_REMOVED, bookId, null);
         return true;
     }
 
-    public Book getBook(String bookId) {
-        for (Book book : books) {
-            if (book.getId().equals(bookId)) {
-                return book;
-            }
-        }
-        return null;
+    private boolean isBookOnLoan(String bookId) {
+        return loansByBook.containsKey(bookId);
+    }
+
+    public synchronized Book getBook(String bookId) {
+        return books.get(bookId);
     }
 
-    public ArrayList<Book> getAllBooks() {
-        return new ArrayList<>(books);
+    public synchronized ArrayList<Book> getAllBooks() {
+        return new ArrayList<>(books.values());
     }
 
-    public ArrayList<Book> getAvailableBooks() {
+    public synchronized ArrayList<Book> getAvailableBooks() {
         ArrayList<Book> availableBooks = new ArrayList<>();
-        for (Book book : books) {
+        for (Book book : books.values()) {
             if (book.getAvailableQuantity() > 0) {
                 availableBooks.add(book);
             }
@@ -91,15 +649,19 @@ class LibraryManager {
         return availableBooks;
     }
 
-    public ArrayList<Book> searchBooks(String searchTerm) {
+    public synchronized ArrayList<Book> searchBooks(String searchTerm) {
+        long start = System.nanoTime();
+        ArrayList<Book> results = findBooks(searchTerm);
+        SEARCH_BOOKS_LATENCY.recordSince(start);
+        return results;
+    }
+
+    private ArrayList<Book> findBooks(String searchTerm) {
         ArrayList<Book> results = new ArrayList<>();
         searchTerm = searchTerm.toLowerCase();
 
-        for (Book book : books) {
-            if (book.getId().toLowerCase().contains(searchTerm) ||
-                    book.getTitle().toLowerCase().contains(searchTerm) ||
-                    book.getAuthor().toLowerCase().contains(searchTerm) ||
-                    book.getCategory().toLowerCase().contains(searchTerm)) {
+        for (Book book : books.values()) {
+            if (book.containsText(searchTerm)) {
                 results.add(book);
             }
         }
@@ -107,30 +669,121 @@ class LibraryManager {
         return results;
     }
 
+    // One page of books ranked by relevance; pass the previous page's cursor, or null for the first page
+    public SearchPage<Book> searchBooksRanked(String searchTerm, int pageSize, String cursor) {
+        long start = System.nanoTime();
+        SearchPage<Book> page = bookRankedIndex.search(searchTerm, pageSize, cursor);
+        RANKED_SEARCH_LATENCY.recordSince(start);
+        return page;
+    }
+
+    // Ranked search narrowed by facets; category and author may be null to allow any
+    public SearchPage<Book> searchBooksRanked(String searchTerm, int pageSize, String cursor,
+                                              String category, String author, boolean availableOnly) {
+        long start = System.nanoTime();
+        CompressedBitmap allowed = facetIndex.filter(
+                category != null ? Collections.singleton(category) : null,
+                author != null ? Collections.singleton(author) : null,
+                null, availableOnly);
+        // allowed is this call's own bitmap, so matches are tested against it without the facet lock
+        SearchPage<Book> page = bookRankedIndex.search(searchTerm, pageSize, cursor,
+                book -> facetIndex.contains(allowed, book));
+        RANKED_SEARCH_LATENCY.recordSince(start);
+        return page;
+    }
+
+    // Books matching any of the categories and any of the authors (empty or null allows all),
+    // none of the excluded categories and, optionally, with a copy on the shelf
+    public ArrayList<Book> filterBooks(Collection<String> categories, Collection<String> authors,
+                                       Collection<String> excludedCategories, boolean availableOnly) {
+        return facetIndex.books(facetIndex.filter(categories, authors, excludedCategories, availableOnly));
+    }
+
+    // Every facet count for the books matching a search term (all books if the term is empty),
+    // from one pass over the matches and one intersection per facet value
+    public FacetIndex.Counts getFacetCounts(String searchTerm, boolean availableOnly) {
+        return facetIndex.counts(textMatches(searchTerm), availableOnly);
+    }
+
+    public LinkedHashMap<String, Integer> getCategoryFacetCounts(String searchTerm, boolean availableOnly) {
+        return getFacetCounts(searchTerm, availableOnly).getCategories();
+    }
+
+    public LinkedHashMap<String, Integer> getAuthorFacetCounts(String searchTerm, boolean availableOnly) {
+        return getFacetCounts(searchTerm, availableOnly).getAuthors();
+    }
+
+    public int getAvailableFacetCount(String searchTerm) {
+        return getFacetCounts(searchTerm, false).getAvailable();
+    }
+
+    // Facet ordinals of the books matching a search term as a bitmap, null when there is no term
+    private CompressedBitmap textMatches(String searchTerm) {
+        if (searchTerm == null || searchTerm.trim().isEmpty()) {
+            return null;
+        }
+        java.util.stream.IntStream.Builder ordinals = java.util.stream.IntStream.builder();
+        bookRankedIndex.forEachMatch(searchTerm, book -> {
+            int ordinal = facetIndex.ordinalOf(book.getId());
+            if (ordinal >= 0) {
+                ordinals.add(ordinal);
+            }
+        });
+        // Added in order, each value lands at the end of its chunk
+        CompressedBitmap matches = new CompressedBitmap();
+        ordinals.build().sorted().forEach(matches::add);
+        return matches;
+    }
+
+    // Typo-tolerant search over titles and authors, best matches first
+    public ArrayList<Book> fuzzySearchBooks(String searchTerm, int limit) {
+        return bookFuzzyIndex.search(searchTerm, limit);
+    }
+
     // Member management methods
-    public boolean addMember(Member member) {
+    public synchronized boolean addMember(Member member) {
+        if (readOnly) {
+            return false;
+        }
+        if (!isValidId(member.getId()) || !isValidText(member)) {
+            return false;  // Too long to store
+        }
         if (getMember(member.getId()) != null) {
             return false;  // Member with this ID already exists
         }
-        members.add(member);
-        FileUtility.saveMembers(members); // Save changes to file
+        member = adopt(member);
+        members.put(member.getId(), member);
+        indexMember(member);
+        storage.putMember(member); // Save changes to storage
+        publish(ChangeEvent.Type.MEMBER_ADDED, member.getId(), member);
         return true;
     }
 
-    public boolean updateMember(Member member) {
-        for (int i = 0; i < members.size(); i++) {
-            if (members.get(i).getId().equals(member.getId())) {
-                // Keep the borrowed books list
-                member.setBorrowedBooks(members.get(i).getBorrowedBooks());
-                members.set(i, member);
-                FileUtility.saveMembers(members); // Save changes to file
-                return true;
-            }
+    public synchronized boolean updateMember(Member member) {
+        if (readOnly) {
+            return false;
         }
-        return false;  // Member not found
+        Member existing = members.get(member.getId());
+        if (existing == null) {
+            return false;  // Member not found
+        }
+        if (!isValidText(member)) {
+            return false;  // Too long to store
+        }
+        // Keep the borrowed books list
+        member.setBorrowedBooks(existing.getBorrowedBooks());
+        member = adopt(member);
+        members.put(member.getId(), member);
+        indexMember(member);
+        storage.putMember(member); // Save changes to storage
+        publish(ChangeEvent.Type.MEMBER_UPDATED, member.getId(), member);
+        return true;
     }
 
-    public boolean removeMember(String memberId) {
+    public synchronized boolean removeMember(String memberId) {
+        if (readOnly) {
+            return false;
+        }
         Member member = getMember(memberId);
         if (member == null) {
             return false;  // Member not found
@@ -141,33 +794,94 @@ class LibraryManager {
             return false;  // Member has borrowed books
         }
 
-        members.remove(member);
-        FileUtility.saveMembers(members); // Save changes to file
+        members.remove(memberId);
+        memberFuzzyIndex.remove(memberId);
+        memberRankedIndex.remove(memberId);
+        memberSummaries.invalidate(memberId);
+        storage.removeMember(memberId); // Save changes to storage
+        publish(ChangeEvent.Type.MEMBER_REMOVED, memberId, null);
         return true;
     }
 
-    public Member getMember(String memberId) {
-        for (Member member : members) {
-            if (member.getId().equals(memberId)) {
-                return member;
+    public synchronized Member getMember(String memberId) {
+        return members.get(memberId);
+    }
+
+    public synchronized ArrayList<Member> getAllMembers() {
+        return new ArrayList<>(members.values());
+    }
+
+    // Loan count, overdue loans, next due day and lifetime borrows, null for an unknown member
+    public synchronized MemberSummary getMemberSummary(String memberId) {
+        if (getMember(memberId) == null) {
+            return null;
+        }
+        return memberSummaries.get(memberId, this::summarize);
+    }
+
+    // Summaries of every member from one pass over the loans, leaving the cache to the members in use
+    public synchronized HashMap<String, MemberSummary> getMemberSummaries() {
+        return summarizeAll(members.values(), borrowRecords.values());
+    }
+
+    // The same from a read transaction's snapshot, without the manager's lock
+    public HashMap<String, MemberSummary> getMemberSummaries(ReadTransaction view) {
+        return summarizeAll(view.getAllMembers(), view.getAllBorrowRecords());
+    }
+
+    private HashMap<String, MemberSummary> summarizeAll(Collection<Member> allMembers, Collection<BorrowRecord> loans) {
+        HashMap<String, ArrayList<BorrowRecord>> loansByMember = new HashMap<>();
+        for (BorrowRecord record : loans) {
+            loansByMember.computeIfAbsent(record.getMemberId(), id -> new ArrayList<>()).add(record);
+        }
+        HashMap<String, MemberSummary> summaries = new HashMap<>();
+        for (Member member : allMembers) {
+            summaries.put(member.getId(), summarize(member.getId(),
+                    loansByMember.getOrDefault(member.getId(), new ArrayList<>())));
+        }
+        return summaries;
+    }
+
+    private MemberSummary summarize(String memberId) {
+        return summarize(memberId, loansByMember.getOrDefault(memberId, new ArrayList<>()));
+    }
+
+    private void indexLoan(BorrowRecord record) {
+        loansByMember.computeIfAbsent(record.getMemberId(), id -> new ArrayList<>()).add(record);
+        loansByBook.merge(record.getBookId(), 1, Integer::sum);
+    }
+
+    private void unindexLoan(BorrowRecord record) {
+        ArrayList<BorrowRecord> loans = loansByMember.get(record.getMemberId());
+        if (loans != null && loans.remove(record)) {
+            if (loans.isEmpty()) {
+                loansByMember.remove(record.getMemberId());
             }
+            loansByBook.computeIfPresent(record.getBookId(), (id, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    private MemberSummary summarize(String memberId, ArrayList<BorrowRecord> loans) {
+        int[] dueDays = new int[loans.size()];
+        for (int i = 0; i < dueDays.length; i++) {
+            dueDays[i] = loans.get(i).getDueDay();
         }
-        return null;
+        return new MemberSummary(memberId, dueDays, analytics.getLifetimeBorrows(memberId));
     }
 
-    public ArrayList<Member> getAllMembers() {
-        return new ArrayList<>(members);
+    public synchronized ArrayList<Member> searchMembers(String searchTerm) {
+        long start = System.nanoTime();
+        ArrayList<Member> results = findMembers(searchTerm);
+        SEARCH_MEMBERS_LATENCY.recordSince(start);
+        return results;
     }
 
-    public ArrayList<Member> searchMembers(String searchTerm) {
+    private ArrayList<Member> findMembers(String searchTerm) {
         ArrayList<Member> results = new ArrayList<>();
         searchTerm = searchTerm.toLowerCase();
 
-        for (Member member : members) {
-            if (member.getId().toLowerCase().contains(searchTerm) ||
-                    member.getName().toLowerCase().contains(searchTerm) ||
-                    member.getPhone().toLowerCase().contains(searchTerm) ||
-                    member.getEmail().toLowerCase().contains(searchTerm)) {
+        for (Member member : members.values()) {
+            if (member.containsText(searchTerm)) {
                 results.add(member);
             }
         }
@@ -175,8 +889,37 @@ class LibraryManager {
         return results;
     }
 
+    // One page of members ranked by relevance; pass the previous page's cursor, or null for the first page
+    public SearchPage<Member> searchMembersRanked(String searchTerm, int pageSize, String cursor) {
+        long start = System.nanoTime();
+        SearchPage<Member> page = memberRankedIndex.search(searchTerm, pageSize, cursor);
+        RANKED_SEARCH_LATENCY.recordSince(start);
+        return page;
+    }
+
+    // Typo-tolerant search over member names, best matches first
+    public ArrayList<Member> fuzzySearchMembers(String searchTerm, int limit) {
+        return memberFuzzyIndex.search(searchTerm, limit);
+    }
+
     // Borrowing management methods
-    public boolean borrowBook(String memberId, String bookId, int days) {
+    public synchronized boolean borrowBook(String memberId, String bookId, int days) {
+        long start = System.nanoTime();
+        boolean borrowed;
+        beginVersionBatch();
+        try {
+            borrowed = !readOnly && doBorrowBook(memberId, bookId, days);
+        } finally {
+            endVersionBatch();
+        }
+        BORROW_LATENCY.recordSince(start);
+        if (!borrowed) {
+            BORROW_REJECTED.increment();
+        }
+        return borrowed;
+    }
+
+    private boolean doBorrowBook(String memberId, String bookId, int days) {
         Member member = getMember(memberId);
         Book book = getBook(bookId);
 
@@ -184,33 +927,77 @@ class LibraryManager {
             return false;
         }
 
-        if (book.getAvailableQuantity() <= 0) {
-            return false;  // No available copies
+        // The policy decides whether the member may borrow and sets the loan period
+        CheckoutPolicy.Decision decision =
+                checkoutPolicy.check(member, memberSummaries.get(memberId, this::summarize), book, days);
+        if (!decision.isAllowed()) {
+            return false;
         }
+        days = decision.getLoanDays();
 
-        // Create borrow record
-        Calendar calendar = Calendar.getInstance();
-        Date borrowDate = calendar.getTime();
-
-        calendar.add(Calendar.DAY_OF_MONTH, days);
-        Date dueDate = calendar.getTime();
-
-        BorrowRecord record = new BorrowRecord(memberId, bookId, borrowDate, dueDate);
-        borrowRecords.add(record);
+        // A copy set aside for this member's hold is not counted as available
+        int copyIndex;
+        Hold hold = holdManager.fulfil(memberId, bookId);
+        if (hold != null) {
+            copyIndex = hold.getCopyIndex();
+            storage.saveHolds(holdManager.getAllHolds());
+        } else {
+            copyIndex = book.getCopies().checkOut();
+            if (copyIndex < 0) {
+                return false;  // No available copies
+            }
+        }
 
-        // Update book quantity
-        book.setAvailableQuantity(book.getAvailableQuantity() - 1);
+        // Create borrow record
+        int today = EpochDays.today();
+        BorrowRecord record = new BorrowRecord(memberId, bookId, today, today + days, copyIndex);
+        borrowRecords.put(VersionedRecords.loanKey(record), record);
+        indexLoan(record);
+        facetIndex.updateAvailability(book);
 
         // Update member's borrowed books
-        member.getBorrowedBooks().add(bookId);
+        member.addBorrowedBook(bookId);
+        analytics.recordBorrow(book, memberId);
+        memberSummaries.recordBorrow(memberId, record.getDueDay());
 
-        // Save all changes to files
-        saveAllData();
+        // Save the changed records
+        storage.putBorrowRecord(record);
+        storage.putBook(book);
+        storage.putMember(member);
+        publish(ChangeEvent.Type.LOAN_OPENED, bookId, record);
+        publish(ChangeEvent.Type.BOOK_UPDATED, bookId, book);
+        publish(ChangeEvent.Type.MEMBER_UPDATED, memberId, member);
         
         return true;
     }
 
-    public boolean returnBook(String memberId, String bookId) {
+    // What the checkout policy says about a loan, without making it; null for an unknown member or book
+    public synchronized CheckoutPolicy.Decision checkCheckout(String memberId, String bookId, int days) {
+        Member member = getMember(memberId);
+        Book book = getBook(bookId);
+        if (member == null || book == null) {
+            return null;
+        }
+        return checkoutPolicy.check(member, memberSummaries.get(memberId, this::summarize), book, days);
+    }
+
+    public synchronized boolean returnBook(String memberId, String bookId) {
+        long start = System.nanoTime();
+        boolean returned;
+        beginVersionBatch();
+        try {
+            returned = !readOnly && doReturnBook(memberId, bookId);
+        } finally {
+            endVersionBatch();
+        }
+        RETURN_LATENCY.recordSince(start);
+        if (!returned) {
+            RETURN_REJECTED.increment();
+        }
+        return returned;
+    }
+
+    private boolean doReturnBook(String memberId, String bookId) {
         Member member = getMember(memberId);
         Book book = getBook(bookId);
 
@@ -220,8 +1007,8 @@ class LibraryManager {
 
         // Find and remove the borrow record
         BorrowRecord recordToRemove = null;
-        for (BorrowRecord record : borrowRecords) {
-            if (record.getMemberId().equals(memberId) && record.getBookId().equals(bookId)) {
+        for (BorrowRecord record : loansByMember.getOrDefault(memberId, new ArrayList<>())) {
+            if (record.getBookId().equals(bookId)) {
                 recordToRemove = record;
                 break;
             }
@@ -231,26 +1018,254 @@ class LibraryManager {
             return false;  // No borrow record found
         }
 
-        borrowRecords.remove(recordToRemove);
+        borrowRecords.remove(VersionedRecords.loanKey(recordToRemove));
+        unindexLoan(recordToRemove);
+        loanHistory.append(new LoanHistoryEntry(recordToRemove, EpochDays.today()));
 
-        // Update book quantity
-        book.setAvailableQuantity(book.getAvailableQuantity() + 1);
+        // Hand the copy to the next member waiting for it, otherwise put it back on the shelf
+        if (holdManager.allocateCopy(bookId, recordToRemove.getCopyIndex()) != null) {
+            storage.saveHolds(holdManager.getAllHolds());
+        } else {
+            book.getCopies().checkIn(recordToRemove.getCopyIndex());
+            facetIndex.updateAvailability(book);
+        }
 
         // Update member's borrowed books
-        member.getBorrowedBooks().remove(bookId);
+        member.removeBorrowedBook(bookId);
+        analytics.recordReturn(bookId, memberId);
+        memberSummaries.recordReturn(memberId, recordToRemove.getDueDay());
 
-        // Save all changes to files
-        saveAllData();
+        // Save the changed records
+        storage.removeBorrowRecord(recordToRemove);
+        storage.putBook(book);
+        storage.putMember(member);
+        publish(ChangeEvent.Type.LOAN_CLOSED, bookId, recordToRemove);
+        publish(ChangeEvent.Type.BOOK_UPDATED, bookId, book);
+        publish(ChangeEvent.Type.MEMBER_UPDATED, memberId, member);
         
         return true;
     }
 
-    public ArrayList<BorrowRecord> getAllBorrowRecords() {
-        return new ArrayList<>(borrowRecords);
+    public synchronized ArrayList<BorrowRecord> getAllBorrowRecords() {
+        return new ArrayList<>(borrowRecords.values());
     }
     
-    // Add a method to reload data from files (useful when restart)
-    public void reloadData() {
+    // Finished loans returned between the two days, inclusive; memberId and bookId may be null to match any.
+    // The archive has its own lock, so a long query does not hold up borrowing and returning.
+    public ArrayList<LoanHistoryEntry> getLoanHistory(int fromDay, int toDay, String memberId, String bookId) {
+        return loanHistory.findLoans(fromDay, toDay, memberId, bookId);
+    }
+
+    // Hold management methods
+    public synchronized boolean placeHold(String memberId, String bookId) {
+        if (readOnly) {
+            return false;
+        }
+        Book book = getBook(bookId);
+        if (getMember(memberId) == null || book == null) {
+            return false;
+        }
+
+        if (book.getAvailableQuantity() > 0) {
+            return false;  // A copy is on the shelf, borrow it instead
+        }
+
+        if (!holdManager.placeHold(memberId, bookId)) {
+            return false;  // Member already holds this book
+        }
+        storage.saveHolds(holdManager.getAllHolds());
+        return true;
+    }
+
+    public synchronized boolean cancelHold(String memberId, String bookId) {
+        if (readOnly) {
+            return false;
+        }
+        if (!holdManager.cancelHold(memberId, bookId)) {
+            return false;
+        }
+        storage.saveHolds(holdManager.getAllHolds());
+        return true;
+    }
+
+    public synchronized ArrayList<Hold> getAllHolds() {
+        return holdManager.getAllHolds();
+    }
+
+    // Called when a copy set aside for a hold was not picked up in time (or the hold was cancelled)
+    private synchronized void onHoldExpired(Hold hold) {
+        if (readOnly) {
+            return;
+        }
+        if (holdManager.allocateCopy(hold.getBookId(), hold.getCopyIndex()) == null) {
+            Book book = getBook(hold.getBookId());
+            if (book != null) {
+                book.getCopies().checkIn(hold.getCopyIndex());
+                facetIndex.updateAvailability(book);
+                storage.putBook(book);
+                publish(ChangeEvent.Type.BOOK_UPDATED, book.getId(), book);
+            }
+        }
+        storage.saveHolds(holdManager.getAllHolds());
+    }
+
+    // Replication. The primary ships every change event; a replica applies them in order
+    // through the methods below, replacing records wholesale without the usual checks.
+
+    // Every record as an added/opened entry, and the sequence of the last change they include
+    synchronized long snapshot(java.util.function.Consumer<ReplicationEntry> sink) {
+        long sequence = changeEvents.getLastSequence();
+        long now = System.currentTimeMillis();
+        for (Book book : books.values()) {
+            sink.accept(new ReplicationEntry(sequence, ChangeEvent.Type.BOOK_ADDED, book.getId(),
+                    FileUtility.formatBook(book), now));
+        }
+        for (Member member : members.values()) {
+            sink.accept(new ReplicationEntry(sequence, ChangeEvent.Type.MEMBER_ADDED, member.getId(),
+                    FileUtility.formatMember(member), now));
+        }
+        for (BorrowRecord record : borrowRecords.values()) {
+            sink.accept(new ReplicationEntry(sequence, ChangeEvent.Type.LOAN_OPENED, record.getBookId(),
+                    FileUtility.formatBorrowRecord(record), now));
+        }
+        return sequence;
+    }
+
+    // Replace everything with a primary's snapshot. Every entry is parsed first, so a bad one
+    // throws before anything has changed.
+    synchronized void applySnapshot(ArrayList<ReplicationEntry> entries) {
+        ArrayList<Book> newBooks = new ArrayList<>();
+        ArrayList<Member> newMembers = new ArrayList<>();
+        ArrayList<BorrowRecord> records = new ArrayList<>();
+        for (ReplicationEntry entry : entries) {
+            switch (entry.getType()) {
+                case BOOK_ADDED:
+                    newBooks.add(parsed(FileUtility.parseBook(entry.getData()), entry));
+                    break;
+                case MEMBER_ADDED:
+                    newMembers.add(parsed(FileUtility.parseMember(entry.getData()), entry));
+                    break;
+                case LOAN_OPENED:
+                    records.add(parsed(FileUtility.parseBorrowRecord(entry.getData()), entry));
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        for (Book book : books.values()) {
+            storage.removeBook(book.getId());
+        }
+        for (Member member : members.values()) {
+            storage.removeMember(member.getId());
+        }
+        for (Book book : newBooks) {
+            storage.putBook(book);
+        }
+        for (Member member : newMembers) {
+            storage.putMember(member);
+        }
+        storage.saveBorrowRecords(records);
         loadAllData();
+        publish(ChangeEvent.Type.RELOADED, null, null);
+    }
+
+    private static <T> T parsed(T record, ReplicationEntry entry) {
+        if (record == null) {
+            throw new IllegalArgumentException("Malformed " + entry.getType() + " record in change " + entry.getSequence());
+        }
+        return record;
+    }
+
+    // Apply one change from the primary. A change that cannot be applied throws, and the
+    // replica client then starts over from a snapshot rather than carry on diverged.
+    synchronized void applyReplicated(ReplicationEntry entry) {
+        String key = entry.getKey();
+        switch (entry.getType()) {
+            case BOOK_ADDED:
+            case BOOK_UPDATED: {
+                Book book = adopt(parsed(FileUtility.parseBook(entry.getData()), entry));
+                books.put(book.getId(), book);
+                indexBook(book);
+                storage.putBook(book);
+                publish(entry.getType(), key, book);
+                break;
+            }
+            case BOOK_REMOVED: {
+                Book existing = getBook(key);
+                if (existing != null) {
+                    books.remove(key);
+                    bookFuzzyIndex.remove(key);
+                    bookRankedIndex.remove(key);
+                    facetIndex.remove(key);
+                    storage.removeBook(key);
+                }
+                publish(entry.getType(), key, null);
+                break;
+            }
+            case MEMBER_ADDED:
+            case MEMBER_UPDATED: {
+                Member member = adopt(parsed(FileUtility.parseMember(entry.getData()), entry));
+                members.put(member.getId(), member);
+                indexMember(member);
+                storage.putMember(member);
+                publish(entry.getType(), key, member);
+                break;
+            }
+            case MEMBER_REMOVED: {
+                Member existing = getMember(key);
+                if (existing != null) {
+                    members.remove(key);
+                    memberFuzzyIndex.remove(key);
+                    memberRankedIndex.remove(key);
+                    memberSummaries.invalidate(key);
+                    storage.removeMember(key);
+                }
+                publish(entry.getType(), key, null);
+                break;
+            }
+            case LOAN_OPENED: {
+                BorrowRecord record = parsed(FileUtility.parseBorrowRecord(entry.getData()), entry);
+                BorrowRecord replaced = borrowRecords.put(VersionedRecords.loanKey(record), record);
+                if (replaced != null) {
+                    unindexLoan(replaced);
+                }
+                indexLoan(record);
+                storage.putBorrowRecord(record);
+                Book book = getBook(record.getBookId());
+                if (book != null) {
+                    analytics.recordBorrow(book, record.getMemberId());
+                }
+                memberSummaries.recordBorrow(record.getMemberId(), record.getDueDay());
+                publish(entry.getType(), key, record);
+                break;
+            }
+            case LOAN_CLOSED: {
+                BorrowRecord closed = parsed(FileUtility.parseBorrowRecord(entry.getData()), entry);
+                BorrowRecord record = borrowRecords.remove(VersionedRecords.loanKey(closed));
+                if (record != null) {
+                    unindexLoan(record);
+                    storage.removeBorrowRecord(record);
+                    loanHistory.append(new LoanHistoryEntry(record, EpochDays.fromMillis(entry.getTimestampMillis())));
+                    analytics.recordReturn(record.getBookId(), record.getMemberId());
+                    memberSummaries.recordReturn(record.getMemberId(), record.getDueDay());
+                    publish(entry.getType(), key, record);
+                }
+                break;
+            }
+            default:
+                break;  // Reloads reach replicas as snapshots
+        }
+    }
+
+    // Add a method to reload data from storage (useful when restart)
+    public synchronized void reloadData() {
+        loadAllData();
+        holdManager.clear();
+        loadHolds();
+        if (!readOnly) {
+            holdManager.start();
+        }
+        publish(ChangeEvent.Type.RELOADED, null, null);
     }
 }
\ No newline at end of file
@@ -0,0 +1,48 @@
+package com.library;
+
+// A finished loan, kept in the history archive after the book is returned.
+// Dates are days since 1970-01-01, see EpochDays.
+class LoanHistoryEntry {
+    private final String memberId;
+    private final String bookId;
+    private final int borrowDay;
+    private final int dueDay;
+    private final int returnDay;
+
+    public LoanHistoryEntry(String memberId, String bookId, int borrowDay, int dueDay, int returnDay) {
+        this.memberId = memberId;
+        this.bookId = bookId;
+        this.borrowDay = borrowDay;
+        this.dueDay = dueDay;
+        this.returnDay = returnDay;
+    }
+
+    public LoanHistoryEntry(BorrowRecord record, int returnDay) {
+        this(record.getMemberId(), record.getBookId(), record.getBorrowDay(), record.getDueDay(), returnDay);
+    }
+
+    public String getMemberId() {
+        return memberId;
+    }
+
+    public String getBookId() {
+        return bookId;
+    }
+
+    public int getBorrowDay() {
+        return borrowDay;
+    }
+
+    public int getDueDay() {
+        return dueDay;
+    }
+
+    public int getReturnDay() {
+        return returnDay;
+    }
+
+    // Returned on a later calendar day than the one it was due
+    public boolean wasOverdue() {
+        return returnDay > dueDay;
+    }
+}
@@ -0,0 +1,610 @@
+package com.library;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Append-only archive of returned loans, partitioned by the month of return.
+//
+// Layout under the root directory:
+//   2026-10/active.log     plain-text tail of the month, appended on every return
+//   2026-10/seg-00000.gz   sealed, compressed segment of SEGMENT_SIZE entries
+//   2026-10/seg-00000.idx  index for the segment: time range, Bloom filters of member and book ids
+//   2026-10/seg-00000.log  the active log being sealed into seg-00000, gone once its index is written
+//   counts.txt             returned loans per book and member in the sealed segments it names
+//
+// Range scans only open the segments whose index overlaps the requested
+// interval and may contain the requested member or book.
+//
+// Sealing first renames active.log to the segment's .log, so every entry is in exactly one
+// file that counts: active.log, a .log whose segment has no index yet, or a sealed segment.
+// A seal cut short is finished from its .log on the next start.
+class LoanHistoryStore {
+    private static final int SEGMENT_SIZE = 4096;
+    private static final Pattern SEGMENT_FILE = Pattern.compile("seg-(\\d+)\\.(gz|idx|log)");
+    // v2 index files hold the time range in milliseconds, older ones list every id instead
+    // of Bloom filters; both are still read
+    private static final String INDEX_VERSION = "v3";
+
+    private final File rootDir;
+
+    // Sealed segments by partition name, loaded from the .idx files
+    private final TreeMap<String, ArrayList<Segment>> segments = new TreeMap<>();
+    // Entries in each partition's active.log
+    private final HashMap<String, ArrayList<LoanHistoryEntry>> activeEntries = new HashMap<>();
+    // Number for each partition's next segment, past every segment file on disk
+    private final HashMap<String, Integer> nextSegmentNumbers = new HashMap<>();
+    // Returned loans per book and per member over the sealed segments in sealedCounted. Kept in
+    // counts.txt and added to as segments are sealed, so totals never need the archive decompressed.
+    private final HashMap<String, Long> sealedByBook = new HashMap<>();
+    private final HashMap<String, Long> sealedByMember = new HashMap<>();
+    private final HashSet<String> sealedCounted = new HashSet<>();
+
+    private static class Segment {
+        String name;  // partition/number
+        File dataFile;
+        int minReturnDay;
+        int maxReturnDay;
+        IdFilter memberIds;
+        IdFilter bookIds;
+    }
+
+    // Bloom filter of the ids in a segment: a few bits per id instead of the ids themselves,
+    // never a false "absent", and about one segment in a hundred opened needlessly
+    private static final class IdFilter {
+        private static final int BITS_PER_ID = 10;
+        private static final int HASHES = 7;
+        private final long[] bits;
+
+        IdFilter(int expectedIds) {
+            bits = new long[Math.max(1, (expectedIds * BITS_PER_ID + 63) / 64)];
+        }
+
+        private IdFilter(long[] bits) {
+            this.bits = bits;
+        }
+
+        void add(String id) {
+            int h1 = id.hashCode();
+            int h2 = mix(h1);
+            long size = bits.length * 64L;
+            for (int i = 0; i < HASHES; i++) {
+                long bit = Integer.toUnsignedLong(h1 + i * h2) % size;
+                bits[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+
+        boolean mightContain(String id) {
+            int h1 = id.hashCode();
+            int h2 = mix(h1);
+            long size = bits.length * 64L;
+            for (int i = 0; i < HASHES; i++) {
+                long bit = Integer.toUnsignedLong(h1 + i * h2) % size;
+                if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // String.hashCode() is fixed by the language, so filters written by one run hold in the next
+        private static int mix(int h) {
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            h *= 0xc2b2ae35;
+            return (h ^ (h >>> 16)) | 1;
+        }
+
+        String encode() {
+            java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate(bits.length * 8);
+            buffer.asLongBuffer().put(bits);
+            return Base64.getEncoder().encodeToString(buffer.array());
+        }
+
+        static IdFilter decode(String text) {
+            java.nio.ByteBuffer buffer = java.nio.ByteBuffer.wrap(Base64.getDecoder().decode(text));
+            long[] bits = new long[buffer.remaining() / 8];
+            if (bits.length == 0) {
+                throw new IllegalArgumentException("empty id filter");
+            }
+            buffer.asLongBuffer().get(bits);
+            return new IdFilter(bits);
+        }
+
+        // From an index written before the filters, which lists the ids
+        static IdFilter of(String idList) {
+            String[] ids = idList == null || idList.isEmpty() ? new String[0] : idList.split(",");
+            IdFilter filter = new IdFilter(ids.length);
+            for (String id : ids) {
+                filter.add(id);
+            }
+            return filter;
+        }
+    }
+
+    public LoanHistoryStore(File rootDir) {
+        this.rootDir = rootDir;
+        if (!rootDir.exists()) {
+            rootDir.mkdirs();
+        }
+        loadCounts();
+        loadPartitions();
+        reconcileCounts();
+    }
+
+    // Add a returned loan to the archive
+    public synchronized void append(LoanHistoryEntry entry) {
+        String partition = partitionOf(entry.getReturnDay());
+        ArrayList<LoanHistoryEntry> active = activeEntries.computeIfAbsent(partition, key -> new ArrayList<>());
+
+        File partitionDir = new File(rootDir, partition);
+        if (!partitionDir.exists()) {
+            partitionDir.mkdirs();
+        }
+
+        // PrintWriter keeps its errors to itself, so ask before counting the entry as archived
+        try (PrintWriter writer = new PrintWriter(new FileWriter(new File(partitionDir, "active.log"), StandardCharsets.UTF_8, true))) {
+            writer.println(formatEntry(entry));
+            if (writer.checkError()) {
+                throw new IOException("write failed");
+            }
+        } catch (IOException e) {
+            System.err.println("Error appending loan history: " + e.getMessage());
+            return;
+        }
+        active.add(entry);
+
+        if (active.size() >= SEGMENT_SIZE) {
+            sealActiveLog(partition);
+        }
+    }
+
+    // Visit every archived loan returned on a day in [fromDay, toDay], optionally restricted to
+    // one member and/or book
+    public synchronized void scan(int fromDay, int toDay, String memberId, String bookId, Consumer<LoanHistoryEntry> visitor) {
+        String firstPartition = partitionOf(fromDay);
+        String lastPartition = partitionOf(toDay);
+
+        for (Map.Entry<String, ArrayList<Segment>> partition : segments.subMap(firstPartition, true, lastPartition, true).entrySet()) {
+            for (Segment segment : partition.getValue()) {
+                if (segment.maxReturnDay < fromDay || segment.minReturnDay > toDay) {
+                    continue;
+                }
+                if (memberId != null && !segment.memberIds.mightContain(memberId)) {
+                    continue;
+                }
+                if (bookId != null && !segment.bookIds.mightContain(bookId)) {
+                    continue;
+                }
+                scanSegment(segment, fromDay, toDay, memberId, bookId, visitor);
+            }
+        }
+
+        for (Map.Entry<String, ArrayList<LoanHistoryEntry>> partition : activeEntries.entrySet()) {
+            if (partition.getKey().compareTo(firstPartition) < 0 || partition.getKey().compareTo(lastPartition) > 0) {
+                continue;
+            }
+            for (LoanHistoryEntry entry : partition.getValue()) {
+                if (matches(entry, fromDay, toDay, memberId, bookId)) {
+                    visitor.accept(entry);
+                }
+            }
+        }
+    }
+
+    // Add the number of archived loans of each book and each member to the maps: stored totals
+    // for the sealed segments, and a count of the entries in the active logs
+    public synchronized void countReturns(HashMap<String, Long> byBook, HashMap<String, Long> byMember) {
+        sealedByBook.forEach((bookId, count) -> byBook.merge(bookId, count, Long::sum));
+        sealedByMember.forEach((memberId, count) -> byMember.merge(memberId, count, Long::sum));
+        for (ArrayList<LoanHistoryEntry> active : activeEntries.values()) {
+            for (LoanHistoryEntry entry : active) {
+                byBook.merge(entry.getBookId(), 1L, Long::sum);
+                byMember.merge(entry.getMemberId(), 1L, Long::sum);
+            }
+        }
+    }
+
+    public ArrayList<LoanHistoryEntry> findLoans(int fromDay, int toDay, String memberId, String bookId) {
+        ArrayList<LoanHistoryEntry> results = new ArrayList<>();
+        scan(fromDay, toDay, memberId, bookId, results::add);
+        return results;
+    }
+
+    private void scanSegment(Segment segment, int fromDay, int toDay, String memberId, String bookId,
+                             Consumer<LoanHistoryEntry> visitor) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(segment.dataFile)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                LoanHistoryEntry entry = parseEntry(line);
+                if (entry != null && matches(entry, fromDay, toDay, memberId, bookId)) {
+                    visitor.accept(entry);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading loan history segment " + segment.dataFile + ": " + e.getMessage());
+        }
+    }
+
+    private static boolean matches(LoanHistoryEntry entry, int fromDay, int toDay, String memberId, String bookId) {
+        int returned = entry.getReturnDay();
+        return returned >= fromDay && returned <= toDay
+                && (memberId == null || memberId.equals(entry.getMemberId()))
+                && (bookId == null || bookId.equals(entry.getBookId()));
+    }
+
+    // Compress the partition's active log into a new segment and write its index
+    private void sealActiveLog(String partition) {
+        ArrayList<LoanHistoryEntry> active = activeEntries.get(partition);
+        if (active == null || active.isEmpty()) {
+            return;
+        }
+
+        File partitionDir = new File(rootDir, partition);
+        int number = nextSegmentNumbers.getOrDefault(partition, 0);
+        File activeLog = new File(partitionDir, "active.log");
+        File sealingLog = segmentFile(partitionDir, number, "log");
+        try {
+            Files.move(activeLog.toPath(), sealingLog.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Error sealing loan history segment: " + e.getMessage());
+            return;
+        }
+        nextSegmentNumbers.put(partition, number + 1);
+
+        Segment segment = writeSegment(partitionDir, number, active);
+        if (segment == null) {
+            // Put the log back and try again on a later append; its entries were never lost
+            try {
+                Files.move(sealingLog.toPath(), activeLog.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                System.err.println("Error restoring loan history log: " + e.getMessage());
+            }
+            return;
+        }
+        segments.computeIfAbsent(partition, key -> new ArrayList<>()).add(segment);
+        countSealed(segment, active);
+        saveCounts();
+        active.clear();
+        sealingLog.delete();
+    }
+
+    // Write a segment's data file, then its index; the index goes in last, by rename, so a
+    // segment with an index is always complete. Returns null when either cannot be written.
+    private static Segment writeSegment(File partitionDir, int number, List<LoanHistoryEntry> entries) {
+        Segment segment = new Segment();
+        segment.name = partitionDir.getName() + "/" + number;
+        segment.dataFile = segmentFile(partitionDir, number, "gz");
+        segment.minReturnDay = Integer.MAX_VALUE;
+        segment.maxReturnDay = Integer.MIN_VALUE;
+        segment.memberIds = new IdFilter(entries.size());
+        segment.bookIds = new IdFilter(entries.size());
+
+        try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(
+                new GZIPOutputStream(new FileOutputStream(segment.dataFile)), StandardCharsets.UTF_8))) {
+            for (LoanHistoryEntry entry : entries) {
+                writer.println(formatEntry(entry));
+                addToIndex(segment, entry);
+            }
+            if (writer.checkError()) {
+                throw new IOException("write failed");
+            }
+        } catch (IOException e) {
+            System.err.println("Error sealing loan history segment: " + e.getMessage());
+            segment.dataFile.delete();
+            return null;
+        }
+        return writeSegmentIndex(partitionDir, number, segment) ? segment : null;
+    }
+
+    private static void addToIndex(Segment segment, LoanHistoryEntry entry) {
+        int returned = entry.getReturnDay();
+        segment.minReturnDay = Math.min(segment.minReturnDay, returned);
+        segment.maxReturnDay = Math.max(segment.maxReturnDay, returned);
+        segment.memberIds.add(entry.getMemberId());
+        segment.bookIds.add(entry.getBookId());
+    }
+
+    private static boolean writeSegmentIndex(File partitionDir, int number, Segment segment) {
+        File indexFile = segmentFile(partitionDir, number, "idx");
+        File tempFile = new File(partitionDir, indexFile.getName() + ".tmp");
+        try (PrintWriter writer = new PrintWriter(new FileWriter(tempFile, StandardCharsets.UTF_8))) {
+            writer.println(INDEX_VERSION + "|" + segment.minReturnDay + "|" + segment.maxReturnDay);
+            writer.println(segment.memberIds.encode());
+            writer.println(segment.bookIds.encode());
+            if (writer.checkError()) {
+                throw new IOException("write failed");
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing loan history index: " + e.getMessage());
+            tempFile.delete();
+            return false;
+        }
+        try {
+            Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error writing loan history index: " + e.getMessage());
+            tempFile.delete();
+            return false;
+        }
+    }
+
+    private static File segmentFile(File partitionDir, int number, String extension) {
+        return new File(partitionDir, String.format("seg-%05d.%s", number, extension));
+    }
+
+    private void loadPartitions() {
+        File[] partitionDirs = rootDir.listFiles(File::isDirectory);
+        if (partitionDirs == null) {
+            return;
+        }
+
+        String currentPartition = partitionOf(EpochDays.today());
+        for (File partitionDir : partitionDirs) {
+            String partition = partitionDir.getName();
+            ArrayList<Segment> partitionSegments = new ArrayList<>();
+
+            // Segment numbers with any file on disk, and which kinds of file each has
+            TreeMap<Integer, HashSet<String>> found = new TreeMap<>();
+            String[] names = partitionDir.list();
+            for (String name : names != null ? names : new String[0]) {
+                Matcher matcher = SEGMENT_FILE.matcher(name);
+                if (matcher.matches()) {
+                    found.computeIfAbsent(Integer.parseInt(matcher.group(1)), key -> new HashSet<>()).add(matcher.group(2));
+                }
+            }
+            // New segments are numbered past everything there, including segments skipped below
+            nextSegmentNumbers.put(partition, found.isEmpty() ? 0 : found.lastKey() + 1);
+
+            for (Map.Entry<Integer, HashSet<String>> files : found.entrySet()) {
+                int number = files.getKey();
+                HashSet<String> kinds = files.getValue();
+                File sealingLog = segmentFile(partitionDir, number, "log");
+                if (kinds.contains("log") && !kinds.contains("idx")) {
+                    // A seal cut short: its log still holds every entry, so seal it again
+                    ArrayList<LoanHistoryEntry> entries = readLog(sealingLog);
+                    Segment segment = writeSegment(partitionDir, number, entries);
+                    if (segment != null) {
+                        partitionSegments.add(segment);
+                        countSealed(segment, entries);
+                        sealingLog.delete();
+                    }
+                    continue;
+                }
+                if (kinds.contains("log")) {
+                    // Sealed, only the log was not deleted yet
+                    sealingLog.delete();
+                }
+                if (!kinds.contains("idx")) {
+                    // Drop a data file left behind by an interrupted seal from before the .log
+                    // step; active.log still holds its entries
+                    segmentFile(partitionDir, number, "gz").delete();
+                    continue;
+                }
+                Segment segment = loadSegmentIndex(partitionDir, number);
+                if (segment != null) {
+                    partitionSegments.add(segment);
+                }
+            }
+            segments.put(partition, partitionSegments);
+
+            activeEntries.put(partition, readLog(new File(partitionDir, "active.log")));
+
+            // Months that are over will not receive more entries, so compress what is left
+            if (partition.compareTo(currentPartition) < 0) {
+                sealActiveLog(partition);
+            }
+        }
+    }
+
+    private static ArrayList<LoanHistoryEntry> readLog(File log) {
+        ArrayList<LoanHistoryEntry> entries = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(log, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                LoanHistoryEntry entry = parseEntry(line);
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // No open tail for this month
+        } catch (IOException e) {
+            System.err.println("Error loading loan history log: " + e.getMessage());
+        }
+        return entries;
+    }
+
+    // A damaged index is rebuilt from its data file; a segment whose data cannot be read either
+    // is left out, keeping its number so that no later segment overwrites it
+    private static Segment loadSegmentIndex(File partitionDir, int number) {
+        File indexFile = segmentFile(partitionDir, number, "idx");
+        Segment segment = new Segment();
+        segment.name = partitionDir.getName() + "/" + number;
+        segment.dataFile = segmentFile(partitionDir, number, "gz");
+        try (BufferedReader reader = new BufferedReader(new FileReader(indexFile, StandardCharsets.UTF_8))) {
+            String[] range = reader.readLine().split("\\|");
+            if (range[0].equals(INDEX_VERSION)) {
+                segment.minReturnDay = Integer.parseInt(range[1]);
+                segment.maxReturnDay = Integer.parseInt(range[2]);
+                segment.memberIds = IdFilter.decode(reader.readLine());
+                segment.bookIds = IdFilter.decode(reader.readLine());
+            } else if (range[0].equals("v2")) {
+                segment.minReturnDay = EpochDays.fromMillis(Long.parseLong(range[1]));
+                segment.maxReturnDay = EpochDays.fromMillis(Long.parseLong(range[2]));
+                segment.memberIds = IdFilter.decode(reader.readLine());
+                segment.bookIds = IdFilter.decode(reader.readLine());
+            } else {
+                segment.minReturnDay = EpochDays.fromMillis(Long.parseLong(range[0]));
+                segment.maxReturnDay = EpochDays.fromMillis(Long.parseLong(range[1]));
+                segment.memberIds = IdFilter.of(reader.readLine());
+                segment.bookIds = IdFilter.of(reader.readLine());
+            }
+            return segment;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error loading loan history index " + indexFile + ", rebuilding it: " + e.getMessage());
+        }
+
+        ArrayList<LoanHistoryEntry> entries = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(segment.dataFile)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                LoanHistoryEntry entry = parseEntry(line);
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading loan history segment " + segment.dataFile + ", leaving it out: " + e.getMessage());
+            return null;
+        }
+        segment.minReturnDay = Integer.MAX_VALUE;
+        segment.maxReturnDay = Integer.MIN_VALUE;
+        segment.memberIds = new IdFilter(entries.size());
+        segment.bookIds = new IdFilter(entries.size());
+        for (LoanHistoryEntry entry : entries) {
+            addToIndex(segment, entry);
+        }
+        writeSegmentIndex(partitionDir, number, segment);
+        return segment;
+    }
+
+    private void countSealed(Segment segment, List<LoanHistoryEntry> entries) {
+        if (!sealedCounted.add(segment.name)) {
+            return;
+        }
+        for (LoanHistoryEntry entry : entries) {
+            sealedByBook.merge(entry.getBookId(), 1L, Long::sum);
+            sealedByMember.merge(entry.getMemberId(), 1L, Long::sum);
+        }
+    }
+
+    // counts.txt lines: S|segment counted, B|book id|count, M|member id|count
+    private void loadCounts() {
+        try (BufferedReader reader = new BufferedReader(new FileReader(new File(rootDir, "counts.txt"), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\\|");
+                if (parts[0].equals("S") && parts.length == 2) {
+                    sealedCounted.add(parts[1]);
+                } else if (parts[0].equals("B") && parts.length == 3) {
+                    sealedByBook.put(parts[1], Long.parseLong(parts[2]));
+                } else if (parts[0].equals("M") && parts.length == 3) {
+                    sealedByMember.put(parts[1], Long.parseLong(parts[2]));
+                } else {
+                    throw new IOException("bad line " + line);
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // Counted from the segments below
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error loading loan history counts, recounting: " + e.getMessage());
+            clearCounts();
+        }
+    }
+
+    // Count segments sealed since counts.txt was written. Should the file name a segment that
+    // is no longer there, its totals cannot be taken apart again and every segment is recounted.
+    private void reconcileCounts() {
+        HashMap<String, Segment> onDisk = new HashMap<>();
+        for (ArrayList<Segment> partitionSegments : segments.values()) {
+            for (Segment segment : partitionSegments) {
+                onDisk.put(segment.name, segment);
+            }
+        }
+        if (!onDisk.keySet().containsAll(sealedCounted)) {
+            clearCounts();
+        }
+        boolean changed = false;
+        for (Segment segment : onDisk.values()) {
+            if (!sealedCounted.contains(segment.name)) {
+                ArrayList<LoanHistoryEntry> entries = new ArrayList<>();
+                scanSegment(segment, Integer.MIN_VALUE, Integer.MAX_VALUE, null, null, entries::add);
+                countSealed(segment, entries);
+                changed = true;
+            }
+        }
+        if (changed) {
+            saveCounts();
+        }
+    }
+
+    private void clearCounts() {
+        sealedCounted.clear();
+        sealedByBook.clear();
+        sealedByMember.clear();
+    }
+
+    // Written whole to a temp file and renamed over the old one, so it is never half written
+    private void saveCounts() {
+        File countsFile = new File(rootDir, "counts.txt");
+        File tempFile = new File(rootDir, "counts.txt.tmp");
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(tempFile, StandardCharsets.UTF_8)))) {
+            for (String name : sealedCounted) {
+                writer.println("S|" + name);
+            }
+            sealedByBook.forEach((bookId, count) -> writer.println("B|" + bookId + "|" + count));
+            sealedByMember.forEach((memberId, count) -> writer.println("M|" + memberId + "|" + count));
+            if (writer.checkError()) {
+                throw new IOException("write failed");
+            }
+        } catch (IOException e) {
+            System.err.println("Error saving loan history counts: " + e.getMessage());
+            tempFile.delete();
+            return;
+        }
+        try {
+            Files.move(tempFile.toPath(), countsFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Error saving loan history counts: " + e.getMessage());
+        }
+    }
+
+    // The month a day falls in, as yyyy-MM
+    private static String partitionOf(int epochDay) {
+        return EpochDays.format(epochDay).substring(0, 7);
+    }
+
+    // Dates as yyyy-MM-dd, as in the loan files
+    private static String formatEntry(LoanHistoryEntry entry) {
+        StringBuilder line = new StringBuilder(64);
+        line.append(entry.getMemberId()).append('|')
+            .append(entry.getBookId()).append('|');
+        EpochDays.format(entry.getBorrowDay(), line);
+        line.append('|');
+        EpochDays.format(entry.getDueDay(), line);
+        line.append('|');
+        EpochDays.format(entry.getReturnDay(), line);
+        return line.toString();
+    }
+
+    private static LoanHistoryEntry parseEntry(String line) {
+        String[] parts = line.split("\\|");
+        if (parts.length < 5) {
+            return null;
+        }
+        try {
+            return new LoanHistoryEntry(parts[0], parts[1], parseDay(parts[2]), parseDay(parts[3]), parseDay(parts[4]));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // Entries written before dates were days hold milliseconds
+    private static int parseDay(String text) {
+        return text.length() == 10 && text.charAt(4) == '-'
+                ? EpochDays.parse(text)
+                : EpochDays.fromMillis(Long.parseLong(text));
+    }
+}
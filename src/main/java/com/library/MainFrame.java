@@ -5,18 +5,35 @@ import javax.swing.border.TitledBorder;
 import java.awt.*;
 import java.awt.event.*;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.text.SimpleDateFormat;
 class MainFrame extends JFrame {
     private LibraryManager libraryManager;
+    // Borrowing and returning go through here, so the window never waits for the disk
+    private AsyncLibraryManager asyncManager;
+    // Looks up what a change needs from the manager before the table is touched, so the
+    // event dispatch thread never waits for the manager's lock; one thread keeps the order
+    private final ExecutorService changeReader = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "ui-changes");
+        thread.setDaemon(true);
+        return thread;
+    });
     private JTabbedPane tabbedPane;
     
     // References to combo boxes for updates
     private JComboBox<String> memberComboBox;
     private JComboBox<String> bookComboBox;
     private JTable borrowedBooksTable;
+    private JTable booksTable;
+    private JTable membersTable;
+
+    // Refreshes the performance tab while it is showing
+    private javax.swing.Timer dashboardTimer;
 
     public MainFrame() {
         libraryManager = new LibraryManager();
+        asyncManager = new AsyncLibraryManager(libraryManager);
 
         // Add some sample data
         addSampleData();
@@ -26,11 +43,26 @@ class MainFrame extends JFrame {
         
         // Setup the UI
         setupUI();
+
+        // Keep the tables current as changes happen, rather than re-reading them
+        libraryManager.subscribe("ui", event -> changeReader.execute(() -> readChange(event)));
     
         // Configure the frame
-        setTitle("Library Management System");
+        if (libraryManager.isReplica()) {
+            setTitle("Library Management System (read-only replica)");
+        } else if (libraryManager.isReadOnly()) {
+            setTitle("Library Management System (read-only, data could not be loaded)");
+        } else {
+            setTitle("Library Management System");
+        }
         setSize(1024, 768);  // Larger initial size
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                close();
+            }
+        });
         setLocationRelativeTo(null);
         setVisible(true);
     }
@@ -76,6 +108,7 @@ class MainFrame extends JFrame {
         tabbedPane.addTab("Borrowing Management", createBorrowingPanel());
         tabbedPane.addTab("Search", createSearchPanel());
         tabbedPane.addTab("QR Generator", createQRGeneratorPanel());
+        tabbedPane.addTab("Performance", createPerformancePanel());
         
         // Add icon indicators to make tabs more visible
         for (int i = 0; i < tabbedPane.getTabCount(); i++) {
@@ -89,6 +122,12 @@ class MainFrame extends JFrame {
             if (selectedIndex == 2) {
                 refreshBorrowingComponents();
             }
+            // Only poll metrics while the Performance tab is visible
+            if (tabbedPane.getTitleAt(selectedIndex).equals("Performance")) {
+                dashboardTimer.start();
+            } else {
+                dashboardTimer.stop();
+            }
         });
         
         // Add the tabbed pane to the frame with padding
@@ -128,9 +167,148 @@ class MainFrame extends JFrame {
                     
             updateMemberComboBox(memberComboBox);
             updateBookComboBox(bookComboBox);
-            updateBorrowedBooksTable(borrowedBooksTable);
         }
     }
+
+    // Finish queued changes and close storage, which leaves the journal empty
+    void close() {
+        changeReader.shutdownNow();
+        asyncManager.close();
+        libraryManager.close();
+    }
+
+    // Rows are built here from the record as it was when the change was made, not from the
+    // live objects the manager goes on changing, and the event dispatch thread is only handed
+    // the finished row. Member summaries and loan names are read here too: not on the EDT, so
+    // it never waits for the manager's lock, and not on the subscriber's own thread, since a
+    // publisher holding the manager's lock may be waiting for that thread to catch up.
+    private void readChange(ChangeEvent event) {
+        Object[] row = null;
+        switch (event.getType()) {
+            case BOOK_ADDED:
+            case BOOK_UPDATED:
+                row = bookRow(FileUtility.parseBook(event.getData()));
+                break;
+            case MEMBER_ADDED:
+            case MEMBER_UPDATED: {
+                // No summary once the member has been removed again
+                MemberSummary summary = libraryManager.getMemberSummary(event.getKey());
+                if (summary != null) {
+                    row = memberRow(FileUtility.parseMember(event.getData()), summary);
+                }
+                break;
+            }
+            case LOAN_OPENED:
+            case LOAN_CLOSED: {
+                BorrowRecord record = FileUtility.parseBorrowRecord(event.getData());
+                try (ReadTransaction view = libraryManager.beginRead()) {
+                    row = loanRow(record, view.getMember(record.getMemberId()), view.getBook(record.getBookId()));
+                }
+                break;
+            }
+            default:
+                break;
+        }
+        Object[] built = row;
+        SwingUtilities.invokeLater(() -> applyChange(event, built));
+    }
+
+    // Apply one change from LibraryManager to the tables, on the event dispatch thread.
+    // Rows are matched by key, so a change that is already showing is not applied twice.
+    private void applyChange(ChangeEvent event, Object[] row) {
+        switch (event.getType()) {
+            case BOOK_ADDED:
+            case BOOK_UPDATED:
+                sortedModel(booksTable).upsert(row);
+                break;
+            case BOOK_REMOVED:
+                sortedModel(booksTable).remove(new Object[] {event.getKey()});
+                break;
+            case MEMBER_ADDED:
+            case MEMBER_UPDATED:
+                if (row != null) {
+                    sortedModel(membersTable).upsert(row);
+                }
+                break;
+            case MEMBER_REMOVED:
+                sortedModel(membersTable).remove(new Object[] {event.getKey()});
+                break;
+            case LOAN_OPENED:
+                sortedModel(borrowedBooksTable).upsert(row);
+                break;
+            case LOAN_CLOSED:
+                sortedModel(borrowedBooksTable).remove(row);
+                break;
+            case RELOADED:
+                updateBooksTable(booksTable);
+                updateMembersTable(membersTable);
+                updateBorrowedBooksTable(borrowedBooksTable);
+                break;
+        }
+    }
+
+    private static SortedTableModel sortedModel(JTable table) {
+        return (SortedTableModel) table.getModel();
+    }
+
+    // Clicking a sortable header switches the table to that column's index, and clicking
+    // it again reverses the order; the header shows an arrow on the current column
+    private void installSorting(JTable table) {
+        SortedTableModel model = sortedModel(table);
+        table.getTableHeader().setReorderingAllowed(false);
+        table.getTableHeader().addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int column = table.columnAtPoint(e.getPoint());
+                if (column >= 0 && model.isSortable(column)) {
+                    model.sortBy(column);
+                    updateSortArrows(table);
+                }
+            }
+        });
+        updateSortArrows(table);
+    }
+
+    private void updateSortArrows(JTable table) {
+        SortedTableModel model = sortedModel(table);
+        for (int column = 0; column < model.getColumnCount(); column++) {
+            String name = model.getColumnName(column);
+            if (column == model.getSortColumn()) {
+                name += model.isDescending() ? " \u25BC" : " \u25B2";
+            }
+            table.getColumnModel().getColumn(column).setHeaderValue(name);
+        }
+        table.getTableHeader().repaint();
+    }
+
+    // A "Filter:" row placed above a table; every keystroke narrows the table to matching rows
+    private JPanel createFilterPanel(JTable table) {
+        JPanel filterPanel = new JPanel(new BorderLayout(8, 0));
+        filterPanel.setBackground(LibraryManagementSystem.SECONDARY_COLOR);
+        filterPanel.setBorder(BorderFactory.createEmptyBorder(0, 0, 5, 0));
+        JLabel filterLabel = new JLabel("Filter:");
+        filterLabel.setFont(LibraryManagementSystem.LABEL_FONT);
+        JTextField filterField = new JTextField();
+        filterField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+            @Override
+            public void insertUpdate(javax.swing.event.DocumentEvent e) {
+                sortedModel(table).setFilter(filterField.getText());
+            }
+
+            @Override
+            public void removeUpdate(javax.swing.event.DocumentEvent e) {
+                sortedModel(table).setFilter(filterField.getText());
+            }
+
+            @Override
+            public void changedUpdate(javax.swing.event.DocumentEvent e) {
+                sortedModel(table).setFilter(filterField.getText());
+            }
+        });
+        filterPanel.add(filterLabel, BorderLayout.WEST);
+        filterPanel.add(filterField, BorderLayout.CENTER);
+        return filterPanel;
+    }
     
     private Icon createColorIcon(int width, int height, Color color) {
         return new Icon() {
@@ -244,9 +422,9 @@ class MainFrame extends JFrame {
         buttonPanel.add(clearButton);
 
         // Books table with styled header and alternating row colors
+        // Sortable by ID, title, author and quantity
         String[] columns = {"ID", "Title", "Author", "Category", "Available Quantity"};
-        Object[][] data = {};
-        JTable booksTable = new JTable(data, columns) {
+        booksTable = new JTable(new SortedTableModel(columns, new int[] {0}, 0, 1, 2, 4)) {
             @Override
             public Component prepareRenderer(javax.swing.table.TableCellRenderer renderer, int row, int column) {
                 Component comp = super.prepareRenderer(renderer, row, column);
@@ -276,6 +454,7 @@ class MainFrame extends JFrame {
         booksTable.getTableHeader().setForeground(Color.BLACK);
         booksTable.getTableHeader().setFont(LibraryManagementSystem.LABEL_FONT);
         booksTable.getTableHeader().setPreferredSize(new Dimension(0, 35));
+        installSorting(booksTable);
         
         JScrollPane tableScrollPane = new JScrollPane(booksTable);
         tableScrollPane.setBorder(BorderFactory.createCompoundBorder(
@@ -294,6 +473,7 @@ class MainFrame extends JFrame {
         tablePanel.setBackground(LibraryManagementSystem.SECONDARY_COLOR);
         tablePanel.setBorder(BorderFactory.createEmptyBorder(20, 0, 0, 0)); // Add more space above table
         tablePanel.add(tableScrollPane, BorderLayout.CENTER);
+        tablePanel.add(createFilterPanel(booksTable), BorderLayout.NORTH);
         
         // Use a split panel approach with fixed sizes
         JSplitPane splitPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT, topSection, tablePanel);
@@ -326,6 +506,10 @@ class MainFrame extends JFrame {
                     JOptionPane.showMessageDialog(this, "All fields must be filled!", "Error", JOptionPane.ERROR_MESSAGE);
                     return;
                 }
+                if (!LibraryManager.isValidId(id)) {
+                    JOptionPane.showMessageDialog(this, "Book ID is too long!", "Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
 
                 Book book = new Book(id, title, author, category, quantity);
                 boolean added = libraryManager.addBook(book);
@@ -333,7 +517,6 @@ class MainFrame extends JFrame {
                 if (added) {
                     JOptionPane.showMessageDialog(this, "Book added successfully!");
                     clearBookFields(idField, titleField, authorField, categoryField, quantityField);
-                    updateBooksTable(booksTable);
                     refreshBorrowingComponents(); // Refresh borrowing components
                 } else {
                     JOptionPane.showMessageDialog(this, "Book with this ID already exists!", "Error", JOptionPane.ERROR_MESSAGE);
@@ -363,7 +546,6 @@ class MainFrame extends JFrame {
                 if (updated) {
                     JOptionPane.showMessageDialog(this, "Book updated successfully!");
                     clearBookFields(idField, titleField, authorField, categoryField, quantityField);
-                    updateBooksTable(booksTable);
                     refreshBorrowingComponents(); // Refresh borrowing components
                 } else {
                     JOptionPane.showMessageDialog(this, "Book not found!", "Error", JOptionPane.ERROR_MESSAGE);
@@ -386,7 +568,6 @@ class MainFrame extends JFrame {
             if (deleted) {
                 JOptionPane.showMessageDialog(this, "Book deleted successfully!");
                 clearBookFields(idField, titleField, authorField, categoryField, quantityField);
-                updateBooksTable(booksTable);
                 refreshBorrowingComponents(); // Refresh borrowing components
             } else {
                 JOptionPane.showMessageDialog(this, "Book not found or is currently borrowed!", "Error", JOptionPane.ERROR_MESSAGE);
@@ -420,23 +601,21 @@ class MainFrame extends JFrame {
         quantityField.setText("");
     }
 
+    // Tables are filled from one read transaction, so they show a single moment
     private void updateBooksTable(JTable table) {
-        ArrayList<Book> books = libraryManager.getAllBooks();
-        Object[][] data = new Object[books.size()][5];
-
-        for (int i = 0; i < books.size(); i++) {
-            Book book = books.get(i);
-            data[i][0] = book.getId();
-            data[i][1] = book.getTitle();
-            data[i][2] = book.getAuthor();
-            data[i][3] = book.getCategory();
-            data[i][4] = book.getAvailableQuantity();
+        ArrayList<Object[]> rows = new ArrayList<>();
+        try (ReadTransaction view = libraryManager.beginRead()) {
+            for (Book record : view.getAllBooks()) {
+                rows.add(bookRow(record));
+            }
         }
+        sortedModel(table).setRows(rows);
+    }
 
-        table.setModel(new javax.swing.table.DefaultTableModel(
-                data,
-                new String[] {"ID", "Title", "Author", "Category", "Available Quantity"}
-        ));
+    private Object[] bookRow(Book book) {
+        return new Object[] {
+                book.getId(), book.getTitle(), book.getAuthor(), book.getCategory(), book.getAvailableQuantity()
+        };
     }
 
     private JPanel createMembersPanel() {
@@ -499,9 +678,10 @@ class MainFrame extends JFrame {
         buttonPanel.add(clearButton);
 
         // Members table
-        String[] columns = {"ID", "Name", "Phone", "Email", "Books Borrowed"};
-        Object[][] data = {};
-        JTable membersTable = new JTable(data, columns);
+        // Sortable by ID, name, number of books borrowed, overdue loans and next due date
+        String[] columns = {"ID", "Name", "Phone", "Email", "Books Borrowed", "Overdue", "Next Due"};
+        membersTable = new JTable(new SortedTableModel(columns, new int[] {0}, 0, 1, 4, 5, 6));
+        installSorting(membersTable);
         JScrollPane tableScrollPane = new JScrollPane(membersTable);
 
         // Use the improved layout structure to prevent overlapping
@@ -515,6 +695,7 @@ class MainFrame extends JFrame {
         tablePanel.setBackground(LibraryManagementSystem.SECONDARY_COLOR);
         tablePanel.setBorder(BorderFactory.createEmptyBorder(20, 0, 0, 0)); // Add more space above table
         tablePanel.add(tableScrollPane, BorderLayout.CENTER);
+        tablePanel.add(createFilterPanel(membersTable), BorderLayout.NORTH);
         
         // Use a split panel approach with fixed sizes
         JSplitPane splitPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT, topSection, tablePanel);
@@ -542,6 +723,10 @@ class MainFrame extends JFrame {
                 JOptionPane.showMessageDialog(this, "ID and Name must be filled!", "Error", JOptionPane.ERROR_MESSAGE);
                 return;
             }
+            if (!LibraryManager.isValidId(id)) {
+                JOptionPane.showMessageDialog(this, "Member ID is too long!", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
 
             Member member = new Member(id, name, phone, email);
             boolean added = libraryManager.addMember(member);
@@ -549,7 +734,6 @@ class MainFrame extends JFrame {
             if (added) {
                 JOptionPane.showMessageDialog(this, "Member added successfully!");
                 clearMemberFields(idField, nameField, phoneField, emailField);
-                updateMembersTable(membersTable);
                 refreshBorrowingComponents(); // Refresh borrowing components
             } else {
                 JOptionPane.showMessageDialog(this, "Member with this ID already exists!", "Error", JOptionPane.ERROR_MESSAGE);
@@ -574,7 +758,6 @@ class MainFrame extends JFrame {
             if (updated) {
                 JOptionPane.showMessageDialog(this, "Member updated successfully!");
                 clearMemberFields(idField, nameField, phoneField, emailField);
-                updateMembersTable(membersTable);
                 refreshBorrowingComponents(); // Refresh borrowing components
             } else {
                 JOptionPane.showMessageDialog(this, "Member not found!", "Error", JOptionPane.ERROR_MESSAGE);
@@ -594,7 +777,6 @@ class MainFrame extends JFrame {
             if (deleted) {
                 JOptionPane.showMessageDialog(this, "Member deleted successfully!");
                 clearMemberFields(idField, nameField, phoneField, emailField);
-                updateMembersTable(membersTable);
                 refreshBorrowingComponents(); // Refresh borrowing components
             } else {
                 JOptionPane.showMessageDialog(this, "Member not found or has borrowed books!", "Error", JOptionPane.ERROR_MESSAGE);
@@ -627,22 +809,25 @@ class MainFrame extends JFrame {
     }
 
     private void updateMembersTable(JTable table) {
-        ArrayList<Member> members = libraryManager.getAllMembers();
-        Object[][] data = new Object[members.size()][5];
-
-        for (int i = 0; i < members.size(); i++) {
-            Member member = members.get(i);
-            data[i][0] = member.getId();
-            data[i][1] = member.getName();
-            data[i][2] = member.getPhone();
-            data[i][3] = member.getEmail();
-            data[i][4] = member.getBorrowedBooks().size();
+        ArrayList<Object[]> rows = new ArrayList<>();
+        try (ReadTransaction view = libraryManager.beginRead()) {
+            HashMap<String, MemberSummary> summaries = libraryManager.getMemberSummaries(view);
+            for (Member record : view.getAllMembers()) {
+                MemberSummary summary = summaries.get(record.getId());
+                if (summary != null) {
+                    rows.add(memberRow(record, summary));
+                }
+            }
         }
+        sortedModel(table).setRows(rows);
+    }
 
-        table.setModel(new javax.swing.table.DefaultTableModel(
-                data,
-                new String[] {"ID", "Name", "Phone", "Email", "Books Borrowed"}
-        ));
+    private Object[] memberRow(Member member, MemberSummary summary) {
+        int nextDue = summary.getNextDueDay();
+        return new Object[] {
+                member.getId(), member.getName(), member.getPhone(), member.getEmail(), summary.getLoanCount(),
+                summary.getOverdueCount(), nextDue != MemberSummary.NO_DUE_DAY ? EpochDays.format(nextDue) : ""
+        };
     }
 
     private JPanel createBorrowingPanel() {
@@ -742,9 +927,10 @@ class MainFrame extends JFrame {
         buttonPanel.add(returnButton);
 
         // Borrowed books table
-        String[] columns = {"Member ID", "Member Name", "Book ID", "Book Title", "Borrow Date", "Due Date"};
-        Object[][] data = {};
-        borrowedBooksTable = new JTable(data, columns); // Store reference as class variable
+        // Loans are keyed by member and copy barcode; sortable by due date, member, title and borrow date
+        String[] columns = {"Member ID", "Member Name", "Book ID", "Book Title", "Borrow Date", "Due Date", "Copy"};
+        borrowedBooksTable = new JTable(new SortedTableModel(columns, new int[] {0, 6}, 5, 0, 1, 3, 4)); // Store reference as class variable
+        installSorting(borrowedBooksTable);
         // Style table
         borrowedBooksTable.setRowHeight(30);
         borrowedBooksTable.setIntercellSpacing(new Dimension(10, 5));
@@ -772,6 +958,7 @@ class MainFrame extends JFrame {
         tablePanel.setBackground(LibraryManagementSystem.SECONDARY_COLOR);
         tablePanel.setBorder(BorderFactory.createEmptyBorder(20, 0, 0, 0)); // Add more space above table
         tablePanel.add(tableScrollPane, BorderLayout.CENTER);
+        tablePanel.add(createFilterPanel(borrowedBooksTable), BorderLayout.NORTH);
         
         // Use a split panel approach with fixed sizes
         JSplitPane splitPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT, topSection, tablePanel);
@@ -798,15 +985,33 @@ class MainFrame extends JFrame {
             String bookId = ((String) bookComboBox.getSelectedItem()).split(" - ")[0];
             int days = (int) daysSpinner.getValue();
 
-            boolean borrowed = libraryManager.borrowBook(memberId, bookId, days);
-
-            if (borrowed) {
-                JOptionPane.showMessageDialog(this, "Book borrowed successfully!");
-                // Refresh all components in the borrowing panel
-                refreshBorrowingComponents();
-            } else {
-                JOptionPane.showMessageDialog(this, "Failed to borrow book. Check if the book is available.", "Error", JOptionPane.ERROR_MESSAGE);
-            }
+            borrowButton.setEnabled(false);
+            asyncManager.borrowBook(memberId, bookId, days).whenComplete((borrowed, failure) -> {
+                if (failure instanceof java.io.IOException) {
+                    SwingUtilities.invokeLater(() -> {
+                        borrowButton.setEnabled(true);
+                        showNotDurable("Book borrowed", failure);
+                    });
+                } else if (failure == null && borrowed) {
+                    SwingUtilities.invokeLater(() -> {
+                        borrowButton.setEnabled(true);
+                        JOptionPane.showMessageDialog(this, "Book borrowed successfully!");
+                        // Refresh all components in the borrowing panel
+                        refreshBorrowingComponents();
+                    });
+                } else {
+                    // Find out why before going back to the EDT
+                    asyncManager.checkCheckout(memberId, bookId, days)
+                            .thenCombine(asyncManager.getBook(bookId), (decision, book) -> (Runnable) () ->
+                                    showBorrowRefusal(memberId, bookId, decision, book))
+                            .exceptionally(lookupFailure -> () ->
+                                    showBorrowRefusal(memberId, bookId, null, null))
+                            .thenAccept(show -> SwingUtilities.invokeLater(() -> {
+                                borrowButton.setEnabled(true);
+                                show.run();
+                            }));
+                }
+            });
         });
 
         returnButton.addActionListener(e -> {
@@ -820,20 +1025,66 @@ class MainFrame extends JFrame {
             String memberId = borrowedBooksTable.getValueAt(selectedRow, 0).toString();
             String bookId = borrowedBooksTable.getValueAt(selectedRow, 2).toString();
 
-            boolean returned = libraryManager.returnBook(memberId, bookId);
-
-            if (returned) {
-                JOptionPane.showMessageDialog(this, "Book returned successfully!");
-                // Refresh all components in the borrowing panel
-                refreshBorrowingComponents();
-            } else {
-                JOptionPane.showMessageDialog(this, "Failed to return book.", "Error", JOptionPane.ERROR_MESSAGE);
-            }
+            returnButton.setEnabled(false);
+            asyncManager.returnBook(memberId, bookId).whenComplete((returned, failure) ->
+                    SwingUtilities.invokeLater(() -> {
+                        returnButton.setEnabled(true);
+                        if (failure instanceof java.io.IOException) {
+                            showNotDurable("Book returned", failure);
+                        } else {
+                            showReturnResult(failure == null && returned);
+                        }
+                    }));
         });
 
         return panel;
     }
 
+    private void showBorrowRefusal(String memberId, String bookId, CheckoutPolicy.Decision decision, Book book) {
+        if (decision != null && !decision.isAllowed()) {
+            JOptionPane.showMessageDialog(this, "Borrowing not allowed: " + decision.getRefusal() + ".", "Error", JOptionPane.ERROR_MESSAGE);
+        } else if (book != null && book.getAvailableQuantity() <= 0) {
+            // No copy on the shelf, offer to join the waitlist instead
+            int choice = JOptionPane.showConfirmDialog(this,
+                    "No copies are available. Place a hold for this member?",
+                    "Place Hold", JOptionPane.YES_NO_OPTION);
+            if (choice == JOptionPane.YES_OPTION) {
+                asyncManager.placeHold(memberId, bookId).whenComplete((placed, failure) ->
+                        SwingUtilities.invokeLater(() -> showHoldResult(failure == null && placed, failure)));
+            }
+        } else {
+            JOptionPane.showMessageDialog(this, "Failed to borrow book. Check if the book is available.", "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void showHoldResult(boolean placed, Throwable failure) {
+        if (failure instanceof java.io.IOException) {
+            JOptionPane.showMessageDialog(this, "Hold placed, but it could not be saved to disk and may be lost if the program stops: "
+                    + failure.getMessage(), "Warning", JOptionPane.WARNING_MESSAGE);
+        } else if (placed) {
+            JOptionPane.showMessageDialog(this, "Hold placed. The next returned copy will be set aside.");
+        } else {
+            JOptionPane.showMessageDialog(this, "Member already has a hold on this book.", "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    // The change was made, but its journal entry could not be synced to disk
+    private void showNotDurable(String done, Throwable failure) {
+        JOptionPane.showMessageDialog(this, done + ", but it could not be saved to disk and may be lost if the program stops: "
+                + failure.getMessage(), "Warning", JOptionPane.WARNING_MESSAGE);
+        refreshBorrowingComponents();
+    }
+
+    private void showReturnResult(boolean returned) {
+        if (returned) {
+            JOptionPane.showMessageDialog(this, "Book returned successfully!");
+            // Refresh all components in the borrowing panel
+            refreshBorrowingComponents();
+        } else {
+            JOptionPane.showMessageDialog(this, "Failed to return book.", "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
     private void updateMemberComboBox(JComboBox<String> comboBox) {
         if (comboBox == null) return;
         
@@ -843,7 +1094,7 @@ class MainFrame extends JFrame {
                               
         comboBox.removeAllItems();
     
-        for (Member member : libraryManager.getAllMembers()) {
+        for (Member member : allMembers()) {
             // Limit the length of the display name to prevent overflow
             String name = member.getName();
             if (name.length() > 30) {
@@ -875,13 +1126,17 @@ class MainFrame extends JFrame {
                               
         comboBox.removeAllItems();
     
-        for (Book book : libraryManager.getAvailableBooks()) {
+        // List every book so members can collect held copies or join a waitlist
+        for (Book book : allBooks()) {
             // Limit the length of the title to prevent overflow
             String title = book.getTitle();
             if (title.length() > 30) {
                 title = title.substring(0, 27) + "...";
             }
             String item = book.getId() + " - " + title;
+            if (book.getAvailableQuantity() <= 0) {
+                item += " (holds only)";
+            }
             comboBox.addItem(item);
             
             // Restore selection if possible
@@ -898,27 +1153,39 @@ class MainFrame extends JFrame {
         comboBox.setPrototypeDisplayValue("XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX");
     }
 
+    // Lists for the combo boxes, from a snapshot rather than the live records
+    private ArrayList<Book> allBooks() {
+        try (ReadTransaction view = libraryManager.beginRead()) {
+            return view.getAllBooks();
+        }
+    }
+
+    private ArrayList<Member> allMembers() {
+        try (ReadTransaction view = libraryManager.beginRead()) {
+            return view.getAllMembers();
+        }
+    }
+
     private void updateBorrowedBooksTable(JTable table) {
-        ArrayList<BorrowRecord> records = libraryManager.getAllBorrowRecords();
-        Object[][] data = new Object[records.size()][6];
-
-        for (int i = 0; i < records.size(); i++) {
-            BorrowRecord record = records.get(i);
-            Member member = libraryManager.getMember(record.getMemberId());
-            Book book = libraryManager.getBook(record.getBookId());
-
-            data[i][0] = record.getMemberId();
-            data[i][1] = member != null ? member.getName() : "Unknown";
-            data[i][2] = record.getBookId();
-            data[i][3] = book != null ? book.getTitle() : "Unknown";
-            data[i][4] = new SimpleDateFormat("yyyy-MM-dd").format(record.getBorrowDate());
-            data[i][5] = new SimpleDateFormat("yyyy-MM-dd").format(record.getDueDate());
+        ArrayList<Object[]> rows = new ArrayList<>();
+        try (ReadTransaction view = libraryManager.beginRead()) {
+            for (BorrowRecord record : view.getAllBorrowRecords()) {
+                rows.add(loanRow(record, view.getMember(record.getMemberId()), view.getBook(record.getBookId())));
+            }
         }
+        sortedModel(table).setRows(rows);
+    }
 
-        table.setModel(new javax.swing.table.DefaultTableModel(
-                data,
-                new String[] {"Member ID", "Member Name", "Book ID", "Book Title", "Borrow Date", "Due Date"}
-        ));
+    private Object[] loanRow(BorrowRecord record, Member member, Book book) {
+        return new Object[] {
+                record.getMemberId(),
+                member != null ? member.getName() : "Unknown",
+                record.getBookId(),
+                book != null ? book.getTitle() : "Unknown",
+                EpochDays.format(record.getBorrowDay()),
+                EpochDays.format(record.getDueDay()),
+                record.getBarcode()
+        };
     }
 
     private JPanel createSearchPanel() {
@@ -977,14 +1244,91 @@ class MainFrame extends JFrame {
         JScrollPane scrollPane = new JScrollPane(resultsArea);
         scrollPane.setBorder(BorderFactory.createLineBorder(LibraryManagementSystem.PRIMARY_COLOR));
         resultsPanel.add(scrollPane, BorderLayout.CENTER);
+
+        // Paging controls below the results
+        JPanel pagingPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 15, 8));
+        pagingPanel.setBackground(LibraryManagementSystem.SECONDARY_COLOR);
+        JLabel pageStatusLabel = new JLabel(" ");
+        pageStatusLabel.setFont(LibraryManagementSystem.FIELD_FONT);
+        JButton nextPageButton = new JButton("Next Page");
+        styleButton(nextPageButton, LibraryManagementSystem.ACCENT_COLOR);
+        nextPageButton.setEnabled(false);
+        pagingPanel.add(pageStatusLabel);
+        pagingPanel.add(nextPageButton);
+        resultsPanel.add(pagingPanel, BorderLayout.SOUTH);
     
+        // Facet filters for book searches, with live counts per category
+        JPanel facetPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 15, 8));
+        facetPanel.setBackground(LibraryManagementSystem.SECONDARY_COLOR);
+        JLabel categoryLabel = new JLabel("Category:");
+        styleLabel(categoryLabel);
+        JComboBox<String> categoryComboBox = new JComboBox<>();
+        categoryComboBox.setFont(LibraryManagementSystem.FIELD_FONT);
+        categoryComboBox.setPreferredSize(new Dimension(260, 30));
+        JCheckBox availableOnlyCheckBox = new JCheckBox("Available only");
+        availableOnlyCheckBox.setFont(LibraryManagementSystem.FIELD_FONT);
+        availableOnlyCheckBox.setBackground(LibraryManagementSystem.SECONDARY_COLOR);
+        facetPanel.add(categoryLabel);
+        facetPanel.add(categoryComboBox);
+        facetPanel.add(availableOnlyCheckBox);
+
+        JPanel searchControlsPanel = new JPanel(new BorderLayout());
+        searchControlsPanel.setBackground(LibraryManagementSystem.SECONDARY_COLOR);
+        searchControlsPanel.add(searchPanel, BorderLayout.NORTH);
+        searchControlsPanel.add(facetPanel, BorderLayout.SOUTH);
+
         // Add components to the content panel
-        contentPanel.add(searchPanel, BorderLayout.NORTH);
+        contentPanel.add(searchControlsPanel, BorderLayout.NORTH);
         contentPanel.add(resultsPanel, BorderLayout.CENTER);
         
         // Add content panel to main panel
         panel.add(contentPanel, BorderLayout.CENTER);
 
+        // State of the search being paged through
+        String[] activeSearch = new String[2];  // term, type
+        String[] nextCursor = new String[1];
+        int[] shownCount = new int[1];
+        // Category behind each combo box entry, null for "All categories"
+        ArrayList<String> categoryValues = new ArrayList<>();
+        boolean[] updatingFacets = {false};
+
+        // Rebuild the category list with counts for the current term, keeping the selection
+        Runnable refreshFacets = () -> {
+            int selectedIndex = categoryComboBox.getSelectedIndex();
+            String selected = selectedIndex > 0 ? categoryValues.get(selectedIndex) : null;
+            boolean availableOnly = availableOnlyCheckBox.isSelected();
+            FacetIndex.Counts facets = libraryManager.getFacetCounts(activeSearch[0], availableOnly);
+            LinkedHashMap<String, Integer> counts = facets.getCategories();
+
+            updatingFacets[0] = true;
+            categoryComboBox.removeAllItems();
+            categoryValues.clear();
+            int total = 0;
+            for (int count : counts.values()) {
+                total += count;
+            }
+            categoryComboBox.addItem("All categories (" + total + ")");
+            categoryValues.add(null);
+            for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+                categoryComboBox.addItem(entry.getKey() + " (" + entry.getValue() + ")");
+                categoryValues.add(entry.getKey());
+            }
+            int restored = categoryValues.indexOf(selected);
+            categoryComboBox.setSelectedIndex(Math.max(0, restored));
+            availableOnlyCheckBox.setText("Available only (" + facets.getAvailable() + ")");
+            updatingFacets[0] = false;
+        };
+
+        // Show the first page of the active search with the current facets
+        Runnable runSearch = () -> {
+            int selectedIndex = categoryComboBox.getSelectedIndex();
+            String category = selectedIndex > 0 ? categoryValues.get(selectedIndex) : null;
+            shownCount[0] = 0;
+            nextCursor[0] = showSearchPage(resultsArea, pageStatusLabel, activeSearch[0], activeSearch[1], null,
+                    category, availableOnlyCheckBox.isSelected(), shownCount);
+            nextPageButton.setEnabled(nextCursor[0] != null);
+        };
+
         // Add action listener for search button
         searchButton.addActionListener(e -> {
             String searchTerm = searchField.getText().trim();
@@ -995,48 +1339,117 @@ class MainFrame extends JFrame {
                 return;
             }
 
-            resultsArea.setText("");
+            activeSearch[0] = searchTerm;
+            activeSearch[1] = searchType;
+            refreshFacets.run();
+            runSearch.run();
+        });
 
-            if (searchType.equals("Book")) {
-                ArrayList<Book> results = libraryManager.searchBooks(searchTerm);
+        categoryComboBox.addActionListener(e -> {
+            if (!updatingFacets[0] && activeSearch[0] != null) {
+                runSearch.run();
+            }
+        });
 
-                if (results.isEmpty()) {
-                    resultsArea.append("No books found matching the search term.\n");
-                } else {
-                    resultsArea.append("Found " + results.size() + " book(s):\n\n");
-
-                    for (Book book : results) {
-                        resultsArea.append("ID: " + book.getId() + "\n");
-                        resultsArea.append("Title: " + book.getTitle() + "\n");
-                        resultsArea.append("Author: " + book.getAuthor() + "\n");
-                        resultsArea.append("Category: " + book.getCategory() + "\n");
-                        resultsArea.append("Available Quantity: " + book.getAvailableQuantity() + "\n");
-                        resultsArea.append("------------------------\n");
-                    }
-                }
-            } else if (searchType.equals("Member")) {
-                ArrayList<Member> results = libraryManager.searchMembers(searchTerm);
+        availableOnlyCheckBox.addActionListener(e -> {
+            if (activeSearch[0] != null) {
+                refreshFacets.run();
+                runSearch.run();
+            }
+        });
 
-                if (results.isEmpty()) {
-                    resultsArea.append("No members found matching the search term.\n");
-                } else {
-                    resultsArea.append("Found " + results.size() + " member(s):\n\n");
-
-                    for (Member member : results) {
-                        resultsArea.append("ID: " + member.getId() + "\n");
-                        resultsArea.append("Name: " + member.getName() + "\n");
-                        resultsArea.append("Phone: " + member.getPhone() + "\n");
-                        resultsArea.append("Email: " + member.getEmail() + "\n");
-                        resultsArea.append("Books Borrowed: " + member.getBorrowedBooks().size() + "\n");
-                        resultsArea.append("------------------------\n");
-                    }
-                }
+        // Facets only apply to books
+        searchTypeComboBox.addActionListener(e -> {
+            boolean books = "Book".equals(searchTypeComboBox.getSelectedItem());
+            categoryComboBox.setEnabled(books);
+            availableOnlyCheckBox.setEnabled(books);
+        });
+
+        nextPageButton.addActionListener(e -> {
+            if (nextCursor[0] == null) {
+                return;
             }
+            int selectedIndex = categoryComboBox.getSelectedIndex();
+            String category = selectedIndex > 0 ? categoryValues.get(selectedIndex) : null;
+            nextCursor[0] = showSearchPage(resultsArea, pageStatusLabel, activeSearch[0], activeSearch[1], nextCursor[0],
+                    category, availableOnlyCheckBox.isSelected(), shownCount);
+            nextPageButton.setEnabled(nextCursor[0] != null);
         });
 
         return panel;
     }
 
+    // Show one page of ranked results and return the cursor for the next page (null on the last page).
+    // Only the current page is rendered, however many items match.
+    private String showSearchPage(JTextArea resultsArea, JLabel statusLabel, String searchTerm, String searchType,
+                                  String cursor, String category, boolean availableOnly, int[] shownCount) {
+        final int pageSize = 25;
+        resultsArea.setText("");
+
+        if (searchType.equals("Book")) {
+            SearchPage<Book> page = libraryManager.searchBooksRanked(searchTerm, pageSize, cursor,
+                    category, null, availableOnly);
+            ArrayList<Book> results = page.getItems();
+            // Typo suggestions only make sense when no facet is narrowing the results
+            boolean fuzzy = results.isEmpty() && cursor == null && category == null && !availableOnly;
+            if (fuzzy) {
+                // Nothing matched, try allowing for typos
+                results = libraryManager.fuzzySearchBooks(searchTerm, pageSize);
+            }
+
+            if (results.isEmpty()) {
+                resultsArea.append("No books found matching the search term.\n");
+            } else if (fuzzy) {
+                resultsArea.append("No exact matches. Did you mean:\n\n");
+            }
+            for (Book book : results) {
+                resultsArea.append("ID: " + book.getId() + "\n");
+                resultsArea.append("Title: " + book.getTitle() + "\n");
+                resultsArea.append("Author: " + book.getAuthor() + "\n");
+                resultsArea.append("Category: " + book.getCategory() + "\n");
+                resultsArea.append("Available Quantity: " + book.getAvailableQuantity() + "\n");
+                resultsArea.append("------------------------\n");
+            }
+            resultsArea.setCaretPosition(0);
+            updatePageStatus(statusLabel, shownCount, results.size(), fuzzy ? results.size() : page.getTotalMatches());
+            return fuzzy ? null : page.getNextCursor();
+        } else {
+            SearchPage<Member> page = libraryManager.searchMembersRanked(searchTerm, pageSize, cursor);
+            ArrayList<Member> results = page.getItems();
+            boolean fuzzy = results.isEmpty() && cursor == null;
+            if (fuzzy) {
+                // Nothing matched, try allowing for typos
+                results = libraryManager.fuzzySearchMembers(searchTerm, pageSize);
+            }
+
+            if (results.isEmpty()) {
+                resultsArea.append("No members found matching the search term.\n");
+            } else if (fuzzy) {
+                resultsArea.append("No exact matches. Did you mean:\n\n");
+            }
+            for (Member member : results) {
+                resultsArea.append("ID: " + member.getId() + "\n");
+                resultsArea.append("Name: " + member.getName() + "\n");
+                resultsArea.append("Phone: " + member.getPhone() + "\n");
+                resultsArea.append("Email: " + member.getEmail() + "\n");
+                resultsArea.append("Books Borrowed: " + member.getBorrowedBooks().size() + "\n");
+                resultsArea.append("------------------------\n");
+            }
+            resultsArea.setCaretPosition(0);
+            updatePageStatus(statusLabel, shownCount, results.size(), fuzzy ? results.size() : page.getTotalMatches());
+            return fuzzy ? null : page.getNextCursor();
+        }
+    }
+
+    private void updatePageStatus(JLabel statusLabel, int[] shownCount, int pageCount, int totalMatches) {
+        if (pageCount == 0) {
+            statusLabel.setText(" ");
+            return;
+        }
+        statusLabel.setText("Showing " + (shownCount[0] + 1) + "-" + (shownCount[0] + pageCount) + " of " + totalMatches);
+        shownCount[0] += pageCount;
+    }
+
     private JPanel createQRGeneratorPanel() {
         JPanel panel = new JPanel(new BorderLayout());
 
@@ -1094,15 +1507,137 @@ class MainFrame extends JFrame {
         return panel;
     }
 
+    private JPanel createPerformancePanel() {
+        JPanel panel = new JPanel(new BorderLayout(10, 10));
+        panel.setBackground(LibraryManagementSystem.SECONDARY_COLOR);
+        panel.setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
+
+        // Panel header
+        JLabel panelHeader = new JLabel("Performance Dashboard", JLabel.CENTER);
+        panelHeader.setFont(new Font("SansSerif", Font.BOLD, 18));
+        panelHeader.setForeground(LibraryManagementSystem.PRIMARY_COLOR);
+        panelHeader.setBorder(BorderFactory.createEmptyBorder(0, 0, 10, 0));
+        panel.add(panelHeader, BorderLayout.NORTH);
+
+        // System overview panel
+        JPanel overviewPanel = new JPanel(new GridLayout(3, 4, 20, 10));
+        overviewPanel.setBorder(BorderFactory.createCompoundBorder(
+            BorderFactory.createTitledBorder(
+                BorderFactory.createLineBorder(LibraryManagementSystem.PRIMARY_COLOR, 1),
+                "System",
+                TitledBorder.DEFAULT_JUSTIFICATION,
+                TitledBorder.DEFAULT_POSITION,
+                new Font("SansSerif", Font.BOLD, 16)),
+            BorderFactory.createEmptyBorder(10, 15, 10, 15)));
+        overviewPanel.setBackground(new Color(245, 245, 250));
+
+        JLabel heapValue = new JLabel();
+        JLabel booksValue = new JLabel();
+        JLabel membersValue = new JLabel();
+        JLabel loansValue = new JLabel();
+        JLabel queueValue = new JLabel();
+        JLabel snapshotValue = new JLabel();
+
+        String[] overviewLabels = {"Heap Used:", "Books:", "Members:", "Active Loans:", "Persistence Queue:", "Last Snapshot:"};
+        JLabel[] overviewValues = {heapValue, booksValue, membersValue, loansValue, queueValue, snapshotValue};
+        for (int i = 0; i < overviewLabels.length; i++) {
+            JLabel label = new JLabel(overviewLabels[i]);
+            styleLabel(label);
+            overviewValues[i].setFont(LibraryManagementSystem.FIELD_FONT);
+            overviewPanel.add(label);
+            overviewPanel.add(overviewValues[i]);
+        }
+
+        // Per-operation latency table
+        String[] columns = {"Operation", "Count", "Ops/sec", "p50 (us)", "p99 (us)", "Max (us)"};
+        javax.swing.table.DefaultTableModel model = new javax.swing.table.DefaultTableModel(columns, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        JTable operationsTable = new JTable(model);
+        operationsTable.setRowHeight(30);
+        operationsTable.setShowGrid(true);
+        operationsTable.setGridColor(new Color(220, 220, 220));
+        operationsTable.getTableHeader().setBackground(LibraryManagementSystem.PRIMARY_COLOR);
+        operationsTable.getTableHeader().setForeground(Color.BLACK);
+        operationsTable.getTableHeader().setFont(LibraryManagementSystem.LABEL_FONT);
+        operationsTable.getTableHeader().setPreferredSize(new Dimension(0, 35));
+
+        JScrollPane tableScrollPane = new JScrollPane(operationsTable);
+        tableScrollPane.setBorder(BorderFactory.createLineBorder(LibraryManagementSystem.PRIMARY_COLOR));
+
+        JPanel contentPanel = new JPanel(new BorderLayout(10, 10));
+        contentPanel.setBackground(LibraryManagementSystem.SECONDARY_COLOR);
+        contentPanel.add(overviewPanel, BorderLayout.NORTH);
+        contentPanel.add(tableScrollPane, BorderLayout.CENTER);
+        panel.add(contentPanel, BorderLayout.CENTER);
+
+        // Counts from the previous tick, used to turn totals into throughput
+        HashMap<String, Long> previousCounts = new HashMap<>();
+        long[] previousTick = {System.nanoTime()};
+        SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss");
+
+        // Everything read here is an atomic or a size, so the EDT never waits on I/O or locks
+        dashboardTimer = new javax.swing.Timer(1000, e -> {
+            MetricsRegistry metrics = MetricsRegistry.global();
+            long now = System.nanoTime();
+            double elapsedSeconds = Math.max(1e-3, (now - previousTick[0]) / 1e9);
+            previousTick[0] = now;
+
+            Runtime runtime = Runtime.getRuntime();
+            long usedMb = (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024);
+            heapValue.setText(usedMb + " / " + runtime.maxMemory() / (1024 * 1024) + " MB");
+            booksValue.setText(gaugeText(metrics.gaugeValue("library.books")));
+            membersValue.setText(gaugeText(metrics.gaugeValue("library.members")));
+            loansValue.setText(gaugeText(metrics.gaugeValue("library.activeLoans")));
+            queueValue.setText(gaugeText(metrics.gaugeValue("persistence.queueDepth")));
+            long lastSnapshot = metrics.gaugeValue("persistence.lastSnapshotMillis");
+            snapshotValue.setText(lastSnapshot > 0 ? timeFormat.format(new Date(lastSnapshot)) : "n/a");
+
+            SortedSet<String> names = metrics.histogramNames();
+            if (model.getRowCount() != names.size()) {
+                model.setRowCount(0);
+                for (String name : names) {
+                    model.addRow(new Object[] {name, 0L, 0L, 0L, 0L, 0L});
+                }
+            }
+
+            int row = 0;
+            for (String name : names) {
+                LatencyHistogram histogram = metrics.findHistogram(name);
+                long count = histogram.getCount();
+                long previous = previousCounts.getOrDefault(name, count);
+                previousCounts.put(name, count);
+
+                model.setValueAt(name, row, 0);
+                model.setValueAt(count, row, 1);
+                model.setValueAt(Math.round((count - previous) / elapsedSeconds), row, 2);
+                model.setValueAt(histogram.getPercentileNanos(50) / 1000, row, 3);
+                model.setValueAt(histogram.getPercentileNanos(99) / 1000, row, 4);
+                model.setValueAt(histogram.getMaxNanos() / 1000, row, 5);
+                row++;
+            }
+        });
+        dashboardTimer.setInitialDelay(0);
+
+        return panel;
+    }
+
+    private String gaugeText(long value) {
+        return value >= 0 ? String.valueOf(value) : "n/a";
+    }
+
     private void updateItemComboBox(JComboBox<String> comboBox, String itemType) {
         comboBox.removeAllItems();
 
         if (itemType.equals("Book")) {
-            for (Book book : libraryManager.getAllBooks()) {
+            for (Book book : allBooks()) {
                 comboBox.addItem(book.getId() + " - " + book.getTitle());
             }
         } else if (itemType.equals("Member")) {
-            for (Member member : libraryManager.getAllMembers()) {
+            for (Member member : allMembers()) {
                 comboBox.addItem(member.getId() + " - " + member.getName());
             }
         }
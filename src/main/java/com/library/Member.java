@@ -17,6 +17,10 @@ class Member {
         this.borrowedBooks = new ArrayList<>();
     }
 
+    // For subclasses that keep the fields elsewhere
+    Member() {
+    }
+
     // Getters and setters
     public String getId() {
         return id;
@@ -57,4 +61,20 @@ class Member {
     public void setBorrowedBooks(ArrayList<String> borrowedBooks) {
         this.borrowedBooks = borrowedBooks;
     }
+
+    public void addBorrowedBook(String bookId) {
+        borrowedBooks.add(bookId);
+    }
+
+    public void removeBorrowedBook(String bookId) {
+        borrowedBooks.remove(bookId);
+    }
+
+    // Whether the id, name, phone or email contains the term, given in lower case
+    public boolean containsText(String lowerTerm) {
+        return getId().toLowerCase().contains(lowerTerm) ||
+                getName().toLowerCase().contains(lowerTerm) ||
+                getPhone().toLowerCase().contains(lowerTerm) ||
+                getEmail().toLowerCase().contains(lowerTerm);
+    }
 }
\ No newline at end of file
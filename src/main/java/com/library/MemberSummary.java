@@ -0,0 +1,74 @@
+package com.library;
+
+import java.util.Arrays;
+
+// What a member has out and has borrowed, kept up to date as loans open and close so that
+// the member table and borrowing checks never walk the loans. Summaries are immutable: a
+// change produces a new one, so a summary handed out stays as it was.
+class MemberSummary {
+    static final int NO_DUE_DAY = Integer.MAX_VALUE;
+
+    private final String memberId;
+    // Due days of the open loans, earliest first (epoch days)
+    private final int[] dueDays;
+    private final long lifetimeBorrows;
+
+    MemberSummary(String memberId, int[] dueDays, long lifetimeBorrows) {
+        this.memberId = memberId;
+        this.dueDays = dueDays;
+        Arrays.sort(this.dueDays);
+        this.lifetimeBorrows = lifetimeBorrows;
+    }
+
+    public String getMemberId() {
+        return memberId;
+    }
+
+    public int getLoanCount() {
+        return dueDays.length;
+    }
+
+    // Loans due before the given day
+    public int getOverdueCount(int today) {
+        int index = Arrays.binarySearch(dueDays, today);
+        if (index < 0) {
+            return -index - 1;
+        }
+        // First loan due today, which is not overdue yet
+        while (index > 0 && dueDays[index - 1] == today) {
+            index--;
+        }
+        return index;
+    }
+
+    public int getOverdueCount() {
+        return getOverdueCount(EpochDays.today());
+    }
+
+    // The earliest due day of an open loan, NO_DUE_DAY when nothing is out
+    public int getNextDueDay() {
+        return dueDays.length > 0 ? dueDays[0] : NO_DUE_DAY;
+    }
+
+    // Every loan the member has ever taken out, open ones included
+    public long getLifetimeBorrows() {
+        return lifetimeBorrows;
+    }
+
+    MemberSummary withLoan(int dueDay) {
+        int[] days = Arrays.copyOf(dueDays, dueDays.length + 1);
+        days[dueDays.length] = dueDay;
+        return new MemberSummary(memberId, days, lifetimeBorrows + 1);
+    }
+
+    MemberSummary withoutLoan(int dueDay) {
+        int index = Arrays.binarySearch(dueDays, dueDay);
+        if (index < 0) {
+            return this;
+        }
+        int[] days = new int[dueDays.length - 1];
+        System.arraycopy(dueDays, 0, days, 0, index);
+        System.arraycopy(dueDays, index + 1, days, index, days.length - index);
+        return new MemberSummary(memberId, days, lifetimeBorrows);
+    }
+}
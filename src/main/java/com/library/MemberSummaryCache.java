@@ -0,0 +1,64 @@
+package com.library;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+// Summaries of the members used most recently. Borrowing and returning update a cached
+// summary in place of recomputing it; a member not in the cache is summarized from the loans
+// on first use, and the least recently used member is dropped once the cache is full.
+// Used under the manager's lock.
+class MemberSummaryCache {
+    private static final MetricsRegistry METRICS = MetricsRegistry.global();
+    private static final Counter HITS = METRICS.counter("summary.hits");
+    private static final Counter MISSES = METRICS.counter("summary.misses");
+    private static final Counter EVICTIONS = METRICS.counter("summary.evictions");
+
+    private final LinkedHashMap<String, MemberSummary> summaries;
+
+    MemberSummaryCache(int capacity) {
+        summaries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MemberSummary> eldest) {
+                if (size() > capacity) {
+                    EVICTIONS.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    int size() {
+        return summaries.size();
+    }
+
+    MemberSummary get(String memberId, Function<String, MemberSummary> compute) {
+        MemberSummary summary = summaries.get(memberId);
+        if (summary != null) {
+            HITS.increment();
+            return summary;
+        }
+        MISSES.increment();
+        summary = compute.apply(memberId);
+        summaries.put(memberId, summary);
+        return summary;
+    }
+
+    // Loans of members that are not cached need no work, their summary is computed when next needed
+    void recordBorrow(String memberId, int dueDay) {
+        summaries.computeIfPresent(memberId, (id, summary) -> summary.withLoan(dueDay));
+    }
+
+    void recordReturn(String memberId, int dueDay) {
+        summaries.computeIfPresent(memberId, (id, summary) -> summary.withoutLoan(dueDay));
+    }
+
+    void invalidate(String memberId) {
+        summaries.remove(memberId);
+    }
+
+    void clear() {
+        summaries.clear();
+    }
+}
@@ -0,0 +1,93 @@
+package com.library;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+// Records kept only in memory, for replicas that get their state from a primary.
+// The data directory is still used for the replica's own loan history.
+class MemoryStorageEngine implements StorageEngine {
+    private final File dataDir;
+    private final LinkedHashMap<String, Book> books = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Member> members = new LinkedHashMap<>();
+    private final ArrayList<BorrowRecord> borrowRecords = new ArrayList<>();
+    private final ArrayList<Hold> holds = new ArrayList<>();
+
+    MemoryStorageEngine(File dataDir) {
+        this.dataDir = dataDir;
+    }
+
+    @Override
+    public synchronized ArrayList<Book> loadBooks() {
+        return new ArrayList<>(books.values());
+    }
+
+    @Override
+    public synchronized ArrayList<Member> loadMembers() {
+        return new ArrayList<>(members.values());
+    }
+
+    @Override
+    public synchronized ArrayList<BorrowRecord> loadBorrowRecords() {
+        return new ArrayList<>(borrowRecords);
+    }
+
+    @Override
+    public synchronized ArrayList<Hold> loadHolds() {
+        return new ArrayList<>(holds);
+    }
+
+    @Override
+    public synchronized void putBook(Book book) {
+        books.put(book.getId(), book);
+    }
+
+    @Override
+    public synchronized void removeBook(String bookId) {
+        books.remove(bookId);
+    }
+
+    @Override
+    public synchronized void putMember(Member member) {
+        members.put(member.getId(), member);
+    }
+
+    @Override
+    public synchronized void removeMember(String memberId) {
+        members.remove(memberId);
+    }
+
+    @Override
+    public synchronized void putBorrowRecord(BorrowRecord record) {
+        if (!borrowRecords.contains(record)) {
+            borrowRecords.add(record);
+        }
+    }
+
+    @Override
+    public synchronized void removeBorrowRecord(BorrowRecord record) {
+        borrowRecords.remove(record);
+    }
+
+    @Override
+    public synchronized void saveBorrowRecords(ArrayList<BorrowRecord> records) {
+        borrowRecords.clear();
+        borrowRecords.addAll(records);
+    }
+
+    @Override
+    public synchronized void saveHolds(ArrayList<Hold> holdList) {
+        holds.clear();
+        holds.addAll(holdList);
+    }
+
+    @Override
+    public File getDataDir() {
+        return dataDir;
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release
+    }
+}
@@ -0,0 +1,136 @@
+package com.library;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+// Process-wide registry of counters, latency histograms and gauges.
+// Metrics are looked up once (usually into static final fields) and then
+// updated on the hot path without locking or allocation.
+public class MetricsRegistry implements MetricsRegistryMBean {
+    private static final MetricsRegistry GLOBAL = new MetricsRegistry();
+
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(GLOBAL, new ObjectName("com.library:type=Metrics"));
+        } catch (Exception e) {
+            System.err.println("Error registering metrics with JMX: " + e.getMessage());
+        }
+
+        // Print the metrics on exit when asked to, e.g. for benchmark runs
+        if (Boolean.getBoolean("library.metrics.dumpOnExit")) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.print(GLOBAL.getTextDump())));
+        }
+    }
+
+    public static MetricsRegistry global() {
+        return GLOBAL;
+    }
+
+    Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    // Registers (or replaces) a gauge that is sampled whenever metrics are read
+    void gauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    // Drops a gauge when its owner goes away, unless another owner has registered the name since
+    void removeGauge(String name, LongSupplier supplier) {
+        gauges.remove(name, supplier);
+    }
+
+    // Current gauge value, or -1 if no such gauge is registered
+    long gaugeValue(String name) {
+        LongSupplier supplier = gauges.get(name);
+        return supplier != null ? supplier.getAsLong() : -1;
+    }
+
+    LatencyHistogram findHistogram(String name) {
+        return histograms.get(name);
+    }
+
+    SortedSet<String> histogramNames() {
+        return new TreeSet<>(histograms.keySet());
+    }
+
+    SortedSet<String> counterNames() {
+        return new TreeSet<>(counters.keySet());
+    }
+
+    @Override
+    public String[] getMetricNames() {
+        TreeSet<String> names = new TreeSet<>();
+        names.addAll(counters.keySet());
+        names.addAll(histograms.keySet());
+        names.addAll(gauges.keySet());
+        return names.toArray(new String[0]);
+    }
+
+    @Override
+    public long getCount(String name) {
+        Counter counter = counters.get(name);
+        if (counter != null) {
+            return counter.get();
+        }
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram != null) {
+            return histogram.getCount();
+        }
+        return gaugeValue(name);
+    }
+
+    @Override
+    public long getPercentileMicros(String histogramName, double percentile) {
+        LatencyHistogram histogram = histograms.get(histogramName);
+        return histogram != null ? histogram.getPercentileNanos(percentile) / 1000 : -1;
+    }
+
+    @Override
+    public String getTextDump() {
+        StringBuilder sb = new StringBuilder();
+
+        for (String name : new TreeSet<>(histograms.keySet())) {
+            LatencyHistogram h = histograms.get(name);
+            sb.append(name)
+              .append(" count=").append(h.getCount())
+              .append(" mean=").append(h.getMeanNanos() / 1000).append("us")
+              .append(" p50=").append(h.getPercentileNanos(50) / 1000).append("us")
+              .append(" p99=").append(h.getPercentileNanos(99) / 1000).append("us")
+              .append(" max=").append(h.getMaxNanos() / 1000).append("us")
+              .append("\n");
+        }
+
+        for (String name : new TreeSet<>(counters.keySet())) {
+            sb.append(name).append(" ").append(counters.get(name).get()).append("\n");
+        }
+
+        for (String name : new TreeSet<>(gauges.keySet())) {
+            sb.append(name).append(" ").append(gaugeValue(name)).append("\n");
+        }
+
+        return sb.toString();
+    }
+
+    @Override
+    public void reset() {
+        for (Counter counter : counters.values()) {
+            counter.reset();
+        }
+        for (LatencyHistogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.library;
+
+// JMX view of the metrics registry, registered as com.library:type=Metrics
+public interface MetricsRegistryMBean {
+    String[] getMetricNames();
+
+    String getTextDump();
+
+    long getCount(String name);
+
+    long getPercentileMicros(String histogramName, double percentile);
+
+    void reset();
+}
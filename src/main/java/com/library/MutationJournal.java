@@ -0,0 +1,442 @@
+package com.library;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+
+// Append-only log of storage changes, written in numbered segment files. Each append goes
+// straight to the file, so it survives the process dying; a flusher thread forces the file
+// to disk for everything appended so far in one go, so many writers share each fsync.
+// Callers wait for their entry with whenDurable().
+//
+// Entries are kept in memory until they are synced. When a write or fsync fails they are
+// written again to a new segment and synced there; only if that fails too do the waiters
+// for those entries fail, and later entries go on trying. Once the store underneath holds
+// everything before a rotate(), checkpoint() deletes the segments it replaces.
+//
+// Entry layout: int payload length, byte op, payload (UTF-8), int CRC32 of op and payload.
+// Reading a segment stops at a torn or damaged entry and goes on with the next segment,
+// which may hold the same entries written again. With compression on, large payloads
+// (whole loan and hold lists) are stored as an int raw length followed by their BlockCodec
+// form, and the op byte has its high bit set.
+class MutationJournal {
+    private static final MetricsRegistry METRICS = MetricsRegistry.global();
+    private static final Counter APPENDS = METRICS.counter("storage.journalAppends");
+    private static final Counter APPENDED_BYTES = METRICS.counter("storage.journalBytes");
+    private static final Counter SYNCS = METRICS.counter("storage.journalSyncs");
+    private static final LatencyHistogram SYNC_LATENCY = METRICS.histogram("storage.journalSync");
+    private static final Counter SYNC_FAILURES = METRICS.counter("storage.journalSyncFailures");
+    private static final Counter CHECKPOINTS = METRICS.counter("storage.journalCheckpoints");
+
+    static final String SEGMENT_SUFFIX = ".journal";
+    private static final long SEGMENT_BYTES = 16L << 20;
+    private static final int COMPRESSED = 0x80;
+    // Smaller payloads are single records, too short to have much to match
+    private static final int COMPRESS_MIN_BYTES = 512;
+    private static final long RETRY_MILLIS = 1000;
+
+    // What an entry does to the store it is replayed into
+    enum Op {
+        PUT_BOOK, REMOVE_BOOK, PUT_MEMBER, REMOVE_MEMBER, PUT_LOAN, REMOVE_LOAN, SAVE_LOANS, SAVE_HOLDS
+    }
+
+    static final class Entry {
+        final Op op;
+        final String payload;
+
+        Entry(Op op, String payload) {
+            this.op = op;
+            this.payload = payload;
+        }
+    }
+
+    private final File directory;
+    private FileChannel segment;
+    private long segmentNumber;
+    private long segmentBytes;
+    // Full segments not yet forced to disk, closed by the flusher once they are
+    private final ArrayList<FileChannel> retired = new ArrayList<>();
+
+    // Entries appended and entries known to be on disk, counted since this journal opened
+    private long appended;
+    private long durable;
+    // Entries not yet known to be on disk, kept to write again should a sync fail
+    private final ArrayDeque<Unsynced> unsynced = new ArrayDeque<>();
+    // Set when the segment may be missing entries; the next sync writes them to a fresh one
+    private boolean reopen;
+    // The last failed sync and the entries it covered, which may not be on disk
+    private IOException failure;
+    private long failedUpTo;
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>((a, b) -> Long.compare(a.entry, b.entry));
+    private boolean closed;
+    private final Thread flusher;
+
+    private static final class Waiter {
+        final long entry;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Waiter(long entry) {
+            this.entry = entry;
+        }
+    }
+
+    private static final class Unsynced {
+        final long entry;
+        final byte[] bytes;
+
+        Unsynced(long entry, byte[] bytes) {
+            this.entry = entry;
+            this.bytes = bytes;
+        }
+    }
+
+    // Where a checkpoint cut the journal: the entries before it and the first segment after it
+    static final class Mark {
+        final long entries;
+        final long segment;
+
+        private Mark(long entries, long segment) {
+            this.entries = entries;
+            this.segment = segment;
+        }
+    }
+
+    // Opens the journal for appending after any segments already there, which readAll() returns
+    MutationJournal(File directory) throws IOException {
+        this.directory = directory;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create journal directory " + directory);
+        }
+        File[] existing = segments();
+        segmentNumber = existing.length == 0 ? 0 : segmentNumber(existing[existing.length - 1]);
+        openNextSegment();
+
+        flusher = new Thread(this::flushLoop, "journal-flush");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    // Every complete entry in the segments, oldest first
+    ArrayList<Entry> readAll() throws IOException {
+        ArrayList<Entry> entries = new ArrayList<>();
+        for (File file : segments()) {
+            byte[] bytes = java.nio.file.Files.readAllBytes(file.toPath());
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.remaining() >= 9) {
+                int length = buffer.getInt();
+                if (length < 0 || buffer.remaining() < length + 5) {
+                    break;
+                }
+                int opByte = buffer.get() & 0xff;
+                int opIndex = opByte & ~COMPRESSED;
+                byte[] payload = new byte[length];
+                buffer.get(payload);
+                int checksum = buffer.getInt();
+                if (opIndex >= Op.values().length || checksum != checksum(opByte, payload)) {
+                    System.err.println("Journal " + file.getName() + " ends in a damaged entry, skipping the rest of it.");
+                    break;
+                }
+                if ((opByte & COMPRESSED) != 0) {
+                    payload = decompress(payload);
+                }
+                entries.add(new Entry(Op.values()[opIndex], new String(payload, StandardCharsets.UTF_8)));
+            }
+        }
+        return entries;
+    }
+
+    // Write an entry to the file and return its number for whenDurable()
+    synchronized long append(Op op, String payload) {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        int opByte = op.ordinal();
+        if (bytes.length >= COMPRESS_MIN_BYTES && BlockCodec.isEnabled()) {
+            bytes = compress(bytes);
+            opByte |= COMPRESSED;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 9);
+        buffer.putInt(bytes.length).put((byte) opByte).put(bytes).putInt(checksum(opByte, bytes));
+        appended++;
+        unsynced.add(new Unsynced(appended, buffer.array()));
+        if (!reopen) {
+            try {
+                if (segmentBytes + buffer.capacity() > SEGMENT_BYTES && segmentBytes > 0) {
+                    retired.add(segment);
+                    openNextSegment();
+                }
+                write(buffer.flip());
+            } catch (IOException e) {
+                // The flusher writes it again, with everything since the last sync, to a new segment
+                System.err.println("Error appending to journal: " + e.getMessage());
+                reopen = true;
+            }
+        }
+        APPENDS.increment();
+        APPENDED_BYTES.add(bytes.length + 9);
+        notifyAll();
+        return appended;
+    }
+
+    // Completes once the entry, and everything before it, is on disk. Fails only if the sync
+    // that covered this entry failed, even after writing it again to a fresh segment.
+    synchronized CompletableFuture<Void> whenDurable(long entry) {
+        if (entry <= durable) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (entry <= failedUpTo) {
+            return CompletableFuture.failedFuture(failure);
+        }
+        Waiter waiter = new Waiter(entry);
+        waiters.add(waiter);
+        return waiter.future;
+    }
+
+    synchronized long getLastAppended() {
+        return appended;
+    }
+
+    private void flushLoop() {
+        while (true) {
+            long target;
+            ArrayList<FileChannel> channels = new ArrayList<>();
+            IOException error = null;
+            synchronized (this) {
+                while (appended == durable && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (appended == durable) {
+                    return;
+                }
+                target = appended;
+                if (reopen) {
+                    error = rewriteUnsynced();
+                }
+                channels.addAll(retired);
+                retired.clear();
+                channels.add(segment);
+            }
+
+            long start = System.nanoTime();
+            if (error == null) {
+                error = force(channels);
+            }
+            if (error != null) {
+                // Once more in a fresh segment before the waiters hear of it: after a failed
+                // fsync the old file cannot be trusted to hold what was written to it
+                System.err.println("Error syncing journal, retrying in a new segment: " + error.getMessage());
+                synchronized (this) {
+                    for (FileChannel channel : channels) {
+                        closeQuietly(channel);
+                    }
+                    error = rewriteUnsynced();
+                    channels.clear();
+                    channels.add(segment);
+                }
+                if (error == null) {
+                    error = force(channels);
+                }
+            }
+            SYNC_LATENCY.recordSince(start);
+            SYNCS.increment();
+
+            synchronized (this) {
+                if (error == null) {
+                    markDurable(target);
+                } else {
+                    System.err.println("Error syncing journal: " + error.getMessage());
+                    SYNC_FAILURES.increment();
+                    reopen = true;
+                    failure = error;
+                    failedUpTo = target;
+                    while (!waiters.isEmpty() && waiters.peek().entry <= target) {
+                        waiters.poll().future.completeExceptionally(error);
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    try {
+                        wait(RETRY_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    // Everything up to entry is on disk, in the journal or in the store it describes
+    private void markDurable(long entry) {
+        if (entry <= durable) {
+            return;
+        }
+        durable = entry;
+        while (!unsynced.isEmpty() && unsynced.peek().entry <= durable) {
+            unsynced.poll();
+        }
+        while (!waiters.isEmpty() && waiters.peek().entry <= durable) {
+            waiters.poll().future.complete(null);
+        }
+    }
+
+    // Start a new segment holding every entry not yet known to be on disk
+    private IOException rewriteUnsynced() {
+        try {
+            for (FileChannel channel : retired) {
+                closeQuietly(channel);
+            }
+            retired.clear();
+            closeQuietly(segment);
+            openNextSegment();
+            for (Unsynced entry : unsynced) {
+                write(ByteBuffer.wrap(entry.bytes));
+            }
+            reopen = false;
+            return null;
+        } catch (IOException e) {
+            reopen = true;
+            return e;
+        }
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            segmentBytes += segment.write(buffer);
+        }
+    }
+
+    // Force the channels in order, closing the full ones once they are on disk
+    private static IOException force(ArrayList<FileChannel> channels) {
+        try {
+            for (int i = 0; i < channels.size(); i++) {
+                channels.get(i).force(false);
+                if (i < channels.size() - 1) {
+                    channels.get(i).close();
+                }
+            }
+            return null;
+        } catch (java.nio.channels.ClosedChannelException e) {
+            // Replaced by a rewrite meanwhile, which the next sync forces
+            return null;
+        } catch (IOException e) {
+            return e;
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Its entries are written again elsewhere
+        }
+    }
+
+    // Start a new segment for the entries that follow. Once everything appended before the
+    // mark is durable in the store underneath, checkpoint(mark) deletes what came before it.
+    synchronized Mark rotate() throws IOException {
+        if (!reopen) {
+            retired.add(segment);
+            openNextSegment();
+        }
+        return new Mark(appended, segmentNumber);
+    }
+
+    synchronized void checkpoint(Mark mark) {
+        markDurable(mark.entries);
+        for (File file : segments()) {
+            if (segmentNumber(file) < mark.segment && !file.delete()) {
+                System.err.println("Could not delete journal segment " + file);
+            }
+        }
+        CHECKPOINTS.increment();
+    }
+
+    // Wait for the flusher to finish, then stop. With discard, the segments are deleted: the
+    // caller has made the store they describe durable by other means.
+    void close(boolean discard) {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            for (FileChannel channel : retired) {
+                closeQuietly(channel);
+            }
+            try {
+                segment.close();
+            } catch (IOException e) {
+                System.err.println("Error closing journal: " + e.getMessage());
+            }
+            if (discard) {
+                for (File file : segments()) {
+                    if (!file.delete()) {
+                        System.err.println("Could not delete journal segment " + file);
+                    }
+                }
+            }
+        }
+    }
+
+    private void openNextSegment() throws IOException {
+        segmentNumber++;
+        File file = new File(directory, String.format("%012d%s", segmentNumber, SEGMENT_SUFFIX));
+        segment = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentBytes = segment.size();
+    }
+
+    private File[] segments() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(segmentNumber(a), segmentNumber(b)));
+        return files;
+    }
+
+    private static long segmentNumber(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static byte[] compress(byte[] raw) {
+        byte[] out = new byte[4 + BlockCodec.maxCompressedLength(raw.length)];
+        ByteBuffer.wrap(out).putInt(raw.length);
+        int length = BlockCodec.compress(raw, 0, raw.length, out, 4);
+        return Arrays.copyOf(out, 4 + length);
+    }
+
+    private static byte[] decompress(byte[] stored) throws IOException {
+        int length = ByteBuffer.wrap(stored).getInt();
+        if (length < 0) {
+            throw new IOException("Corrupt compressed journal entry");
+        }
+        byte[] raw = new byte[length];
+        BlockCodec.decompress(stored, 4, stored.length - 4, raw, 0, length);
+        return raw;
+    }
+
+    private static int checksum(int op, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(op);
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,448 @@
+package com.library;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.ref.Cleaner;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Book and member text kept outside the Java heap. Each record is a fixed-size slot of
+// string references in a slab, and the strings are UTF-8 bytes appended to a string arena.
+// The Book and Member objects handed out are flyweight views that decode a field when its
+// getter is called, so a large catalogue no longer means millions of Strings for the
+// collector to trace. Ids stay on the heap in the view: the manager's maps hold them as
+// keys anyway, and every lookup, index and event reads them. Substring searches run over
+// the stored bytes, so a scan of the catalogue decodes nothing.
+//
+// Copy bitmaps stay on the heap, since loans change them in place. A slot is freed for
+// reuse once its view is unreachable. Replaced and freed strings are garbage until there
+// is more of it than live text (and at least a chunk), when the live strings are copied
+// into fresh chunks and the old ones are left to the collector. Getters decode under a
+// read lock, so readers only wait for writers.
+class OffHeapRecordStore {
+    private static final MetricsRegistry METRICS = MetricsRegistry.global();
+    private static final Counter COMPACTIONS = METRICS.counter("offheap.compactions");
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final int SLOTS_PER_CHUNK = 4096;
+    static final int MAX_STRING_BYTES = 0xFFFF;
+    private static final long NULL_REF = -1;
+
+    private static final int BOOK_TITLE = 0;
+    private static final int BOOK_AUTHOR = 1;
+    private static final int BOOK_CATEGORY = 2;
+
+    private static final int MEMBER_NAME = 0;
+    private static final int MEMBER_PHONE = 1;
+    private static final int MEMBER_EMAIL = 2;
+    private static final int MEMBER_BORROWED = 3;  // comma separated book ids
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Arena slabArena = Arena.ofAuto();
+    // Replaced as a whole by compact()
+    private ArrayList<MemorySegment> stringChunks = new ArrayList<>();
+    private int stringOffset = CHUNK_SIZE;
+    private final Slab bookSlab = new Slab(3);
+    private final Slab memberSlab = new Slab(4);
+    private long allocatedBytes;
+    private long liveBytes;
+    private long garbageBytes;
+
+    // A view of the book whose text lives in this store; the copies object is shared
+    Book book(Book source) {
+        lock.writeLock().lock();
+        try {
+            int slot = bookSlab.allocate();
+            bookSlab.set(slot, BOOK_TITLE, putString(source.getTitle()));
+            bookSlab.set(slot, BOOK_AUTHOR, putString(source.getAuthor()));
+            bookSlab.set(slot, BOOK_CATEGORY, putString(source.getCategory()));
+            Book view = new OffHeapBook(slot, source.getId(), source.getCopies());
+            CLEANER.register(view, () -> release(bookSlab, slot));
+            return view;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    Member member(Member source) {
+        lock.writeLock().lock();
+        try {
+            int slot = memberSlab.allocate();
+            memberSlab.set(slot, MEMBER_NAME, putString(source.getName()));
+            memberSlab.set(slot, MEMBER_PHONE, putString(source.getPhone()));
+            memberSlab.set(slot, MEMBER_EMAIL, putString(source.getEmail()));
+            memberSlab.set(slot, MEMBER_BORROWED, putString(String.join(",", source.getBorrowedBooks())));
+            Member view = new OffHeapMember(slot, source.getId());
+            CLEANER.register(view, () -> release(memberSlab, slot));
+            return view;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    long getAllocatedBytes() {
+        lock.readLock().lock();
+        try {
+            return allocatedBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Bytes taken by strings that have since been replaced or freed, until the next compaction
+    long getGarbageBytes() {
+        lock.readLock().lock();
+        try {
+            return garbageBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private String get(Slab slab, int slot, int field) {
+        lock.readLock().lock();
+        try {
+            return getString(slab.get(slot, field));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Whether the field, lower-cased, contains the term. ASCII text is matched byte by byte
+    // where it is stored; anything else is decoded so that case folding is the same as String's.
+    private boolean contains(Slab slab, int slot, int field, String lowerTerm) {
+        lock.readLock().lock();
+        try {
+            long ref = slab.get(slot, field);
+            if (ref == NULL_REF) {
+                return false;
+            }
+            MemorySegment chunk = stringChunks.get((int) (ref >>> 36));
+            long start = (ref >>> 16) & (CHUNK_SIZE - 1);
+            int length = length(ref);
+            boolean ascii = true;
+            for (int i = 0; i < lowerTerm.length() && ascii; i++) {
+                ascii = lowerTerm.charAt(i) < 0x80;
+            }
+            for (int i = 0; i < length && ascii; i++) {
+                ascii = chunk.get(ValueLayout.JAVA_BYTE, start + i) >= 0;
+            }
+            if (!ascii) {
+                return getString(ref).toLowerCase().contains(lowerTerm);
+            }
+            int termLength = lowerTerm.length();
+            for (int i = 0; i + termLength <= length; i++) {
+                int j = 0;
+                while (j < termLength && toLower(chunk.get(ValueLayout.JAVA_BYTE, start + i + j)) == lowerTerm.charAt(j)) {
+                    j++;
+                }
+                if (j == termLength) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static boolean idContains(String id, String lowerTerm) {
+        for (int i = 0; i + lowerTerm.length() <= id.length(); i++) {
+            if (id.regionMatches(true, i, lowerTerm, 0, lowerTerm.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static char toLower(byte b) {
+        return (char) (b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b);
+    }
+
+    private void set(Slab slab, int slot, int field, String value) {
+        lock.writeLock().lock();
+        try {
+            discard(slab.get(slot, field));
+            slab.set(slot, field, putString(value));
+            compactIfWasteful();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Runs on the cleaner thread once a view is unreachable
+    private void release(Slab slab, int slot) {
+        lock.writeLock().lock();
+        try {
+            for (int field = 0; field < slab.fields; field++) {
+                discard(slab.get(slot, field));
+                slab.set(slot, field, NULL_REF);
+            }
+            slab.free(slot);
+            compactIfWasteful();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void discard(long ref) {
+        if (ref != NULL_REF) {
+            liveBytes -= length(ref);
+            garbageBytes += length(ref);
+        }
+    }
+
+    private void compactIfWasteful() {
+        if (garbageBytes > Math.max(CHUNK_SIZE, liveBytes)) {
+            compact();
+        }
+    }
+
+    // Copy every live string into fresh chunks; the old chunks are freed with their arena
+    // once unreachable, and no reader can be holding one while the write lock is held
+    private void compact() {
+        ArrayList<MemorySegment> oldChunks = stringChunks;
+        stringChunks = new ArrayList<>();
+        stringOffset = CHUNK_SIZE;
+        allocatedBytes -= (long) oldChunks.size() * CHUNK_SIZE;
+        liveBytes = 0;
+        garbageBytes = 0;
+        for (Slab slab : new Slab[] {bookSlab, memberSlab}) {
+            for (int slot = slab.live.nextSetBit(0); slot >= 0; slot = slab.live.nextSetBit(slot + 1)) {
+                for (int field = 0; field < slab.fields; field++) {
+                    long ref = slab.get(slot, field);
+                    if (ref != NULL_REF) {
+                        slab.set(slot, field, append(readBytes(oldChunks, ref)));
+                    }
+                }
+            }
+        }
+        COMPACTIONS.increment();
+    }
+
+    // A string reference packs the arena chunk, the offset in it and the length in bytes
+    private long putString(String value) {
+        if (value == null) {
+            return NULL_REF;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_BYTES) {
+            throw new IllegalArgumentException("Text too long to store off-heap: " + bytes.length + " bytes");
+        }
+        return append(bytes);
+    }
+
+    private long append(byte[] bytes) {
+        if (stringOffset + bytes.length > CHUNK_SIZE) {
+            // Each chunk has an arena of its own, so compaction can let go of the old ones
+            stringChunks.add(Arena.ofAuto().allocate(CHUNK_SIZE, 1));
+            allocatedBytes += CHUNK_SIZE;
+            stringOffset = 0;
+        }
+        long chunk = stringChunks.size() - 1;
+        MemorySegment.copy(bytes, 0, stringChunks.get((int) chunk), ValueLayout.JAVA_BYTE, stringOffset, bytes.length);
+        long ref = (chunk << 36) | ((long) stringOffset << 16) | bytes.length;
+        stringOffset += bytes.length;
+        liveBytes += bytes.length;
+        return ref;
+    }
+
+    private String getString(long ref) {
+        if (ref == NULL_REF) {
+            return null;
+        }
+        return new String(readBytes(stringChunks, ref), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(ArrayList<MemorySegment> chunks, long ref) {
+        MemorySegment chunk = chunks.get((int) (ref >>> 36));
+        byte[] bytes = new byte[length(ref)];
+        MemorySegment.copy(chunk, ValueLayout.JAVA_BYTE, (ref >>> 16) & (CHUNK_SIZE - 1), bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    private static int length(long ref) {
+        return (int) (ref & MAX_STRING_BYTES);
+    }
+
+    // Fixed-size records of string references, allocated a chunk of slots at a time.
+    // Freed slots are reused before the slab grows.
+    private class Slab {
+        private final int fields;
+        private final ArrayList<MemorySegment> chunks = new ArrayList<>();
+        private final BitSet live = new BitSet();
+        private int[] freeSlots = new int[16];
+        private int freeCount;
+        private int size;
+
+        Slab(int fields) {
+            this.fields = fields;
+        }
+
+        int allocate() {
+            int slot;
+            if (freeCount > 0) {
+                slot = freeSlots[--freeCount];
+            } else {
+                if (size == chunks.size() * SLOTS_PER_CHUNK) {
+                    long bytes = (long) SLOTS_PER_CHUNK * fields * Long.BYTES;
+                    chunks.add(slabArena.allocate(bytes, Long.BYTES));
+                    allocatedBytes += bytes;
+                }
+                slot = size++;
+            }
+            live.set(slot);
+            return slot;
+        }
+
+        void free(int slot) {
+            live.clear(slot);
+            if (freeCount == freeSlots.length) {
+                freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+            }
+            freeSlots[freeCount++] = slot;
+        }
+
+        long get(int slot, int field) {
+            return chunks.get(slot / SLOTS_PER_CHUNK).get(ValueLayout.JAVA_LONG, offset(slot, field));
+        }
+
+        void set(int slot, int field, long ref) {
+            chunks.get(slot / SLOTS_PER_CHUNK).set(ValueLayout.JAVA_LONG, offset(slot, field), ref);
+        }
+
+        private long offset(int slot, int field) {
+            return ((long) (slot % SLOTS_PER_CHUNK) * fields + field) * Long.BYTES;
+        }
+    }
+
+    private class OffHeapBook extends Book {
+        private final int slot;
+
+        OffHeapBook(int slot, String id, BookCopies copies) {
+            super(id, null, null, null, copies);
+            this.slot = slot;
+        }
+
+        @Override
+        public String getTitle() {
+            return get(bookSlab, slot, BOOK_TITLE);
+        }
+
+        @Override
+        public void setTitle(String title) {
+            set(bookSlab, slot, BOOK_TITLE, title);
+        }
+
+        @Override
+        public String getAuthor() {
+            return get(bookSlab, slot, BOOK_AUTHOR);
+        }
+
+        @Override
+        public void setAuthor(String author) {
+            set(bookSlab, slot, BOOK_AUTHOR, author);
+        }
+
+        @Override
+        public String getCategory() {
+            return get(bookSlab, slot, BOOK_CATEGORY);
+        }
+
+        @Override
+        public void setCategory(String category) {
+            set(bookSlab, slot, BOOK_CATEGORY, category);
+        }
+
+        @Override
+        public boolean containsText(String lowerTerm) {
+            return idContains(getId(), lowerTerm) ||
+                    contains(bookSlab, slot, BOOK_TITLE, lowerTerm) ||
+                    contains(bookSlab, slot, BOOK_AUTHOR, lowerTerm) ||
+                    contains(bookSlab, slot, BOOK_CATEGORY, lowerTerm);
+        }
+    }
+
+    // The borrowed books list is decoded on each call, so changes go through add/removeBorrowedBook
+    private class OffHeapMember extends Member {
+        private final int slot;
+
+        OffHeapMember(int slot, String id) {
+            this.slot = slot;
+            setId(id);
+        }
+
+        @Override
+        public String getName() {
+            return get(memberSlab, slot, MEMBER_NAME);
+        }
+
+        @Override
+        public void setName(String name) {
+            set(memberSlab, slot, MEMBER_NAME, name);
+        }
+
+        @Override
+        public String getPhone() {
+            return get(memberSlab, slot, MEMBER_PHONE);
+        }
+
+        @Override
+        public void setPhone(String phone) {
+            set(memberSlab, slot, MEMBER_PHONE, phone);
+        }
+
+        @Override
+        public String getEmail() {
+            return get(memberSlab, slot, MEMBER_EMAIL);
+        }
+
+        @Override
+        public void setEmail(String email) {
+            set(memberSlab, slot, MEMBER_EMAIL, email);
+        }
+
+        @Override
+        public ArrayList<String> getBorrowedBooks() {
+            String borrowed = get(memberSlab, slot, MEMBER_BORROWED);
+            ArrayList<String> bookIds = new ArrayList<>();
+            if (borrowed != null && !borrowed.isEmpty()) {
+                bookIds.addAll(Arrays.asList(borrowed.split(",")));
+            }
+            return bookIds;
+        }
+
+        @Override
+        public void setBorrowedBooks(ArrayList<String> borrowedBooks) {
+            set(memberSlab, slot, MEMBER_BORROWED, String.join(",", borrowedBooks));
+        }
+
+        @Override
+        public void addBorrowedBook(String bookId) {
+            ArrayList<String> bookIds = getBorrowedBooks();
+            bookIds.add(bookId);
+            setBorrowedBooks(bookIds);
+        }
+
+        @Override
+        public void removeBorrowedBook(String bookId) {
+            ArrayList<String> bookIds = getBorrowedBooks();
+            if (bookIds.remove(bookId)) {
+                setBorrowedBooks(bookIds);
+            }
+        }
+
+        @Override
+        public boolean containsText(String lowerTerm) {
+            return idContains(getId(), lowerTerm) ||
+                    contains(memberSlab, slot, MEMBER_NAME, lowerTerm) ||
+                    contains(memberSlab, slot, MEMBER_PHONE, lowerTerm) ||
+                    contains(memberSlab, slot, MEMBER_EMAIL, lowerTerm);
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package com.library;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+// BM25-ranked full-text search with cursor-based pagination.
+// The first page of a query scores every posting of its terms once and keeps the
+// ranking; later pages of the same query find their place in it by binary search
+// and read only as far as the page, so they cost the page size (more when a filter
+// rejects most items) until the index changes. Results are ordered by score, then
+// by indexing order; a cursor records the last (score, item) returned so the next
+// page starts after it.
+//
+// Query words match whole words, words they are a prefix of, and, scored lower,
+// words they occur inside of. Unlike the substring scan this replaced, a query does
+// not match text that runs across a word boundary, such as "arry pot" in "Harry Potter".
+class RankedSearchIndex<T> {
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    // Query words also match longer words they are a prefix of, or occur inside of, scored lower
+    private static final double PREFIX_WEIGHT = 0.5;
+    private static final double INFIX_WEIGHT = 0.25;
+    // Queries whose rankings are kept for paging
+    private static final int CACHED_RANKINGS = 16;
+
+    private final Function<T, String> textOf;
+    private final ArrayList<T> items = new ArrayList<>();
+    // Words each item was indexed under, so removing it never depends on its current text
+    private final ArrayList<String[]> termsByOrdinal = new ArrayList<>();
+    private final HashMap<String, Integer> ordinalByKey = new HashMap<>();
+    private final TreeMap<String, Postings> postingsByTerm = new TreeMap<>();
+    private long totalLength;
+    private int liveCount;
+    // Rankings by normalized query, dropped whenever an item is added or removed
+    private final LinkedHashMap<String, Ranking> rankings = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Ranking> eldest) {
+            return size() > CACHED_RANKINGS;
+        }
+    };
+
+    private static class Postings {
+        final String term;
+        int[] ordinals = new int[2];
+        int[] frequencies = new int[2];
+        int size;
+        int liveCount;
+
+        Postings(String term) {
+            this.term = term;
+        }
+
+        void add(int ordinal) {
+            // Items are indexed in increasing order, so a repeat is always the last entry
+            if (size > 0 && ordinals[size - 1] == ordinal) {
+                frequencies[size - 1]++;
+                return;
+            }
+            if (size == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            ordinals[size] = ordinal;
+            frequencies[size] = 1;
+            size++;
+            liveCount++;
+        }
+    }
+
+    // One indexed word a query matched, weighted by its inverse document frequency
+    private static class TermMatch {
+        final Postings postings;
+        final double weight;
+
+        TermMatch(Postings postings, double weight) {
+            this.postings = postings;
+            this.weight = weight;
+        }
+    }
+
+    private static class ScoredItem {
+        final int ordinal;
+        final double score;
+
+        ScoredItem(int ordinal, double score) {
+            this.ordinal = ordinal;
+            this.score = score;
+        }
+    }
+
+    // Every live match of a query in result order
+    private static class Ranking {
+        final int[] ordinals;
+        final double[] scores;
+
+        Ranking(ScoredItem[] ordered) {
+            ordinals = new int[ordered.length];
+            scores = new double[ordered.length];
+            for (int i = 0; i < ordered.length; i++) {
+                ordinals[i] = ordered[i].ordinal;
+                scores[i] = ordered[i].score;
+            }
+        }
+
+        int size() {
+            return ordinals.length;
+        }
+
+        // Position of the first result that comes after the given one
+        int positionAfter(ScoredItem after) {
+            int low = 0;
+            int high = ordinals.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (compare(scores[middle], ordinals[middle], after) <= 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    // Where a page picks up: the last result returned, and the match count when already known
+    private static class Cursor {
+        final ScoredItem after;
+        final int totalMatches;
+
+        Cursor(ScoredItem after, int totalMatches) {
+            this.after = after;
+            this.totalMatches = totalMatches;
+        }
+    }
+
+    // Result order: higher score first, then the item indexed first
+    private static final Comparator<ScoredItem> RESULT_ORDER = Comparator
+            .comparingDouble((ScoredItem s) -> -s.score)
+            .thenComparingInt(s -> s.ordinal);
+
+    private static int compare(double score, int ordinal, ScoredItem other) {
+        int byScore = Double.compare(other.score, score);
+        return byScore != 0 ? byScore : Integer.compare(ordinal, other.ordinal);
+    }
+
+    public RankedSearchIndex(Function<T, String> textOf) {
+        this.textOf = textOf;
+    }
+
+    public synchronized void add(String key, T item) {
+        remove(key);
+        index(key, item, FuzzySearchIndex.tokenize(textOf.apply(item)));
+    }
+
+    private void index(String key, T item, String[] words) {
+        int ordinal = items.size();
+        String[] terms = new String[words.length];
+        for (int i = 0; i < words.length; i++) {
+            Postings postings = postingsByTerm.computeIfAbsent(words[i], Postings::new);
+            postings.add(ordinal);
+            // Share the posting list's copy of the word
+            terms[i] = postings.term;
+        }
+        items.add(item);
+        termsByOrdinal.add(terms);
+        ordinalByKey.put(key, ordinal);
+        totalLength += terms.length;
+        liveCount++;
+        rankings.clear();
+    }
+
+    public synchronized void remove(String key) {
+        Integer ordinal = ordinalByKey.remove(key);
+        if (ordinal == null) {
+            return;
+        }
+
+        // Keep document frequencies accurate, the posting entries themselves become tombstones
+        String[] terms = termsByOrdinal.get(ordinal);
+        for (String term : new HashSet<>(Arrays.asList(terms))) {
+            Postings postings = postingsByTerm.get(term);
+            if (postings != null) {
+                postings.liveCount--;
+            }
+        }
+        items.set(ordinal, null);
+        totalLength -= terms.length;
+        liveCount--;
+        rankings.clear();
+
+        if (items.size() > 1024 && liveCount < items.size() / 2) {
+            rebuild();
+        }
+    }
+
+    public synchronized void clear() {
+        items.clear();
+        termsByOrdinal.clear();
+        ordinalByKey.clear();
+        postingsByTerm.clear();
+        totalLength = 0;
+        liveCount = 0;
+        rankings.clear();
+    }
+
+    // The page of results after cursor (null for the first page)
+    public SearchPage<T> search(String query, int pageSize, String cursor) {
+        return search(query, pageSize, cursor, null);
+    }
+
+    // Visit every item matching the query, best match first
+    public synchronized void forEachMatch(String query, Consumer<T> visitor) {
+        Ranking ranking = ranking(query);
+        for (int ordinal : ranking.ordinals) {
+            visitor.accept(items.get(ordinal));
+        }
+    }
+
+    // As above, only counting and returning items accepted by the filter (null accepts all)
+    public synchronized SearchPage<T> search(String query, int pageSize, String cursor, Predicate<T> filter) {
+        Cursor position = decodeCursor(cursor);
+        Ranking ranking = ranking(query);
+        int start = position.after == null ? 0 : ranking.positionAfter(position.after);
+
+        // Read one result past the page, so a next page is only offered when there is one
+        ArrayList<T> results = new ArrayList<>();
+        int lastReturned = -1;
+        boolean more = false;
+        int totalMatches = filter == null ? ranking.size() : position.totalMatches;
+        boolean counting = totalMatches < 0;
+        int counted = 0;
+        for (int i = counting ? 0 : start; i < ranking.size(); i++) {
+            T item = items.get(ranking.ordinals[i]);
+            if (filter != null && !filter.test(item)) {
+                continue;
+            }
+            counted++;
+            if (i < start) {
+                continue;
+            }
+            if (results.size() < pageSize) {
+                results.add(item);
+                lastReturned = i;
+            } else {
+                more = true;
+                if (!counting) {
+                    break;
+                }
+            }
+        }
+        if (counting) {
+            totalMatches = counted;
+        }
+
+        String nextCursor = more && lastReturned >= 0
+                ? encodeCursor(ranking.scores[lastReturned], ranking.ordinals[lastReturned], totalMatches)
+                : null;
+        return new SearchPage<>(results, totalMatches, nextCursor);
+    }
+
+    // The query's ranking, scored now unless an earlier page of it is still cached
+    private Ranking ranking(String query) {
+        String[] words = FuzzySearchIndex.tokenize(query);
+        String key = String.join(" ", words);
+        Ranking ranking = rankings.get(key);
+        if (ranking != null) {
+            return ranking;
+        }
+
+        // Term at a time into one score per item; every posting of the matched words is read once
+        double averageLength = liveCount == 0 ? 1.0 : Math.max(1.0, (double) totalLength / liveCount);
+        double[] scores = new double[items.size()];
+        int matches = 0;
+        for (TermMatch match : termMatches(words)) {
+            Postings postings = match.postings;
+            for (int i = 0; i < postings.size; i++) {
+                int ordinal = postings.ordinals[i];
+                if (items.get(ordinal) == null) {
+                    continue;  // Removed item
+                }
+                int frequency = postings.frequencies[i];
+                double lengthNorm = K1 * (1 - B + B * termsByOrdinal.get(ordinal).length / averageLength);
+                if (scores[ordinal] == 0) {
+                    matches++;
+                }
+                scores[ordinal] += match.weight * frequency * (K1 + 1) / (frequency + lengthNorm);
+            }
+        }
+
+        ScoredItem[] ordered = new ScoredItem[matches];
+        int next = 0;
+        for (int ordinal = 0; ordinal < scores.length && next < matches; ordinal++) {
+            if (scores[ordinal] > 0) {
+                ordered[next++] = new ScoredItem(ordinal, scores[ordinal]);
+            }
+        }
+        Arrays.sort(ordered, RESULT_ORDER);
+        ranking = new Ranking(ordered);
+        rankings.put(key, ranking);
+        return ranking;
+    }
+
+    // Every indexed word the query words match, each once, at the weight of its best match
+    private ArrayList<TermMatch> termMatches(String[] words) {
+        HashMap<String, Double> kinds = new HashMap<>();
+        for (String word : words) {
+            for (Map.Entry<String, Postings> entry : postingsByTerm.tailMap(word, true).entrySet()) {
+                String term = entry.getKey();
+                if (!term.startsWith(word)) {
+                    break;
+                }
+                kinds.merge(term, term.equals(word) ? 1.0 : PREFIX_WEIGHT, Math::max);
+            }
+            for (String term : postingsByTerm.keySet()) {
+                if (term.length() > word.length() && !term.startsWith(word) && term.contains(word)) {
+                    kinds.merge(term, INFIX_WEIGHT, Math::max);
+                }
+            }
+        }
+
+        ArrayList<TermMatch> matches = new ArrayList<>();
+        for (Map.Entry<String, Double> kind : kinds.entrySet()) {
+            Postings postings = postingsByTerm.get(kind.getKey());
+            if (postings.liveCount > 0) {
+                matches.add(new TermMatch(postings, idf(postings.liveCount) * kind.getValue()));
+            }
+        }
+        return matches;
+    }
+
+    private double idf(int documentFrequency) {
+        return Math.log(1 + (liveCount - documentFrequency + 0.5) / (documentFrequency + 0.5));
+    }
+
+    private static String encodeCursor(double score, int ordinal, int totalMatches) {
+        return Long.toHexString(Double.doubleToLongBits(score)) + ":" + ordinal + ":" + totalMatches;
+    }
+
+    private static Cursor decodeCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return new Cursor(null, -1);
+        }
+        String[] parts = cursor.split(":");
+        if (parts.length != 2 && parts.length != 3) {
+            throw new IllegalArgumentException("Invalid search cursor: " + cursor);
+        }
+        ScoredItem after = new ScoredItem(Integer.parseInt(parts[1]),
+                Double.longBitsToDouble(Long.parseUnsignedLong(parts[0], 16)));
+        return new Cursor(after, parts.length == 3 ? Integer.parseInt(parts[2]) : -1);
+    }
+
+    // Re-index the live items to drop tombstones; cursors issued before this are no longer valid
+    private void rebuild() {
+        HashMap<Integer, String> keyByOrdinal = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : ordinalByKey.entrySet()) {
+            keyByOrdinal.put(entry.getValue(), entry.getKey());
+        }
+        ArrayList<T> oldItems = new ArrayList<>(items);
+        ArrayList<String[]> oldTerms = new ArrayList<>(termsByOrdinal);
+
+        clear();
+        for (int ordinal = 0; ordinal < oldItems.size(); ordinal++) {
+            if (oldItems.get(ordinal) != null) {
+                index(keyByOrdinal.get(ordinal), oldItems.get(ordinal), oldTerms.get(ordinal));
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.library;
+
+import java.util.ArrayList;
+
+// A consistent, unchanging view of the library as of the moment it began. Reads take no
+// lock, so a long report neither waits for nor holds up checkouts, and never sees an
+// operation half applied. The records returned are shared snapshots and must not be changed.
+// Close it when done; until then the versions it sees are kept, up to the read timeout,
+// after which reads throw IllegalStateException.
+class ReadTransaction implements AutoCloseable {
+    final VersionedRecords records;
+    final long snapshot;
+    private final VersionedRecords.Snapshot lease;
+    private boolean closed;
+
+    ReadTransaction(VersionedRecords records) {
+        this.records = records;
+        this.lease = records.openSnapshot(this);
+        this.snapshot = lease.version;
+    }
+
+    // The commit this transaction sees; later commits are invisible to it
+    public long getSnapshotVersion() {
+        return snapshot;
+    }
+
+    public Book getBook(String bookId) {
+        return checked(records.books.get(bookId, snapshot));
+    }
+
+    public Member getMember(String memberId) {
+        return checked(records.members.get(memberId, snapshot));
+    }
+
+    // In id order
+    public ArrayList<Book> getAllBooks() {
+        return checked(records.books.all(snapshot));
+    }
+
+    public ArrayList<Member> getAllMembers() {
+        return checked(records.members.all(snapshot));
+    }
+
+    public ArrayList<BorrowRecord> getAllBorrowRecords() {
+        return checked(records.loans.all(snapshot));
+    }
+
+    // Checked after reading, since versions a read needed may have gone while it ran
+    private <T> T checked(T result) {
+        if (lease.expired) {
+            throw new IllegalStateException("Read transaction at version " + snapshot + " was open too long");
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            records.close(lease);
+        }
+    }
+}
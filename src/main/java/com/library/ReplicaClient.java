@@ -0,0 +1,169 @@
+package com.library;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.function.LongSupplier;
+
+// Keeps a replica LibraryManager in step with a primary: connects, applies the shipped
+// changes in sequence order and reconnects if the primary goes away. The replica serves
+// reads and refuses changes of its own. A change that cannot be applied is not counted as
+// applied: the client drops the connection and asks for a snapshot when it reconnects.
+class ReplicaClient implements AutoCloseable {
+    private static final int RETRY_MILLIS = 1000;
+
+    private static final MetricsRegistry METRICS = MetricsRegistry.global();
+    private static final Counter ENTRIES_APPLIED = METRICS.counter("replication.entriesApplied");
+    private static final Counter SNAPSHOTS_APPLIED = METRICS.counter("replication.snapshotsApplied");
+
+    private final LibraryManager replica;
+    private final InetSocketAddress primary;
+    private final Thread thread;
+    private long runId;
+    private volatile long lastApplied = -1;
+    private volatile long primarySequence = -1;
+    private volatile boolean running = true;
+    private volatile Socket socket;
+    private final LongSupplier lagGauge = this::getLag;
+
+    ReplicaClient(LibraryManager replica, InetSocketAddress primary) {
+        this.replica = replica;
+        this.primary = primary;
+        this.thread = new Thread(this::run, "replica-of-" + primary);
+        this.thread.setDaemon(true);
+        this.thread.start();
+        METRICS.gauge("replication.replicaLag", lagGauge);
+    }
+
+    // Follow the primary at host:port
+    static ReplicaClient start(LibraryManager replica, String primary) {
+        int colon = primary.lastIndexOf(':');
+        return new ReplicaClient(replica, new InetSocketAddress(
+                primary.substring(0, colon), Integer.parseInt(primary.substring(colon + 1))));
+    }
+
+    // Changes the primary has reported that are not applied here yet
+    long getLag() {
+        return primarySequence < 0 ? 0 : Math.max(0, primarySequence - lastApplied);
+    }
+
+    long getLastApplied() {
+        return lastApplied;
+    }
+
+    private void run() {
+        while (running) {
+            try (Socket s = new Socket()) {
+                socket = s;
+                s.connect(primary, RETRY_MILLIS * 2);
+                s.setSoTimeout(ReplicationPrimary.HEARTBEAT_MILLIS * 5);
+                s.setTcpNoDelay(true);
+                follow(new DataInputStream(new BufferedInputStream(s.getInputStream())),
+                        new DataOutputStream(new BufferedOutputStream(s.getOutputStream())));
+            } catch (IOException e) {
+                if (running) {
+                    String reason = e instanceof EOFException ? "connection closed" : e.getMessage();
+                    System.err.println("Lost connection to primary " + primary + ": " + reason);
+                }
+            }
+            if (running) {
+                try {
+                    Thread.sleep(RETRY_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void follow(DataInputStream in, DataOutputStream out) throws IOException {
+        byte[] nonce = ReplicationPrimary.newNonce();
+        out.writeLong(ReplicationPrimary.MAGIC);
+        out.write(nonce);
+        out.flush();
+        if (in.readLong() != ReplicationPrimary.MAGIC) {
+            throw new IOException("Not a replication primary");
+        }
+        byte[] primaryNonce = new byte[ReplicationPrimary.NONCE_BYTES];
+        in.readFully(primaryNonce);
+        ReplicationPrimary.checkProof(in, ReplicationPrimary.prove(ReplicationPrimary.PRIMARY_PROOF, nonce, primaryNonce),
+                "Primary");
+        out.write(ReplicationPrimary.prove(ReplicationPrimary.REPLICA_PROOF, primaryNonce, nonce));
+        out.writeLong(runId);
+        out.writeLong(lastApplied);
+        out.flush();
+        runId = in.readLong();
+
+        while (running) {
+            int message = in.readUnsignedByte();
+            switch (message) {
+                case ReplicationPrimary.MSG_ENTRY: {
+                    ReplicationEntry entry = ReplicationEntry.readFrom(in);
+                    if (entry.getSequence() != lastApplied + 1) {
+                        throw new IOException("Expected change " + (lastApplied + 1) + " but got " + entry.getSequence());
+                    }
+                    try {
+                        replica.applyReplicated(entry);
+                    } catch (RuntimeException e) {
+                        throw diverged("change " + entry.getSequence(), e);
+                    }
+                    lastApplied = entry.getSequence();
+                    primarySequence = Math.max(primarySequence, lastApplied);
+                    ENTRIES_APPLIED.increment();
+                    break;
+                }
+                case ReplicationPrimary.MSG_SNAPSHOT_BEGIN: {
+                    ArrayList<ReplicationEntry> entries = new ArrayList<>();
+                    int next;
+                    while ((next = in.readUnsignedByte()) == ReplicationPrimary.MSG_ENTRY) {
+                        entries.add(ReplicationEntry.readFrom(in));
+                    }
+                    if (next != ReplicationPrimary.MSG_SNAPSHOT_END) {
+                        throw new IOException("Unterminated replication snapshot");
+                    }
+                    long sequence = in.readLong();
+                    try {
+                        replica.applySnapshot(entries);
+                    } catch (RuntimeException e) {
+                        throw diverged("snapshot", e);
+                    }
+                    lastApplied = sequence;
+                    SNAPSHOTS_APPLIED.increment();
+                    break;
+                }
+                case ReplicationPrimary.MSG_HEARTBEAT:
+                    primarySequence = in.readLong();
+                    break;
+                default:
+                    throw new IOException("Unknown replication message " + message);
+            }
+        }
+    }
+
+    // Forget the primary's run, so that the next connection starts from a fresh snapshot
+    private IOException diverged(String what, RuntimeException cause) {
+        runId = 0;
+        return new IOException("Could not apply " + what + ", resyncing from a snapshot: " + cause.getMessage());
+    }
+
+    @Override
+    public void close() {
+        METRICS.removeGauge("replication.replicaLag", lagGauge);
+        running = false;
+        thread.interrupt();
+        Socket s = socket;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                // Already going away
+            }
+        }
+    }
+}
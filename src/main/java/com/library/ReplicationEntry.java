@@ -0,0 +1,95 @@
+package com.library;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+// One change in the log shipped from a primary to its replicas. Strings go over the wire as
+// an int length (-1 for null) and UTF-8 bytes, so no record is too long to ship.
+class ReplicationEntry {
+    // Far beyond any record, it only stops a damaged stream from allocating without bound
+    private static final int MAX_STRING_BYTES = 64 << 20;
+
+    private final long sequence;
+    private final ChangeEvent.Type type;
+    private final String key;
+    private final String data;
+    private final long timestampMillis;
+
+    public ReplicationEntry(long sequence, ChangeEvent.Type type, String key, String data, long timestampMillis) {
+        this.sequence = sequence;
+        this.type = type;
+        this.key = key;
+        this.data = data;
+        this.timestampMillis = timestampMillis;
+    }
+
+    static ReplicationEntry of(ChangeEvent event) {
+        return new ReplicationEntry(event.getSequence(), event.getType(), event.getKey(),
+                event.getData(), event.getTimestampMillis());
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public ChangeEvent.Type getType() {
+        return type;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getData() {
+        return data;
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeLong(sequence);
+        out.writeByte(type.ordinal());
+        writeNullable(out, key);
+        writeNullable(out, data);
+        out.writeLong(timestampMillis);
+    }
+
+    static ReplicationEntry readFrom(DataInputStream in) throws IOException {
+        long sequence = in.readLong();
+        int type = in.readUnsignedByte();
+        if (type >= ChangeEvent.Type.values().length) {
+            throw new IOException("Unknown change type " + type);
+        }
+        String key = readNullable(in);
+        String data = readNullable(in);
+        long timestampMillis = in.readLong();
+        return new ReplicationEntry(sequence, ChangeEvent.Type.values()[type], key, data, timestampMillis);
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > MAX_STRING_BYTES) {
+            throw new IOException("Bad string length " + length + " in replication entry");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
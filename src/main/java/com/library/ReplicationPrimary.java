@@ -0,0 +1,281 @@
+package com.library;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+// Ships the change log of a LibraryManager to replicas over TCP. Recent changes are kept
+// in a bounded in-memory log; a replica that is new, was started against another run of
+// the primary, or fell too far behind gets a snapshot first and then the changes after it.
+//
+// Both ends prove they know the replication secret (-Dlibrary.replicationSecret) before any
+// records are sent. Without a secret a fixed key is used, and the primary then only listens
+// on a loopback address. The secret authenticates the two ends; the records themselves are
+// not encrypted, so a link across an untrusted network belongs in a tunnel.
+//
+// Protocol: the replica sends MAGIC and a random nonce. The primary answers MAGIC, a nonce
+// of its own and its proof, an HMAC-SHA256 of the nonces under the secret. The replica checks
+// it and sends its own proof, the run id it last saw (0 if none) and the last sequence it
+// applied. The primary checks the proof, sends its run id, then messages: ENTRY with one
+// ReplicationEntry, SNAPSHOT_BEGIN, entries and SNAPSHOT_END with the snapshot's sequence,
+// or HEARTBEAT with the primary's last sequence when it has nothing to send.
+class ReplicationPrimary implements AutoCloseable {
+    static final long MAGIC = 0x4C49425245504C32L;  // "LIBREPL2"
+    static final int MSG_ENTRY = 0;
+    static final int MSG_SNAPSHOT_BEGIN = 1;
+    static final int MSG_SNAPSHOT_END = 2;
+    static final int MSG_HEARTBEAT = 3;
+    static final int HEARTBEAT_MILLIS = 1000;
+    private static final int LOG_CAPACITY = 1 << 16;
+    static final int NONCE_BYTES = 16;
+    static final int PROOF_BYTES = 32;
+    static final byte PRIMARY_PROOF = 'P';
+    static final byte REPLICA_PROOF = 'R';
+    private static final String DEFAULT_SECRET = "library-replication-loopback";
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final MetricsRegistry METRICS = MetricsRegistry.global();
+    private static final Counter ENTRIES_SHIPPED = METRICS.counter("replication.entriesShipped");
+    private static final Counter SNAPSHOTS_SENT = METRICS.counter("replication.snapshotsSent");
+
+    private final LibraryManager manager;
+    private final long runId = UUID.randomUUID().getMostSignificantBits() | 1;
+    private final ReplicationEntry[] log = new ReplicationEntry[LOG_CAPACITY];
+    // Sequences held in the log, firstSequence is -1 while it is empty
+    private long firstSequence = -1;
+    private long lastSequence = -1;
+    private final ServerSocket serverSocket;
+    private final ChangeEventDispatcher.Subscription subscription;
+    private final CopyOnWriteArrayList<Socket> replicas = new CopyOnWriteArrayList<>();
+    private volatile boolean running = true;
+    private final LongSupplier replicasGauge = replicas::size;
+
+    ReplicationPrimary(LibraryManager manager, InetSocketAddress address) throws IOException {
+        this.manager = manager;
+        this.subscription = manager.subscribe("replication", this::append);
+        this.serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(address);
+
+        Thread acceptor = new Thread(this::acceptReplicas, "replication-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        METRICS.gauge("replication.replicas", replicasGauge);
+    }
+
+    // Listen on [host:]port; without a host only replicas on this machine can connect, and
+    // any other host needs a replication secret
+    static ReplicationPrimary start(LibraryManager manager, String listen) throws IOException {
+        int colon = listen.lastIndexOf(':');
+        String host = colon >= 0 ? listen.substring(0, colon) : "127.0.0.1";
+        int port = Integer.parseInt(listen.substring(colon + 1));
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        if (address.isUnresolved()) {
+            throw new IOException("Unknown host " + host);
+        }
+        if (!address.getAddress().isLoopbackAddress() && System.getProperty("library.replicationSecret") == null) {
+            throw new IOException("Refusing to serve replicas on " + host + " without a replication secret");
+        }
+        return new ReplicationPrimary(manager, address);
+    }
+
+    static byte[] newNonce() {
+        byte[] nonce = new byte[NONCE_BYTES];
+        RANDOM.nextBytes(nonce);
+        return nonce;
+    }
+
+    // What one end sends to show it knows the secret: an HMAC of its role and both nonces,
+    // the other end's first so that a proof cannot be replayed on another connection
+    static byte[] prove(byte role, byte[] theirNonce, byte[] ourNonce) throws IOException {
+        String secret = System.getProperty("library.replicationSecret", DEFAULT_SECRET);
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            mac.update(role);
+            mac.update(theirNonce);
+            mac.update(ourNonce);
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot compute replication proof: " + e.getMessage());
+        }
+    }
+
+    // Read the other end's proof and check it against the expected one in constant time
+    static void checkProof(DataInputStream in, byte[] expected, String who) throws IOException {
+        byte[] proof = new byte[PROOF_BYTES];
+        in.readFully(proof);
+        if (!MessageDigest.isEqual(proof, expected)) {
+            throw new IOException(who + " does not know the replication secret");
+        }
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private synchronized void append(ChangeEvent event) {
+        long sequence = event.getSequence();
+        log[(int) (sequence & (LOG_CAPACITY - 1))] = ReplicationEntry.of(event);
+        lastSequence = sequence;
+        if (firstSequence < 0) {
+            firstSequence = sequence;
+        } else if (lastSequence - firstSequence >= LOG_CAPACITY) {
+            firstSequence = lastSequence - LOG_CAPACITY + 1;
+        }
+        notifyAll();
+    }
+
+    // Whether a replica that needs this sequence next can be served from the log
+    private synchronized boolean canStreamFrom(long sequence) {
+        return sequence == lastSequence + 1 || (firstSequence >= 0 && sequence >= firstSequence && sequence <= lastSequence);
+    }
+
+    private synchronized boolean hasEntry(long sequence) {
+        return sequence <= lastSequence;
+    }
+
+    private synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    // The entry with this sequence, waiting up to the timeout for it; null if it has not arrived
+    private synchronized ReplicationEntry awaitEntry(long sequence, long timeoutMillis) throws IOException {
+        if (lastSequence < sequence) {
+            try {
+                wait(timeoutMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for changes");
+            }
+        }
+        if (lastSequence < sequence) {
+            return null;
+        }
+        if (sequence < firstSequence) {
+            throw new IOException("Replica fell behind the replication log");
+        }
+        return log[(int) (sequence & (LOG_CAPACITY - 1))];
+    }
+
+    private void acceptReplicas() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread shipper = new Thread(() -> serve(socket), "replication-" + socket.getRemoteSocketAddress());
+                shipper.setDaemon(true);
+                shipper.start();
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Error accepting replica: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        replicas.add(socket);
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            s.setTcpNoDelay(true);
+            // Nothing but heartbeats is read after the handshake, so this only bounds the handshake
+            s.setSoTimeout(HEARTBEAT_MILLIS * 5);
+            if (in.readLong() != MAGIC) {
+                throw new IOException("Not a replica");
+            }
+            byte[] replicaNonce = new byte[NONCE_BYTES];
+            in.readFully(replicaNonce);
+            byte[] nonce = newNonce();
+            out.writeLong(MAGIC);
+            out.write(nonce);
+            out.write(prove(PRIMARY_PROOF, replicaNonce, nonce));
+            out.flush();
+            checkProof(in, prove(REPLICA_PROOF, nonce, replicaNonce), "Replica");
+            long replicaRunId = in.readLong();
+            long lastApplied = in.readLong();
+            out.writeLong(runId);
+
+            long next = replicaRunId == runId && canStreamFrom(lastApplied + 1)
+                    ? lastApplied + 1
+                    : sendSnapshot(out) + 1;
+            out.flush();
+
+            while (running) {
+                ReplicationEntry entry = awaitEntry(next, HEARTBEAT_MILLIS);
+                if (entry == null) {
+                    out.writeByte(MSG_HEARTBEAT);
+                    out.writeLong(getLastSequence());
+                    out.flush();
+                } else if (entry.getType() == ChangeEvent.Type.RELOADED) {
+                    next = sendSnapshot(out) + 1;
+                    out.flush();
+                } else {
+                    out.writeByte(MSG_ENTRY);
+                    entry.writeTo(out);
+                    ENTRIES_SHIPPED.increment();
+                    next++;
+                    // Keep writing while the log has more, flush once caught up
+                    if (!hasEntry(next)) {
+                        out.flush();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("Replica " + socket.getRemoteSocketAddress() + " disconnected: " + e.getMessage());
+            }
+        } finally {
+            replicas.remove(socket);
+        }
+    }
+
+    // Send every record and return the sequence of the last change the snapshot includes
+    private long sendSnapshot(DataOutputStream out) throws IOException {
+        ArrayList<ReplicationEntry> entries = new ArrayList<>();
+        long sequence = manager.snapshot(entries::add);
+        out.writeByte(MSG_SNAPSHOT_BEGIN);
+        for (ReplicationEntry entry : entries) {
+            out.writeByte(MSG_ENTRY);
+            entry.writeTo(out);
+        }
+        out.writeByte(MSG_SNAPSHOT_END);
+        out.writeLong(sequence);
+        SNAPSHOTS_SENT.increment();
+        return sequence;
+    }
+
+    @Override
+    public void close() {
+        METRICS.removeGauge("replication.replicas", replicasGauge);
+        running = false;
+        subscription.close();
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            System.err.println("Error closing replication socket: " + e.getMessage());
+        }
+        for (Socket socket : replicas) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already going away
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.library;
+
+import java.util.ArrayList;
+
+// One page of ranked search results; pass nextCursor back to get the following page
+class SearchPage<T> {
+    private final ArrayList<T> items;
+    private final int totalMatches;
+    private final String nextCursor;
+
+    public SearchPage(ArrayList<T> items, int totalMatches, String nextCursor) {
+        this.items = items;
+        this.totalMatches = totalMatches;
+        this.nextCursor = nextCursor;
+    }
+
+    public ArrayList<T> getItems() {
+        return items;
+    }
+
+    public int getTotalMatches() {
+        return totalMatches;
+    }
+
+    // Null on the last page
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasNextPage() {
+        return nextCursor != null;
+    }
+}
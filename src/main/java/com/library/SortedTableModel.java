@@ -0,0 +1,337 @@
+package com.library;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import javax.swing.table.AbstractTableModel;
+
+// A table model that keeps one sorted index per sortable column and shows rows in the
+// order of whichever index is selected. Each change is placed into every index with a
+// binary search, so switching the sort order or reversing it never re-sorts the rows.
+// A filter keeps a further index of the matching rows in the current order.
+// Like any Swing model it must only be used on the event dispatch thread.
+class SortedTableModel extends AbstractTableModel {
+    private final String[] columnNames;
+    private final int[] keyColumns;
+    private final Map<String, Row> rowsByKey = new HashMap<>();
+    // One index per column, null for columns that cannot be sorted
+    private final SortedIndex[] indexes;
+
+    private int sortColumn;
+    private boolean descending;
+    private String filter = "";
+    // Matching rows in the order of the current index, null while there is no filter
+    private SortedIndex filtered;
+
+    // Rows are identified by the values of the key columns; the first sortable column
+    // gives the initial order
+    SortedTableModel(String[] columnNames, int[] keyColumns, int... sortableColumns) {
+        this.columnNames = columnNames.clone();
+        this.keyColumns = keyColumns.clone();
+        this.indexes = new SortedIndex[columnNames.length];
+        for (int column : sortableColumns) {
+            indexes[column] = new SortedIndex(comparator(column));
+        }
+        this.sortColumn = sortableColumns[0];
+    }
+
+    @Override
+    public int getRowCount() {
+        return view().size;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        return rowAt(rowIndex).values[columnIndex];
+    }
+
+    boolean isSortable(int column) {
+        return column >= 0 && column < indexes.length && indexes[column] != null;
+    }
+
+    int getSortColumn() {
+        return sortColumn;
+    }
+
+    boolean isDescending() {
+        return descending;
+    }
+
+    String getFilter() {
+        return filter;
+    }
+
+    // Replace every row, sorting each index once
+    void setRows(Collection<Object[]> rows) {
+        rowsByKey.clear();
+        Row[] all = new Row[rows.size()];
+        int count = 0;
+        for (Object[] values : rows) {
+            Row row = new Row(keyOf(values), values);
+            Row previous = rowsByKey.put(row.key, row);
+            if (previous == null) {
+                all[count++] = row;
+            } else {
+                // A repeated key keeps its last row, as upsert would
+                previous.values = values;
+                previous.text = null;
+            }
+        }
+        for (SortedIndex index : indexes) {
+            if (index != null) {
+                Row[] sorted = Arrays.copyOf(all, count);
+                Arrays.sort(sorted, index.comparator);
+                index.replace(sorted, count);
+            }
+        }
+        rebuildFilter();
+        fireTableDataChanged();
+    }
+
+    // Add the row, or replace the row with the same key, and move it to its place in every index
+    void upsert(Object[] values) {
+        String key = keyOf(values);
+        Row existing = rowsByKey.get(key);
+        if (existing != null && Arrays.equals(existing.values, values)) {
+            return;
+        }
+        int oldPosition = -1;
+        if (existing != null) {
+            oldPosition = viewIndexOf(existing);
+            unindex(existing);
+        }
+        Row row = new Row(key, values);
+        rowsByKey.put(key, row);
+        for (SortedIndex index : indexes) {
+            if (index != null) {
+                index.add(row);
+            }
+        }
+        if (filtered != null && matches(row)) {
+            filtered.add(row);
+        }
+        int newPosition = viewIndexOf(row);
+
+        if (oldPosition >= 0 && oldPosition == newPosition) {
+            fireTableRowsUpdated(newPosition, newPosition);
+            return;
+        }
+        if (oldPosition >= 0) {
+            fireTableRowsDeleted(oldPosition, oldPosition);
+        }
+        if (newPosition >= 0) {
+            fireTableRowsInserted(newPosition, newPosition);
+        }
+    }
+
+    // Remove the row whose key columns match those of the given values
+    void remove(Object[] values) {
+        Row existing = rowsByKey.remove(keyOf(values));
+        if (existing == null) {
+            return;
+        }
+        int position = viewIndexOf(existing);
+        unindex(existing);
+        if (position >= 0) {
+            fireTableRowsDeleted(position, position);
+        }
+    }
+
+    // Show the rows in the order of another column's index; asking for the current
+    // column again reverses the order
+    void sortBy(int column) {
+        if (!isSortable(column)) {
+            return;
+        }
+        if (column == sortColumn) {
+            descending = !descending;
+        } else {
+            sortColumn = column;
+            descending = false;
+            rebuildFilter();
+        }
+        fireTableDataChanged();
+    }
+
+    // Show only rows with a cell containing the text, ignoring case; an empty text shows every row
+    void setFilter(String text) {
+        String normalized = text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+        if (normalized.equals(filter)) {
+            return;
+        }
+        filter = normalized;
+        rebuildFilter();
+        fireTableDataChanged();
+    }
+
+    private void unindex(Row row) {
+        for (SortedIndex index : indexes) {
+            if (index != null) {
+                index.remove(row);
+            }
+        }
+        if (filtered != null) {
+            filtered.remove(row);
+        }
+    }
+
+    // Walk the current index in order, so the matching rows come out already sorted
+    private void rebuildFilter() {
+        if (filter.isEmpty()) {
+            filtered = null;
+            return;
+        }
+        SortedIndex source = indexes[sortColumn];
+        Row[] matching = new Row[source.size];
+        int count = 0;
+        for (int i = 0; i < source.size; i++) {
+            Row row = source.rows[i];
+            if (matches(row)) {
+                matching[count++] = row;
+            }
+        }
+        filtered = new SortedIndex(source.comparator);
+        filtered.replace(matching, count);
+    }
+
+    private boolean matches(Row row) {
+        if (row.text == null) {
+            StringBuilder text = new StringBuilder();
+            for (Object value : row.values) {
+                text.append(value).append('\u0000');
+            }
+            row.text = text.toString().toLowerCase(Locale.ROOT);
+        }
+        return row.text.contains(filter);
+    }
+
+    private SortedIndex view() {
+        return filtered != null ? filtered : indexes[sortColumn];
+    }
+
+    private Row rowAt(int viewIndex) {
+        SortedIndex view = view();
+        return view.rows[descending ? view.size - 1 - viewIndex : viewIndex];
+    }
+
+    private int viewIndexOf(Row row) {
+        SortedIndex view = view();
+        int position = view.indexOf(row);
+        if (position < 0) {
+            return -1;
+        }
+        return descending ? view.size - 1 - position : position;
+    }
+
+    private String keyOf(Object[] values) {
+        if (keyColumns.length == 1) {
+            return String.valueOf(values[keyColumns[0]]);
+        }
+        StringBuilder key = new StringBuilder();
+        for (int column : keyColumns) {
+            key.append(values[column]).append('\u0000');
+        }
+        return key.toString();
+    }
+
+    // Orders rows by one column, then by key so that no two rows compare equal
+    private static Comparator<Row> comparator(int column) {
+        return (a, b) -> {
+            int result = compareValues(a.values[column], b.values[column]);
+            return result != 0 ? result : a.key.compareTo(b.key);
+        };
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compareValues(Object a, Object b) {
+        if (a == b) {
+            return 0;
+        }
+        if (a == null) {
+            return -1;
+        }
+        if (b == null) {
+            return 1;
+        }
+        if (a instanceof String && b instanceof String) {
+            int result = String.CASE_INSENSITIVE_ORDER.compare((String) a, (String) b);
+            return result != 0 ? result : ((String) a).compareTo((String) b);
+        }
+        if (a instanceof Comparable && a.getClass() == b.getClass()) {
+            return ((Comparable) a).compareTo(b);
+        }
+        return a.toString().compareTo(b.toString());
+    }
+
+    private static final class Row {
+        final String key;
+        Object[] values;
+        // Lower-cased cell text, built the first time a filter looks at the row
+        String text;
+
+        Row(String key, Object[] values) {
+            this.key = key;
+            this.values = values;
+        }
+    }
+
+    // Rows kept in comparator order in a plain array; a change shifts the tail with one
+    // array copy, which stays cheap well past the sizes a table can usefully show
+    private static final class SortedIndex {
+        final Comparator<Row> comparator;
+        Row[] rows = new Row[16];
+        int size;
+
+        SortedIndex(Comparator<Row> comparator) {
+            this.comparator = comparator;
+        }
+
+        void replace(Row[] sorted, int count) {
+            rows = sorted.length >= 16 ? sorted : Arrays.copyOf(sorted, 16);
+            Arrays.fill(rows, count, rows.length, null);
+            size = count;
+        }
+
+        int indexOf(Row row) {
+            int position = Arrays.binarySearch(rows, 0, size, row, comparator);
+            return position >= 0 && rows[position] == row ? position : -1;
+        }
+
+        void add(Row row) {
+            int position = Arrays.binarySearch(rows, 0, size, row, comparator);
+            if (position >= 0) {
+                rows[position] = row;
+                return;
+            }
+            position = -position - 1;
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, rows.length + (rows.length >> 1));
+            }
+            System.arraycopy(rows, position, rows, position + 1, size - position);
+            rows[position] = row;
+            size++;
+        }
+
+        void remove(Row row) {
+            int position = indexOf(row);
+            if (position < 0) {
+                return;
+            }
+            System.arraycopy(rows, position + 1, rows, position, size - position - 1);
+            rows[--size] = null;
+        }
+    }
+}
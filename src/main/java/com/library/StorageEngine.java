@@ -0,0 +1,111 @@
+package com.library;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+
+// Where LibraryManager keeps its records. Loads return everything in the store, or throw
+// UncheckedIOException when any of it cannot be read; the put/remove methods persist a
+// single record.
+interface StorageEngine {
+    ArrayList<Book> loadBooks();
+
+    ArrayList<Member> loadMembers();
+
+    ArrayList<BorrowRecord> loadBorrowRecords();
+
+    ArrayList<Hold> loadHolds();
+
+    void putBook(Book book);
+
+    void removeBook(String bookId);
+
+    void putMember(Member member);
+
+    void removeMember(String memberId);
+
+    void putBorrowRecord(BorrowRecord record);
+
+    void removeBorrowRecord(BorrowRecord record);
+
+    // Persist many records at once; engines that rewrite whole files write them once
+    default void putBooks(Collection<Book> books) {
+        for (Book book : books) {
+            putBook(book);
+        }
+    }
+
+    default void putMembers(Collection<Member> members) {
+        for (Member member : members) {
+            putMember(member);
+        }
+    }
+
+    // Remove and then add many loans at once
+    default void updateBorrowRecords(Collection<BorrowRecord> removed, Collection<BorrowRecord> added) {
+        for (BorrowRecord record : removed) {
+            removeBorrowRecord(record);
+        }
+        for (BorrowRecord record : added) {
+            putBorrowRecord(record);
+        }
+    }
+
+    // Replace every stored loan, used when loans are migrated in bulk
+    void saveBorrowRecords(ArrayList<BorrowRecord> records);
+
+    // Holds are small and kept in queue order, so they are always saved as a whole
+    void saveHolds(ArrayList<Hold> holds);
+
+    // Make everything handed to the engine so far durable, throwing UncheckedIOException
+    // when some of it could not be written. Engines that write each change through to disk
+    // as it is made have nothing to do.
+    default void sync() {
+    }
+
+    // Directory holding this data set; other stores, like the loan history, live beside the records
+    File getDataDir();
+
+    void close();
+
+    // Open the data set and engine chosen at startup (-Dlibrary.dataDir and -Dlibrary.storage).
+    // Replicas default to memory, their records come from the primary.
+    static StorageEngine open() {
+        String defaultKind = System.getProperty("library.replicaOf") != null ? "memory" : "text";
+        return open(FileUtility.defaultDataDir(), System.getProperty("library.storage", defaultKind));
+    }
+
+    // Open a data set with the named engine: "text", "btree" or "memory" (replicas).
+    // File-backed engines write changes behind by up to -Dlibrary.flushMillis (default 200,
+    // 0 writes every change straight through) and are journaled unless -Dlibrary.journal=off;
+    // the journal is cut every -Dlibrary.checkpointMillis once the files hold what it has.
+    static StorageEngine open(File dataDir, String kind) {
+        if (kind.equals("memory")) {
+            return new MemoryStorageEngine(dataDir);
+        }
+        StorageEngine engine = openFiles(dataDir, kind);
+        long flushMillis = Long.getLong("library.flushMillis", 200);
+        if (flushMillis > 0) {
+            engine = new WriteBehindStorageEngine(engine, flushMillis);
+        }
+        if (System.getProperty("library.journal", "on").equals("off")) {
+            return engine;
+        }
+        return JournaledStorageEngine.open(engine);
+    }
+
+    private static StorageEngine openFiles(File dataDir, String kind) {
+        FileUtility files = new FileUtility(dataDir);
+        if (kind.equals("btree")) {
+            try {
+                return BTreeStorageEngine.open(new File(dataDir, "library.db"), files);
+            } catch (IOException e) {
+                System.err.println("Error opening B-tree storage, using text files: " + e.getMessage());
+            }
+        } else if (!kind.equals("text")) {
+            System.err.println("Unknown storage engine '" + kind + "', using text files.");
+        }
+        return new TextStorageEngine(files);
+    }
+}
@@ -0,0 +1,182 @@
+package com.library;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+
+// The original pipe-delimited text files. Every change rewrites the whole file
+// for that record type from an in-memory copy of its contents, replacing it atomically.
+class TextStorageEngine implements StorageEngine {
+    private final FileUtility files;
+    private final LinkedHashMap<String, Book> books = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Member> members = new LinkedHashMap<>();
+    // By VersionedRecords.loanKey, since the records handed in may be copies of the manager's
+    private final LinkedHashMap<String, BorrowRecord> borrowRecords = new LinkedHashMap<>();
+    // Set when the last save of a file failed, so the file on disk is behind
+    private boolean booksUnsaved;
+    private boolean membersUnsaved;
+    private boolean loansUnsaved;
+    private ArrayList<Hold> unsavedHolds;
+
+    TextStorageEngine(FileUtility files) {
+        this.files = files;
+    }
+
+    @Override
+    public ArrayList<Book> loadBooks() {
+        books.clear();
+        for (Book book : files.loadBooks()) {
+            books.put(book.getId(), book);
+        }
+        return new ArrayList<>(books.values());
+    }
+
+    @Override
+    public ArrayList<Member> loadMembers() {
+        members.clear();
+        for (Member member : files.loadMembers()) {
+            members.put(member.getId(), member);
+        }
+        return new ArrayList<>(members.values());
+    }
+
+    @Override
+    public ArrayList<BorrowRecord> loadBorrowRecords() {
+        borrowRecords.clear();
+        for (BorrowRecord record : files.loadBorrowRecords()) {
+            borrowRecords.put(VersionedRecords.loanKey(record), record);
+        }
+        return new ArrayList<>(borrowRecords.values());
+    }
+
+    @Override
+    public ArrayList<Hold> loadHolds() {
+        return files.loadHolds();
+    }
+
+    @Override
+    public void putBook(Book book) {
+        books.put(book.getId(), book);
+        writeBooks();
+    }
+
+    @Override
+    public void putBooks(Collection<Book> changed) {
+        for (Book book : changed) {
+            books.put(book.getId(), book);
+        }
+        writeBooks();
+    }
+
+    @Override
+    public void removeBook(String bookId) {
+        if (books.remove(bookId) != null) {
+            writeBooks();
+        }
+    }
+
+    @Override
+    public void putMember(Member member) {
+        members.put(member.getId(), member);
+        writeMembers();
+    }
+
+    @Override
+    public void putMembers(Collection<Member> changed) {
+        for (Member member : changed) {
+            members.put(member.getId(), member);
+        }
+        writeMembers();
+    }
+
+    @Override
+    public void removeMember(String memberId) {
+        if (members.remove(memberId) != null) {
+            writeMembers();
+        }
+    }
+
+    // A loan is known by its member, book and copy; putting one again replaces it
+    @Override
+    public void putBorrowRecord(BorrowRecord record) {
+        borrowRecords.put(VersionedRecords.loanKey(record), record);
+        writeLoans();
+    }
+
+    @Override
+    public void removeBorrowRecord(BorrowRecord record) {
+        if (borrowRecords.remove(VersionedRecords.loanKey(record)) != null) {
+            writeLoans();
+        }
+    }
+
+    @Override
+    public void updateBorrowRecords(Collection<BorrowRecord> removed, Collection<BorrowRecord> added) {
+        for (BorrowRecord record : removed) {
+            borrowRecords.remove(VersionedRecords.loanKey(record));
+        }
+        for (BorrowRecord record : added) {
+            borrowRecords.put(VersionedRecords.loanKey(record), record);
+        }
+        writeLoans();
+    }
+
+    @Override
+    public void saveBorrowRecords(ArrayList<BorrowRecord> records) {
+        borrowRecords.clear();
+        for (BorrowRecord record : records) {
+            borrowRecords.put(VersionedRecords.loanKey(record), record);
+        }
+        writeLoans();
+    }
+
+    @Override
+    public void saveHolds(ArrayList<Hold> holds) {
+        unsavedHolds = files.saveHolds(holds) ? null : new ArrayList<>(holds);
+    }
+
+    private void writeBooks() {
+        booksUnsaved = !files.saveBooks(new ArrayList<>(books.values()));
+    }
+
+    private void writeMembers() {
+        membersUnsaved = !files.saveMembers(new ArrayList<>(members.values()));
+    }
+
+    private void writeLoans() {
+        loansUnsaved = !files.saveBorrowRecords(new ArrayList<>(borrowRecords.values()));
+    }
+
+    // Each save is on disk when it returns; files whose last save failed are written again
+    @Override
+    public void sync() {
+        if (booksUnsaved) {
+            writeBooks();
+        }
+        if (membersUnsaved) {
+            writeMembers();
+        }
+        if (loansUnsaved) {
+            writeLoans();
+        }
+        if (unsavedHolds != null) {
+            saveHolds(unsavedHolds);
+        }
+        if (booksUnsaved || membersUnsaved || loansUnsaved || unsavedHolds != null) {
+            throw new UncheckedIOException(new IOException("Error writing data files to " + files.getDataDir()));
+        }
+    }
+
+    @Override
+    public File getDataDir() {
+        return files.getDataDir();
+    }
+
+    @Override
+    public void close() {
+        // Nothing is buffered, every change is already on disk
+    }
+}
@@ -0,0 +1,347 @@
+package com.library;
+
+import java.lang.ref.Cleaner;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+// Committed versions of every book, member and loan, kept for readers that must not take
+// the manager's lock. The manager stages a frozen copy of each record it changes and commits
+// the copies of one operation together under a new version number; a read transaction sees
+// exactly the versions committed before it began. Old versions are dropped once no open
+// read transaction can see them. With the off-heap store on, frozen text goes there too.
+//
+// A read transaction open longer than -Dlibrary.readTimeoutMillis (default 300000, 0 for
+// no limit) loses its snapshot at the next commit and fails its later reads, and one that
+// is dropped without being closed is released and counted, so neither pins old versions.
+//
+// Staging and committing happen under the manager's lock. Reading needs no lock beyond a
+// brief one on the set of open snapshots when a read transaction begins or ends.
+class VersionedRecords {
+    private static final MetricsRegistry METRICS = MetricsRegistry.global();
+    private static final Counter COMMITS = METRICS.counter("mvcc.commits");
+    private static final Counter EXPIRED_SNAPSHOTS = METRICS.counter("mvcc.expiredSnapshots");
+    private static final Counter LEAKED_SNAPSHOTS = METRICS.counter("mvcc.leakedSnapshots");
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final long readTimeoutNanos =
+            TimeUnit.MILLISECONDS.toNanos(Long.getLong("library.readTimeoutMillis", 300_000));
+
+    final Table<Book> books = new Table<>();
+    final Table<Member> members = new Table<>();
+    final Table<BorrowRecord> loans = new Table<>();
+
+    // Last version handed out to a commit; only changed under the manager's lock
+    private long lastCommit;
+    private volatile long visible;
+    // Open read transactions' snapshots in the order they began, so oldest first
+    private final LinkedHashSet<Snapshot> openSnapshots = new LinkedHashSet<>();
+    // Where frozen text is kept when the manager keeps its own records off the heap
+    private OffHeapRecordStore frozenStore;
+    private final ArrayList<Staged<?>> staged = new ArrayList<>();
+    // Keys still holding versions that an open snapshot needed at their last commit
+    private final ArrayDeque<Staged<?>> unpruned = new ArrayDeque<>();
+    private long prunedUpTo;
+
+    // One read transaction's hold on the versions it sees
+    static final class Snapshot {
+        final long version;
+        private final long openedNanos = System.nanoTime();
+        private boolean released;
+        private Cleaner.Cleanable cleanable;
+        // Set when the snapshot was taken away for being open too long
+        volatile boolean expired;
+
+        private Snapshot(long version) {
+            this.version = version;
+        }
+    }
+
+    static final class Version<V> {
+        final V value;  // null once the record is removed
+        final long commit;
+        volatile Version<V> older;
+
+        Version(V value, long commit, Version<V> older) {
+            this.value = value;
+            this.commit = commit;
+            this.older = older;
+        }
+    }
+
+    // Version chains of one record type, newest first, by key
+    static final class Table<V> {
+        private final ConcurrentSkipListMap<String, Version<V>> chains = new ConcurrentSkipListMap<>();
+        // Version of the table's last change, for transactions that read the whole table
+        private volatile long lastCommit;
+
+        V get(String key, long snapshot) {
+            Version<V> version = chains.get(key);
+            while (version != null && version.commit > snapshot) {
+                version = version.older;
+            }
+            return version != null ? version.value : null;
+        }
+
+        // Every record present at the snapshot, in key order
+        ArrayList<V> all(long snapshot) {
+            ArrayList<V> values = new ArrayList<>();
+            for (Version<V> version : chains.values()) {
+                while (version != null && version.commit > snapshot) {
+                    version = version.older;
+                }
+                if (version != null && version.value != null) {
+                    values.add(version.value);
+                }
+            }
+            return values;
+        }
+
+        long lastCommit(String key) {
+            Version<V> version = chains.get(key);
+            return version != null ? version.commit : 0;
+        }
+
+        long lastCommit() {
+            return lastCommit;
+        }
+
+        private void install(String key, V value, long commit) {
+            chains.put(key, new Version<>(value, commit, chains.get(key)));
+            lastCommit = commit;
+        }
+
+        // Keep the newest version visible at the oldest snapshot and anything newer;
+        // true when versions older than that were still needed and remain
+        private boolean prune(String key, long oldest) {
+            Version<V> head = chains.get(key);
+            Version<V> version = head;
+            while (version != null && version.commit > oldest) {
+                version = version.older;
+            }
+            if (version == null) {
+                return head != null && head.older != null;
+            }
+            version.older = null;
+            if (version == head && head.value == null) {
+                chains.remove(key, head);
+            }
+            return version != head;
+        }
+
+        private Collection<String> keys() {
+            return chains.keySet();
+        }
+    }
+
+    private static final class Staged<V> {
+        final Table<V> table;
+        final String key;
+        final V value;
+
+        Staged(Table<V> table, String key, V value) {
+            this.table = table;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    static String loanKey(BorrowRecord record) {
+        return record.getMemberId() + "|" + record.getBookId() + "|" + record.getCopyIndex();
+    }
+
+    // Off-heap views are kept in the given store from now on, null to keep them on the heap
+    void setFrozenStore(OffHeapRecordStore store) {
+        frozenStore = store;
+    }
+
+    // Stage the current state of a record, null when it was removed. Records are copied, so
+    // later changes to the manager's own objects never reach a committed version.
+    void stageBook(String id, Book book) {
+        staged.add(new Staged<>(books, id, book != null ? frozen(book) : null));
+    }
+
+    void stageMember(String id, Member member) {
+        staged.add(new Staged<>(members, id, member != null ? frozen(member) : null));
+    }
+
+    void stageLoan(BorrowRecord record, boolean open) {
+        staged.add(new Staged<>(loans, loanKey(record), open ? freeze(record) : null));
+    }
+
+    // Stage the records that differ from their latest version after a reload, and remove the
+    // ones that are gone; unchanged records keep the version they have
+    void stageAll(Collection<Book> allBooks, Collection<Member> allMembers, Collection<BorrowRecord> allLoans) {
+        HashSet<String> present = new HashSet<>();
+        for (Book book : allBooks) {
+            present.add(book.getId());
+            Book latest = books.get(book.getId(), Long.MAX_VALUE);
+            if (latest == null || !FileUtility.formatBook(latest).equals(FileUtility.formatBook(book))) {
+                stageBook(book.getId(), book);
+            }
+        }
+        stageRemovedKeys(books, present);
+        present.clear();
+        for (Member member : allMembers) {
+            present.add(member.getId());
+            Member latest = members.get(member.getId(), Long.MAX_VALUE);
+            if (latest == null || !FileUtility.formatMember(latest).equals(FileUtility.formatMember(member))) {
+                stageMember(member.getId(), member);
+            }
+        }
+        stageRemovedKeys(members, present);
+        present.clear();
+        for (BorrowRecord record : allLoans) {
+            String key = loanKey(record);
+            present.add(key);
+            BorrowRecord latest = loans.get(key, Long.MAX_VALUE);
+            if (latest == null || latest.getBorrowDay() != record.getBorrowDay()
+                    || latest.getDueDay() != record.getDueDay()) {
+                stageLoan(record, true);
+            }
+        }
+        stageRemovedKeys(loans, present);
+    }
+
+    private <V> void stageRemovedKeys(Table<V> table, HashSet<String> present) {
+        for (String key : table.keys()) {
+            if (!present.contains(key) && table.get(key, Long.MAX_VALUE) != null) {
+                staged.add(new Staged<>(table, key, null));
+            }
+        }
+    }
+
+    // Make everything staged since the last commit visible at once
+    void commit() {
+        if (staged.isEmpty()) {
+            return;
+        }
+        long commit = ++lastCommit;
+        for (Staged<?> change : staged) {
+            install(change, commit);
+        }
+
+        long oldest;
+        synchronized (openSnapshots) {
+            visible = commit;
+            expireSnapshots();
+            oldest = openSnapshots.isEmpty() ? commit : openSnapshots.iterator().next().version;
+        }
+        for (Staged<?> change : staged) {
+            if (change.table.prune(change.key, oldest)) {
+                unpruned.add(change);
+            }
+        }
+        staged.clear();
+
+        // Versions kept for snapshots that have closed since can go now
+        if (oldest > prunedUpTo && !unpruned.isEmpty()) {
+            for (int n = unpruned.size(); n > 0; n--) {
+                Staged<?> change = unpruned.poll();
+                if (change.table.prune(change.key, oldest)) {
+                    unpruned.add(change);
+                }
+            }
+        }
+        prunedUpTo = oldest;
+        COMMITS.increment();
+    }
+
+    private static <V> void install(Staged<V> change, long commit) {
+        change.table.install(change.key, change.value, commit);
+    }
+
+    // Take away the snapshots open longer than the read timeout, oldest first
+    private void expireSnapshots() {
+        if (readTimeoutNanos <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        Iterator<Snapshot> it = openSnapshots.iterator();
+        while (it.hasNext()) {
+            Snapshot snapshot = it.next();
+            if (now - snapshot.openedNanos < readTimeoutNanos) {
+                break;
+            }
+            snapshot.expired = true;
+            snapshot.released = true;
+            it.remove();
+            EXPIRED_SNAPSHOTS.increment();
+        }
+    }
+
+    // The latest committed version, registered as open until release() is called. Should the
+    // owner become unreachable first, the snapshot is released then and counted as leaked.
+    Snapshot openSnapshot(Object owner) {
+        Snapshot snapshot;
+        synchronized (openSnapshots) {
+            snapshot = new Snapshot(visible);
+            openSnapshots.add(snapshot);
+        }
+        snapshot.cleanable = CLEANER.register(owner, () -> {
+            if (release(snapshot)) {
+                LEAKED_SNAPSHOTS.increment();
+                System.err.println("A read transaction was not closed, its snapshot " + snapshot.version + " is released");
+            }
+        });
+        return snapshot;
+    }
+
+    // Release a snapshot its owner is done with
+    void close(Snapshot snapshot) {
+        release(snapshot);
+        snapshot.cleanable.clean();
+    }
+
+    // False when the snapshot was already released or expired
+    private boolean release(Snapshot snapshot) {
+        synchronized (openSnapshots) {
+            if (snapshot.released) {
+                return false;
+            }
+            snapshot.released = true;
+            openSnapshots.remove(snapshot);
+            return true;
+        }
+    }
+
+    long getVisibleVersion() {
+        return visible;
+    }
+
+    int getOpenSnapshotCount() {
+        synchronized (openSnapshots) {
+            return openSnapshots.size();
+        }
+    }
+
+    private Book frozen(Book book) {
+        Book copy = freeze(book);
+        return frozenStore != null ? frozenStore.book(copy) : copy;
+    }
+
+    private Member frozen(Member member) {
+        Member copy = freeze(member);
+        return frozenStore != null ? frozenStore.member(copy) : copy;
+    }
+
+    static Book freeze(Book book) {
+        return new Book(book.getId(), book.getTitle(), book.getAuthor(), book.getCategory(), book.getCopies().copy());
+    }
+
+    static Member freeze(Member member) {
+        Member copy = new Member(member.getId(), member.getName(), member.getPhone(), member.getEmail());
+        copy.setBorrowedBooks(new ArrayList<>(member.getBorrowedBooks()));
+        return copy;
+    }
+
+    static BorrowRecord freeze(BorrowRecord record) {
+        return new BorrowRecord(record.getMemberId(), record.getBookId(),
+                record.getBorrowDay(), record.getDueDay(), record.getCopyIndex());
+    }
+}
@@ -0,0 +1,316 @@
+package com.library;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+// Holds changes back from the engine underneath for a short window and writes them out
+// together. Each changed book, member and loan is remembered once however often it changes
+// in the window, so a title borrowed and returned ten times is written once, and the text
+// engine rewrites each file once per flush instead of once per change.
+//
+// A flush happens at most flushMillis after the first change it contains, before any load,
+// and on sync and close. Changes not yet flushed are lost in a crash unless the journal is
+// on: it sits above this engine and has every change on disk before the manager moves on.
+// A flush that fails goes back in the queue under any newer changes and is tried again;
+// sync and close report the failure.
+class WriteBehindStorageEngine implements StorageEngine {
+    private static final MetricsRegistry METRICS = MetricsRegistry.global();
+    private static final LatencyHistogram FLUSH_LATENCY = METRICS.histogram("persistence.flush");
+    private static final Counter FLUSHES = METRICS.counter("persistence.flushes");
+    private static final Counter CHANGES = METRICS.counter("persistence.changes");
+    private static final Counter COALESCED = METRICS.counter("persistence.coalesced");
+    private static final Counter FLUSH_FAILURES = METRICS.counter("persistence.flushFailures");
+
+    private final StorageEngine inner;
+    private final long flushMillis;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "storage-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Held while the engine underneath is used, so flushes and loads never overlap
+    private final Object flushLock = new Object();
+
+    private Batch pending = new Batch();
+    private boolean flushScheduled;
+    private volatile int queueDepth;
+    private volatile long lastFlushMillis;
+    private final LongSupplier queueDepthGauge = () -> queueDepth;
+    private final LongSupplier lastFlushGauge = () -> lastFlushMillis;
+
+    // What changed since the last flush. Books and members are copies taken when they were
+    // put, null once removed; loans are copies by loan key, with whether they were put or removed.
+    private static final class Batch {
+        final LinkedHashMap<String, Book> books = new LinkedHashMap<>();
+        final LinkedHashMap<String, Member> members = new LinkedHashMap<>();
+        final LinkedHashMap<String, LoanChange> loans = new LinkedHashMap<>();
+        // Set when every loan was replaced; the loan changes above come after it
+        ArrayList<BorrowRecord> allLoans;
+        ArrayList<Hold> holds;
+
+        int size() {
+            return books.size() + members.size() + loans.size()
+                    + (allLoans != null ? 1 : 0) + (holds != null ? 1 : 0);
+        }
+
+        // Lay newer changes over this batch's
+        void addAll(Batch newer) {
+            books.putAll(newer.books);
+            members.putAll(newer.members);
+            if (newer.allLoans != null) {
+                loans.clear();
+                allLoans = newer.allLoans;
+            }
+            loans.putAll(newer.loans);
+            if (newer.holds != null) {
+                holds = newer.holds;
+            }
+        }
+    }
+
+    private static final class LoanChange {
+        final BorrowRecord record;
+        final boolean open;
+
+        LoanChange(BorrowRecord record, boolean open) {
+            this.record = record;
+            this.open = open;
+        }
+    }
+
+    WriteBehindStorageEngine(StorageEngine inner, long flushMillis) {
+        this.inner = inner;
+        this.flushMillis = flushMillis;
+        METRICS.gauge("persistence.queueDepth", queueDepthGauge);
+        METRICS.gauge("persistence.lastSnapshotMillis", lastFlushGauge);
+    }
+
+    // Loads see every change made so far
+
+    @Override
+    public ArrayList<Book> loadBooks() {
+        synchronized (flushLock) {
+            flush();
+            return inner.loadBooks();
+        }
+    }
+
+    @Override
+    public ArrayList<Member> loadMembers() {
+        synchronized (flushLock) {
+            flush();
+            return inner.loadMembers();
+        }
+    }
+
+    @Override
+    public ArrayList<BorrowRecord> loadBorrowRecords() {
+        synchronized (flushLock) {
+            flush();
+            return inner.loadBorrowRecords();
+        }
+    }
+
+    @Override
+    public ArrayList<Hold> loadHolds() {
+        synchronized (flushLock) {
+            flush();
+            return inner.loadHolds();
+        }
+    }
+
+    // The manager keeps changing its own records, so books and members are copied now and
+    // the flush thread never reads one halfway through a change
+
+    @Override
+    public synchronized void putBook(Book book) {
+        track(pending.books.containsKey(book.getId()),
+                () -> pending.books.put(book.getId(), VersionedRecords.freeze(book)));
+    }
+
+    @Override
+    public synchronized void removeBook(String bookId) {
+        track(pending.books.containsKey(bookId), () -> pending.books.put(bookId, null));
+    }
+
+    @Override
+    public synchronized void putMember(Member member) {
+        track(pending.members.containsKey(member.getId()),
+                () -> pending.members.put(member.getId(), VersionedRecords.freeze(member)));
+    }
+
+    @Override
+    public synchronized void removeMember(String memberId) {
+        track(pending.members.containsKey(memberId), () -> pending.members.put(memberId, null));
+    }
+
+    @Override
+    public synchronized void putBorrowRecord(BorrowRecord record) {
+        trackLoan(record, true);
+    }
+
+    @Override
+    public synchronized void removeBorrowRecord(BorrowRecord record) {
+        trackLoan(record, false);
+    }
+
+    private void trackLoan(BorrowRecord record, boolean open) {
+        String key = VersionedRecords.loanKey(record);
+        track(pending.loans.containsKey(key),
+                () -> pending.loans.put(key, new LoanChange(VersionedRecords.freeze(record), open)));
+    }
+
+    @Override
+    public synchronized void saveBorrowRecords(ArrayList<BorrowRecord> records) {
+        boolean replaced = pending.allLoans != null;
+        pending.loans.clear();
+        ArrayList<BorrowRecord> copies = new ArrayList<>(records.size());
+        for (BorrowRecord record : records) {
+            copies.add(VersionedRecords.freeze(record));
+        }
+        track(replaced, () -> pending.allLoans = copies);
+    }
+
+    @Override
+    public synchronized void saveHolds(ArrayList<Hold> holds) {
+        ArrayList<Hold> copies = new ArrayList<>(holds.size());
+        for (Hold hold : holds) {
+            copies.add(FileUtility.parseHold(FileUtility.formatHold(hold)));
+        }
+        track(pending.holds != null, () -> pending.holds = copies);
+    }
+
+    // Record one change, and make sure a flush is on its way
+    private void track(boolean alreadyPending, Runnable change) {
+        change.run();
+        CHANGES.increment();
+        if (alreadyPending) {
+            COALESCED.increment();
+        }
+        queueDepth = pending.size();
+        if (!flushScheduled) {
+            flushScheduled = true;
+            scheduler.schedule(this::flushQuietly, flushMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            System.err.println("Error writing changes to storage, will retry: " + e.getMessage());
+        }
+    }
+
+    // Write out everything changed so far, one batch per record type, and have the engine
+    // underneath sync it. A batch that fails is queued again, ahead of newer changes.
+    void flush() {
+        synchronized (flushLock) {
+            Batch batch;
+            synchronized (this) {
+                batch = pending;
+                pending = new Batch();
+                flushScheduled = false;
+                queueDepth = 0;
+            }
+            if (batch.size() == 0) {
+                return;
+            }
+            try {
+                write(batch);
+                inner.sync();
+            } catch (RuntimeException e) {
+                FLUSH_FAILURES.increment();
+                synchronized (this) {
+                    batch.addAll(pending);
+                    pending = batch;
+                    queueDepth = pending.size();
+                    if (!flushScheduled && !scheduler.isShutdown()) {
+                        flushScheduled = true;
+                        scheduler.schedule(this::flushQuietly, Math.max(flushMillis, 1000), TimeUnit.MILLISECONDS);
+                    }
+                }
+                throw e;
+            }
+        }
+    }
+
+    private void write(Batch batch) {
+        long start = System.nanoTime();
+
+        ArrayList<Book> putBooks = new ArrayList<>();
+        for (Map.Entry<String, Book> change : batch.books.entrySet()) {
+            if (change.getValue() == null) {
+                inner.removeBook(change.getKey());
+            } else {
+                putBooks.add(change.getValue());
+            }
+        }
+        if (!putBooks.isEmpty()) {
+            inner.putBooks(putBooks);
+        }
+
+        ArrayList<Member> putMembers = new ArrayList<>();
+        for (Map.Entry<String, Member> change : batch.members.entrySet()) {
+            if (change.getValue() == null) {
+                inner.removeMember(change.getKey());
+            } else {
+                putMembers.add(change.getValue());
+            }
+        }
+        if (!putMembers.isEmpty()) {
+            inner.putMembers(putMembers);
+        }
+
+        if (batch.allLoans != null) {
+            inner.saveBorrowRecords(batch.allLoans);
+        }
+        if (!batch.loans.isEmpty()) {
+            ArrayList<BorrowRecord> removed = new ArrayList<>();
+            ArrayList<BorrowRecord> added = new ArrayList<>();
+            for (LoanChange change : batch.loans.values()) {
+                (change.open ? added : removed).add(change.record);
+            }
+            inner.updateBorrowRecords(removed, added);
+        }
+
+        if (batch.holds != null) {
+            inner.saveHolds(batch.holds);
+        }
+
+        FLUSH_LATENCY.recordSince(start);
+        FLUSHES.increment();
+        lastFlushMillis = System.currentTimeMillis();
+    }
+
+    @Override
+    public void sync() {
+        flush();
+    }
+
+    @Override
+    public File getDataDir() {
+        return inner.getDataDir();
+    }
+
+    @Override
+    public void close() {
+        METRICS.removeGauge("persistence.queueDepth", queueDepthGauge);
+        METRICS.removeGauge("persistence.lastSnapshotMillis", lastFlushGauge);
+        scheduler.shutdown();
+        synchronized (flushLock) {
+            try {
+                flush();
+            } finally {
+                inner.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.library;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+
+// An optimistic transaction: it reads from its snapshot like a ReadTransaction and collects
+// book and member changes without locking anything. commit() applies them all at once, but
+// only if no other commit has touched what this transaction read or writes since it began;
+// otherwise nothing is applied and isConflicted() tells the caller to retry.
+class WriteTransaction extends ReadTransaction {
+    private final LibraryManager manager;
+    private final HashSet<String> booksRead = new HashSet<>();
+    private final HashSet<String> membersRead = new HashSet<>();
+    private boolean readAllBooks;
+    private boolean readAllMembers;
+    private boolean readAllLoans;
+    // Staged changes in the order they were made, null for a removal
+    private final LinkedHashMap<String, Book> bookWrites = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Member> memberWrites = new LinkedHashMap<>();
+    private boolean conflicted;
+
+    WriteTransaction(LibraryManager manager, VersionedRecords records) {
+        super(records);
+        this.manager = manager;
+    }
+
+    // Reads see this transaction's own changes
+    @Override
+    public Book getBook(String bookId) {
+        booksRead.add(bookId);
+        return bookWrites.containsKey(bookId) ? bookWrites.get(bookId) : super.getBook(bookId);
+    }
+
+    @Override
+    public Member getMember(String memberId) {
+        membersRead.add(memberId);
+        return memberWrites.containsKey(memberId) ? memberWrites.get(memberId) : super.getMember(memberId);
+    }
+
+    @Override
+    public ArrayList<Book> getAllBooks() {
+        readAllBooks = true;
+        return super.getAllBooks();
+    }
+
+    @Override
+    public ArrayList<Member> getAllMembers() {
+        readAllMembers = true;
+        return super.getAllMembers();
+    }
+
+    @Override
+    public ArrayList<BorrowRecord> getAllBorrowRecords() {
+        readAllLoans = true;
+        return super.getAllBorrowRecords();
+    }
+
+    // Add the book, or update the one with its id; the transaction keeps its own copy
+    public void putBook(Book book) {
+        bookWrites.put(book.getId(), VersionedRecords.freeze(book));
+    }
+
+    public void removeBook(String bookId) {
+        bookWrites.put(bookId, null);
+    }
+
+    public void putMember(Member member) {
+        memberWrites.put(member.getId(), VersionedRecords.freeze(member));
+    }
+
+    public void removeMember(String memberId) {
+        memberWrites.put(memberId, null);
+    }
+
+    // Apply the changes; false when another commit got in first or a change is not allowed
+    public boolean commit() {
+        return manager.commit(this);
+    }
+
+    public boolean isConflicted() {
+        return conflicted;
+    }
+
+    LinkedHashMap<String, Book> getBookWrites() {
+        return bookWrites;
+    }
+
+    LinkedHashMap<String, Member> getMemberWrites() {
+        return memberWrites;
+    }
+
+    // Called by the manager under its lock: has anything this transaction depends on changed?
+    boolean checkConflicts() {
+        conflicted = changedSinceSnapshot(records.books, booksRead, bookWrites.keySet(), readAllBooks)
+                || changedSinceSnapshot(records.members, membersRead, memberWrites.keySet(), readAllMembers)
+                || (readAllLoans && records.loans.lastCommit() > snapshot);
+        return conflicted;
+    }
+
+    private boolean changedSinceSnapshot(VersionedRecords.Table<?> table, HashSet<String> read,
+                                         java.util.Set<String> written, boolean readAll) {
+        if (readAll && table.lastCommit() > snapshot) {
+            return true;
+        }
+        for (String key : read) {
+            if (table.lastCommit(key) > snapshot) {
+                return true;
+            }
+        }
+        for (String key : written) {
+            if (table.lastCommit(key) > snapshot) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
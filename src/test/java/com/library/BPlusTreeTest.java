@@ -0,0 +1,110 @@
+package com.library;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BPlusTreeTest {
+    @TempDir
+    File dir;
+
+    private static String key(int i) {
+        return String.format("B%05d", i);
+    }
+
+    @Test
+    void entriesSurviveSplitsAndReopen() throws Exception {
+        File file = new File(dir, "library.db");
+        TreeMap<String, String> expected = new TreeMap<>();
+        // Shuffled, so splits happen all over the tree rather than only at its right edge
+        ArrayList<Integer> order = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, new java.util.Random(42));
+
+        BufferPool pool = new BufferPool(file, 2, 16);
+        assertTrue(pool.isNew());
+        BPlusTree tree = new BPlusTree(pool, 0);
+        for (int i : order) {
+            tree.put(key(i), "Title " + i + "|Author|Category|1");
+            expected.put(key(i), "Title " + i + "|Author|Category|1");
+        }
+        pool.close();
+
+        pool = new BufferPool(file, 2, 16);
+        assertFalse(pool.isNew());
+        tree = new BPlusTree(pool, 0);
+        assertEquals(new ArrayList<>(expected.keySet()), tree.keys());
+        for (int i = 0; i < 5000; i += 97) {
+            assertEquals(expected.get(key(i)), tree.get(key(i)));
+        }
+        // The other tree in the file is still empty
+        assertTrue(new BPlusTree(pool, 1).keys().isEmpty());
+        pool.close();
+    }
+
+    @Test
+    void replacesAndRemoves() throws Exception {
+        BufferPool pool = new BufferPool(new File(dir, "library.db"), 1, 16);
+        BPlusTree tree = new BPlusTree(pool, 0);
+        tree.put("M1", "first");
+        tree.put("M1", "second");
+        tree.put("M2", "other");
+        assertEquals("second", tree.get("M1"));
+
+        assertTrue(tree.remove("M1"));
+        assertFalse(tree.remove("M1"));
+        assertNull(tree.get("M1"));
+        assertEquals(java.util.List.of("M2"), tree.keys());
+        pool.close();
+    }
+
+    @Test
+    void largeValuesGoToOverflowPages() throws Exception {
+        File file = new File(dir, "library.db");
+        String large = "x".repeat(3 * BufferPool.PAGE_SIZE);
+        // Looks like an overflow reference, so it must be stored as one to stay unambiguous
+        String nulFirst = "\u00001:5";
+
+        BufferPool pool = new BufferPool(file, 1, 16);
+        BPlusTree tree = new BPlusTree(pool, 0);
+        tree.put("big", large);
+        tree.put("nul", nulFirst);
+        pool.close();
+
+        pool = new BufferPool(file, 1, 16);
+        tree = new BPlusTree(pool, 0);
+        assertEquals(large, tree.get("big"));
+        assertEquals(nulFirst, tree.get("nul"));
+
+        // Freed overflow pages are reused rather than growing the file
+        tree.put("big", "small");
+        pool.flush();
+        int pages = pool.getPageCount();
+        tree.put("big", large);
+        pool.flush();
+        assertEquals(pages, pool.getPageCount());
+        assertEquals(large, tree.get("big"));
+        pool.close();
+    }
+
+    @Test
+    void refusesKeysTooLongForALeaf() throws Exception {
+        BufferPool pool = new BufferPool(new File(dir, "library.db"), 1, 16);
+        BPlusTree tree = new BPlusTree(pool, 0);
+        assertThrows(IllegalArgumentException.class,
+                () -> tree.put("k".repeat(BPlusTree.MAX_KEY_SIZE + 1), "value"));
+        pool.close();
+    }
+}
@@ -0,0 +1,84 @@
+package com.library;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class BlockCodecTest {
+    private static byte[] catalogue(int books) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < books; i++) {
+            text.append("B").append(10000 + i).append("|Title number ").append(i)
+                    .append("|Author ").append(i % 40).append("|Fiction|3|AAAHAAA=\n");
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] roundTrip(byte[] raw) throws IOException {
+        byte[] compressed = new byte[BlockCodec.maxCompressedLength(raw.length)];
+        int length = BlockCodec.compress(raw, 0, raw.length, compressed, 0);
+        byte[] restored = new byte[raw.length];
+        BlockCodec.decompress(compressed, 0, length, restored, 0, raw.length);
+        return restored;
+    }
+
+    @Test
+    void repetitiveTextShrinksAndRoundTrips() throws IOException {
+        byte[] raw = catalogue(1000);
+        byte[] compressed = new byte[BlockCodec.maxCompressedLength(raw.length)];
+        int length = BlockCodec.compress(raw, 0, raw.length, compressed, 0);
+        assertTrue(length < raw.length / 2, "compressed to " + length + " of " + raw.length);
+        assertArrayEquals(raw, roundTrip(raw));
+    }
+
+    @Test
+    void shortAndIncompressibleInputRoundTrips() throws IOException {
+        byte[] random = new byte[20_000];
+        new Random(7).nextBytes(random);
+        assertArrayEquals(random, roundTrip(random));
+        assertArrayEquals(new byte[0], roundTrip(new byte[0]));
+        assertArrayEquals("abc".getBytes(StandardCharsets.UTF_8), roundTrip("abc".getBytes(StandardCharsets.UTF_8)));
+        // One long run, matched against itself at offset 1
+        assertArrayEquals(new byte[70_000], roundTrip(new byte[70_000]));
+    }
+
+    @Test
+    void damagedBlockIsReported() {
+        byte[] raw = catalogue(100);
+        byte[] compressed = new byte[BlockCodec.maxCompressedLength(raw.length)];
+        int length = BlockCodec.compress(raw, 0, raw.length, compressed, 0);
+        byte[] restored = new byte[raw.length];
+        assertThrows(IOException.class,
+                () -> BlockCodec.decompress(compressed, 0, length / 2, restored, 0, raw.length));
+    }
+
+    @Test
+    void filesRoundTripAcrossBlocks() throws IOException {
+        byte[] raw = catalogue(5000);
+        assertTrue(raw.length > 2 * BlockCodec.BLOCK_SIZE);
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        try (OutputStream out = new BlockCodec.CompressingOutputStream(file)) {
+            out.write(raw, 0, 1000);
+            out.write(raw, 1000, raw.length - 1000);
+        }
+        assertTrue(file.size() < raw.length);
+
+        try (InputStream in = BlockCodec.open(new ByteArrayInputStream(file.toByteArray()))) {
+            assertArrayEquals(raw, in.readAllBytes());
+        }
+        // Files written before compression read back as they are
+        try (InputStream in = BlockCodec.open(new ByteArrayInputStream(raw))) {
+            assertArrayEquals(raw, in.readAllBytes());
+        }
+    }
+}
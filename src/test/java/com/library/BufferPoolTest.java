@@ -0,0 +1,87 @@
+package com.library;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BufferPoolTest {
+    private static final int WAL_MAGIC = 0x4C57414C;
+
+    @TempDir
+    File dir;
+
+    // Two flushes of one file: the first holds B1, the second adds enough to split the root.
+    // Returns the file as it was after the first flush; the file itself is left after the second.
+    private byte[] writeTwoVersions(File file) throws Exception {
+        BufferPool pool = new BufferPool(file, 1, 16);
+        BPlusTree tree = new BPlusTree(pool, 0);
+        tree.put("B1", "before");
+        pool.flush();
+        byte[] first = Files.readAllBytes(file.toPath());
+
+        for (int i = 0; i < 500; i++) {
+            tree.put(String.format("B%04d", i), "after " + i);
+        }
+        pool.close();
+        return first;
+    }
+
+    // A log of every page of the file, as flush() writes it before touching the file
+    private static byte[] logOf(byte[] pages) {
+        int count = pages.length / BufferPool.PAGE_SIZE;
+        ByteBuffer log = ByteBuffer.allocate(8 + count * (4 + BufferPool.PAGE_SIZE) + 4);
+        log.putInt(WAL_MAGIC).putInt(count);
+        for (int pageId = 0; pageId < count; pageId++) {
+            log.putInt(pageId).put(pages, pageId * BufferPool.PAGE_SIZE, BufferPool.PAGE_SIZE);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(log.array(), 0, log.position());
+        log.putInt((int) crc.getValue());
+        return log.array();
+    }
+
+    @Test
+    void logIsReplayedAfterACrashDuringTheInPlaceWrites() throws Exception {
+        File file = new File(dir, "library.db");
+        byte[] first = writeTwoVersions(file);
+        byte[] second = Files.readAllBytes(file.toPath());
+
+        // The second flush logged its pages, then the process died before writing any in place
+        Files.write(file.toPath(), first);
+        Files.write(new File(file.getPath() + BufferPool.WAL_SUFFIX).toPath(), logOf(second));
+
+        BufferPool pool = new BufferPool(file, 1, 16);
+        BPlusTree tree = new BPlusTree(pool, 0);
+        assertEquals(501, tree.keys().size());
+        assertEquals("after 499", tree.get("B0499"));
+        assertEquals(0, new File(file.getPath() + BufferPool.WAL_SUFFIX).length());
+        pool.close();
+    }
+
+    @Test
+    void tornLogIsIgnored() throws Exception {
+        File file = new File(dir, "library.db");
+        byte[] first = writeTwoVersions(file);
+        byte[] second = Files.readAllBytes(file.toPath());
+
+        // The process died while writing the log, so nothing was written in place yet
+        byte[] log = logOf(second);
+        Files.write(file.toPath(), first);
+        Files.write(new File(file.getPath() + BufferPool.WAL_SUFFIX).toPath(),
+                java.util.Arrays.copyOf(log, log.length - 100));
+
+        BufferPool pool = new BufferPool(file, 1, 16);
+        BPlusTree tree = new BPlusTree(pool, 0);
+        assertEquals(java.util.List.of("B1"), tree.keys());
+        assertEquals("before", tree.get("B1"));
+        assertNull(tree.get("B0499"));
+        pool.close();
+    }
+}
@@ -0,0 +1,440 @@
+package com.library;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Load generator that simulates many circulation desks working against one LibraryManager.
+// Each desk is a virtual thread issuing a weighted mix of borrow, return, search and add
+// operations until the run ends. The report gives throughput, latency per operation,
+// persistence I/O for the run and any broken invariants found while running or at the end.
+// It is a tool to run by hand rather than a unit test, and lives with the test sources so it
+// stays out of the application jar:
+//
+//   mvn test-compile
+//   java -cp target/classes:target/test-classes com.library.CirculationLoadTest --desks=200 --seconds=30
+//
+// LibraryManager serialises on its monitor. Before JDK 24 a virtual thread that blocks on a
+// monitor pins its carrier thread, so at most as many desks as there are carriers make progress
+// and the numbers show carrier contention rather than desk concurrency. Run on JDK 24 or later,
+// or raise -Djdk.virtualThreadScheduler.parallelism, for figures that reflect the desk count.
+//
+// Options:
+//   --desks=N              desks working at once (default 64)
+//   --seconds=N            length of the run (default 30)
+//   --mix=op=w,...         weights for borrow, return, search and add (default borrow=40,return=30,search=25,add=5)
+//   --think-ms=N           mean pause between a desk's operations (default 0)
+//   --storage=KIND         text, btree or memory (default text)
+//   --data-dir=PATH        data set to run against; changed by the run (default a new seeded temp directory)
+//   --books=N, --members=N size of the seeded data set (default 2000 and 1000)
+//   --check-ms=N           interval between invariant checks while running, 0 for none (default 1000)
+public class CirculationLoadTest {
+    private static final String[] OPERATIONS = {"borrow", "return", "search", "add"};
+    private static final int BORROW = 0, RETURN = 1, SEARCH = 2;
+    private static final String[] WORDS = {
+            "history", "garden", "river", "ocean", "winter", "algebra", "empire", "music",
+            "island", "machine", "forest", "city", "journey", "science", "letters", "shadow"
+    };
+    // Violations printed in full; the rest are only counted
+    private static final int MAX_REPORTED_VIOLATIONS = 20;
+
+    private final int desks;
+    private final long durationNanos;
+    private final int[] weights;
+    private final int thinkMillis;
+    private final long checkMillis;
+
+    private LibraryManager manager;
+    private String[] bookIds;
+    private String[] memberIds;
+    // Ids of records added by this run are PREFIX + "B" or "M" + a sequence number
+    private final String prefix = "LT" + Long.toString(System.currentTimeMillis(), 36) + "-";
+    private final AtomicInteger addedBooks = new AtomicInteger();
+    private final AtomicInteger addedMembers = new AtomicInteger();
+
+    private final LatencyHistogram[] latency = new LatencyHistogram[OPERATIONS.length];
+    private final Counter[] succeeded = new Counter[OPERATIONS.length];
+    private final Counter[] rejected = new Counter[OPERATIONS.length];
+    private final Counter[] failed = new Counter[OPERATIONS.length];
+    private final Counter violations = new Counter();
+    private final AtomicLong netLoans = new AtomicLong();
+
+    CirculationLoadTest(int desks, long durationNanos, int[] weights, int thinkMillis, long checkMillis) {
+        this.desks = desks;
+        this.durationNanos = durationNanos;
+        this.weights = weights;
+        this.thinkMillis = thinkMillis;
+        this.checkMillis = checkMillis;
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            latency[i] = new LatencyHistogram();
+            succeeded[i] = new Counter();
+            rejected[i] = new Counter();
+            failed[i] = new Counter();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int desks = 64;
+        int seconds = 30;
+        int[] weights = {40, 30, 25, 5};
+        int thinkMillis = 0;
+        String storageKind = "text";
+        String dataDir = null;
+        int seedBooks = 2000;
+        int seedMembers = 1000;
+        long checkMillis = 1000;
+
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            String name = eq < 0 ? arg : arg.substring(0, eq);
+            String value = eq < 0 ? "" : arg.substring(eq + 1);
+            switch (name) {
+                case "--desks": desks = Integer.parseInt(value); break;
+                case "--seconds": seconds = Integer.parseInt(value); break;
+                case "--mix": weights = parseMix(value); break;
+                case "--think-ms": thinkMillis = Integer.parseInt(value); break;
+                case "--storage": storageKind = value; break;
+                case "--data-dir": dataDir = value; break;
+                case "--books": seedBooks = Integer.parseInt(value); break;
+                case "--members": seedMembers = Integer.parseInt(value); break;
+                case "--check-ms": checkMillis = Long.parseLong(value); break;
+                default:
+                    System.err.println("Unknown option: " + arg);
+                    System.exit(2);
+            }
+        }
+
+        File dir = dataDir != null ? new File(dataDir) : Files.createTempDirectory("library-loadtest").toFile();
+        StorageEngine storage = StorageEngine.open(dir, storageKind);
+        CirculationLoadTest test = new CirculationLoadTest(
+                desks, TimeUnit.SECONDS.toNanos(seconds), weights, thinkMillis, checkMillis);
+        try {
+            test.run(storage, seedBooks, seedMembers);
+        } finally {
+            storage.close();
+        }
+        System.exit(test.violations.get() == 0 ? 0 : 1);
+    }
+
+    // "borrow=40,return=30,search=25,add=5"; operations left out get no weight
+    static int[] parseMix(String mix) {
+        int[] weights = new int[OPERATIONS.length];
+        for (String part : mix.split(",")) {
+            String[] pair = part.trim().split("=");
+            int op = Arrays.asList(OPERATIONS).indexOf(pair[0].trim());
+            if (op < 0 || pair.length != 2) {
+                throw new IllegalArgumentException("Bad mix entry: " + part);
+            }
+            weights[op] = Integer.parseInt(pair[1].trim());
+        }
+        if (Arrays.stream(weights).sum() <= 0) {
+            throw new IllegalArgumentException("Mix has no weight: " + mix);
+        }
+        return weights;
+    }
+
+    void run(StorageEngine storage, int seedBooks, int seedMembers) throws InterruptedException {
+        System.out.println("Data set " + storage.getDataDir() + " (" + storage.getClass().getSimpleName() + ")");
+        manager = new LibraryManager(storage);
+        seed(seedBooks, seedMembers);
+        bookIds = manager.getAllBooks().stream().map(Book::getId).toArray(String[]::new);
+        memberIds = manager.getAllMembers().stream().map(Member::getId).toArray(String[]::new);
+        if (bookIds.length == 0 || memberIds.length == 0) {
+            System.err.println("The data set needs at least one book and one member.");
+            return;
+        }
+        int loansAtStart = manager.getAllBorrowRecords().size();
+        checkInvariants("start");
+
+        // Only count the I/O done by the desks
+        MetricsRegistry metrics = MetricsRegistry.global();
+        for (String name : metrics.histogramNames()) {
+            metrics.findHistogram(name).reset();
+        }
+        Map<String, Long> countersAtStart = counterValues(metrics);
+
+        System.out.printf("Running %d desks for %d s against %d books and %d members%n",
+                desks, TimeUnit.NANOSECONDS.toSeconds(durationNanos), bookIds.length, memberIds.length);
+        if (Runtime.version().feature() < 24) {
+            System.out.println("Note: on JDK " + Runtime.version().feature() + " desks blocked on the manager's lock pin their"
+                    + " carrier threads, so no more than " + Runtime.getRuntime().availableProcessors()
+                    + " run at once by default");
+        }
+        long start = System.nanoTime();
+        long deadline = start + durationNanos;
+        CountDownLatch finished = new CountDownLatch(desks);
+        for (int i = 0; i < desks; i++) {
+            Thread.ofVirtual().name("desk-" + i).start(() -> {
+                try {
+                    runDesk(deadline);
+                } finally {
+                    finished.countDown();
+                }
+            });
+        }
+
+        // Check invariants while the desks work, then once more when they are done
+        while (!finished.await(checkMillis > 0 ? checkMillis : 1000, TimeUnit.MILLISECONDS)) {
+            if (checkMillis > 0) {
+                checkInvariants("running");
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        checkInvariants("end");
+
+        int loansAtEnd = manager.getAllBorrowRecords().size();
+        if (loansAtEnd - loansAtStart != netLoans.get()) {
+            violation("end", "loan count changed by " + (loansAtEnd - loansAtStart)
+                    + " but desks opened " + netLoans.get() + " more loans than they closed");
+        }
+        report(elapsed, metrics, countersAtStart);
+    }
+
+    // Fill an empty data set with generated books and members
+    private void seed(int seedBooks, int seedMembers) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (manager.getAllBooks().isEmpty()) {
+            for (int i = 0; i < seedBooks; i++) {
+                manager.addBook(new Book("SB" + i, title(random), "Author " + (i % 97),
+                        WORDS[i % WORDS.length], 1 + random.nextInt(5)));
+            }
+        }
+        if (manager.getAllMembers().isEmpty()) {
+            for (int i = 0; i < seedMembers; i++) {
+                manager.addMember(new Member("SM" + i, "Member " + i, "555-" + (1000 + i % 9000),
+                        "member" + i + "@example.org"));
+            }
+        }
+    }
+
+    private void runDesk(long deadline) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        // Loans this desk opened and has not returned yet, as {memberId, bookId}
+        ArrayList<String[]> openLoans = new ArrayList<>();
+        int totalWeight = Arrays.stream(weights).sum();
+
+        while (System.nanoTime() < deadline) {
+            int op = pick(random.nextInt(totalWeight));
+            if (op == RETURN && openLoans.isEmpty()) {
+                op = BORROW;
+            }
+            long start = System.nanoTime();
+            try {
+                boolean ok = perform(op, random, openLoans);
+                (ok ? succeeded : rejected)[op].increment();
+            } catch (RuntimeException e) {
+                failed[op].increment();
+                violation("running", OPERATIONS[op] + " threw " + e);
+            }
+            latency[op].recordSince(start);
+
+            if (thinkMillis > 0) {
+                try {
+                    Thread.sleep((long) (random.nextDouble() * 2 * thinkMillis));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private int pick(int roll) {
+        for (int op = 0; op < weights.length; op++) {
+            roll -= weights[op];
+            if (roll < 0) {
+                return op;
+            }
+        }
+        return weights.length - 1;
+    }
+
+    private boolean perform(int op, ThreadLocalRandom random, ArrayList<String[]> openLoans) {
+        switch (op) {
+            case BORROW: {
+                String memberId = randomMember(random);
+                String bookId = randomBook(random);
+                if (!manager.borrowBook(memberId, bookId, 14)) {
+                    return false;
+                }
+                openLoans.add(new String[] {memberId, bookId});
+                netLoans.incrementAndGet();
+                return true;
+            }
+            case RETURN: {
+                int index = random.nextInt(openLoans.size());
+                String[] loan = openLoans.get(index);
+                openLoans.set(index, openLoans.get(openLoans.size() - 1));
+                openLoans.remove(openLoans.size() - 1);
+                if (!manager.returnBook(loan[0], loan[1])) {
+                    return false;
+                }
+                netLoans.decrementAndGet();
+                return true;
+            }
+            case SEARCH: {
+                String term = WORDS[random.nextInt(WORDS.length)];
+                if (random.nextBoolean()) {
+                    manager.searchBooks(term);
+                } else {
+                    manager.searchBooksRanked(term, 20, null);
+                }
+                return true;
+            }
+            default: {  // add
+                if (random.nextInt(4) == 0) {
+                    int n = addedMembers.getAndIncrement();
+                    return manager.addMember(new Member(prefix + "M" + n, "Load Member " + n,
+                            "555-0000", "load" + n + "@example.org"));
+                }
+                int n = addedBooks.getAndIncrement();
+                return manager.addBook(new Book(prefix + "B" + n, title(random), "Load Author",
+                        WORDS[random.nextInt(WORDS.length)], 1 + random.nextInt(3)));
+            }
+        }
+    }
+
+    // A seeded book or, now and then, one added during the run (possibly not stored yet)
+    private String randomBook(ThreadLocalRandom random) {
+        int added = addedBooks.get();
+        int index = random.nextInt(bookIds.length + added);
+        return index < bookIds.length ? bookIds[index] : prefix + "B" + (index - bookIds.length);
+    }
+
+    private String randomMember(ThreadLocalRandom random) {
+        int added = addedMembers.get();
+        int index = random.nextInt(memberIds.length + added);
+        return index < memberIds.length ? memberIds[index] : prefix + "M" + (index - memberIds.length);
+    }
+
+    private static String title(ThreadLocalRandom random) {
+        return Character.toUpperCase(WORDS[random.nextInt(WORDS.length)].charAt(0))
+                + WORDS[random.nextInt(WORDS.length)].substring(1) + " of the "
+                + WORDS[random.nextInt(WORDS.length)];
+    }
+
+    // A read transaction gives a consistent view without holding up the desks. Holds are not
+    // part of it, so they are read before and after, and books whose set-aside copies changed
+    // in between are left out of the copy count.
+    private void checkInvariants(String phase) {
+        Map<String, Integer> readyHoldsBefore = readyHoldsPerBook();
+        try (ReadTransaction view = manager.beginRead()) {
+            Map<String, Integer> readyHolds = readyHoldsPerBook();
+            Map<String, Book> books = new HashMap<>();
+            for (Book book : view.getAllBooks()) {
+                books.put(book.getId(), book);
+                if (book.getAvailableQuantity() < 0) {
+                    violation(phase, "book " + book.getId() + " has negative quantity " + book.getAvailableQuantity());
+                }
+            }
+            Map<String, Member> members = new HashMap<>();
+            for (Member member : view.getAllMembers()) {
+                members.put(member.getId(), member);
+            }
+
+            Map<String, Integer> loansPerBook = new HashMap<>();
+            Map<String, Integer> loansPerMember = new HashMap<>();
+            for (BorrowRecord record : view.getAllBorrowRecords()) {
+                if (!books.containsKey(record.getBookId()) || !members.containsKey(record.getMemberId())) {
+                    violation(phase, "orphan loan of " + record.getBookId() + " to " + record.getMemberId());
+                }
+                loansPerBook.merge(record.getBookId(), 1, Integer::sum);
+                loansPerMember.merge(record.getMemberId(), 1, Integer::sum);
+            }
+
+            // Every copy is on loan, on the shelf or set aside for a hold; fewer means a lost copy
+            for (Book book : books.values()) {
+                int loans = loansPerBook.getOrDefault(book.getId(), 0);
+                Integer held = readyHolds.get(book.getId());
+                if (!Objects.equals(held, readyHoldsBefore.get(book.getId()))) {
+                    continue;
+                }
+                int setAside = held != null ? held : 0;
+                if (loans + book.getAvailableQuantity() + setAside != book.getTotalQuantity()) {
+                    violation(phase, "book " + book.getId() + " has " + loans + " loans, "
+                            + book.getAvailableQuantity() + " available and " + setAside + " held of "
+                            + book.getTotalQuantity() + " copies");
+                }
+            }
+            for (Member member : members.values()) {
+                int loans = loansPerMember.getOrDefault(member.getId(), 0);
+                if (member.getBorrowedBooks().size() != loans) {
+                    violation(phase, "member " + member.getId() + " lists " + member.getBorrowedBooks().size()
+                            + " borrowed books but has " + loans + " loans");
+                }
+            }
+        }
+    }
+
+    private Map<String, Integer> readyHoldsPerBook() {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Hold hold : manager.getAllHolds()) {
+            if (hold.isReady()) {
+                counts.merge(hold.getBookId(), 1, Integer::sum);
+            }
+        }
+        return counts;
+    }
+
+    private void violation(String phase, String message) {
+        violations.increment();
+        if (violations.get() <= MAX_REPORTED_VIOLATIONS) {
+            System.err.println("Invariant violated (" + phase + "): " + message);
+        }
+    }
+
+    private static Map<String, Long> counterValues(MetricsRegistry metrics) {
+        Map<String, Long> values = new HashMap<>();
+        for (String name : metrics.counterNames()) {
+            values.put(name, metrics.getCount(name));
+        }
+        return values;
+    }
+
+    private void report(long elapsedNanos, MetricsRegistry metrics, Map<String, Long> countersAtStart) {
+        double seconds = elapsedNanos / 1e9;
+        long total = 0;
+        System.out.println();
+        System.out.printf("%-8s %10s %9s %9s %8s %8s %8s %8s%n",
+                "op", "ok", "rejected", "errors", "p50 us", "p99 us", "p999 us", "max us");
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            LatencyHistogram h = latency[op];
+            total += h.getCount();
+            System.out.printf("%-8s %10d %9d %9d %8d %8d %8d %8d%n", OPERATIONS[op],
+                    succeeded[op].get(), rejected[op].get(), failed[op].get(),
+                    h.getPercentileNanos(50) / 1000, h.getPercentileNanos(99) / 1000,
+                    h.getPercentileNanos(99.9) / 1000, h.getMaxNanos() / 1000);
+        }
+        System.out.printf("%nThroughput: %.0f ops/s (%d operations in %.1f s, %d desks)%n",
+                total / seconds, total, seconds, desks);
+
+        System.out.println();
+        System.out.println("Persistence during the run:");
+        for (String name : metrics.histogramNames()) {
+            LatencyHistogram h = metrics.findHistogram(name);
+            if (isPersistenceMetric(name) && h.getCount() > 0) {
+                System.out.printf("  %-24s count=%d mean=%dus p99=%dus max=%dus%n", name, h.getCount(),
+                        h.getMeanNanos() / 1000, h.getPercentileNanos(99) / 1000, h.getMaxNanos() / 1000);
+            }
+        }
+        for (String name : metrics.counterNames()) {
+            long delta = metrics.getCount(name) - countersAtStart.getOrDefault(name, 0L);
+            if (isPersistenceMetric(name) && delta != 0) {
+                System.out.printf("  %-24s %d%n", name, delta);
+            }
+        }
+
+        System.out.println();
+        System.out.println(violations.get() == 0
+                ? "Invariants held."
+                : "Invariant violations: " + violations.get());
+    }
+
+    private static boolean isPersistenceMetric(String name) {
+        return name.startsWith("file.") || name.startsWith("storage.") || name.startsWith("persistence.");
+    }
+}
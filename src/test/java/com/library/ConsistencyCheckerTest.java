@@ -0,0 +1,101 @@
+package com.library;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ConsistencyCheckerTest {
+    @TempDir
+    File dataDir;
+
+    private static EnumSet<ConsistencyChecker.Problem> problems(List<ConsistencyChecker.Issue> issues) {
+        EnumSet<ConsistencyChecker.Problem> found = EnumSet.noneOf(ConsistencyChecker.Problem.class);
+        for (ConsistencyChecker.Issue issue : issues) {
+            found.add(issue.problem);
+        }
+        return found;
+    }
+
+    @Test
+    void consistentDataHasNoIssues() {
+        Book book = new Book("B1", "Dune", "Herbert", "Fiction", 2);
+        Member member = new Member("M1", "Ann", "555", "ann@example.com");
+        int copy = book.getCopies().checkOut();
+        member.addBorrowedBook("B1");
+        ArrayList<BorrowRecord> loans = new ArrayList<>(List.of(new BorrowRecord("M1", "B1", 19000, 19014, copy)));
+
+        ConsistencyChecker checker = new ConsistencyChecker(List.of(book), List.of(member), loans, new ArrayList<>());
+        assertTrue(checker.check().isEmpty());
+    }
+
+    @Test
+    void repairBringsCopiesAndMembersInLineWithLoans() throws Exception {
+        Book dune = new Book("B1", "Dune", "Herbert", "Fiction", 3);
+        Book emma = new Book("B2", "Emma", "Austen", "Fiction", 2);
+        Member ann = new Member("M1", "Ann", "555", "ann@example.com");
+        Member bob = new Member("M2", "Bob", "556", "bob@example.com");
+        // Copy 0 of Dune is on loan to both members, and still marked on the shelf
+        BorrowRecord annLoan = new BorrowRecord("M1", "B1", 19000, 19014, 0);
+        BorrowRecord bobLoan = new BorrowRecord("M2", "B1", 19001, 19015, 0);
+        // A loan of a book that no longer exists
+        BorrowRecord orphan = new BorrowRecord("M2", "B9", 19002, 19016, 0);
+        // A copy of Emma is off the shelf with no loan
+        int stranded = emma.getCopies().checkOut();
+        // Bob lists nothing, Ann lists a book she does not have
+        ann.addBorrowedBook("B2");
+        ArrayList<BorrowRecord> loans = new ArrayList<>(List.of(annLoan, bobLoan, orphan));
+
+        ConsistencyChecker checker = new ConsistencyChecker(List.of(dune, emma), List.of(ann, bob), loans, new ArrayList<>());
+        List<ConsistencyChecker.Issue> issues = checker.check();
+        assertEquals(EnumSet.allOf(ConsistencyChecker.Problem.class), problems(issues));
+
+        MemoryStorageEngine storage = new MemoryStorageEngine(dataDir);
+        assertEquals(issues.size(), checker.repair(storage));
+
+        // The orphan is dropped and kept beside the data
+        assertEquals(List.of(annLoan, bobLoan), loans);
+        String dropped = new String(Files.readAllBytes(
+                new File(dataDir, ConsistencyChecker.DROPPED_LOANS_FILE).toPath()), StandardCharsets.UTF_8);
+        assertEquals(FileUtility.formatBorrowRecord(orphan), dropped.trim());
+
+        // The earlier loan keeps its copy, the later one gets another, both off the shelf
+        assertEquals(0, annLoan.getCopyIndex());
+        assertNotEquals(0, bobLoan.getCopyIndex());
+        assertFalse(dune.getCopies().isAvailable(annLoan.getCopyIndex()));
+        assertFalse(dune.getCopies().isAvailable(bobLoan.getCopyIndex()));
+        assertTrue(emma.getCopies().isAvailable(stranded));
+        assertEquals(List.of("B1"), ann.getBorrowedBooks());
+        assertEquals(List.of("B1"), bob.getBorrowedBooks());
+
+        // The changed records were written out, and nothing is left to find
+        assertEquals(2, storage.loadBorrowRecords().size());
+        assertEquals(2, storage.loadBooks().size());
+        assertEquals(2, storage.loadMembers().size());
+        assertTrue(new ConsistencyChecker(List.of(dune, emma), List.of(ann, bob), loans, new ArrayList<>())
+                .check().isEmpty());
+    }
+
+    @Test
+    void readyHoldAccountsForItsCopy() {
+        Book book = new Book("B1", "Dune", "Herbert", "Fiction", 1);
+        Member member = new Member("M1", "Ann", "555", "ann@example.com");
+        Hold hold = new Hold("M1", "B1", 0);
+        hold.setCopyIndex(book.getCopies().checkOut());
+        hold.setExpiresMillis(System.currentTimeMillis() + 60_000);
+
+        ConsistencyChecker checker = new ConsistencyChecker(List.of(book), List.of(member),
+                new ArrayList<>(), new ArrayList<>(List.of(hold)));
+        assertTrue(checker.check().isEmpty());
+    }
+}
@@ -0,0 +1,47 @@
+package com.library;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.LocalDate;
+
+import org.junit.jupiter.api.Test;
+
+class EpochDaysTest {
+    @Test
+    void agreesWithLocalDate() {
+        // Every day from 1900 to 2100, across the century and 400-year leap rules
+        for (LocalDate date = LocalDate.of(1900, 1, 1); date.getYear() <= 2100; date = date.plusDays(1)) {
+            int day = (int) date.toEpochDay();
+            assertEquals(date.toString(), EpochDays.format(day));
+            assertEquals(day, EpochDays.parse(date.toString()));
+            assertEquals(date.getYear() * 10000 + date.getMonthValue() * 100 + date.getDayOfMonth(),
+                    EpochDays.toCivil(day));
+        }
+    }
+
+    @Test
+    void parseRefusesAnythingButIsoDates() {
+        assertThrows(IllegalArgumentException.class, () -> EpochDays.parse("2023-02-29"));
+        assertThrows(IllegalArgumentException.class, () -> EpochDays.parse("2024-13-01"));
+        assertThrows(IllegalArgumentException.class, () -> EpochDays.parse("2024-1-5"));
+        assertThrows(IllegalArgumentException.class, () -> EpochDays.parse("2024/01/05"));
+        assertThrows(IllegalArgumentException.class, () -> EpochDays.parse("20x4-01-05"));
+        assertEquals(EpochDays.fromCivil(2024, 2, 29), EpochDays.parse("2024-02-29"));
+    }
+
+    @Test
+    void lenientParseReadsHandEditedDates() {
+        int expected = (int) LocalDate.of(2024, 1, 5).toEpochDay();
+        assertEquals(expected, EpochDays.parseLenient("2024-01-05"));
+        assertEquals(expected, EpochDays.parseLenient("2024-1-5"));
+        assertEquals(expected, EpochDays.parseLenient("2024-01-05 14:30"));
+        assertThrows(IllegalArgumentException.class, () -> EpochDays.parseLenient("yesterday"));
+    }
+
+    @Test
+    void yearsOutsideFourDigitsAreRefused() {
+        assertThrows(IllegalArgumentException.class,
+                () -> EpochDays.format((int) LocalDate.of(10000, 1, 1).toEpochDay()));
+    }
+}
@@ -0,0 +1,136 @@
+package com.library;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MutationJournalTest {
+    @TempDir
+    File dataDir;
+
+    private File journalDir() {
+        return new File(dataDir, "journal");
+    }
+
+    // What a restart would replay
+    private ArrayList<MutationJournal.Entry> readJournal() throws Exception {
+        MutationJournal journal = new MutationJournal(journalDir());
+        try {
+            return journal.readAll();
+        } finally {
+            journal.close(false);
+        }
+    }
+
+    private static void appendDurably(MutationJournal journal, MutationJournal.Op op, String payload) throws Exception {
+        journal.whenDurable(journal.append(op, payload)).get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void entriesReadBackInOrder() throws Exception {
+        MutationJournal journal = new MutationJournal(journalDir());
+        appendDurably(journal, MutationJournal.Op.PUT_BOOK, "first");
+        appendDurably(journal, MutationJournal.Op.REMOVE_BOOK, "second");
+        journal.close(false);
+
+        ArrayList<MutationJournal.Entry> entries = readJournal();
+        assertEquals(2, entries.size());
+        assertEquals(MutationJournal.Op.PUT_BOOK, entries.get(0).op);
+        assertEquals("first", entries.get(0).payload);
+        assertEquals(MutationJournal.Op.REMOVE_BOOK, entries.get(1).op);
+        assertEquals("second", entries.get(1).payload);
+    }
+
+    @Test
+    void compressedEntriesReadBack() throws Exception {
+        StringBuilder loans = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            loans.append("M").append(i % 7).append(",B").append(i).append(",2024-01-05,2024-01-19,1\n");
+        }
+        System.setProperty("library.compress", "true");
+        try {
+            MutationJournal journal = new MutationJournal(journalDir());
+            appendDurably(journal, MutationJournal.Op.SAVE_LOANS, loans.toString());
+            journal.close(false);
+        } finally {
+            System.clearProperty("library.compress");
+        }
+
+        ArrayList<MutationJournal.Entry> entries = readJournal();
+        assertEquals(1, entries.size());
+        assertEquals(loans.toString(), entries.get(0).payload);
+    }
+
+    @Test
+    void readingStopsAtTornEntry() throws Exception {
+        MutationJournal journal = new MutationJournal(journalDir());
+        appendDurably(journal, MutationJournal.Op.PUT_MEMBER, "kept");
+        journal.close(false);
+        File[] segments = journalDir().listFiles((dir, name) -> name.endsWith(MutationJournal.SEGMENT_SUFFIX));
+        assertNotNull(segments);
+        // Half an entry: a length that promises more bytes than were written
+        try (FileOutputStream out = new FileOutputStream(segments[0], true)) {
+            out.write(new byte[] {0, 0, 0, 40, 2, 'x', 'y'});
+        }
+
+        ArrayList<MutationJournal.Entry> entries = readJournal();
+        assertEquals(1, entries.size());
+        assertEquals("kept", entries.get(0).payload);
+    }
+
+    @Test
+    void leftoverEntriesAreReplayedOnOpen() throws Exception {
+        Book kept = new Book("B1", "Dune", "Herbert", "Fiction", 2);
+        Book removed = new Book("B2", "Emma", "Austen", "Fiction", 1);
+        Member member = new Member("M1", "Ann", "555", "ann@example.com");
+        BorrowRecord loan = new BorrowRecord("M1", "B1", 19000, 19014, 0);
+
+        // A run that journaled its changes and stopped before storing them
+        MutationJournal journal = new MutationJournal(journalDir());
+        appendDurably(journal, MutationJournal.Op.PUT_BOOK, FileUtility.formatBook(kept));
+        appendDurably(journal, MutationJournal.Op.PUT_BOOK, FileUtility.formatBook(removed));
+        appendDurably(journal, MutationJournal.Op.PUT_MEMBER, FileUtility.formatMember(member));
+        appendDurably(journal, MutationJournal.Op.PUT_LOAN, FileUtility.formatBorrowRecord(loan));
+        appendDurably(journal, MutationJournal.Op.REMOVE_BOOK, "B2");
+        journal.close(false);
+
+        MemoryStorageEngine inner = new MemoryStorageEngine(dataDir);
+        StorageEngine engine = JournaledStorageEngine.open(inner);
+        assertTrue(engine instanceof JournaledStorageEngine);
+
+        ArrayList<Book> books = inner.loadBooks();
+        assertEquals(1, books.size());
+        assertEquals("Dune", books.get(0).getTitle());
+        assertEquals(1, inner.loadMembers().size());
+        ArrayList<BorrowRecord> loans = inner.loadBorrowRecords();
+        assertEquals(1, loans.size());
+        assertEquals(VersionedRecords.loanKey(loan), VersionedRecords.loanKey(loans.get(0)));
+
+        // The replayed changes were checkpointed, so they are not replayed again
+        engine.close();
+        assertTrue(readJournal().isEmpty());
+    }
+
+    @Test
+    void changesMadeThroughTheEngineAreJournaled() throws Exception {
+        StorageEngine engine = JournaledStorageEngine.open(new MemoryStorageEngine(dataDir));
+        engine.putBook(new Book("B1", "Dune", "Herbert", "Fiction", 2));
+        engine.removeBook("B9");
+
+        // Read the journal as a restart after a crash would, before the engine is closed
+        ArrayList<MutationJournal.Entry> entries = readJournal();
+        assertEquals(2, entries.size());
+        assertEquals(MutationJournal.Op.PUT_BOOK, entries.get(0).op);
+        assertEquals("B1", FileUtility.parseBook(entries.get(0).payload).getId());
+        assertEquals("B9", entries.get(1).payload);
+        engine.close();
+    }
+}
@@ -0,0 +1,110 @@
+package com.library;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.Predicate;
+
+import org.junit.jupiter.api.Test;
+
+class RankedSearchIndexTest {
+    private static RankedSearchIndex<String> index(int items) {
+        RankedSearchIndex<String> index = new RankedSearchIndex<>(text -> text);
+        for (int i = 0; i < items; i++) {
+            // Some titles say "history" twice, so the scores are not all equal
+            index.add("B" + i, "Book " + i + (i % 3 == 0 ? " history of history" : " history of art"));
+        }
+        return index;
+    }
+
+    private static ArrayList<String> allPages(RankedSearchIndex<String> index, String query, int pageSize,
+                                              Predicate<String> filter) {
+        ArrayList<String> seen = new ArrayList<>();
+        String cursor = null;
+        do {
+            SearchPage<String> page = index.search(query, pageSize, cursor, filter);
+            assertTrue(page.getItems().size() <= pageSize);
+            seen.addAll(page.getItems());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        return seen;
+    }
+
+    @Test
+    void cursorsWalkTheRankingOnce() {
+        RankedSearchIndex<String> index = index(100);
+        ArrayList<String> ranked = new ArrayList<>();
+        index.forEachMatch("history", ranked::add);
+        assertEquals(100, ranked.size());
+
+        for (int pageSize : new int[] {1, 7, 10, 100, 250}) {
+            assertEquals(ranked, allPages(index, "history", pageSize, null), "page size " + pageSize);
+        }
+        // Twice the word, the better match
+        assertTrue(ranked.get(0).endsWith("history of history"));
+    }
+
+    @Test
+    void lastPageHasNoCursor() {
+        RankedSearchIndex<String> index = index(20);
+        SearchPage<String> first = index.search("history", 10, null);
+        assertEquals(20, first.getTotalMatches());
+        assertTrue(first.hasNextPage());
+        SearchPage<String> second = index.search("history", 10, first.getNextCursor());
+        assertEquals(10, second.getItems().size());
+        assertFalse(second.hasNextPage());
+        assertNull(second.getNextCursor());
+    }
+
+    @Test
+    void filteredPagesCountOnlyAcceptedItems() {
+        RankedSearchIndex<String> index = index(100);
+        Predicate<String> art = text -> text.endsWith("art");
+        ArrayList<String> seen = allPages(index, "history", 6, art);
+        assertEquals(66, seen.size());
+        assertEquals(66, new HashSet<>(seen).size());
+        assertTrue(seen.stream().allMatch(art));
+
+        SearchPage<String> first = index.search("history", 6, null, art);
+        assertEquals(66, first.getTotalMatches());
+        assertEquals(66, index.search("history", 6, first.getNextCursor(), art).getTotalMatches());
+    }
+
+    @Test
+    void wholeWordsRankAbovePrefixesAndInnerMatches() {
+        RankedSearchIndex<String> index = new RankedSearchIndex<>(text -> text);
+        index.add("1", "The teapot");
+        index.add("2", "Harry Potter");
+        index.add("3", "Pot roast");
+        index.add("4", "Unrelated");
+        ArrayList<String> ranked = new ArrayList<>();
+        index.forEachMatch("pot", ranked::add);
+        assertEquals(List.of("Pot roast", "Harry Potter", "The teapot"), ranked);
+        // Letters running across the space between two words match neither
+        assertEquals(0, index.search("rypot", 10, null).getTotalMatches());
+    }
+
+    @Test
+    void removedAndReplacedItemsLeaveTheResults() {
+        RankedSearchIndex<String> index = index(10);
+        index.remove("B0");
+        index.add("B1", "Book 1 of poems");
+        ArrayList<String> ranked = new ArrayList<>();
+        index.forEachMatch("history", ranked::add);
+        assertEquals(8, ranked.size());
+        assertFalse(ranked.contains("Book 0 history of history"));
+        assertEquals(List.of("Book 1 of poems"), index.search("poems", 10, null).getItems());
+    }
+
+    @Test
+    void malformedCursorIsRefused() {
+        RankedSearchIndex<String> index = index(10);
+        assertThrows(IllegalArgumentException.class, () -> index.search("history", 5, "not-a-cursor"));
+    }
+}